@@ -1,45 +1,71 @@
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
-// JRecord classes for LayoutDetail and FieldDetail
+// JRecord classes for LayoutDetail
 import net.sf.JRecord.Details.LayoutDetail;
-import net.sf.JRecord.Common.FieldDetail;
 
 public class AppController {
     // private CopybookLoader copybookLoader; // Removed
     private PagedFileReader pagedFileReader;
+    private PageCache pageCache;           // Decoded pages, filled ahead of the user by a prefetcher
+    private int currentPageNumber = -1;     // 0-based page shown when no search is active
+    private int pagingDirection = 1;        // +1 after next page, -1 after previous page; steers prefetch
     private SearchManager searchManager;
     private TUIView tuiView;
 
-    private List<Map<String, String>> currentPageData; // Original data for the current page (raw from file)
-    private List<Map<String, String>> displayedData;   // Data currently shown (could be original or search results)
+    private RecordPage currentPageData; // Original data for the current page (raw from file)
+    private RecordPage displayedData;   // Data currently shown (could be original or search results)
     private boolean isSearchActive = false;
+    private RecordSubset searchHits;     // Records matching the active whole-file search or key lookup
+    private int searchPageNumber;        // 0-based page within searchHits
+    private String searchDescription = "";
+    private SortIndex sortIndex; // The sorted view last shown, kept open while it is paged through
+    private Map<String, KeyIndex> keyIndexes = Collections.synchronizedMap(new LinkedHashMap<>()); // Opt-in via --key-index; opened in the background
+    private volatile String backgroundStatusMessage; // Set by background work, shown on the next refresh
+    private volatile SearchManager.Progress runningSearch; // The whole-file search under way, for clearSearch to cancel
+    private volatile Runnable backgroundResult;       // Finished background work, shown by the next refresh on the UI thread
+    private volatile Supplier<String> backgroundProgress; // The sort or profile running in the background; null if none
+    private String shownProgressStatus = "";           // Indexing and background progress last drawn, to redraw only on change
     private String currentStatusMessage = "";
     private String dataFilePath;
     private String copybookFilePath;
     private String encoding;
     private int pageSize;
+    private ViewerOptions options;
+    private final Set<String> expandedArrays = new HashSet<>(); // OCCURS arrays shown one column per occurrence; the others collapsed
 
 
     public AppController(String dataFilePath, String copybookFilePath, String encoding, int pageSize) {
+        this(dataFilePath, copybookFilePath, encoding, pageSize, new ViewerOptions());
+    }
+
+    public AppController(String dataFilePath, String copybookFilePath, String encoding, int pageSize, ViewerOptions options) {
         this.dataFilePath = dataFilePath;
         this.copybookFilePath = copybookFilePath;
         this.encoding = encoding;
         this.pageSize = pageSize;
+        this.options = options;
 
         // TUIView must be initialized first to display any early errors.
         this.tuiView = new TUIView(this);
 
         try {
             // Initialize PagedFileReader first
-            this.pagedFileReader = new PagedFileReader(dataFilePath, copybookFilePath, pageSize, encoding);
+            this.pagedFileReader = new PagedFileReader(dataFilePath, copybookFilePath, pageSize, encoding, options);
             this.searchManager = new SearchManager();
+            this.pageCache = new PageCache(pagedFileReader, options.getPageCacheMegabytes() * 1024L * 1024L, options.getPrefetchPages());
 
             // Get layout and field names from PagedFileReader
             LayoutDetail layout = pagedFileReader.getRecordLayout();
-            if (layout == null || layout.getRecordCount() == 0 || layout.getRecord(0).getFieldCount() == 0) {
+            if (layout == null || layout.getRecordCount() == 0 || pagedFileReader.getDecodePlan().getFieldCount() == 0) {
                 // Handle error: No fields defined by JRecord from the copybook
                 String errorMessage = "Fatal Error: JRecord could not find field definitions in copybook: " + copybookFilePath + ". Application will exit.";
                 System.err.println(errorMessage);
@@ -52,13 +78,14 @@ public class AppController {
                 System.exit(1);
                 return; // Important to prevent further execution
             }
-            // Extract field names for TUIView
-            List<String> fieldNames = new ArrayList<>();
-            for (FieldDetail fieldDetail : layout.getRecord(0).getFields()) {
-                fieldNames.add(fieldDetail.getName());
-            }
             // Pass the List<String> of field names to TUIView's init method.
-            this.tuiView.init(fieldNames);
+            this.tuiView.init(fieldNamesOf(pagedFileReader.getDecodePlan()));
+            List<String> unknownFrozen = this.tuiView.freezeColumns(options.getFrozenFields());
+            if (!unknownFrozen.isEmpty()) {
+                System.err.println("Warning: --freeze fields not in the copybook are ignored: " + String.join(", ", unknownFrozen));
+            }
+
+            openKeyIndexes();
 
         } catch (IOException e) {
             System.err.println("Error initializing application components: " + e.getMessage());
@@ -83,18 +110,182 @@ public class AppController {
         }
     }
 
+    /**
+     * Column names of the table: the fields of the record type being shown, with each OCCURS
+     * array that has not been expanded standing as one {@code ARRAY (*)} column in place of its
+     * first occurrence.
+     */
+    private List<String> fieldNamesOf(DecodePlan plan) {
+        List<String> fieldNames = new ArrayList<>();
+        for (int i = 0; i < plan.getFieldCount(); i++) {
+            String array = plan.getArrayName(i);
+            if (array == null || expandedArrays.contains(array)) {
+                fieldNames.add(plan.getFieldName(i));
+            } else if (plan.getArrayFields(array)[0] == i) {
+                fieldNames.add(array + RecordTable.COLLAPSED_ARRAY);
+            }
+        }
+        return fieldNames;
+    }
+
+    /** Whether {@code name} is a field of the copybook, whether or not it is a column of the table. */
+    public boolean isField(String name) {
+        return pagedFileReader.findField(name) != null;
+    }
+
+    /**
+     * Expands the OCCURS array {@code name} to a column per occurrence, or collapses it back to
+     * its count; "*" expands every array, or collapses them all if they are all expanded.
+     * Occurrences are decoded only while their array is expanded.
+     */
+    public void toggleArray(String name) {
+        DecodePlan plan = pagedFileReader.getDecodePlan();
+        List<String> arrays = plan.getArrayNames();
+        if (name.endsWith(RecordTable.COLLAPSED_ARRAY)) {
+            name = name.substring(0, name.length() - RecordTable.COLLAPSED_ARRAY.length());
+        }
+        if (arrays.isEmpty()) {
+            currentStatusMessage = "The record has no OCCURS tables.";
+            updateTUIView();
+            return;
+        }
+        if (name.equals("*")) {
+            if (expandedArrays.containsAll(arrays)) {
+                expandedArrays.removeAll(arrays);
+                currentStatusMessage = "Collapsed " + arrays.size() + " arrays to their counts.";
+            } else {
+                expandedArrays.addAll(arrays);
+                currentStatusMessage = "Expanded " + arrays.size() + " arrays.";
+            }
+        } else if (!arrays.contains(name)) {
+            currentStatusMessage = "'" + name + "' is not an OCCURS array. Arrays: " + String.join(", ", arrays) + ".";
+            updateTUIView();
+            return;
+        } else if (expandedArrays.remove(name)) {
+            currentStatusMessage = name + " collapsed to its count.";
+        } else {
+            expandedArrays.add(name);
+            currentStatusMessage = name + " expanded to " + plan.getArrayFields(name).length + " columns.";
+        }
+        tuiView.init(fieldNamesOf(plan));
+        tuiView.freezeColumns(options.getFrozenFields());
+        updateTUIView();
+    }
+
+    /**
+     * Opens (building where needed) the key indexes requested with --key-index on a background
+     * thread, since they need the whole file indexed first. A field that cannot be indexed is
+     * reported but does not stop the viewer.
+     */
+    private void openKeyIndexes() {
+        if (options.getKeyIndexFields().isEmpty()) {
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            List<String> failures = new ArrayList<>();
+            for (String fieldName : options.getKeyIndexFields()) {
+                try {
+                    keyIndexes.put(fieldName, KeyIndex.openOrBuild(pagedFileReader, fieldName));
+                } catch (IOException e) {
+                    System.err.println("Error opening key index for " + fieldName + ": " + e.getMessage());
+                    failures.add(fieldName + " (" + e.getMessage() + ")");
+                }
+            }
+            backgroundStatusMessage = failures.isEmpty() ? "Key indexes ready: " + String.join(", ", keyIndexes.keySet()) + "."
+                : "Key index unavailable: " + String.join(", ", failures);
+        }, "key-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Called by the view a few times a second: shows finished background work, and redraws the
+     * status bar when indexing or background work has made progress or has something to report.
+     */
+    public void refreshBackgroundStatus() {
+        Runnable result = backgroundResult;
+        String message = backgroundStatusMessage;
+        if (result != null) {
+            backgroundResult = null;
+            result.run();
+        } else if (message != null) {
+            backgroundStatusMessage = null;
+            currentStatusMessage = message;
+            updateTUIView();
+        } else if (!getProgressStatus().equals(shownProgressStatus)) {
+            updateTUIView();
+        }
+    }
+
+    /** Indexing and background work under way, for the front of the status bar; empty if none. */
+    private String getProgressStatus() {
+        String indexing = getIndexingStatus();
+        Supplier<String> work = backgroundProgress;
+        if (work == null) {
+            return indexing;
+        }
+        return indexing.isEmpty() ? work.get() : indexing + " | " + work.get();
+    }
+
+    /**
+     * Runs {@code work} on a daemon thread, one at a time, with {@code progress} in the status bar
+     * until it is done. Returns false, with a message, if other background work is still running.
+     */
+    private boolean startBackgroundWork(String name, Supplier<String> progress, Runnable work) {
+        Supplier<String> running = backgroundProgress;
+        if (running != null) {
+            currentStatusMessage = "Still busy (" + running.get() + "); try again when it is done.";
+            updateTUIView();
+            return false;
+        }
+        backgroundProgress = progress;
+        Thread worker = new Thread(() -> {
+            try {
+                work.run();
+            } finally {
+                backgroundProgress = null;
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    /** "indexing... 43%" (with an ellipsis character) while records are still being counted, otherwise empty. */
+    private String getIndexingStatus() {
+        if (pagedFileReader == null || pagedFileReader.isIndexingComplete()) {
+            String error = pagedFileReader == null ? null : pagedFileReader.getIndexingError();
+            return error == null ? "" : "indexing stopped: " + error;
+        }
+        return String.format("indexing\u2026 %d%%", (int) (pagedFileReader.getIndexingProgress() * 100));
+    }
+
+    /** Total pages for messages; "at least N" while the file is still being indexed. */
+    private String describePageCount() {
+        return (pagedFileReader.isIndexingComplete() ? "" : "at least ") + pagedFileReader.getTotalPages();
+    }
+
+    public List<String> getKeyIndexedFields() {
+        return new ArrayList<>(keyIndexes.keySet());
+    }
+
     public void start() {
+        try {
+            pagedFileReader.awaitRecords(pageSize); // Normally already there: the first slice is indexed up front
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         if (pagedFileReader.getTotalRecords() == 0) {
             if (pagedFileReader.getRecordLength() > 0) {
                  currentStatusMessage = "Data file appears empty or is too small for defined records.";
             } else {
                  currentStatusMessage = "No records to display. Check copybook and data file.";
             }
-             this.currentPageData = new ArrayList<>();
-             this.displayedData = new ArrayList<>();
+             this.currentPageData = RecordPage.EMPTY;
+             this.displayedData = RecordPage.EMPTY;
         } else {
              // Load first page (0-indexed), TUIView will display 1-based.
-             loadPageAndDisplay(0, "Page 1 of " + pagedFileReader.getTotalPages() + ".");
+             loadPageAndDisplay(0, currentStatusMessage.isEmpty() ? "Page 1 of " + describePageCount() + "." : currentStatusMessage);
         }
         // Initial display, potentially with empty data message
         // This call is essential to show the UI before handleInput blocks
@@ -104,40 +295,57 @@ public class AppController {
             tuiView.handleInput(); // Start listening for user input
             tuiView.close();       // Ensure TUI is closed when handleInput exits
         }
+        pageCache.close();
     }
 
     private void loadPageAndDisplay(int pageNumber, String message) {
         try {
             if (pagedFileReader.getTotalPages() == 0 && pageNumber == 0) {
-                 this.currentPageData = new ArrayList<>();
+                 this.currentPageData = RecordPage.EMPTY;
                  this.currentStatusMessage = message != null ? message : "No data in file.";
             } else if (pageNumber < 0 || pageNumber >= pagedFileReader.getTotalPages()) {
                 this.currentStatusMessage = "Invalid page number requested: " + (pageNumber + 1);
                 updateTUIView(); // Update status bar with error
                 return;
             } else {
-                this.currentPageData = pagedFileReader.getPage(pageNumber);
-                this.currentStatusMessage = message != null ? message : "Page " + (pagedFileReader.getCurrentPageNumber() + 1) + " of " + pagedFileReader.getTotalPages() + ".";
+                this.currentPageData = pageCache.get(pageNumber);
+                this.currentPageNumber = pageNumber;
+                this.currentStatusMessage = message != null ? message : "Page " + (currentPageNumber + 1) + " of " + describePageCount() + ".";
             }
             this.displayedData = this.currentPageData;
             this.isSearchActive = false;
             updateTUIView();
+            pageCache.setPrefetchFields(tuiView.getVisibleFields()); // Decode ahead only what is on screen
+            pageCache.prefetch(pageNumber, pagingDirection); // Queued after drawing, so it does not delay this page
         } catch (IOException e) {
             e.printStackTrace();
             this.currentStatusMessage = "Error loading page " + (pageNumber + 1) + ": " + e.getMessage();
-            this.displayedData = new ArrayList<>();
+            this.displayedData = RecordPage.EMPTY;
             updateTUIView();
         }
     }
 
     public void requestNextPage() {
         if (isSearchActive) {
-            currentStatusMessage = "On search results. Clear search ('c') to navigate pages.";
-            updateTUIView();
+            if (searchPageNumber < getSearchPageCount() - 1) {
+                showSearchPage(searchPageNumber + 1);
+            } else {
+                currentStatusMessage = "Already on the last page of search results (" + getSearchPageCount() + ").";
+                updateTUIView();
+            }
             return;
         }
-        if (pagedFileReader.getCurrentPageNumber() < pagedFileReader.getTotalPages() - 1) {
-            loadPageAndDisplay(pagedFileReader.getCurrentPageNumber() + 1, null);
+        if (currentPageNumber >= pagedFileReader.getTotalPages() - 1 && !pagedFileReader.isIndexingComplete()) {
+            try {
+                // Past the indexed region: wait for the indexer to reach the next page
+                pagedFileReader.awaitRecords((long) (currentPageNumber + 2) * pageSize);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (currentPageNumber < pagedFileReader.getTotalPages() - 1) {
+            pagingDirection = 1;
+            loadPageAndDisplay(currentPageNumber + 1, null);
         } else {
             currentStatusMessage = "Already on the last page ("+ pagedFileReader.getTotalPages() +").";
             updateTUIView();
@@ -146,41 +354,376 @@ public class AppController {
 
     public void requestPreviousPage() {
         if (isSearchActive) {
-            currentStatusMessage = "On search results. Clear search ('c') to navigate pages.";
-            updateTUIView();
+            if (searchPageNumber > 0) {
+                showSearchPage(searchPageNumber - 1);
+            } else {
+                currentStatusMessage = "Already on the first page of search results (1).";
+                updateTUIView();
+            }
             return;
         }
-        if (pagedFileReader.getCurrentPageNumber() > 0) {
-            loadPageAndDisplay(pagedFileReader.getCurrentPageNumber() - 1, null);
+        if (currentPageNumber > 0) {
+            pagingDirection = -1;
+            loadPageAndDisplay(currentPageNumber - 1, null);
         } else {
             currentStatusMessage = "Already on the first page (1).";
             updateTUIView();
         }
     }
 
+    /**
+     * Searches the whole file (not just the current page) and shows the first page of hits.
+     * While the search is active, next/previous page move through the hits.
+     */
     public void performSearch(String fieldName, String searchTerm) {
-        List<Map<String, String>> dataToSearch = pagedFileReader.getCurrentPageRawData();
-        if (dataToSearch == null || dataToSearch.isEmpty()) {
-            currentStatusMessage = "No data on the current page (" + (pagedFileReader.getCurrentPageNumber() + 1) + ") to search.";
-            this.displayedData = new ArrayList<>();
+        if (pagedFileReader.getTotalRecords() == 0) {
+            currentStatusMessage = "No data in the file to search.";
+            this.displayedData = RecordPage.EMPTY;
             updateTUIView();
             return;
         }
 
-        this.displayedData = searchManager.search(dataToSearch, fieldName, searchTerm);
+        SearchManager.Progress progress = new SearchManager.Progress();
+        SearchManager.Progress previous = runningSearch;
+        runningSearch = progress; // Before the worker starts, so that its result always finds it
+        boolean started = startBackgroundWork("file-search",
+            () -> String.format("searching %d%%", (int) (progress.getFraction() * 100)), () -> {
+            long startTime = System.nanoTime();
+            boolean partial = !pagedFileReader.isIndexingComplete();
+            long searchedRecords = pagedFileReader.getTotalRecords();
+            try {
+                OrdinalList hits = searchManager.searchFile(pagedFileReader, fieldName, searchTerm, progress);
+                long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+                backgroundResult = () -> {
+                    if (runningSearch == progress) {
+                        runningSearch = null;
+                    }
+                    if (progress.isCancelled()) {
+                        return; // clearSearch has already said so
+                    }
+                    showSubset(hits, String.format("Search for '%s' in '%s': %d%s matching records of %d%s (%d ms).",
+                        searchTerm, fieldName, hits.size(), hits.size() >= SearchManager.MAX_HITS ? "+" : "",
+                        searchedRecords, partial ? " indexed so far" : "", elapsedMillis));
+                };
+            } catch (RuntimeException e) {
+                System.err.println("Error searching " + fieldName + ": " + e);
+                backgroundStatusMessage = "Search failed: " + e;
+                if (runningSearch == progress) {
+                    runningSearch = null;
+                }
+            }
+        });
+        if (!started) {
+            runningSearch = previous;
+        } else {
+            currentStatusMessage = "Searching '" + fieldName.trim() + "' for '" + searchTerm
+                + "' in the background; c cancels.";
+            updateTUIView();
+        }
+    }
+
+    /**
+     * Profiles every field over the whole file (the records indexed so far while the indexer is
+     * still running) and shows the report; see {@link ColumnProfiler}. The pass reads the whole
+     * file, so it runs in the background with its progress in the status bar.
+     */
+    public void showProfile() {
+        if (pagedFileReader.getTotalRecords() == 0) {
+            currentStatusMessage = "No data in the file to profile.";
+            updateTUIView();
+            return;
+        }
+        ColumnProfiler profiler = new ColumnProfiler(pagedFileReader, 0);
+        boolean started = startBackgroundWork("column-profiler",
+            () -> String.format("profiling %d%%", (int) (profiler.getProgress() * 100)), () -> {
+                try {
+                    ColumnProfiler.Report report = profiler.profile();
+                    backgroundResult = () -> {
+                        currentStatusMessage = report.summary() + ".";
+                        tuiView.displayReport("Profile", report.toString());
+                        updateTUIView();
+                    };
+                } catch (RuntimeException e) {
+                    System.err.println("Error profiling the file: " + e);
+                    backgroundStatusMessage = "Profile failed: " + e;
+                }
+            });
+        if (started) {
+            currentStatusMessage = "Profiling in the background; the report opens when it is ready.";
+            updateTUIView();
+        }
+    }
+
+    /**
+     * Looks up records by a key-indexed field. A value ending in '*' is a prefix lookup; anything
+     * else must match the whole field (padded like the field). Hits are browsed like search results.
+     */
+    public void performKeyLookup(String fieldName, String value) {
+        KeyIndex keyIndex = keyIndexes.get(fieldName);
+        if (keyIndex == null) {
+            currentStatusMessage = options.getKeyIndexFields().contains(fieldName)
+                ? "Key index for field '" + fieldName + "' is not ready yet."
+                : "No key index for field '" + fieldName + "'. Start with --key-index=" + fieldName + ".";
+            updateTUIView();
+            return;
+        }
+        long startTime = System.nanoTime();
+        boolean prefix = value.endsWith("*");
+        RecordSubset hits = prefix ? keyIndex.lookupPrefix(value.substring(0, value.length() - 1)) : keyIndex.lookupExact(value);
+        long elapsedMicros = (System.nanoTime() - startTime) / 1_000;
+        showSubset(hits, String.format("Key %s '%s' in '%s': %d matching records (%d us).",
+            prefix ? "prefix" : "lookup", value, fieldName, hits.size(), elapsedMicros));
+    }
+
+    /**
+     * Shows the records in the order of one or more fields, {@code FIELD[:desc],...}, through a
+     * permutation index saved next to the data file (see {@link SortIndex}); next/previous page
+     * through it and 'c' goes back to file order. Building the index waits for the record index
+     * and reads the whole file, so it runs in the background with its progress in the status bar,
+     * and the sorted view replaces whatever is shown when it is ready.
+     */
+    public void performSort(String spec) {
+        if (pagedFileReader.getTotalRecords() == 0) {
+            currentStatusMessage = "No data in the file to sort.";
+            updateTUIView();
+            return;
+        }
+        SortIndex.Progress progress = new SortIndex.Progress();
+        boolean started = startBackgroundWork("sort-index-builder", () -> "sort by " + spec + ": " + progress, () -> {
+            long startTime = System.nanoTime();
+            try {
+                SortIndex sorted = SortIndex.openOrBuild(pagedFileReader, spec, progress);
+                long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+                backgroundResult = () -> {
+                    if (sorted.getRecordType() != pagedFileReader.getRecordType()) {
+                        // The columns shown are another type's now; its records are not in the view
+                        try {
+                            sorted.close();
+                        } catch (IOException e) {
+                            System.err.println("Warning: could not close the sort index: " + e.getMessage());
+                        }
+                        currentStatusMessage = "Sort by " + spec + " dropped: the record type shown changed while sorting.";
+                        updateTUIView();
+                        return;
+                    }
+                    closeSortIndex();
+                    sortIndex = sorted;
+                    showSubset(sorted, String.format("Sorted by %s: %d records (%d ms).",
+                        sorted.getDescription(), sorted.size(), elapsedMillis));
+                };
+            } catch (IllegalArgumentException | IOException e) {
+                backgroundStatusMessage = "Sort failed: " + e.getMessage();
+            } catch (RuntimeException e) {
+                System.err.println("Error sorting by " + spec + ": " + e);
+                backgroundStatusMessage = "Sort failed: " + e;
+            }
+        });
+        if (started) {
+            currentStatusMessage = "Sorting by " + spec + " in the background; the sorted view opens when it is ready.";
+            updateTUIView();
+        }
+    }
+
+    private void closeSortIndex() {
+        if (sortIndex == null) {
+            return;
+        }
+        try {
+            sortIndex.close();
+        } catch (IOException e) {
+            System.err.println("Warning: could not close the sort index: " + e.getMessage());
+        }
+        sortIndex = null;
+    }
+
+    /**
+     * Goes straight to a record number ("80000000", 1-based), a page ("p1200") or a position in
+     * the file ("42%") without reading the pages in between. Ends any active search.
+     */
+    public void performGoto(String target) {
+        long total = pagedFileReader.getTotalRecords();
+        String text = target.trim().toLowerCase();
+        long ordinal;
+        try {
+            if (text.endsWith("%")) {
+                double percent = Double.parseDouble(text.substring(0, text.length() - 1).trim());
+                ordinal = pagedFileReader.ordinalAtFraction(percent / 100);
+                if (ordinal < 0) {
+                    currentStatusMessage = "Not indexed that far yet (" + getIndexingStatus() + ").";
+                    updateTUIView();
+                    return;
+                }
+            } else if (text.startsWith("p")) {
+                long page = Long.parseLong(text.substring(text.startsWith("page") ? 4 : 1).trim());
+                ordinal = (page - 1) * pageSize;
+            } else {
+                ordinal = Long.parseLong(text.replace(",", "").replace("_", "")) - 1;
+            }
+        } catch (NumberFormatException e) {
+            currentStatusMessage = "Cannot go to '" + target + "': expected a record number, p<page> or <percent>%.";
+            updateTUIView();
+            return;
+        }
+        if (ordinal < 0 || ordinal >= total) {
+            currentStatusMessage = "Cannot go to '" + target + "': the file has " + total + " records"
+                + (pagedFileReader.isIndexingComplete() ? "." : " indexed so far.");
+            updateTUIView();
+            return;
+        }
+        showRecord(ordinal, "Record " + (ordinal + 1) + " of " + total + ".");
+    }
+
+    /**
+     * Binary-searches a field the file is sorted on for the first record at or after
+     * {@code value} and shows it at the top of its page.
+     */
+    public void performSortedSeek(String fieldName, String value) {
+        if (pagedFileReader.getTotalRecords() == 0) {
+            currentStatusMessage = "No data in the file.";
+            updateTUIView();
+            return;
+        }
+        if (pagedFileReader.getRecordTypes() == null) {
+            sortedSeek(fieldName, value).run();
+            return;
+        }
+        // The seek runs over the ordinals of the field's record type, which the first time means
+        // classifying every record
+        startBackgroundWork("sorted-seek", () -> "seeking in " + fieldName.trim(),
+            () -> backgroundResult = sortedSeek(fieldName, value));
+    }
+
+    /** Runs a sorted seek and returns how to show its outcome, on the UI thread. */
+    private Runnable sortedSeek(String fieldName, String value) {
+        long startTime = System.nanoTime();
+        SearchManager.SortedSeek seek;
+        try {
+            seek = searchManager.seekSorted(pagedFileReader, fieldName, value);
+        } catch (IllegalArgumentException e) {
+            return () -> {
+                currentStatusMessage = e.getMessage();
+                updateTUIView();
+            };
+        }
+        long elapsedMicros = (System.nanoTime() - startTime) / 1_000;
+        long total = pagedFileReader.getTotalRecords();
+        String found = seek.ordinal >= total
+            ? "every record is before it; showing the last"
+            : (seek.exact ? "found at" : "not found, next is") + " record " + (seek.ordinal + 1);
+        String message = String.format("Sorted seek '%s' in '%s': %s (%d reads, %d us).%s",
+            value, fieldName, found, seek.reads, elapsedMicros,
+            seek.ascending ? "" : " The field does not look sorted ascending; the result may be wrong.");
+        return () -> showRecord(Math.min(seek.ordinal, total - 1), message);
+    }
+
+    /** Shows the page holding record {@code ordinal}, scrolled so that the record is on top. */
+    private void showRecord(long ordinal, String message) {
+        int page = (int) (ordinal / pageSize);
+        pagingDirection = page >= currentPageNumber ? 1 : -1;
+        searchHits = null;
+        loadPageAndDisplay(page, message);
+        if (currentPageNumber == page) {
+            tuiView.scrollToRow((int) (ordinal % pageSize));
+        }
+    }
+
+    /** Shows the first page of {@code subset}; next/previous then page through it until cleared. */
+    private void showSubset(RecordSubset subset, String description) {
+        this.searchHits = subset;
         this.isSearchActive = true;
-        this.currentStatusMessage = String.format("Search for '%s' in '%s' on page %d: %d results.",
-            searchTerm, fieldName, pagedFileReader.getCurrentPageNumber() + 1, displayedData.size());
+        this.searchDescription = description;
+        showSearchPage(0);
+    }
+
+    private int getSearchPageCount() {
+        return (int) ((searchHits.size() + pageSize - 1) / pageSize);
+    }
+
+    private void showSearchPage(int page) {
+        this.searchPageNumber = page;
+        long from = (long) page * pageSize;
+        this.displayedData = pagedFileReader.getRecords(searchHits, from, from + pageSize);
+        this.currentStatusMessage = searchHits.size() == 0 ? searchDescription
+            : searchDescription + " Results page " + (page + 1) + " of " + getSearchPageCount() + ".";
         updateTUIView();
     }
 
+    /**
+     * Shows the columns of the next record type given with --record-types. Records of the other
+     * types stay in place, each drawn on one line in its own layout. Ends any active search.
+     */
+    public void cycleRecordType() {
+        RecordTypeTable types = pagedFileReader.getRecordTypes();
+        if (types == null) {
+            currentStatusMessage = "The copybook is shown as one record layout. Start with --record-types=NAME:FIELD=VALUE,... for several.";
+            updateTUIView();
+            return;
+        }
+        int type = (pagedFileReader.getRecordType() + 1) % types.getTypeCount();
+        pagedFileReader.setRecordType(type);
+        pageCache.clear(); // Cached pages have the previous type's columns
+        tuiView.init(fieldNamesOf(types.getPlan(type)));
+        tuiView.freezeColumns(options.getFrozenFields()); // Fields the type does not have are skipped
+        searchHits = null;
+        loadPageAndDisplay(Math.max(0, currentPageNumber), String.format("Columns of %s (%s), record type %d of %d. Press o to page through its records only.",
+            types.getName(type), types.getCondition(type), type + 1, types.getTypeCount()));
+    }
+
+    /**
+     * Pages through only the records of the record type whose columns are shown, like search
+     * results; 'c' goes back to the whole file.
+     */
+    public void showCurrentTypeOnly() {
+        RecordTypeTable types = pagedFileReader.getRecordTypes();
+        if (types == null) {
+            currentStatusMessage = "Every record has the same layout. Start with --record-types=NAME:FIELD=VALUE,... for several.";
+            updateTUIView();
+            return;
+        }
+        int type = pagedFileReader.getRecordType();
+        long records = pagedFileReader.getTotalRecords();
+        LongAdder classified = new LongAdder();
+        boolean started = startBackgroundWork("type-index", () -> String.format("finding %s records %d%%",
+            types.getName(type), (int) (100.0 * classified.sum() / Math.max(1, records))), () -> {
+            long startTime = System.nanoTime();
+            boolean partial = !pagedFileReader.isIndexingComplete();
+            try {
+                OrdinalList ordinals = pagedFileReader.getTypeIndex(type, classified);
+                long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+                backgroundResult = () -> {
+                    if (type != pagedFileReader.getRecordType()) {
+                        currentStatusMessage = "Only " + types.getName(type) + " records dropped: the record type shown changed meanwhile.";
+                        updateTUIView();
+                        return;
+                    }
+                    showSubset(ordinals, String.format("Only %s records: %d of %d%s (%d ms).",
+                        types.getName(type), ordinals.size(), records, partial ? " indexed so far" : "", elapsedMillis));
+                };
+            } catch (RuntimeException e) {
+                System.err.println("Error finding " + types.getName(type) + " records: " + e);
+                backgroundStatusMessage = "Finding " + types.getName(type) + " records failed: " + e;
+            }
+        });
+        if (started) {
+            currentStatusMessage = "Finding the " + types.getName(type) + " records in the background.";
+            updateTUIView();
+        }
+    }
+
     public void clearSearch() {
-        if (!isSearchActive && (displayedData == currentPageData)) {
-            currentStatusMessage = "No active search to clear. Displaying page " + (pagedFileReader.getCurrentPageNumber() + 1) + ".";
+        SearchManager.Progress search = runningSearch;
+        if (search != null) {
+            search.cancel();
+            runningSearch = null;
+            currentStatusMessage = "Search cancelled.";
+        } else if (!isSearchActive && (displayedData == currentPageData)) {
+            currentStatusMessage = "No active search to clear. Displaying page " + (currentPageNumber + 1) + ".";
         } else {
             this.displayedData = this.currentPageData;
             this.isSearchActive = false;
-            this.currentStatusMessage = "Search cleared. Displaying page " + (pagedFileReader.getCurrentPageNumber() + 1) + ".";
+            this.searchHits = null;
+            closeSortIndex();
+            this.currentStatusMessage = "Search cleared. Displaying page " + (currentPageNumber + 1) + ".";
         }
         updateTUIView();
     }
@@ -188,18 +731,27 @@ public class AppController {
     private void updateTUIView() {
         if (tuiView == null) return;
 
-        List<Map<String, String>> dataForDisplay = (displayedData != null) ? displayedData : new ArrayList<>();
+        RecordPage dataForDisplay = (displayedData != null) ? displayedData : RecordPage.EMPTY;
 
         // currentPage in TUIView is 0-indexed for data, 1-indexed for display
-        int currentPageForDisplay = pagedFileReader.getTotalPages() == 0 ? 0 : pagedFileReader.getCurrentPageNumber();
+        int currentPageForDisplay = pagedFileReader.getTotalPages() == 0 ? 0 : currentPageNumber;
+        int totalPagesForDisplay = pagedFileReader.getTotalPages();
+        long totalRecordsForDisplay = pagedFileReader.getTotalRecords();
+        if (isSearchActive && searchHits != null) {
+            // Page numbers and record count refer to the search hits while a search is active
+            currentPageForDisplay = searchPageNumber;
+            totalPagesForDisplay = getSearchPageCount();
+            totalRecordsForDisplay = searchHits.size();
+        }
 
+        shownProgressStatus = getProgressStatus();
         tuiView.displayData(
             dataForDisplay,
             currentPageForDisplay,
-            pagedFileReader.getTotalPages(),
-            pagedFileReader.getTotalRecords(),
+            totalPagesForDisplay,
+            totalRecordsForDisplay,
             this.encoding,
-            currentStatusMessage
+            shownProgressStatus.isEmpty() ? currentStatusMessage : shownProgressStatus + " | " + currentStatusMessage
         );
     }
 
@@ -0,0 +1,343 @@
+import com.googlecode.lanterna.TerminalSize;
+import com.googlecode.lanterna.TextColor;
+import com.googlecode.lanterna.gui2.BasicWindow;
+import com.googlecode.lanterna.gui2.DefaultWindowManager;
+import com.googlecode.lanterna.gui2.EmptySpace;
+import com.googlecode.lanterna.gui2.MultiWindowTextGUI;
+import com.googlecode.lanterna.gui2.Panel;
+import com.googlecode.lanterna.gui2.Window;
+import com.googlecode.lanterna.screen.TerminalScreen;
+import com.googlecode.lanterna.terminal.virtual.DefaultVirtualTerminal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the hot paths, to tell whether a JRecord upgrade or a code change made the
+ * viewer slower: decoding a page per codepage and field type ({@link PagedFileReader#readPage}
+ * and {@link RecordPage#getValue}), searching a page and the whole file ({@link SearchManager}),
+ * and drawing a page with {@link RecordTable} on an off-screen Lanterna virtual terminal.
+ *
+ * Each benchmark runs in the manner of JMH's average-time mode: warm-up iterations, then
+ * measured iterations of a fixed duration, each giving the mean time per operation. Results are
+ * written as a JSON array in JMH's result format (one benchmark per line), so the files of two
+ * runs can be compared with the usual JMH tools or with {@code --baseline}, which prints each
+ * score next to the one in an earlier file. Unlike JMH the benchmarks run in this JVM, not in
+ * forks, so compare runs made the same way ({@code gradle benchmark} sets the heap).
+ *
+ * The data are generated in a temporary directory on each run: {@value #RECORDS} random, valid
+ * records per field type ({@link DecodePlan#writeRandomRecords}), encoded in CP037. Digits and the letters used are the
+ * same bytes in the other EBCDIC codepages benchmarked, so the same files are decoded with each.
+ *
+ * Usage: Benchmarks [--out=FILE] [--baseline=FILE] [--warmup=N] [--iterations=N] [--time-ms=N] [name_filter]
+ */
+public class Benchmarks {
+
+    static final int RECORDS = 20_000;
+    static final int PAGE_SIZE = 50; // The viewer's default
+    private static final String[] ENCODINGS = {"CP037", "CP500", "IBM1047"};
+    private static final TerminalSize TERMINAL_SIZE = new TerminalSize(160, 50);
+
+    /** Copybook of each benchmarked field type: ten fields of that type, or a mix of them. */
+    private static final Map<String, String> FIELD_TYPES = new LinkedHashMap<>();
+    static {
+        FIELD_TYPES.put("char", "PIC X(12).");
+        FIELD_TYPES.put("zoned", "PIC S9(7)V99.");
+        FIELD_TYPES.put("packed", "PIC S9(7)V99 COMP-3.");
+        FIELD_TYPES.put("binary", "PIC S9(9) COMP.");
+        FIELD_TYPES.put("mixed", null);
+    }
+    private static final String[] MIXED = {
+            "NAME PIC X(20).", "CODE PIC X(3).", "COUNT-U PIC 9(5).", "RATE PIC S9(3)V99.", "AMOUNT PIC S9(7)V99 COMP-3.",
+            "TOTAL PIC S9(17)V99 COMP-3.", "QTY PIC S9(4) COMP.", "SEQ PIC 9(9) COMP.", "LEDGER PIC S9(16)V99 COMP.", "NOTES PIC X(40)."};
+
+    private static volatile long sink; // Keeps the JIT from dropping the work being timed
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final String filter;
+    private final List<String> results = new ArrayList<>();
+    private final Map<String, Double> baseline;
+
+    /** One operation of a benchmark; returns something derived from its work. */
+    private interface Operation {
+        long run() throws Exception;
+    }
+
+    private Benchmarks(int warmupIterations, int measurementIterations, long iterationMillis, String filter, Map<String, Double> baseline) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+        this.filter = filter;
+        this.baseline = baseline;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String out = null;
+        String baselineFile = null;
+        int warmup = 3;
+        int iterations = 5;
+        long timeMillis = 1000;
+        String filter = "";
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--out=")) {
+                out = value;
+            } else if (arg.startsWith("--baseline=")) {
+                baselineFile = value;
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(value);
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(value);
+            } else if (arg.startsWith("--time-ms=")) {
+                timeMillis = Long.parseLong(value);
+            } else if (arg.startsWith("--")) {
+                System.err.println("Usage: Benchmarks [--out=FILE] [--baseline=FILE] [--warmup=N] [--iterations=N] [--time-ms=N] [name_filter]");
+                System.exit(1);
+            } else {
+                filter = arg;
+            }
+        }
+        Benchmarks benchmarks = new Benchmarks(warmup, Math.max(1, iterations), timeMillis, filter,
+                baselineFile == null ? new HashMap<>() : readScores(Path.of(baselineFile)));
+
+        Path dir = Files.createTempDirectory("benchmarks");
+        try {
+            Map<String, Path[]> files = new LinkedHashMap<>();
+            for (String type : FIELD_TYPES.keySet()) {
+                files.put(type, writeData(dir, type));
+            }
+            benchmarks.run(files);
+        } finally {
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+
+        String json = "[\n" + String.join(",\n", benchmarks.results) + "\n]\n";
+        if (out != null) {
+            Path path = Path.of(out);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Files.writeString(path, json);
+            System.out.println("Results written to " + out);
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    private void run(Map<String, Path[]> files) throws Exception {
+        SearchManager searchManager = new SearchManager();
+        for (Map.Entry<String, Path[]> file : files.entrySet()) {
+            for (String encoding : ENCODINGS) {
+                try (Session session = new Session(file.getValue(), encoding)) {
+                    benchmark("pageDecode", params(encoding, file.getKey()), "us/op", 1e3, () -> {
+                        RecordPage page = session.nextPage();
+                        long chars = 0;
+                        for (int row = 0; row < page.getRecordCount(); row++) {
+                            for (int field = 0; field < page.getFieldCount(); field++) {
+                                chars += page.getValue(row, field).length();
+                            }
+                        }
+                        return chars;
+                    });
+                }
+            }
+        }
+        Path[] mixed = files.get("mixed");
+        for (String encoding : ENCODINGS) {
+            try (Session session = new Session(mixed, encoding)) {
+                benchmark("pageSearch", params(encoding, "mixed"), "us/op", 1e3,
+                        () -> searchManager.search(session.nextPage(), "NAME", "ab").getRecordCount());
+            }
+        }
+        try (Session session = new Session(mixed, "CP037")) {
+            benchmark("fileSearch", params("CP037", "mixed"), "ms/op", 1e6,
+                    () -> searchManager.searchFile(session.reader, "NAME", "ab").size());
+            benchmark("tableRender", params("CP037", "mixed"), "us/op", 1e3, session.renderer());
+        }
+    }
+
+    private static Map<String, String> params(String encoding, String fieldType) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("encoding", encoding);
+        params.put("fieldType", fieldType);
+        return params;
+    }
+
+    /** An open data file paged through from the start, wrapping round at the end. */
+    private static final class Session implements AutoCloseable {
+        final PagedFileReader reader;
+        private int nextPage;
+
+        Session(Path[] files, String encoding) throws IOException {
+            ViewerOptions options = new ViewerOptions();
+            options.apply("--no-index-cache");
+            this.reader = new PagedFileReader(files[1].toString(), files[0].toString(), PAGE_SIZE, encoding, options);
+        }
+
+        /** The next page, read and decoded afresh as when the viewer pages forward. */
+        RecordPage nextPage() {
+            RecordPage page = reader.readPage(nextPage);
+            nextPage = (nextPage + 1) % reader.getTotalPages();
+            return page;
+        }
+
+        /** Draws the next page with RecordTable on a virtual terminal, as the viewer does on paging. */
+        Operation renderer() throws IOException {
+            DefaultVirtualTerminal terminal = new DefaultVirtualTerminal(TERMINAL_SIZE);
+            TerminalScreen screen = new TerminalScreen(terminal);
+            screen.startScreen();
+            MultiWindowTextGUI gui = new MultiWindowTextGUI(screen, new DefaultWindowManager(), new EmptySpace(TextColor.ANSI.BLUE));
+            BasicWindow window = new BasicWindow("Benchmarks");
+            window.setHints(Arrays.asList(Window.Hint.FULL_SCREEN, Window.Hint.NO_DECORATIONS));
+            Panel panel = new Panel();
+            window.setComponent(panel);
+            gui.addWindow(window);
+            List<String> fieldNames = new ArrayList<>();
+            DecodePlan plan = reader.getDecodePlan();
+            for (int i = 0; i < plan.getFieldCount(); i++) {
+                fieldNames.add(plan.getFieldName(i));
+            }
+            RecordTable table = new RecordTable(fieldNames);
+            panel.addComponent(table);
+            return () -> {
+                table.setPage(nextPage());
+                gui.updateScreen();
+                return terminal.getCharacter(0, 1).getCharacterString().length();
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Runs one benchmark and records its result. {@code unitNanos} is the length of {@code unit}
+     * in nanoseconds.
+     */
+    private void benchmark(String name, Map<String, String> params, String unit, double unitNanos, Operation operation) throws Exception {
+        String label = name + " " + params;
+        if (!filter.isEmpty() && !label.contains(filter) && !name.equals(filter)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(operation);
+        }
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = iteration(operation) / unitNanos;
+        }
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double stdDev = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+        double error = 3.29 * stdDev / Math.sqrt(scores.length); // 99.9% interval, normal approximation
+
+        String key = key(name, params);
+        Double before = baseline.get(key);
+        System.out.printf("%-45s %12.3f +- %8.3f %s%s%n", label, mean, error, unit,
+                before == null ? "" : String.format("   (baseline %.3f, %+.1f%%)", before, (mean / before - 1) * 100));
+
+        StringBuilder json = new StringBuilder("  {\"benchmark\" : \"Benchmarks.").append(name)
+                .append("\", \"mode\" : \"avgt\", \"threads\" : 1, \"forks\" : 0")
+                .append(", \"warmupIterations\" : ").append(warmupIterations)
+                .append(", \"measurementIterations\" : ").append(measurementIterations)
+                .append(", \"measurementTime\" : \"").append(iterationNanos / 1_000_000).append(" ms\"")
+                .append(", \"params\" : {");
+        String separator = "";
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            json.append(separator).append('"').append(param.getKey()).append("\" : \"").append(param.getValue()).append('"');
+            separator = ", ";
+        }
+        json.append("}, \"primaryMetric\" : {\"score\" : ").append(mean)
+                .append(", \"scoreError\" : ").append(error)
+                .append(", \"scoreConfidence\" : [").append(mean - error).append(", ").append(mean + error).append(']')
+                .append(", \"scoreUnit\" : \"").append(unit).append("\", \"rawData\" : [[");
+        for (int i = 0; i < scores.length; i++) {
+            json.append(i > 0 ? ", " : "").append(scores[i]);
+        }
+        results.add(json.append("]]}}").toString());
+    }
+
+    /** Runs {@code operation} for one iteration's time and returns the mean nanoseconds per call. */
+    private double iteration(Operation operation) throws Exception {
+        long start = System.nanoTime();
+        long end = start + iterationNanos;
+        long calls = 0;
+        long result = 0;
+        long now;
+        do {
+            result += operation.run();
+            calls++;
+            now = System.nanoTime();
+        } while (now < end);
+        sink += result;
+        return (double) (now - start) / calls;
+    }
+
+    private static String key(String name, Map<String, String> params) {
+        return "Benchmarks." + name + " " + params.values();
+    }
+
+    private static final Pattern RESULT_LINE = Pattern.compile(
+            "\"benchmark\" : \"([^\"]+)\".*\"params\" : \\{([^}]*)\\}.*\"score\" : ([-0-9.eE]+)");
+    private static final Pattern PARAM = Pattern.compile("\"[^\"]+\" : \"([^\"]*)\"");
+
+    /** Scores of an earlier results file, by benchmark and parameter values. */
+    private static Map<String, Double> readScores(Path file) throws IOException {
+        Map<String, Double> scores = new HashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            Matcher result = RESULT_LINE.matcher(line);
+            if (result.find()) {
+                List<String> values = new ArrayList<>();
+                Matcher param = PARAM.matcher(result.group(2));
+                while (param.find()) {
+                    values.add(param.group(1));
+                }
+                scores.put(result.group(1) + " " + values, Double.parseDouble(result.group(3)));
+            }
+        }
+        return scores;
+    }
+
+    /** Writes the copybook and data file of one field type; returns {copybook, data}. */
+    private static Path[] writeData(Path dir, String type) throws IOException {
+        Path copybook = dir.resolve(type + ".cpy");
+        Path data = dir.resolve(type + ".dat");
+        try (PrintWriter writer = new PrintWriter(copybook.toFile())) {
+            writer.println("       01 BENCH-REC.");
+            if (FIELD_TYPES.get(type) == null) {
+                for (String field : MIXED) {
+                    writer.println("          05 " + field);
+                }
+            } else {
+                for (int i = 1; i <= 10; i++) {
+                    writer.println("          05 FIELD-" + i + " " + FIELD_TYPES.get(type));
+                }
+            }
+        }
+        DecodePlan.writeRandomRecords(copybook.toString(), data.toString(), "CP037", RECORDS, false);
+        return new Path[] {copybook, data};
+    }
+}
@@ -0,0 +1,885 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+import net.sf.JRecord.Details.LayoutDetail;
+import net.sf.JRecord.Types.TypeManager;
+
+/**
+ * Profile of every field of a data file, for checking an extract before it is loaded
+ * downstream: {@code EbcdicFileViewer --profile} writes it as JSON, 'r' in the viewer shows it.
+ *
+ * One pass over the records, split into chunks of {@link #CHUNK_RECORDS} that run on a
+ * ForkJoinPool across all cores. Each chunk profiles its records into a {@link Profile} of its
+ * own, and the profiles of neighbouring chunks are merged on the way back up. The chunks do not
+ * depend on the number of threads, so neither does the result. For each field:
+ * <ul>
+ *   <li>counts of values, of OCCURS DEPENDING ON occurrences that are absent, and of values
+ *       that are all spaces, all low-values (0x00) or all high-values (0xFF);</li>
+ *   <li>for numeric fields, values that are not a number (spaces in a packed field, a bad sign
+ *       nibble), and min and max by value;</li>
+ *   <li>for text fields, min and max in the code page's collating sequence, i.e. by raw bytes
+ *       as a mainframe sort orders them. Blank and low-values fields are left out, since they
+ *       are counted on their own;</li>
+ *   <li>the number of distinct values: exact up to {@link #COUNTERS}, otherwise a HyperLogLog
+ *       estimate over a 64-bit hash of the field's bytes (4096 registers, about 1.6% error);</li>
+ *   <li>the most frequent values, from a Misra-Gries summary of {@link #COUNTERS} counters,
+ *       which finds every value held by more than 1/65 of the records. Counts are exact while
+ *       the field has no more distinct values than that, and lower bounds otherwise;</li>
+ *   <li>a histogram: of the decimal magnitude of numbers ([1, 10), [10, 100), ...) and of the
+ *       length of text without trailing spaces.</li>
+ * </ul>
+ * Min, max and top values are kept as the ordinal of a record that holds them, and only those
+ * records are decoded at the end, so the pass itself decodes nothing but numbers.
+ */
+public class ColumnProfiler {
+
+    /** Records profiled into one partial profile. */
+    static final int CHUNK_RECORDS = 1 << 16;
+    /** Most frequent values reported per field. */
+    static final int TOP_VALUES = 10;
+    /** Misra-Gries counters per field; also the largest distinct count known exactly. */
+    static final int COUNTERS = 64;
+
+    private static final int HLL_BITS = 12;        // 2^12 registers
+    private static final int MAX_DIGITS = 40;      // Histogram buckets on each side of zero
+    private static final int SLOTS = COUNTERS * 2; // Hash table of the counters, a power of two
+
+    private final PagedFileReader reader;
+    private final DecodePlan plan;
+    private final RecordTypeTable recordTypes; // null: every record is profiled
+    private final int recordType;               // Otherwise only the records of this type are
+    private final int threads;
+    private final int[] fields;       // Profiled fields in copybook order: all but FILLER
+    private final boolean[] numeric;  // By field position in the plan
+    private final boolean[] spaceBytes = new boolean[256];
+    private final LongAdder recordsDone = new LongAdder(); // Progress of profile(), read by other threads
+    private volatile long recordsToDo;
+
+    /**
+     * @param threads ForkJoin parallelism; 0 means one per available processor.
+     */
+    public ColumnProfiler(PagedFileReader reader, int threads) {
+        this.reader = reader;
+        this.plan = reader.getDecodePlan();
+        this.recordTypes = reader.getRecordTypes();
+        this.recordType = reader.getRecordType();
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.numeric = new boolean[plan.getFieldCount()];
+        for (int i = 0; i < numeric.length; i++) {
+            numeric[i] = TypeManager.getInstance().getType(plan.getType(i)).isNumeric();
+        }
+        this.fields = IntStream.range(0, plan.getFieldCount())
+                .filter(i -> !plan.getFieldName(i).equalsIgnoreCase("FILLER"))
+                .toArray();
+        EbcdicTranscoder transcoder = EbcdicTranscoder.forEncoding(reader.getEncoding());
+        for (int b = 0; b < 256; b++) {
+            spaceBytes[b] = transcoder != null ? transcoder.isSpace((byte) b) : b == 0x40;
+        }
+    }
+
+    /** Distinct values of a field, estimated from the longest run of leading zero bits per bucket of hashes. */
+    static final class HyperLogLog {
+        private final byte[] registers = new byte[1 << HLL_BITS];
+
+        void add(long hash) {
+            int index = (int) (hash >>> (64 - HLL_BITS));
+            int rank = Long.numberOfLeadingZeros((hash << HLL_BITS) | (1L << (HLL_BITS - 1))) + 1;
+            if (rank > registers[index]) {
+                registers[index] = (byte) rank;
+            }
+        }
+
+        void merge(HyperLogLog other) {
+            for (int i = 0; i < registers.length; i++) {
+                registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+            }
+        }
+
+        long estimate() {
+            int m = registers.length;
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += Math.scalb(1.0, -register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+            if (estimate <= 2.5 * m && zeros > 0) {
+                estimate = m * Math.log((double) m / zeros); // Linear counting, better for small sets
+            }
+            return Math.round(estimate);
+        }
+    }
+
+    /**
+     * Misra-Gries summary: at most {@link #COUNTERS} values with counts. A new value when every
+     * counter is taken lowers all counts by one instead, so a count is at most n / (COUNTERS + 1)
+     * below the true one. Values are kept as hashes, with the ordinal of a record holding each.
+     */
+    static final class HeavyHitters {
+        private final long[] keys = new long[COUNTERS * 2]; // Room for two summaries while merging
+        private final long[] counts = new long[COUNTERS * 2];
+        private final long[] ordinals = new long[COUNTERS * 2];
+        private final int[] slots = new int[SLOTS]; // Counter index + 1 by hash, 0 = free
+        private int size;
+        private boolean exact = true; // No count has been lowered: every value seen has its true count
+
+        void add(long hash, long ordinal) {
+            int slot = (int) hash & (SLOTS - 1);
+            for (int entry; (entry = slots[slot]) != 0; slot = (slot + 1) & (SLOTS - 1)) {
+                if (keys[entry - 1] == hash) {
+                    counts[entry - 1]++;
+                    return;
+                }
+            }
+            if (size < COUNTERS) {
+                keys[size] = hash;
+                counts[size] = 1;
+                ordinals[size] = ordinal;
+                slots[slot] = ++size;
+                return;
+            }
+            lower(1);
+        }
+
+        /**
+         * Combines two summaries (Agarwal et al., "Mergeable Summaries"): counts of the same
+         * value add up, then all are lowered by the count of the (COUNTERS + 1)th largest.
+         */
+        void merge(HeavyHitters other) {
+            exact &= other.exact;
+            for (int i = 0; i < other.size; i++) {
+                int found = indexOf(other.keys[i]);
+                if (found >= 0) {
+                    counts[found] += other.counts[i];
+                    ordinals[found] = Math.min(ordinals[found], other.ordinals[i]);
+                } else {
+                    keys[size] = other.keys[i];
+                    counts[size] = other.counts[i];
+                    ordinals[size] = other.ordinals[i];
+                    size++;
+                }
+            }
+            if (size > COUNTERS) {
+                long[] sorted = Arrays.copyOf(counts, size);
+                Arrays.sort(sorted);
+                lower(sorted[size - COUNTERS - 1]);
+            } else {
+                rehash();
+            }
+        }
+
+        /** Number of distinct values, if every one of them has a counter; otherwise -1. */
+        long exactDistinct() {
+            return exact ? size : -1;
+        }
+
+        /**
+         * Counters of the up to {@code limit} most frequent values, ties by first record. Once
+         * counts have been lowered, values left with a count of 1 are noise (a unique key leaves
+         * its last few values) and are not returned.
+         */
+        int[] top(int limit) {
+            return IntStream.range(0, size).filter(i -> exact || counts[i] > 1).boxed()
+                    .sorted((a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a]) : Long.compare(ordinals[a], ordinals[b]))
+                    .limit(limit).mapToInt(Integer::intValue).toArray();
+        }
+
+        private int indexOf(long hash) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == hash) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Lowers every count by {@code amount} and drops the counters that reach zero. */
+        private void lower(long amount) {
+            exact = false;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (counts[i] > amount) {
+                    keys[kept] = keys[i];
+                    counts[kept] = counts[i] - amount;
+                    ordinals[kept] = ordinals[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            rehash();
+        }
+
+        private void rehash() {
+            Arrays.fill(slots, 0);
+            for (int i = 0; i < size; i++) {
+                int slot = (int) keys[i] & (SLOTS - 1);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & (SLOTS - 1);
+                }
+                slots[slot] = i + 1;
+            }
+        }
+    }
+
+    /** What one field holds, over the records profiled so far. */
+    static final class FieldProfile {
+        final int field;
+        final boolean numeric;
+        final int scale;
+        long values;     // Present, whatever they hold
+        long absent;     // Past an OCCURS DEPENDING ON count, or past the end of a short record
+        long spaces;
+        long lowValues;
+        long highValues;
+        long invalid;    // Numeric fields only: not a number
+        // Numeric min and max: unscaled when the fast decoder read the value, otherwise as decimals
+        long minUnscaled = Long.MAX_VALUE;
+        long maxUnscaled = Long.MIN_VALUE;
+        long minUnscaledOrdinal = -1;
+        long maxUnscaledOrdinal = -1;
+        BigDecimal minDecimal;
+        BigDecimal maxDecimal;
+        long minDecimalOrdinal = -1;
+        long maxDecimalOrdinal = -1;
+        // Text min and max, by raw bytes
+        byte[] minBytes;
+        byte[] maxBytes;
+        long minBytesOrdinal = -1;
+        long maxBytesOrdinal = -1;
+        // Numbers: 10^(d-1) <= |unscaled| < 10^d in bucket MAX_DIGITS +- d, zero in MAX_DIGITS. Text: by trimmed length.
+        final long[] histogram;
+        final HyperLogLog distinct = new HyperLogLog();
+        final HeavyHitters top = new HeavyHitters();
+
+        FieldProfile(int field, boolean numeric, int scale, int length) {
+            this.field = field;
+            this.numeric = numeric;
+            this.scale = scale;
+            this.histogram = new long[numeric ? MAX_DIGITS * 2 + 1 : length + 1];
+        }
+
+        void merge(FieldProfile other) {
+            values += other.values;
+            absent += other.absent;
+            spaces += other.spaces;
+            lowValues += other.lowValues;
+            highValues += other.highValues;
+            invalid += other.invalid;
+            // Ties keep the earlier record, so the result does not depend on the merge order
+            if (other.minUnscaledOrdinal >= 0 && (minUnscaledOrdinal < 0 || other.minUnscaled < minUnscaled
+                    || (other.minUnscaled == minUnscaled && other.minUnscaledOrdinal < minUnscaledOrdinal))) {
+                minUnscaled = other.minUnscaled;
+                minUnscaledOrdinal = other.minUnscaledOrdinal;
+            }
+            if (other.maxUnscaledOrdinal >= 0 && (maxUnscaledOrdinal < 0 || other.maxUnscaled > maxUnscaled
+                    || (other.maxUnscaled == maxUnscaled && other.maxUnscaledOrdinal < maxUnscaledOrdinal))) {
+                maxUnscaled = other.maxUnscaled;
+                maxUnscaledOrdinal = other.maxUnscaledOrdinal;
+            }
+            if (other.minDecimal != null && (minDecimal == null || compare(other.minDecimal, other.minDecimalOrdinal, minDecimal, minDecimalOrdinal) < 0)) {
+                minDecimal = other.minDecimal;
+                minDecimalOrdinal = other.minDecimalOrdinal;
+            }
+            if (other.maxDecimal != null && (maxDecimal == null || compare(other.maxDecimal, -other.maxDecimalOrdinal, maxDecimal, -maxDecimalOrdinal) > 0)) {
+                maxDecimal = other.maxDecimal;
+                maxDecimalOrdinal = other.maxDecimalOrdinal;
+            }
+            if (other.minBytes != null && (minBytes == null || compare(other.minBytes, other.minBytesOrdinal, minBytes, minBytesOrdinal) < 0)) {
+                minBytes = other.minBytes;
+                minBytesOrdinal = other.minBytesOrdinal;
+            }
+            if (other.maxBytes != null && (maxBytes == null || compare(other.maxBytes, -other.maxBytesOrdinal, maxBytes, -maxBytesOrdinal) > 0)) {
+                maxBytes = other.maxBytes;
+                maxBytesOrdinal = other.maxBytesOrdinal;
+            }
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += other.histogram[i];
+            }
+            distinct.merge(other.distinct);
+            top.merge(other.top);
+        }
+
+        /** Ordinal of the record with the smallest value, or -1 if there is none. */
+        long minOrdinal() {
+            if (!numeric) {
+                return minBytesOrdinal;
+            }
+            if (minDecimal == null || (minUnscaledOrdinal >= 0
+                    && compare(BigDecimal.valueOf(minUnscaled, scale), minUnscaledOrdinal, minDecimal, minDecimalOrdinal) < 0)) {
+                return minUnscaledOrdinal;
+            }
+            return minDecimalOrdinal;
+        }
+
+        /** Ordinal of the record with the largest value, or -1 if there is none. */
+        long maxOrdinal() {
+            if (!numeric) {
+                return maxBytesOrdinal;
+            }
+            if (maxDecimal == null || (maxUnscaledOrdinal >= 0
+                    && compare(BigDecimal.valueOf(maxUnscaled, scale), -maxUnscaledOrdinal, maxDecimal, -maxDecimalOrdinal) > 0)) {
+                return maxUnscaledOrdinal;
+            }
+            return maxDecimalOrdinal;
+        }
+
+        /** Distinct values: exact if known, otherwise the HyperLogLog estimate. */
+        long distinctValues() {
+            long exact = top.exactDistinct();
+            return exact >= 0 ? exact : distinct.estimate();
+        }
+
+        boolean isDistinctExact() {
+            return top.exactDistinct() >= 0;
+        }
+
+        /** Label of histogram bucket {@code i}, in the field's units. */
+        String bucketLabel(int i) {
+            if (!numeric) {
+                return "length " + i;
+            }
+            int digits = Math.abs(i - MAX_DIGITS);
+            if (digits == 0) {
+                return "0";
+            }
+            String low = BigDecimal.ONE.movePointRight(digits - 1 - scale).toPlainString();
+            String high = BigDecimal.ONE.movePointRight(digits - scale).toPlainString();
+            return i > MAX_DIGITS ? "[" + low + ", " + high + ")" : "(-" + high + ", -" + low + "]";
+        }
+
+        /** Orders by value, then by {@code aOrder} / {@code bOrder} (the ordinal, negated for max). */
+        private static int compare(BigDecimal a, long aOrder, BigDecimal b, long bOrder) {
+            int c = a.compareTo(b);
+            return c != 0 ? c : Long.compare(aOrder, bOrder);
+        }
+
+        private static int compare(byte[] a, long aOrder, byte[] b, long bOrder) {
+            int c = Arrays.compareUnsigned(a, b);
+            return c != 0 ? c : Long.compare(aOrder, bOrder);
+        }
+    }
+
+    /** Profiles of every field over a range of records; a chunk's, or several merged. */
+    static final class Profile {
+        final FieldProfile[] fields;
+        long records; // Profiled: of the reader's record type, if there are several
+        long bytes;   // Record data read
+
+        Profile(FieldProfile[] fields) {
+            this.fields = fields;
+        }
+
+        void merge(Profile other) {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i].merge(other.fields[i]);
+            }
+            records += other.records;
+            bytes += other.bytes;
+        }
+    }
+
+    /**
+     * Splits [first, end) in halves until it is at most {@link #CHUNK_RECORDS} long, then
+     * profiles it; the right half's profile is merged into the left one's.
+     */
+    private final class ProfileTask extends RecursiveTask<Profile> {
+        private static final long serialVersionUID = 1L;
+
+        private final long first;
+        private final long end;
+
+        ProfileTask(long first, long end) {
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        protected Profile compute() {
+            if (end - first <= CHUNK_RECORDS) {
+                return profileChunk(first, end);
+            }
+            long middle = first + (end - first + CHUNK_RECORDS - 1) / CHUNK_RECORDS / 2 * CHUNK_RECORDS; // On a chunk boundary
+            ProfileTask left = new ProfileTask(first, middle);
+            left.fork();
+            Profile right = new ProfileTask(middle, end).compute();
+            Profile profile = left.join();
+            profile.merge(right);
+            return profile;
+        }
+    }
+
+    private Profile newProfile() {
+        FieldProfile[] profiles = new FieldProfile[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            profiles[i] = new FieldProfile(fields[i], numeric[fields[i]], plan.getScale(fields[i]), plan.getLength(fields[i]));
+        }
+        return new Profile(profiles);
+    }
+
+    private Profile profileChunk(long first, long end) {
+        Profile profile = newProfile();
+        profile.bytes = reader.scanRecords(first, end, (ordinal, data, length) -> {
+            if (recordTypes != null && recordTypes.typeOf(data, length) != recordType) {
+                return;
+            }
+            profile.records++;
+            for (FieldProfile field : profile.fields) {
+                profileField(field, ordinal, data, length);
+            }
+        });
+        recordsDone.add(end - first);
+        return profile;
+    }
+
+    private void profileField(FieldProfile profile, long ordinal, byte[] data, int length) {
+        int field = profile.field;
+        int offset = plan.getOffset(field);
+        int end = Math.min(length, offset + plan.getLength(field));
+        if (end <= offset || plan.isAbsent(field, data, length)) {
+            profile.absent++;
+            return;
+        }
+        profile.values++;
+        boolean allSpaces = true;
+        boolean allLow = true;
+        boolean allHigh = true;
+        long hash = 0x9E3779B97F4A7C15L ^ (end - offset);
+        int trimmed = offset; // End without trailing spaces
+        for (int i = offset; i < end; i++) {
+            int b = data[i] & 0xFF;
+            boolean space = spaceBytes[b];
+            allSpaces &= space;
+            allLow &= b == 0;
+            allHigh &= b == 0xFF;
+            if (!space) {
+                trimmed = i + 1;
+            }
+            hash = (hash ^ b) * 0x100000001B3L; // FNV-1a, finished below
+        }
+        hash = DataGenerator.mix(hash);
+        profile.distinct.add(hash);
+        profile.top.add(hash, ordinal);
+        if (allSpaces) {
+            profile.spaces++;
+        } else if (allLow) {
+            profile.lowValues++;
+        } else if (allHigh) {
+            profile.highValues++;
+        }
+        if (!profile.numeric) {
+            profile.histogram[trimmed - offset]++;
+            if (!allSpaces && !allLow) {
+                if (profile.minBytes == null || Arrays.compareUnsigned(data, offset, end, profile.minBytes, 0, profile.minBytes.length) < 0) {
+                    profile.minBytes = Arrays.copyOfRange(data, offset, end);
+                    profile.minBytesOrdinal = ordinal;
+                }
+                if (profile.maxBytes == null || Arrays.compareUnsigned(data, offset, end, profile.maxBytes, 0, profile.maxBytes.length) > 0) {
+                    profile.maxBytes = Arrays.copyOfRange(data, offset, end);
+                    profile.maxBytesOrdinal = ordinal;
+                }
+            }
+            return;
+        }
+        long unscaled = plan.decodeUnscaled(field, data, length);
+        if (unscaled != NumericDecoder.NOT_DECODED) {
+            profile.histogram[bucket(unscaled < 0 ? -1 : 1, digits(Math.abs(unscaled)))]++;
+            if (profile.minUnscaledOrdinal < 0 || unscaled < profile.minUnscaled) {
+                profile.minUnscaled = unscaled;
+                profile.minUnscaledOrdinal = ordinal;
+            }
+            if (profile.maxUnscaledOrdinal < 0 || unscaled > profile.maxUnscaled) {
+                profile.maxUnscaled = unscaled;
+                profile.maxUnscaledOrdinal = ordinal;
+            }
+            return;
+        }
+        BigDecimal value = plan.decodeDecimal(field, data, length); // Beyond the fast decoder: through JRecord
+        if (value == null) {
+            profile.invalid++;
+            return;
+        }
+        String magnitude = value.abs().movePointRight(profile.scale).setScale(0, RoundingMode.DOWN).toPlainString();
+        profile.histogram[bucket(value.signum(), magnitude.equals("0") ? 0 : magnitude.length())]++;
+        if (profile.minDecimal == null || value.compareTo(profile.minDecimal) < 0) {
+            profile.minDecimal = value;
+            profile.minDecimalOrdinal = ordinal;
+        }
+        if (profile.maxDecimal == null || value.compareTo(profile.maxDecimal) > 0) {
+            profile.maxDecimal = value;
+            profile.maxDecimalOrdinal = ordinal;
+        }
+    }
+
+    private static int bucket(int sign, int digits) {
+        return MAX_DIGITS + (sign < 0 ? -1 : 1) * Math.min(digits, MAX_DIGITS);
+    }
+
+    private static int digits(long magnitude) {
+        int digits = 0;
+        for (long rest = magnitude; rest != 0; rest /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Profiles every record indexed so far (all of them once the reader's indexing is complete)
+     * and decodes the values the report shows.
+     */
+    public Report profile() {
+        long start = System.nanoTime();
+        boolean complete = reader.isIndexingComplete(); // Read before the count: once complete, the count is final
+        long total = reader.getTotalRecords();
+        recordsDone.reset();
+        recordsToDo = total;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Profile profile;
+        try {
+            profile = pool.invoke(new ProfileTask(0, total));
+        } finally {
+            pool.shutdown();
+        }
+        return new Report(profile, total, !complete, System.nanoTime() - start);
+    }
+
+    /** The fraction of the records {@link #profile()} has read so far; safe to call from any thread. */
+    public double getProgress() {
+        long total = recordsToDo;
+        return total == 0 ? 0 : Math.min(1.0, (double) recordsDone.sum() / total);
+    }
+
+    /** A finished profile, with the values it refers to decoded. */
+    public final class Report {
+        private final Profile profile;
+        private final long scanned;     // Records read
+        private final boolean partial;  // Indexing was still under way: only the records indexed so far
+        private final long nanos;
+        private final String[] min;
+        private final String[] max;
+        private final String[][] topValues;
+        private final long[][] topCounts;
+        private final boolean[] topExact;
+
+        Report(Profile profile, long scanned, boolean partial, long nanos) {
+            this.profile = profile;
+            this.scanned = scanned;
+            this.partial = partial;
+            this.nanos = nanos;
+            int count = profile.fields.length;
+            this.min = new String[count];
+            this.max = new String[count];
+            this.topValues = new String[count][];
+            this.topCounts = new long[count][];
+            this.topExact = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                FieldProfile field = profile.fields[i];
+                min[i] = valueAt(field.minOrdinal(), field.field);
+                max[i] = valueAt(field.maxOrdinal(), field.field);
+                int[] top = field.top.top(TOP_VALUES);
+                topValues[i] = new String[top.length];
+                topCounts[i] = new long[top.length];
+                for (int t = 0; t < top.length; t++) {
+                    topValues[i][t] = valueAt(field.top.ordinals[top[t]], field.field);
+                    topCounts[i][t] = field.top.counts[top[t]];
+                }
+                topExact[i] = field.top.exact;
+            }
+        }
+
+        /** Records profiled. */
+        public long getRecords() {
+            return profile.records;
+        }
+
+        /** The report as one JSON object, with a line per field. */
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"records\":").append(profile.records)
+                    .append(",\"recordsRead\":").append(scanned)
+                    .append(",\"bytesRead\":").append(profile.bytes)
+                    .append(",\"partial\":").append(partial)
+                    .append(",\"seconds\":").append(String.format("%.3f", nanos / 1e9))
+                    .append(",\"recordName\":");
+            RecordExporter.appendJsonString(json, plan.getRecordName());
+            json.append(",\"fields\":[");
+            for (int i = 0; i < profile.fields.length; i++) {
+                FieldProfile field = profile.fields[i];
+                json.append(i == 0 ? "\n{" : ",\n{").append("\"name\":");
+                RecordExporter.appendJsonString(json, plan.getFieldName(field.field));
+                json.append(",\"type\":\"").append(field.numeric ? "number" : "text").append('"')
+                        .append(",\"offset\":").append(plan.getOffset(field.field))
+                        .append(",\"length\":").append(plan.getLength(field.field))
+                        .append(",\"values\":").append(field.values)
+                        .append(",\"absent\":").append(field.absent)
+                        .append(",\"spaces\":").append(field.spaces)
+                        .append(",\"lowValues\":").append(field.lowValues)
+                        .append(",\"highValues\":").append(field.highValues);
+                if (field.numeric) {
+                    json.append(",\"invalid\":").append(field.invalid);
+                }
+                json.append(",\"distinct\":").append(field.distinctValues())
+                        .append(",\"distinctExact\":").append(field.isDistinctExact());
+                appendJsonValue(json, "min", min[i], field.minOrdinal());
+                appendJsonValue(json, "max", max[i], field.maxOrdinal());
+                json.append(",\"topExact\":").append(topExact[i]).append(",\"top\":[");
+                for (int t = 0; t < topValues[i].length; t++) {
+                    json.append(t == 0 ? "{\"value\":" : ",{\"value\":");
+                    RecordExporter.appendJsonString(json, topValues[i][t]);
+                    json.append(",\"count\":").append(topCounts[i][t]).append('}');
+                }
+                json.append("],\"histogram\":[");
+                boolean first = true;
+                for (int b = 0; b < field.histogram.length; b++) {
+                    if (field.histogram[b] > 0) {
+                        json.append(first ? "{\"bucket\":" : ",{\"bucket\":");
+                        RecordExporter.appendJsonString(json, field.bucketLabel(b));
+                        json.append(",\"count\":").append(field.histogram[b]).append('}');
+                        first = false;
+                    }
+                }
+                json.append("]}");
+            }
+            return json.append("\n]}\n").toString();
+        }
+
+        private void appendJsonValue(StringBuilder json, String name, String value, long ordinal) {
+            json.append(",\"").append(name).append("\":");
+            if (value == null) {
+                json.append("null");
+                return;
+            }
+            RecordExporter.appendJsonString(json, value);
+            json.append(",\"").append(name).append("Record\":").append(ordinal + 1);
+        }
+
+        /** The report as text, a few lines per field, for the viewer. */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(summary()).append('\n');
+            for (int i = 0; i < profile.fields.length; i++) {
+                FieldProfile field = profile.fields[i];
+                text.append(String.format("%n%s  (%s, offset %d, length %d)%n", plan.getFieldName(field.field),
+                        field.numeric ? "number" : "text", plan.getOffset(field.field), plan.getLength(field.field)));
+                text.append(String.format("  values %d, absent %d, spaces %d, low-values %d, high-values %d%s%n",
+                        field.values, field.absent, field.spaces, field.lowValues, field.highValues,
+                        field.numeric ? ", invalid " + field.invalid : ""));
+                text.append(String.format("  distinct %s%d", field.isDistinctExact() ? "" : "~", field.distinctValues()));
+                if (min[i] != null) {
+                    text.append(String.format(", min '%s' (record %d), max '%s' (record %d)",
+                            min[i], field.minOrdinal() + 1, max[i], field.maxOrdinal() + 1));
+                }
+                text.append('\n');
+                if (topValues[i].length > 0) {
+                    text.append(topExact[i] ? "  top:" : "  top (at least):");
+                    for (int t = 0; t < topValues[i].length; t++) {
+                        text.append(String.format(" '%s' %d", topValues[i][t], topCounts[i][t]));
+                    }
+                    text.append('\n');
+                }
+                text.append("  histogram:");
+                for (int b = 0; b < field.histogram.length; b++) {
+                    if (field.histogram[b] > 0) {
+                        text.append(' ').append(field.bucketLabel(b)).append(": ").append(field.histogram[b]);
+                    }
+                }
+                text.append('\n');
+            }
+            return text.toString();
+        }
+
+        /** One line: records, fields, time and throughput. */
+        public String summary() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return String.format("Profiled %d fields of %d records%s (%.1f MB) in %.2f s: %.1f MB/s, %.0f records/s",
+                    profile.fields.length, profile.records, partial ? " indexed so far" : "", profile.bytes / 1e6,
+                    seconds, profile.bytes / 1e6 / seconds, scanned / seconds);
+        }
+    }
+
+    /** Display text of field {@code field} of record {@code ordinal}, trimmed; null for no record. */
+    private String valueAt(long ordinal, int field) {
+        if (ordinal < 0) {
+            return null;
+        }
+        String[] value = new String[1];
+        reader.scanRecords(ordinal, ordinal + 1, (o, data, length) -> {
+            try {
+                value[0] = plan.decodeField(field, data, length).trim();
+            } catch (RuntimeException e) {
+                value[0] = RecordPage.ERROR_VALUE;
+            }
+        });
+        return value[0];
+    }
+
+    /**
+     * Runs a profile from the command line options, as {@code EbcdicFileViewer --profile} does:
+     * waits for the whole file to be indexed and writes the JSON report to {@code --out}, or to
+     * standard output when that is not given or "-". The summary goes to standard error.
+     */
+    public static Report run(String dataFilePath, String copybookFilePath, String encoding, ViewerOptions options) throws IOException {
+        PagedFileReader reader = new PagedFileReader(dataFilePath, copybookFilePath, CHUNK_RECORDS, encoding, options);
+        try {
+            reader.awaitIndexing();
+            if (reader.getIndexingError() != null) {
+                System.err.println("Warning: indexing stopped early (" + reader.getIndexingError() + "); only the records before that were profiled.");
+            }
+            Report report = new ColumnProfiler(reader, 0).profile();
+            String outputPath = options.getOutputPath();
+            boolean toStdout = outputPath == null || outputPath.equals("-");
+            OutputStream out = toStdout ? new BufferedOutputStream(new FileOutputStream(java.io.FileDescriptor.out), 1 << 16)
+                    : new BufferedOutputStream(Files.newOutputStream(Path.of(outputPath)), 1 << 16);
+            try {
+                out.write(report.toJson().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                if (toStdout) {
+                    out.flush();
+                } else {
+                    out.close();
+                }
+            }
+            System.err.println(report.summary());
+            return report;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Profile interrupted", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Without arguments: generates a file with {@link DataGenerator}, profiles it with one
+     * thread and with all of them, and checks the results against an exact count of every
+     * field. With arguments, profiles a file and prints the report.
+     * Usage: ColumnProfiler [data_file copybook [encoding [--recfm=...]]]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 2) {
+            ViewerOptions options = new ViewerOptions();
+            for (int i = 3; i < args.length; i++) {
+                options.apply(args[i]);
+            }
+            PagedFileReader reader = new PagedFileReader(args[0], args[1], CHUNK_RECORDS, args.length > 2 ? args[2] : "CP037", options);
+            reader.awaitIndexing();
+            System.out.println(new ColumnProfiler(reader, 0).profile());
+            reader.close();
+            return;
+        }
+        Path dir = Files.createTempDirectory("columnprofiler");
+        Path copybook = dir.resolve("profile.cpy");
+        Path data = dir.resolve("profile.dat");
+        Files.write(copybook, Arrays.asList(
+                "       01 PROFILE-REC.",
+                "          05 CUST-ID       PIC 9(10).",
+                "          05 NAME          PIC X(20).",
+                "          05 STATUS        PIC X(1).",
+                "          05 BALANCE       PIC S9(7)V99.",
+                "          05 AMOUNT        PIC S9(9)V99 COMP-3.",
+                "          05 QTY           PIC S9(4) COMP.",
+                "          05 LEDGER        PIC S9(16)V99 COMP.",
+                "          05 LINE-COUNT    PIC 9(2).",
+                "          05 LINES OCCURS 0 TO 4 TIMES DEPENDING ON LINE-COUNT.",
+                "             10 SKU        PIC X(6).",
+                "             10 PRICE      PIC S9(5)V99 COMP-3."));
+        String encoding = "CP037";
+        int records = 300_000;
+        try {
+            LayoutDetail layout = net.sf.JRecord.JRecordInterface1.COBOL.newIOBuilder(copybook.toString())
+                    .setFont(encoding).getExternalRecord().asLayoutDetail();
+            Map<String, DataGenerator.Distribution> distributions = new HashMap<>();
+            distributions.put("CUST-ID", new DataGenerator.Distribution(0, 0));
+            distributions.put("STATUS", new DataGenerator.Distribution(4, 1.5));
+            distributions.put("NAME", new DataGenerator.Distribution(20_000, 1.0));
+            DataGenerator generator = new DataGenerator(layout, encoding, RecordFormat.RDW, 11, 0,
+                    new DataGenerator.Distribution(DataGenerator.DEFAULT_CARDINALITY, 0.8), distributions);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(data), 1 << 20)) {
+                generator.generate(records, out);
+            }
+            ViewerOptions options = new ViewerOptions();
+            options.apply("--no-index-cache");
+            options.setRecordFormat(RecordFormat.RDW);
+            PagedFileReader reader = new PagedFileReader(data.toString(), copybook.toString(), 50, encoding, options);
+            reader.awaitIndexing();
+            ColumnProfiler profiler = new ColumnProfiler(reader, 1);
+            Report sequential = profiler.profile();
+            Report parallel = new ColumnProfiler(reader, 0).profile();
+            System.out.println(sequential.summary());
+            System.out.println(parallel.summary() + " (all threads)");
+            System.out.println("Same report with one thread and all: " + sequential.toJson().replaceAll("\"seconds\":[0-9.]+", "")
+                    .equals(parallel.toJson().replaceAll("\"seconds\":[0-9.]+", "")));
+
+            // Exact figures, one field at a time, to check the report against
+            DecodePlan plan = reader.getDecodePlan();
+            int errors = 0;
+            for (int i = 0; i < profiler.fields.length; i++) {
+                int field = profiler.fields[i];
+                FieldProfile profile = sequential.profile.fields[i];
+                Set<String> distinct = new HashSet<>();
+                Map<String, Long> counts = new HashMap<>();
+                long[] present = new long[1];
+                List<BigDecimal> numbers = new ArrayList<>();
+                reader.scanRecords(0, reader.getTotalRecords(), (ordinal, record, length) -> {
+                    if (plan.isAbsent(field, record, length)) {
+                        return;
+                    }
+                    present[0]++;
+                    String raw = new String(record, plan.getOffset(field), plan.getLength(field), StandardCharsets.ISO_8859_1);
+                    distinct.add(raw);
+                    counts.merge(plan.decodeField(field, record, length).trim(), 1L, Long::sum);
+                    BigDecimal number = profiler.numeric[field] ? plan.decodeDecimal(field, record, length) : null;
+                    if (number != null) {
+                        numbers.add(number);
+                    }
+                });
+                long estimate = profile.distinctValues();
+                double error = Math.abs(estimate - distinct.size()) / (double) distinct.size();
+                boolean ok = present[0] == profile.values && error < 0.05
+                        && (distinct.size() > COUNTERS || (profile.isDistinctExact() && estimate == distinct.size()));
+                if (profiler.numeric[field] && !numbers.isEmpty()) {
+                    ok &= new BigDecimal(sequential.min[i]).compareTo(numbers.stream().min(BigDecimal::compareTo).get()) == 0;
+                    ok &= new BigDecimal(sequential.max[i]).compareTo(numbers.stream().max(BigDecimal::compareTo).get()) == 0;
+                }
+                if (sequential.topExact[i]) {
+                    for (int t = 0; t < sequential.topValues[i].length; t++) {
+                        ok &= counts.getOrDefault(sequential.topValues[i][t], -1L) == sequential.topCounts[i][t];
+                    }
+                }
+                if (!ok) {
+                    errors++;
+                }
+                System.out.printf("  %-10s %-6s values %7d  distinct %6d, reported %s%6d (%.2f%% off)  min %s  max %s%s%n",
+                        plan.getFieldName(field), profile.numeric ? "number" : "text", profile.values, distinct.size(),
+                        profile.isDistinctExact() ? "=" : "~", estimate, error * 100, sequential.min[i], sequential.max[i], ok ? "" : "  MISMATCH");
+            }
+            System.out.println(errors + " fields with errors");
+            String report = sequential.toString();
+            System.out.println(report.substring(0, report.indexOf("\n\n", report.indexOf("STATUS"))));
+            reader.close();
+        } finally {
+            Files.deleteIfExists(data);
+            Files.delete(copybook);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,776 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded copy of a data file in a compact columnar format, {@code <data>.ebvcol}, written once
+ * (with {@code --columnar}) and memory-mapped afterwards, so reopening the same extract pages
+ * and searches without any EBCDIC or packed decimal decoding.
+ *
+ * The rows are cut into blocks of {@link #blockRows}; each block stores each column as one
+ * chunk, encoded by what that block of the column holds:
+ * <ul>
+ *   <li>LONG: every value had a primitive numeric decoder. Stored as value - min in the fewest
+ *       bytes that hold max - min; min and max are kept in the directory, so range questions
+ *       can be answered without reading the chunk.</li>
+ *   <li>DICT: text with at most {@link #MAX_DICTIONARY} distinct values. The values once, then
+ *       one code byte per row; a search tests each distinct value once.</li>
+ *   <li>TEXT: anything else. Row end offsets, then the UTF-8 text.</li>
+ * </ul>
+ * Text is stored exactly as the viewer displays it (see {@link DecodePlan#decodeField}), errors
+ * included, so a page read from the cache looks the same as one decoded from the data file.
+ *
+ * File layout: a header, the chunks block by block, then the directory (layout summary, record
+ * format, and kind, position, byte width, min and max of every chunk). Like the index sidecar
+ * it is keyed by the data file's size and modification time and by the copybook layout; a stale
+ * file is rebuilt.
+ */
+public class ColumnarCache implements RecordPage.ColumnSource {
+
+    public static final String EXTENSION = ".ebvcol";
+
+    private static final int MAGIC = 0x45425643; // "EBVC"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 64;
+    private static final int BLOCK_CELLS = 1 << 19;  // Rows times fields held in memory while writing
+    private static final int MIN_BLOCK_ROWS = 1 << 10;
+    private static final int MAX_BLOCK_ROWS = 1 << 16;
+    private static final int MAX_DICTIONARY = 256;
+    private static final int DICTIONARY_CACHE = 1024;
+
+    private static final byte KIND_LONG = 1;
+    private static final byte KIND_DICT = 2;
+    private static final byte KIND_TEXT = 3;
+
+    private final DecodePlan plan;
+    private final MappedDataFile file;
+    private final long rowCount;
+    private final int fieldCount;
+    private final int blockRows;
+    private final byte[] kinds;   // Per chunk, index block * fieldCount + field
+    private final long[] positions;
+    private final byte[] widths;  // LONG: bytes per value
+    private final long[] mins;    // LONG: smallest and largest value of the chunk
+    private final long[] maxs;
+    private final Map<Integer, Dictionary> dictionaries = new LinkedHashMap<Integer, Dictionary>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Dictionary> eldest) {
+            return size() > DICTIONARY_CACHE;
+        }
+    };
+
+    /** The values of a DICT chunk and where its codes start. */
+    private static final class Dictionary {
+        final String[] values;
+        final long codesPosition;
+
+        Dictionary(String[] values, long codesPosition) {
+            this.values = values;
+            this.codesPosition = codesPosition;
+        }
+    }
+
+    private ColumnarCache(DecodePlan plan, MappedDataFile file, long rowCount, int fieldCount, int blockRows,
+                          byte[] kinds, long[] positions, byte[] widths, long[] mins, long[] maxs) {
+        this.plan = plan;
+        this.file = file;
+        this.rowCount = rowCount;
+        this.fieldCount = fieldCount;
+        this.blockRows = blockRows;
+        this.kinds = kinds;
+        this.positions = positions;
+        this.widths = widths;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    public static Path cachePath(String dataFilePath) {
+        Path dataPath = Path.of(dataFilePath);
+        return dataPath.resolveSibling(dataPath.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Opens the cache of the reader's data file, building it first if it is missing or stale.
+     * Building waits for the reader to index the whole file and decodes every record once.
+     */
+    public static ColumnarCache openOrBuild(PagedFileReader reader) throws IOException {
+        Path path = cachePath(reader.getFilePath());
+        ColumnarCache cache = open(reader, path);
+        if (cache != null) {
+            return cache;
+        }
+        long start = System.nanoTime();
+        System.err.println("Building columnar cache " + path + "...");
+        build(reader, path);
+        cache = open(reader, path);
+        if (cache == null) {
+            throw new IOException("Columnar cache " + path + " could not be read back after building it.");
+        }
+        System.err.printf("Columnar cache built: %d records, %.1f MB, %d ms%n",
+                cache.rowCount, Files.size(path) / 1e6, (System.nanoTime() - start) / 1_000_000);
+        return cache;
+    }
+
+    /** The cache at {@code path} if it was built from the reader's file as it is now, else null. */
+    private static ColumnarCache open(PagedFileReader reader, Path path) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) < HEADER_LENGTH) {
+            return null;
+        }
+        Path dataPath = Path.of(reader.getFilePath());
+        MappedDataFile file = new MappedDataFile(path.toString());
+        boolean keep = false;
+        try {
+            byte[] header = new byte[HEADER_LENGTH];
+            file.read(0, header, 0, HEADER_LENGTH);
+            ByteBuffer in = ByteBuffer.wrap(header);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != Files.size(dataPath)
+                    || in.getLong() != Files.getLastModifiedTime(dataPath).toMillis()) {
+                return null;
+            }
+            long rowCount = in.getLong();
+            int fieldCount = in.getInt();
+            int blockRows = in.getInt();
+            long directoryPosition = in.getLong();
+            if (fieldCount != reader.getDecodePlan().getFieldCount() || blockRows <= 0
+                    || directoryPosition < HEADER_LENGTH || directoryPosition >= file.length()) {
+                return null;
+            }
+
+            byte[] directory = new byte[(int) (file.length() - directoryPosition)];
+            file.read(directoryPosition, directory, 0, directory.length);
+            ByteBuffer dir = ByteBuffer.wrap(directory);
+            String layoutSummary = readString(dir);
+            String format = readString(dir);
+            if (!layoutSummary.equals(IndexSidecar.describeLayout(reader.getRecordLayout(), reader.getEncoding()))
+                    || !format.equals(reader.getRecordFormat().name())) {
+                return null;
+            }
+            int chunks = (int) ((rowCount + blockRows - 1) / blockRows) * fieldCount;
+            byte[] kinds = new byte[chunks];
+            long[] positions = new long[chunks];
+            byte[] widths = new byte[chunks];
+            long[] mins = new long[chunks];
+            long[] maxs = new long[chunks];
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                kinds[chunk] = dir.get();
+                positions[chunk] = dir.getLong();
+                widths[chunk] = dir.get();
+                mins[chunk] = dir.getLong();
+                maxs[chunk] = dir.getLong();
+            }
+            keep = true;
+            return new ColumnarCache(reader.getDecodePlan(), file, rowCount, fieldCount, blockRows, kinds, positions, widths, mins, maxs);
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring unreadable columnar cache " + path + ": " + e);
+            return null;
+        } finally {
+            if (!keep) {
+                file.close();
+            }
+        }
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    /** Display text of one cell, as {@link DecodePlan#decodeField} (or the page view on error) gives it. */
+    public String getValue(long row, int field) {
+        int chunk = chunk(row, field);
+        int index = (int) (row % blockRows);
+        switch (kinds[chunk]) {
+            case KIND_LONG:
+                return plan.formatUnscaled(field, readLong(chunk, index));
+            case KIND_DICT:
+                Dictionary dictionary = dictionary(chunk);
+                return dictionary.values[file.getUnsignedByte(dictionary.codesPosition + index)];
+            default:
+                return readText(chunk, index);
+        }
+    }
+
+    @Override
+    public void readColumn(int field, long[] ordinals, int count, String[] into) {
+        int i = 0;
+        while (i < count) {
+            // A page is usually a run of consecutive records: read each run's part of a chunk at once
+            int chunk = chunk(ordinals[i], field);
+            int first = (int) (ordinals[i] % blockRows);
+            int run = 1;
+            while (i + run < count && ordinals[i + run] == ordinals[i] + run && first + run < blockRows) {
+                run++;
+            }
+            readRun(chunk, field, first, run, into, i);
+            i += run;
+        }
+    }
+
+    /** Display text of rows [first, first + run) of a chunk into {@code into[at..]}. */
+    private void readRun(int chunk, int field, int first, int run, String[] into, int at) {
+        long position = positions[chunk];
+        switch (kinds[chunk]) {
+            case KIND_LONG: {
+                int width = widths[chunk];
+                byte[] bytes = new byte[run * width];
+                file.read(position + (long) first * width, bytes, 0, bytes.length);
+                for (int row = 0; row < run; row++) {
+                    long delta = 0;
+                    for (int b = 0; b < width; b++) {
+                        delta = (delta << 8) | (bytes[row * width + b] & 0xFF);
+                    }
+                    into[at + row] = plan.formatUnscaled(field, mins[chunk] + delta);
+                }
+                break;
+            }
+            case KIND_DICT: {
+                Dictionary dictionary = dictionary(chunk);
+                byte[] codes = new byte[run];
+                file.read(dictionary.codesPosition + first, codes, 0, run);
+                for (int row = 0; row < run; row++) {
+                    into[at + row] = dictionary.values[codes[row] & 0xFF];
+                }
+                break;
+            }
+            default: {
+                int rows = rowsInBlock(chunk / fieldCount);
+                // End offsets of the row before the run (0 for the first row) through the last row
+                ByteBuffer ends = ByteBuffer.wrap(new byte[4 * (run + 1)]);
+                if (first == 0) {
+                    file.read(position, ends.array(), 4, 4 * run);
+                } else {
+                    file.read(position + 4L * (first - 1), ends.array(), 0, 4 * (run + 1));
+                }
+                int start = ends.getInt(0);
+                byte[] text = new byte[ends.getInt(4 * run) - start];
+                file.read(position + 4L * rows + start, text, 0, text.length);
+                for (int row = 0; row < run; row++) {
+                    int from = ends.getInt(4 * row) - start;
+                    into[at + row] = new String(text, from, ends.getInt(4 * (row + 1)) - start - from, StandardCharsets.UTF_8);
+                }
+                break;
+            }
+        }
+    }
+
+    @Override
+    public long readUnscaled(long ordinal, int field) {
+        int chunk = chunk(ordinal, field);
+        return kinds[chunk] == KIND_LONG ? readLong(chunk, (int) (ordinal % blockRows)) : NumericDecoder.NOT_DECODED;
+    }
+
+    /**
+     * Smallest and largest unscaled value of a numeric field, from the chunk headers alone, or
+     * null if some block of the field is not stored as numbers.
+     */
+    public long[] getUnscaledRange(int field) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int chunk = field; chunk < kinds.length; chunk += fieldCount) {
+            if (kinds[chunk] != KIND_LONG) {
+                return null;
+            }
+            min = Math.min(min, mins[chunk]);
+            max = Math.max(max, maxs[chunk]);
+        }
+        return new long[] {min, max};
+    }
+
+    /**
+     * Sum of a numeric field over all rows, read as primitives; null if some block of the field
+     * is not stored as numbers.
+     */
+    public BigDecimal sum(int field) {
+        if (getUnscaledRange(field) == null) {
+            return null;
+        }
+        BigDecimal total = BigDecimal.ZERO;
+        for (int chunk = field; chunk < kinds.length; chunk += fieldCount) {
+            int rows = rowsInBlock(chunk / fieldCount);
+            long partial = 0; // Summed in a long while it cannot overflow
+            for (int index = 0; index < rows; index++) {
+                long value = readLong(chunk, index);
+                long next = partial + value;
+                if (((partial ^ next) & (value ^ next)) < 0) {
+                    total = total.add(BigDecimal.valueOf(partial));
+                    next = value;
+                }
+                partial = next;
+            }
+            total = total.add(BigDecimal.valueOf(partial));
+        }
+        return total.movePointLeft(plan.getScale(field));
+    }
+
+    /**
+     * Ordinals of the rows whose text in {@code field} contains {@code lowerCaseTerm} when lower
+     * cased, like {@link SearchManager#searchFile}, at most {@code maxHits} of them. Dictionary
+     * chunks test each distinct value once.
+     */
+    public OrdinalList search(int field, String lowerCaseTerm, int maxHits) {
+        OrdinalList hits = new OrdinalList();
+        byte[] asciiTerm = lowerCaseTerm.chars().allMatch(c -> c < 0x80) ? lowerCaseTerm.getBytes(StandardCharsets.US_ASCII) : null;
+        int blocks = kinds.length / Math.max(1, fieldCount);
+        for (int block = 0; block < blocks && hits.size() < maxHits; block++) {
+            int chunk = block * fieldCount + field;
+            int rows = rowsInBlock(block);
+            long first = (long) block * blockRows;
+            if (kinds[chunk] == KIND_DICT) {
+                Dictionary dictionary = dictionary(chunk);
+                boolean[] matches = new boolean[dictionary.values.length];
+                boolean any = false;
+                for (int code = 0; code < matches.length; code++) {
+                    matches[code] = dictionary.values[code].toLowerCase().contains(lowerCaseTerm);
+                    any |= matches[code];
+                }
+                if (!any) {
+                    continue;
+                }
+                byte[] codes = new byte[rows];
+                file.read(dictionary.codesPosition, codes, 0, rows);
+                for (int index = 0; index < rows && hits.size() < maxHits; index++) {
+                    if (matches[codes[index] & 0xFF]) {
+                        hits.add(first + index);
+                    }
+                }
+            } else if (kinds[chunk] == KIND_TEXT) {
+                searchText(chunk, rows, first, asciiTerm, lowerCaseTerm, hits, maxHits);
+            } else {
+                for (int index = 0; index < rows && hits.size() < maxHits; index++) {
+                    if (plan.formatUnscaled(field, readLong(chunk, index)).toLowerCase().contains(lowerCaseTerm)) {
+                        hits.add(first + index);
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    /** {@link #search} of one TEXT chunk, copied out of the mapping at once instead of a read per row. */
+    private void searchText(int chunk, int rows, long first, byte[] asciiTerm, String lowerCaseTerm, OrdinalList hits, int maxHits) {
+        long position = positions[chunk];
+        ByteBuffer ends = ByteBuffer.wrap(new byte[4 * rows]);
+        file.read(position, ends.array(), 0, 4 * rows);
+        byte[] text = new byte[ends.getInt(4 * (rows - 1))];
+        file.read(position + 4L * rows, text, 0, text.length);
+        int start = 0;
+        for (int index = 0; index < rows && hits.size() < maxHits; index++) {
+            int end = ends.getInt(4 * index);
+            if (asciiTerm != null ? containsAscii(text, start, end, asciiTerm, lowerCaseTerm)
+                    : new String(text, start, end - start, StandardCharsets.UTF_8).toLowerCase().contains(lowerCaseTerm)) {
+                hits.add(first + index);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Whether UTF-8 {@code text[start..end)} lower cased contains the ASCII term, compared on the
+     * bytes. Text with non-ASCII characters goes through {@link String#toLowerCase()} as usual.
+     */
+    private static boolean containsAscii(byte[] text, int start, int end, byte[] term, String lowerCaseTerm) {
+        for (int i = start; i < end; i++) {
+            if (text[i] < 0) {
+                return new String(text, start, end - start, StandardCharsets.UTF_8).toLowerCase().contains(lowerCaseTerm);
+            }
+        }
+        int last = end - term.length;
+        for (int i = start; i <= last; i++) {
+            int j = 0;
+            while (j < term.length && lowerAscii(text[i + j]) == term[j]) {
+                j++;
+            }
+            if (j == term.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int lowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private int chunk(long row, int field) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Record " + row + " outside 0.." + (rowCount - 1));
+        }
+        return (int) (row / blockRows) * fieldCount + field;
+    }
+
+    private int rowsInBlock(int block) {
+        return (int) Math.min(blockRows, rowCount - (long) block * blockRows);
+    }
+
+    private long readLong(int chunk, int index) {
+        int width = widths[chunk];
+        long position = positions[chunk] + (long) index * width;
+        long delta = 0;
+        for (int i = 0; i < width; i++) {
+            delta = (delta << 8) | file.getUnsignedByte(position + i);
+        }
+        return mins[chunk] + delta; // Wraps back for ranges wider than Long.MAX_VALUE
+    }
+
+    private String readText(int chunk, int index) {
+        long position = positions[chunk];
+        int rows = rowsInBlock(chunk / fieldCount);
+        int start = index == 0 ? 0 : readInt(position + 4L * (index - 1));
+        int end = readInt(position + 4L * index);
+        byte[] bytes = new byte[end - start];
+        file.read(position + 4L * rows + start, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private synchronized Dictionary dictionary(int chunk) {
+        Dictionary dictionary = dictionaries.get(chunk);
+        if (dictionary == null) {
+            long position = positions[chunk];
+            String[] values = new String[readInt(position)];
+            position += 4;
+            for (int code = 0; code < values.length; code++) {
+                byte[] bytes = new byte[readInt(position)];
+                file.read(position + 4, bytes, 0, bytes.length);
+                values[code] = new String(bytes, StandardCharsets.UTF_8);
+                position += 4 + bytes.length;
+            }
+            dictionary = new Dictionary(values, position);
+            dictionaries.put(chunk, dictionary);
+        }
+        return dictionary;
+    }
+
+    private int readInt(long position) {
+        return (file.getUnsignedByte(position) << 24) | (file.getUnsignedByte(position + 1) << 16)
+                | (file.getUnsignedByte(position + 2) << 8) | file.getUnsignedByte(position + 3);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Writing
+
+    /** Counts the bytes written, which DataOutputStream only does up to 2 GB. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /** Decodes every record of the reader's file into a new cache at {@code path}. */
+    static void build(PagedFileReader reader, Path path) throws IOException {
+        try {
+            reader.awaitIndexing();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the record index", e);
+        }
+        Path dataPath = Path.of(reader.getFilePath());
+        long dataSize = Files.size(dataPath);
+        long dataModified = Files.getLastModifiedTime(dataPath).toMillis();
+        DecodePlan plan = reader.getDecodePlan();
+        int fieldCount = plan.getFieldCount();
+        long rowCount = reader.getTotalRecords();
+        int blockRows = Math.max(MIN_BLOCK_ROWS, Math.min(MAX_BLOCK_ROWS, BLOCK_CELLS / Math.max(1, fieldCount)));
+        int chunks = (int) ((rowCount + blockRows - 1) / blockRows) * fieldCount;
+        byte[] kinds = new byte[chunks];
+        long[] positions = new long[chunks];
+        byte[] widths = new byte[chunks];
+        long[] mins = new long[chunks];
+        long[] maxs = new long[chunks];
+
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 1 << 16));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            out.write(new byte[HEADER_LENGTH]); // Written last, once the directory position is known
+
+            long[][] numbers = new long[fieldCount][];
+            String[][] texts = new String[fieldCount][];
+            boolean[] numeric = new boolean[fieldCount];
+            for (long first = 0; first < rowCount; first += blockRows) {
+                int rows = (int) Math.min(blockRows, rowCount - first);
+                for (int field = 0; field < fieldCount; field++) {
+                    numeric[field] = plan.hasUnscaledDecoder(field);
+                    if (numeric[field] && (numbers[field] == null || numbers[field].length < rows)) {
+                        numbers[field] = new long[blockRows];
+                    }
+                    if (texts[field] == null || texts[field].length < rows) {
+                        texts[field] = new String[blockRows];
+                    }
+                }
+                long blockFirst = first;
+                reader.scanRecords(first, first + rows, (ordinal, data, length) -> {
+                    int index = (int) (ordinal - blockFirst);
+                    for (int field = 0; field < fieldCount; field++) {
+                        if (numeric[field]) {
+                            long value = plan.decodeUnscaled(field, data, length);
+                            if (value != NumericDecoder.NOT_DECODED) {
+                                numbers[field][index] = value;
+                                continue;
+                            }
+                            // Not a clean number: this block of the column is stored as text
+                            numeric[field] = false;
+                            for (int i = 0; i < index; i++) {
+                                texts[field][i] = plan.formatUnscaled(field, numbers[field][i]);
+                            }
+                        }
+                        texts[field][index] = decode(plan, field, data, length);
+                    }
+                });
+                int block = (int) (first / blockRows);
+                for (int field = 0; field < fieldCount; field++) {
+                    int chunk = block * fieldCount + field;
+                    positions[chunk] = counter.count;
+                    if (numeric[field]) {
+                        kinds[chunk] = KIND_LONG;
+                        writeLongs(out, numbers[field], rows, chunk, widths, mins, maxs);
+                    } else {
+                        kinds[chunk] = writeText(out, texts[field], rows);
+                    }
+                }
+            }
+
+            long directoryPosition = counter.count;
+            writeString(out, IndexSidecar.describeLayout(reader.getRecordLayout(), reader.getEncoding()));
+            writeString(out, reader.getRecordFormat().name());
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                out.writeByte(kinds[chunk]);
+                out.writeLong(positions[chunk]);
+                out.writeByte(widths[chunk]);
+                out.writeLong(mins[chunk]);
+                out.writeLong(maxs[chunk]);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).putLong(dataSize).putLong(dataModified)
+                  .putLong(rowCount).putInt(fieldCount).putInt(blockRows).putLong(directoryPosition);
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String decode(DecodePlan plan, int field, byte[] data, int length) {
+        try {
+            return plan.decodeField(field, data, length);
+        } catch (RuntimeException e) {
+            return RecordPage.ERROR_VALUE; // As the page view shows it
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values, int rows, int chunk,
+                                   byte[] widths, long[] mins, long[] maxs) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < rows; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        long range = max - min; // Unsigned
+        int width = 0;
+        while (width < 8 && (range >>> (8 * width)) != 0) {
+            width++;
+        }
+        mins[chunk] = min;
+        maxs[chunk] = max;
+        widths[chunk] = (byte) width;
+        byte[] buffer = new byte[rows * width];
+        for (int i = 0; i < rows; i++) {
+            long delta = values[i] - min;
+            for (int b = width - 1; b >= 0; b--) {
+                buffer[i * width + b] = (byte) delta;
+                delta >>>= 8;
+            }
+        }
+        out.write(buffer);
+    }
+
+    /** Writes a DICT chunk if the values allow it, otherwise a TEXT chunk; returns the kind. */
+    private static byte writeText(DataOutputStream out, String[] values, int rows) throws IOException {
+        Map<String, Integer> codes = new HashMap<>();
+        for (int i = 0; i < rows && codes.size() <= MAX_DICTIONARY; i++) {
+            codes.putIfAbsent(values[i], codes.size());
+        }
+        if (codes.size() <= MAX_DICTIONARY) {
+            String[] dictionary = new String[codes.size()];
+            for (Map.Entry<String, Integer> entry : codes.entrySet()) {
+                dictionary[entry.getValue()] = entry.getKey();
+            }
+            out.writeInt(dictionary.length);
+            for (String value : dictionary) {
+                writeString(out, value);
+            }
+            byte[] codeBytes = new byte[rows];
+            for (int i = 0; i < rows; i++) {
+                codeBytes[i] = (byte) (int) codes.get(values[i]);
+            }
+            out.write(codeBytes);
+            return KIND_DICT;
+        }
+        byte[][] encoded = new byte[rows][];
+        int end = 0;
+        for (int i = 0; i < rows; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            end += encoded[i].length;
+            out.writeInt(end);
+        }
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+        return KIND_TEXT;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Builds (or reuses) the cache of a data file and checks every cell against the decode plan,
+     * then compares paging, search and a sum with and without it.
+     * Usage: ColumnarCache data_file copybook [encoding [search_field search_term [--recfm=...]]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: ColumnarCache data_file copybook [encoding [search_field search_term [--recfm=...]]]");
+            return;
+        }
+        String encoding = args.length > 2 ? args[2] : "CP037";
+        ViewerOptions options = new ViewerOptions();
+        for (int i = 5; i < args.length; i++) {
+            options.apply(args[i]);
+        }
+        PagedFileReader reader = new PagedFileReader(args[0], args[1], 50, encoding, options);
+        long start = System.nanoTime();
+        ColumnarCache cache = openOrBuild(reader);
+        System.out.printf("Opened in %d ms: %d records in blocks of %d, %.1f MB (data file %.1f MB)%n",
+                (System.nanoTime() - start) / 1_000_000, cache.getRowCount(), cache.getBlockRows(),
+                Files.size(cachePath(args[0])) / 1e6, Files.size(Path.of(args[0])) / 1e6);
+        int[] kindCounts = new int[4];
+        for (byte kind : cache.kinds) {
+            kindCounts[kind]++;
+        }
+        System.out.printf("Chunks: %d LONG, %d DICT, %d TEXT%n", kindCounts[KIND_LONG], kindCounts[KIND_DICT], kindCounts[KIND_TEXT]);
+
+        // Every cell must read back as the plan decodes it
+        DecodePlan plan = reader.getDecodePlan();
+        long[] mismatches = new long[1];
+        start = System.nanoTime();
+        reader.scanRecords(0, cache.getRowCount(), (ordinal, data, length) -> {
+            for (int field = 0; field < plan.getFieldCount(); field++) {
+                if (!decode(plan, field, data, length).equals(cache.getValue(ordinal, field)) && mismatches[0]++ < 5) {
+                    System.out.println("Mismatch in record " + ordinal + " field " + plan.getFieldName(field) + ": '"
+                            + decode(plan, field, data, length) + "' vs '" + cache.getValue(ordinal, field) + "'");
+                }
+            }
+        });
+        System.out.printf("Checked every cell in %d ms: %d mismatches%n", (System.nanoTime() - start) / 1_000_000, mismatches[0]);
+
+        // Paging: every cell of the first pages decoded from the data file, then read from the
+        // cache; the second round of each is timed
+        int pages = Math.min(2000, reader.getTotalPages());
+        for (int round = 0; round < 2; round++) {
+            for (boolean columnar : new boolean[] {false, true}) {
+                start = System.nanoTime();
+                for (int page = 0; page < pages; page++) {
+                    RecordPage records;
+                    if (columnar) {
+                        long first = (long) page * reader.getPageSize();
+                        long end = Math.min(first + reader.getPageSize(), cache.getRowCount());
+                        records = new RecordPage(plan, (int) (end - first), cache);
+                        for (long ordinal = first; ordinal < end; ordinal++) {
+                            records.addOrdinal(ordinal);
+                        }
+                    } else {
+                        records = reader.readPage(page);
+                    }
+                    records.decodeAll();
+                }
+                if (round == 1) {
+                    System.out.printf("%s: %d pages in %d ms%n", columnar ? "Pages from cache    " : "Pages decoded       ",
+                            pages, (System.nanoTime() - start) / 1_000_000);
+                }
+            }
+        }
+
+        if (args.length > 4) {
+            int field = plan.indexOf(args[3]);
+            for (int round = 0; round < 2; round++) {
+                start = System.nanoTime();
+                long fileHits = new SearchManager().searchFile(reader, args[3], args[4]).size();
+                long fileMillis = (System.nanoTime() - start) / 1_000_000;
+                start = System.nanoTime();
+                long cacheHits = cache.search(field, args[4].toLowerCase(), SearchManager.MAX_HITS).size();
+                if (round == 1) {
+                    System.out.printf("Search '%s' in %s: %d hits from the data file in %d ms, %d hits from the cache in %d ms%n",
+                            args[4], args[3], fileHits, fileMillis, cacheHits, (System.nanoTime() - start) / 1_000_000);
+                }
+            }
+        }
+        for (int field = 0; field < plan.getFieldCount(); field++) {
+            long[] range = cache.getUnscaledRange(field);
+            if (range != null) {
+                start = System.nanoTime();
+                BigDecimal sum = cache.sum(field);
+                System.out.printf("%s: min %s, max %s (headers only), sum %s (%d ms)%n", plan.getFieldName(field),
+                        plan.formatUnscaled(field, range[0]), plan.formatUnscaled(field, range[1]), sum.toPlainString(),
+                        (System.nanoTime() - start) / 1_000_000);
+                break;
+            }
+        }
+        cache.close();
+        reader.close();
+    }
+}
@@ -0,0 +1,684 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.JRecord.JRecordInterface1;
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Details.LayoutDetail;
+import net.sf.JRecord.Details.Line;
+import net.sf.JRecord.External.ExternalRecord;
+import net.sf.JRecord.Types.Type;
+
+/**
+ * Writes synthetic data files of any size for a copybook, for stress tests and benchmarks at
+ * production scale. The copybook is read through JRecord's {@link ExternalRecord}, like the
+ * viewer reads it, and every field gets values that the viewer and JRecord both read back: text
+ * for PIC X, and zoned, packed (COMP-3) and binary (COMP) numbers within the field's digits.
+ *
+ * Each field draws its values from {@code cardinality} distinct ones, picked uniformly or with
+ * a Zipf-like skew (value k is drawn with a weight of about 1/(k+1)^skew, so a skew of 1 makes
+ * the first value some ten times more common than the tenth). A field can instead be
+ * {@code unique}: record n then holds n, so the file is sorted and unique on it, as a key. The
+ * distinct values of a field are encoded once, so writing a record is mostly array copies.
+ *
+ * Output is deterministic: every value of record n is a hash of the seed, n and the field, so
+ * the same options give the same file whatever the number of threads. Records are generated in
+ * chunks of {@link #CHUNK_RECORDS} by worker threads and written in order, with a bounded number
+ * of chunks in memory, as {@link RecordExporter} does.
+ *
+ * Files are written fixed length (RECFM=F) or with record descriptor words (RDW). With OCCURS
+ * DEPENDING ON tables every record gets random counts and is written at its actual length,
+ * which needs RDW framing; fixed-length records keep every table at its maximum size. Only the
+ * first record of a copybook with several 01 levels is generated, and of fields that
+ * REDEFINES the same bytes, only the first.
+ *
+ * Usage: DataGenerator [options] copybook data_file size (e.g. 2G, 500M or a byte count)
+ */
+public class DataGenerator {
+
+    /** Records generated and written as one unit of work. */
+    static final int CHUNK_RECORDS = 8192;
+    /** Distinct values per field unless given otherwise. */
+    static final long DEFAULT_CARDINALITY = 1000;
+    /** Fields with at most this many distinct values are encoded once up front. */
+    private static final long MAX_DICTIONARY = 1 << 16;
+    private static final String USAGE = "Usage: DataGenerator [--encoding=CP037] [--recfm=F|RDW] [--seed=N] [--threads=N] [--records=N]\n"
+            + "                     [--cardinality=N] [--skew=S] [--field=NAME=N|unique[:S]]... copybook data_file [size]";
+
+    private final DecodePlan plan;
+    private final RecordFormat framing;
+    private final long seed;
+    private final int threads;
+    private final FieldGenerator[] generators; // In copybook order; fields that overlap an earlier one are left out
+    private final byte[] template;             // A record of spaces, where FILLER and unset bytes come from
+    private final OdoLayout odo;               // Depending-on tables written at their actual size, or null
+    private final FieldGenerator[] counters;   // Per depending-on table: its counter field
+
+    /** Totals of one {@link #generate} run. */
+    public static final class Summary {
+        public final long records;
+        public final long bytes;
+        public final long nanos;
+
+        Summary(long records, long bytes, long nanos) {
+            this.records = records;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return String.format("Generated %d records (%.1f MB) in %.2f s: %.1f MB/s", records, bytes / 1e6, seconds, bytes / 1e6 / seconds);
+        }
+    }
+
+    /** How the values of one field are drawn. */
+    static final class Distribution {
+        final long cardinality; // 0: unique, record n holds value n
+        final double skew;      // 0: uniform
+
+        Distribution(long cardinality, double skew) {
+            if (cardinality < 0 || skew < 0) {
+                throw new IllegalArgumentException("Cardinality and skew cannot be negative");
+            }
+            this.cardinality = cardinality;
+            this.skew = skew;
+        }
+
+        /** Parses {@code N|unique[:S]}, the skew defaulting to {@code defaultSkew}. */
+        static Distribution parse(String value, double defaultSkew) {
+            String[] parts = value.trim().split(":", 2);
+            long cardinality = parts[0].equalsIgnoreCase("unique") ? 0 : Long.parseLong(parts[0]);
+            if (parts[0].equals("0")) {
+                throw new IllegalArgumentException("Cardinality must be at least 1, or unique");
+            }
+            return new Distribution(cardinality, parts.length > 1 ? Double.parseDouble(parts[1]) : defaultSkew);
+        }
+    }
+
+    /**
+     * @param distributions per field name; fields not named use {@code defaults}.
+     * @param threads worker threads; 0 means one per available processor.
+     */
+    public DataGenerator(LayoutDetail layout, String encoding, RecordFormat framing, long seed, int threads,
+                         Distribution defaults, Map<String, Distribution> distributions) {
+        if (framing != RecordFormat.FIXED && framing != RecordFormat.RDW) {
+            throw new IllegalArgumentException("Records can be written fixed length (F) or with RDWs, not " + framing);
+        }
+        this.plan = DecodePlan.compile(layout, encoding);
+        this.framing = framing;
+        this.seed = seed;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        Charset charset = Charset.forName(encoding);
+        int recordLength = layout.getRecord(0).getLength();
+        this.template = new byte[recordLength];
+        Arrays.fill(template, " ".getBytes(charset)[0]);
+
+        for (String name : distributions.keySet()) {
+            if (plan.indexOf(name) < 0) {
+                throw new IllegalArgumentException("--field: '" + name + "' is not a field of the copybook");
+            }
+        }
+        boolean[] covered = new boolean[recordLength];
+        FieldGenerator[] byField = new FieldGenerator[plan.getFieldCount()];
+        int count = 0;
+        for (int i = 0; i < plan.getFieldCount(); i++) {
+            int offset = plan.getOffset(i);
+            int end = Math.min(recordLength, offset + plan.getLength(i));
+            boolean overlaps = false;
+            for (int b = offset; b < end && !overlaps; b++) {
+                overlaps = covered[b];
+            }
+            if (overlaps || plan.getFieldName(i).equalsIgnoreCase("FILLER") || end <= offset) {
+                continue;
+            }
+            Arrays.fill(covered, offset, end, true);
+            byField[i] = new FieldGenerator(layout, plan.getField(i), i, offset, end - offset, charset, seed,
+                    distributions.getOrDefault(plan.getFieldName(i), defaults));
+            count++;
+        }
+        this.generators = new FieldGenerator[count];
+        int next = 0;
+        for (FieldGenerator generator : byField) {
+            if (generator != null) {
+                generators[next++] = generator;
+            }
+        }
+
+        OdoLayout tables = plan.getOdoLayout();
+        if (tables != null && framing != RecordFormat.RDW) {
+            System.err.println("Warning: fixed-length records are written with every OCCURS DEPENDING ON table at its maximum size; use --recfm=RDW for variable counts.");
+            tables = null;
+        }
+        this.odo = tables;
+        this.counters = new FieldGenerator[odo == null ? 0 : odo.getTableCount()];
+        for (int t = 0; t < counters.length; t++) {
+            counters[t] = byField[plan.indexOf(odo.getCounterName(t))];
+        }
+        // Without variable counts the counters must still describe full tables
+        OdoLayout fullTables = plan.getOdoLayout();
+        for (int t = 0; odo == null && fullTables != null && t < fullTables.getTableCount(); t++) {
+            FieldGenerator counter = byField[plan.indexOf(fullTables.getCounterName(t))];
+            counter.encodeUnscaled(template, fullTables.getMaxCount(t));
+            counter.fixed = true;
+        }
+    }
+
+    /** Length of the longest record written, without its RDW. */
+    public int getRecordLength() {
+        return template.length;
+    }
+
+    /**
+     * Writes {@code records} records to {@code out} in order. {@code out} is flushed but not closed.
+     */
+    public Summary generate(long records, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "generator-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        long bytes = 0;
+        try {
+            long next = 0;
+            while (next < records || !pending.isEmpty()) {
+                if (next < records && pending.size() < threads * 2) {
+                    long first = next;
+                    long end = Math.min(records, next + CHUNK_RECORDS);
+                    pending.add(workers.submit(() -> generateChunk(first, end)));
+                    next = end;
+                } else {
+                    byte[] chunk = pending.poll().get();
+                    out.write(chunk);
+                    bytes += chunk.length;
+                }
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Generation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error generating records: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        return new Summary(records, bytes, System.nanoTime() - start);
+    }
+
+    /** Worker task: records [first, end) with their framing. */
+    private byte[] generateChunk(long first, long end) {
+        int descriptor = framing == RecordFormat.RDW ? 4 : 0;
+        byte[] chunk = new byte[(int) (end - first) * (template.length + descriptor)];
+        byte[] record = new byte[template.length];
+        byte[] stored = odo == null ? record : new byte[template.length];
+        int[] counts = new int[counters.length];
+        int position = 0;
+        for (long ordinal = first; ordinal < end; ordinal++) {
+            int length = generateRecord(ordinal, record, stored, counts);
+            if (descriptor > 0) {
+                chunk[position] = (byte) ((length + 4) >>> 8);
+                chunk[position + 1] = (byte) (length + 4);
+                chunk[position + 2] = 0;
+                chunk[position + 3] = 0;
+            }
+            System.arraycopy(stored, 0, chunk, position + descriptor, length);
+            position += descriptor + length;
+        }
+        return position == chunk.length ? chunk : Arrays.copyOf(chunk, position);
+    }
+
+    /**
+     * Fills {@code record} (static layout) for record {@code ordinal}; with depending-on tables
+     * the record as stored goes to {@code stored}. Returns the stored length.
+     */
+    private int generateRecord(long ordinal, byte[] record, byte[] stored, int[] counts) {
+        System.arraycopy(template, 0, record, 0, template.length);
+        for (FieldGenerator generator : generators) {
+            if (!generator.fixed) {
+                generator.write(record, ordinal);
+            }
+        }
+        if (odo == null) {
+            return record.length;
+        }
+        for (int t = 0; t < counts.length; t++) {
+            counts[t] = (int) Long.remainderUnsigned(mix(seed ^ mix(ordinal * 0x9E3779B97F4A7C15L - t - 1)), odo.getMaxCount(t) + 1L);
+            counters[t].encodeUnscaled(record, counts[t]);
+        }
+        return odo.compact(record, counts, stored);
+    }
+
+    /** The SplitMix64 finaliser: a well-mixed 64-bit hash of {@code z}. */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Values of one field. The field types {@link NumericDecoder} reads are encoded here
+     * directly; any other type is set through a JRecord {@link Line}.
+     */
+    private static final class FieldGenerator {
+        private enum Kind { TEXT, ZONED, DISPLAY, PACKED, BINARY, JRECORD }
+
+        private final Kind kind;
+        private final int offset;
+        private final int length;
+        private final boolean signed;
+        private final int scale;
+        private final long modulus;         // 10^digits: unscaled values are below it in magnitude
+        private final Distribution distribution;
+        private final long salt;            // Per field: which values it has
+        private final long pickSalt;        // Per field: which value each record gets
+        private final byte[] alphabet;      // TEXT: encoded A-Z and 0-9
+        private final byte[] digits;        // DISPLAY: encoded 0-9
+        private final byte[][] dictionary;  // Every distinct value encoded, when there are few enough; else null
+        private final ThreadLocal<Line> lines; // JRECORD: a scratch line per worker
+        private final FieldDetail field;
+        private double skewTerm;            // Zipf: (cardinality + 1)^(1 - skew) - 1
+        boolean fixed;                      // Holds one value written into the template
+
+        @SuppressWarnings("deprecation") // JRecord still assigns the deprecated "small" type codes
+        FieldGenerator(LayoutDetail layout, FieldDetail field, int index, int offset, int length, Charset charset,
+                       long seed, Distribution distribution) {
+            this.field = field;
+            this.offset = offset;
+            this.length = length;
+            this.scale = Math.max(0, field.getDecimal());
+            this.distribution = distribution;
+            this.salt = mix(seed ^ mix(index + 1L));
+            this.pickSalt = mix(salt + 0x632BE59BD9B4E019L);
+            this.alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".getBytes(charset);
+            this.digits = "0123456789".getBytes(charset);
+            int digitCount;
+            switch (field.getType()) {
+                case Type.ftChar:
+                    kind = alphabet.length == 36 ? Kind.TEXT : Kind.JRECORD;
+                    signed = false;
+                    digitCount = 0;
+                    break;
+                case Type.ftZonedEbcdicSmall:
+                    kind = Kind.ZONED;
+                    signed = true;
+                    digitCount = length;
+                    break;
+                case Type.ftNumZeroPaddedPositive:
+                case Type.ftAssumedDecimalPositive:
+                    kind = digits.length == 10 ? Kind.DISPLAY : Kind.JRECORD;
+                    signed = false;
+                    digitCount = length;
+                    break;
+                case Type.ftPackedDecimalSmall:
+                case Type.ftPackedDecimal:
+                    kind = Kind.PACKED;
+                    signed = true;
+                    digitCount = length * 2 - 1;
+                    break;
+                case Type.ftPackedDecimalSmallPostive:
+                    kind = Kind.PACKED;
+                    signed = false;
+                    digitCount = length * 2 - 1;
+                    break;
+                case Type.ftIntBigEndianSmall:
+                    kind = length <= 8 ? Kind.BINARY : Kind.JRECORD;
+                    signed = true;
+                    digitCount = (int) ((length * 8 - 1) * Math.log10(2));
+                    break;
+                case Type.ftUIntBigEndianSmall:
+                case Type.ftPositiveBinaryBigEndian:
+                    kind = length <= 8 ? Kind.BINARY : Kind.JRECORD;
+                    signed = false;
+                    digitCount = (int) ((length * 8 - 1) * Math.log10(2)); // Kept below the signed range, so a long holds it
+                    break;
+                default:
+                    kind = Kind.JRECORD;
+                    signed = false;
+                    digitCount = length;
+            }
+            long power = 1;
+            for (int d = 0; d < Math.min(18, digitCount); d++) {
+                power *= 10;
+            }
+            this.modulus = power;
+            this.lines = kind == Kind.JRECORD ? ThreadLocal.withInitial(() -> new Line(layout, new byte[layout.getMaximumRecordLength()])) : null;
+            if (distribution.skew > 0 && distribution.cardinality > 0) {
+                skewTerm = distribution.skew == 1 ? 0 : Math.pow(distribution.cardinality + 1.0, 1 - distribution.skew) - 1;
+            }
+            if (distribution.cardinality > 0 && distribution.cardinality <= MAX_DICTIONARY) {
+                dictionary = new byte[(int) distribution.cardinality][];
+                byte[] scratch = new byte[offset + length];
+                byte space = " ".getBytes(charset)[0];
+                for (int k = 0; k < dictionary.length; k++) {
+                    Arrays.fill(scratch, offset, offset + length, space); // As in the record template
+                    encode(k, scratch);
+                    dictionary[k] = Arrays.copyOfRange(scratch, offset, offset + length);
+                }
+            } else {
+                dictionary = null;
+            }
+        }
+
+        /** Writes this field's value for record {@code ordinal}. */
+        void write(byte[] record, long ordinal) {
+            long k = pick(ordinal);
+            if (dictionary != null) {
+                System.arraycopy(dictionary[(int) k], 0, record, offset, length);
+            } else {
+                encode(k, record);
+            }
+        }
+
+        /** Which of the distinct values record {@code ordinal} gets. */
+        private long pick(long ordinal) {
+            long cardinality = distribution.cardinality;
+            if (cardinality == 0) {
+                return ordinal;
+            }
+            double u = (mix(pickSalt ^ mix(ordinal)) >>> 11) * 0x1.0p-53; // Uniform in [0, 1)
+            double k;
+            if (distribution.skew == 0) {
+                k = u * cardinality;
+            } else if (distribution.skew == 1) {
+                k = Math.pow(cardinality + 1.0, u) - 1;
+            } else {
+                // Inverse of the continuous Zipf distribution's CDF on [1, cardinality + 1)
+                k = Math.pow(u * skewTerm + 1, 1 / (1 - distribution.skew)) - 1;
+            }
+            return Math.min(cardinality - 1, Math.max(0, (long) k));
+        }
+
+        /** Writes distinct value {@code k} of this field at its offset. */
+        private void encode(long k, byte[] record) {
+            if (kind == Kind.TEXT) {
+                encodeText(k, record);
+                return;
+            }
+            long unscaled;
+            if (distribution.cardinality == 0) {
+                unscaled = k % modulus; // Ascending, as a key would be, until the field's digits run out
+            } else {
+                long hash = mix(salt ^ mix(k));
+                unscaled = Long.remainderUnsigned(hash, modulus);
+                if (signed && hash < 0) {
+                    unscaled = -unscaled;
+                }
+            }
+            encodeUnscaled(record, unscaled);
+        }
+
+        /** Unique: k in decimal, right-aligned; otherwise 1 to length random letters and digits. */
+        private void encodeText(long k, byte[] record) {
+            if (distribution.cardinality == 0) {
+                long value = k;
+                for (int i = offset + length - 1; i >= offset; i--) {
+                    record[i] = alphabet[26 + (int) (value % 10)];
+                    value /= 10;
+                }
+                return;
+            }
+            long hash = mix(salt ^ mix(k));
+            int textLength = 1 + (int) Long.remainderUnsigned(hash, length);
+            for (int i = 0; i < textLength; i++) {
+                if (i % 10 == 0) {
+                    hash = mix(hash + i);
+                }
+                int letter = (int) Long.remainderUnsigned(hash >>> (6 * (i % 10)), i == 0 ? 26 : 36); // Starts with a letter
+                record[offset + i] = alphabet[letter];
+            }
+        }
+
+        /** Writes the number unscaled / 10^scale, which must fit the field. */
+        void encodeUnscaled(byte[] record, long unscaled) {
+            long magnitude = Math.abs(unscaled);
+            boolean negative = unscaled < 0 && signed;
+            switch (kind) {
+                case ZONED:
+                case DISPLAY:
+                    for (int i = offset + length - 1; i >= offset; i--) {
+                        record[i] = kind == Kind.DISPLAY ? digits[(int) (magnitude % 10)] : (byte) (0xF0 | (int) (magnitude % 10));
+                        magnitude /= 10;
+                    }
+                    if (kind == Kind.ZONED) {
+                        record[offset + length - 1] = (byte) ((negative ? 0xD0 : 0xC0) | (record[offset + length - 1] & 0x0F));
+                    }
+                    break;
+                case PACKED:
+                    int sign = !signed ? 0x0F : negative ? 0x0D : 0x0C;
+                    record[offset + length - 1] = (byte) (((int) (magnitude % 10) << 4) | sign);
+                    magnitude /= 10;
+                    for (int i = offset + length - 2; i >= offset; i--) {
+                        int low = (int) (magnitude % 10);
+                        magnitude /= 10;
+                        record[i] = (byte) (((int) (magnitude % 10) << 4) | low);
+                        magnitude /= 10;
+                    }
+                    break;
+                case BINARY:
+                    long value = negative ? -magnitude : magnitude;
+                    for (int i = offset + length - 1; i >= offset; i--) {
+                        record[i] = (byte) value;
+                        value >>= 8;
+                    }
+                    break;
+                default:
+                    encodeThroughJRecord(record, unscaled);
+            }
+        }
+
+        /** Sets the value through JRecord, with fewer digits until the field accepts it. */
+        private void encodeThroughJRecord(byte[] record, long unscaled) {
+            Line line = lines.get();
+            for (long value = unscaled; ; value /= 10) {
+                try {
+                    if (field.getType() == Type.ftChar) {
+                        line.getFieldValue(field).set(Long.toString(Math.abs(value)));
+                    } else {
+                        line.getFieldValue(field).set(BigDecimal.valueOf(value, scale));
+                    }
+                    break;
+                } catch (Exception e) {
+                    if (value == 0) {
+                        return; // The field keeps the template's spaces
+                    }
+                    if (value < 0) {
+                        value = -value * 10; // Perhaps unsigned: try the magnitude
+                    }
+                }
+            }
+            System.arraycopy(line.getData(), offset, record, offset, length);
+        }
+    }
+
+    /** Parses a size such as 2G, 500M, 64K or a plain byte count. */
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        long unit = 1;
+        if (value.endsWith("B")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        if (value.endsWith("K") || value.endsWith("M") || value.endsWith("G") || value.endsWith("T")) {
+            unit = 1L << (10 * ("KMGT".indexOf(value.charAt(value.length() - 1)) + 1));
+            value = value.substring(0, value.length() - 1);
+        }
+        return (long) (Double.parseDouble(value) * unit);
+    }
+
+    /**
+     * Generates a file from the command line. Without arguments, checks the encoders instead:
+     * records of a copybook with every supported field type, in both framings, read back
+     * through the viewer and JRecord without a field JRecord cannot convert.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            selfCheck();
+            return;
+        }
+        String encoding = "CP037";
+        RecordFormat framing = RecordFormat.FIXED;
+        long seed = 1;
+        int threads = 0;
+        long records = -1;
+        long defaultCardinality = DEFAULT_CARDINALITY;
+        double defaultSkew = 0;
+        Map<String, String> fieldOptions = new HashMap<>();
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("--"); first++) {
+                String arg = args[first];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--encoding=")) {
+                    encoding = value;
+                } else if (arg.startsWith("--recfm=")) {
+                    framing = RecordFormat.fromOption(value);
+                } else if (arg.startsWith("--seed=")) {
+                    seed = Long.parseLong(value);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--records=")) {
+                    records = Long.parseLong(value);
+                } else if (arg.startsWith("--cardinality=")) {
+                    defaultCardinality = value.equalsIgnoreCase("unique") ? 0 : Long.parseLong(value);
+                } else if (arg.startsWith("--skew=")) {
+                    defaultSkew = Double.parseDouble(value);
+                } else if (arg.startsWith("--field=") && value.indexOf('=') > 0) {
+                    fieldOptions.put(value.substring(0, value.indexOf('=')).trim(), value.substring(value.indexOf('=') + 1));
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (args.length - first < (records < 0 ? 3 : 2)) {
+                throw new IllegalArgumentException("Expected a copybook, a data file and a size (or --records=N)");
+            }
+            Distribution defaults = new Distribution(defaultCardinality, defaultSkew);
+            Map<String, Distribution> distributions = new HashMap<>();
+            for (Map.Entry<String, String> option : fieldOptions.entrySet()) {
+                distributions.put(option.getKey(), Distribution.parse(option.getValue(), defaultSkew));
+            }
+            LayoutDetail layout = loadLayout(args[first], encoding);
+            DataGenerator generator = new DataGenerator(layout, encoding, framing, seed, threads, defaults, distributions);
+            if (records < 0) {
+                int perRecord = generator.getRecordLength() + (framing == RecordFormat.RDW ? 4 : 0);
+                records = Math.max(1, parseSize(args[first + 2]) / perRecord);
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Path.of(args[first + 1])), 1 << 20)) {
+                System.err.println(generator.generate(records, out));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+
+    private static LayoutDetail loadLayout(String copybook, String encoding) throws IOException {
+        try {
+            return JRecordInterface1.COBOL.newIOBuilder(copybook).setFont(encoding).getExternalRecord().asLayoutDetail();
+        } catch (Exception e) {
+            throw new IOException("Cannot load copybook " + copybook + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void selfCheck() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("datagenerator");
+        Path copybook = dir.resolve("gen.cpy");
+        Path data = dir.resolve("gen.dat");
+        Files.write(copybook, Arrays.asList(
+                "       01 GEN-REC.",
+                "          05 CUST-ID       PIC 9(10).",
+                "          05 NAME          PIC X(20).",
+                "          05 STATUS        PIC X(1).",
+                "          05 BALANCE       PIC S9(7)V99.",
+                "          05 AMOUNT        PIC S9(9)V99 COMP-3.",
+                "          05 UNITS         PIC 9(5) COMP-3.",
+                "          05 QTY           PIC S9(4) COMP.",
+                "          05 SEQ           PIC 9(9) COMP.",
+                "          05 LEDGER        PIC S9(16)V99 COMP.",
+                "          05 RATE          PIC 9(3)V99.",
+                "          05 LINE-COUNT    PIC 9(2).",
+                "          05 LINES OCCURS 0 TO 8 TIMES DEPENDING ON LINE-COUNT.",
+                "             10 SKU        PIC X(6).",
+                "             10 PRICE      PIC S9(5)V99 COMP-3.",
+                "          05 TRAILER       PIC X(4)."));
+        String encoding = "CP037";
+        LayoutDetail layout = loadLayout(copybook.toString(), encoding);
+        Map<String, Distribution> distributions = new HashMap<>();
+        distributions.put("CUST-ID", new Distribution(0, 0));
+        distributions.put("STATUS", new Distribution(4, 1.5));
+        int records = 200_000;
+        try {
+            for (RecordFormat framing : new RecordFormat[] {RecordFormat.FIXED, RecordFormat.RDW}) {
+                DataGenerator generator = new DataGenerator(layout, encoding, framing, 7, 0, new Distribution(DEFAULT_CARDINALITY, 0.8), distributions);
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(data), 1 << 20)) {
+                    System.out.println(framing + ": " + generator.generate(records, out));
+                }
+                ViewerOptions options = new ViewerOptions();
+                options.apply("--no-index-cache");
+                options.setRecordFormat(framing);
+                PagedFileReader reader = new PagedFileReader(data.toString(), copybook.toString(), 50, encoding, options);
+                reader.awaitIndexing();
+                DecodePlan plan = reader.getDecodePlan();
+                long[] errors = new long[1];
+                long[] cells = new long[1];
+                long[] previousId = {-1};
+                boolean[] ascending = {true};
+                Map<String, Integer> statuses = new HashMap<>();
+                int id = plan.indexOf("CUST-ID");
+                int status = plan.indexOf("STATUS");
+                reader.scanRecords(0, reader.getTotalRecords(), (ordinal, record, length) -> {
+                    byte[] copy = Arrays.copyOf(record, length);
+                    Line line = new Line(layout, copy);
+                    for (int f = 0; f < plan.getFieldCount(); f++) {
+                        if (plan.isAbsent(f, copy, length)) {
+                            continue;
+                        }
+                        cells[0]++;
+                        String ours;
+                        String theirs;
+                        try {
+                            ours = plan.decodeField(f, copy, length);
+                        } catch (RuntimeException e) {
+                            ours = RecordPage.ERROR_VALUE;
+                        }
+                        try {
+                            theirs = framing == RecordFormat.FIXED ? line.getFieldValue(plan.getField(f)).asString() : ours;
+                        } catch (RuntimeException e) {
+                            theirs = RecordPage.ERROR_VALUE;
+                        }
+                        if (ours.equals(RecordPage.ERROR_VALUE) || !ours.equals(theirs)) {
+                            if (errors[0]++ < 5) {
+                                System.out.println("  record " + ordinal + " " + plan.getFieldName(f) + ": '" + ours + "' vs JRecord '" + theirs + "'");
+                            }
+                        }
+                    }
+                    long value = Long.parseLong(plan.decodeField(id, copy, length).trim());
+                    ascending[0] &= value > previousId[0];
+                    previousId[0] = value;
+                    statuses.merge(plan.decodeField(status, copy, length), 1, Integer::sum);
+                });
+                System.out.printf("  %d records read back, %d fields checked, %d errors; CUST-ID ascending: %b; STATUS counts: %s%n",
+                        reader.getTotalRecords(), cells[0], errors[0], ascending[0], statuses);
+                reader.close();
+            }
+        } finally {
+            Files.deleteIfExists(data);
+            Files.delete(copybook);
+            Files.delete(dir);
+        }
+    }
+}
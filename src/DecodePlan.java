@@ -0,0 +1,631 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.JRecord.JRecordInterface1;
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Details.LayoutDetail;
+import net.sf.JRecord.Details.Line;
+import net.sf.JRecord.External.Def.DependingOnDtls;
+import net.sf.JRecord.Types.Type;
+import net.sf.JRecord.Types.TypeManager;
+
+/**
+ * A copybook layout compiled once into flat per-field arrays (offset, length, JRecord type code
+ * and scale) plus one decoder per field, so that a page can be decoded straight from the raw
+ * record bytes.
+ *
+ * Going through {@code line.getFieldValue(field).asString()} costs a {@code Line}, a field value
+ * wrapper and JRecord's generic type dispatch for every cell. Here the type is resolved when the
+ * plan is compiled: PIC X fields get a decoder that translates the bytes through the code page's
+ * {@link EbcdicTranscoder} table (or the charset for multi-byte encodings), and display, zoned, packed (COMP-3) and binary (COMP) numbers of up to 18 digits are read into
+ * a long by a {@link NumericDecoder} and formatted without any intermediate objects. Numeric
+ * columns can also be read as primitives ({@link #decodeUnscaled}) for filtering, sorting and
+ * aggregation.
+ *
+ * The specialised decoders only accept well-formed values. Anything unusual (a bad sign nibble,
+ * spaces in a numeric field, a record cut short) and every other field type is handed to JRecord,
+ * so each field decodes to exactly the string JRecord would produce, errors included, with
+ * control characters shown as '.' like everywhere in the viewer. {@link #main} checks that on
+ * real or generated data.
+ *
+ * A plan is immutable and can be shared by any number of threads.
+ */
+public final class DecodePlan {
+
+    /** Decodes one field of a raw record; only the first {@code recordLength} bytes are valid. */
+    interface FieldDecoder {
+        String decode(byte[] record, int recordLength);
+    }
+
+    private final LayoutDetail layout;
+    private final String recordName;
+    private final FieldDetail[] fields;
+    private final String[] names;
+    private final int[] offsets;   // 0-based
+    private final int[] lengths;
+    private final int[] types;     // JRecord type codes (Type.ftChar, ...)
+    private final int[] scales;    // Implied decimal places
+    private final FieldDecoder[] decoders;
+    private final NumericDecoder[] numericDecoders; // null for fields without a primitive fast path
+    private int compiledCount;     // Fields with a specialised decoder
+    private final OdoLayout odo;   // OCCURS DEPENDING ON: records are decoded after OdoLayout#normalise; else null
+    private final int[] odoTables;   // Per field: its depending-on table in odo, or -1; null without odo
+    private final int[] odoElements; // Per field: its occurrence in that table
+    private final String[] arrayNames; // Per field: "LINE-SKU" for "LINE-SKU (3)", null outside OCCURS tables
+    private final Map<String, int[]> arrays = new LinkedHashMap<>(); // Array name -> its element fields, in order
+
+    /** JRecord names OCCURS elements "NAME (i)" or "NAME (i, j)". */
+    private static final Pattern ELEMENT_NAME = Pattern.compile("(.*\\S) \\((\\d+)(, ?\\d+)*\\)");
+
+    private DecodePlan(LayoutDetail layout, String encoding, int recordIndex) {
+        this.layout = layout;
+        boolean present = recordIndex < layout.getRecordCount();
+        this.recordName = present ? layout.getRecord(recordIndex).getRecordName() : "";
+        this.fields = present ? layout.getRecord(recordIndex).getFields().toArray(new FieldDetail[0]) : new FieldDetail[0];
+        int count = fields.length;
+        this.names = new String[count];
+        this.offsets = new int[count];
+        this.lengths = new int[count];
+        this.types = new int[count];
+        this.scales = new int[count];
+        this.decoders = new FieldDecoder[count];
+        this.numericDecoders = new NumericDecoder[count];
+
+        Charset charset = charsetFor(encoding);
+        EbcdicTranscoder transcoder = EbcdicTranscoder.forEncoding(encoding);
+        this.odo = present ? compileOdo(layout.getRecord(recordIndex), charset) : null;
+        this.odoTables = odo == null ? null : new int[count];
+        this.odoElements = odo == null ? null : new int[count];
+        this.arrayNames = new String[count];
+        Map<String, List<Integer>> elements = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            Matcher element = ELEMENT_NAME.matcher(fields[i].getName());
+            if (element.matches()) {
+                arrayNames[i] = element.group(1);
+                elements.computeIfAbsent(arrayNames[i], name -> new ArrayList<>()).add(i);
+            }
+            if (odo != null) {
+                DependingOnDtls details = fields[i].getDependingOnDtls();
+                odoTables[i] = details == null ? -1 : odo.tableOf(details.dependingOn);
+                odoElements[i] = details == null ? 0 : details.index;
+            }
+        }
+        for (Map.Entry<String, List<Integer>> array : elements.entrySet()) {
+            arrays.put(array.getKey(), array.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        for (int i = 0; i < count; i++) {
+            FieldDetail field = fields[i];
+            names[i] = field.getName();
+            offsets[i] = field.getPos() - 1;
+            lengths[i] = field.getLen();
+            types[i] = field.getType();
+            scales[i] = field.getDecimal();
+
+            FieldDecoder decoder = null;
+            if (types[i] == Type.ftChar && charset != null) {
+                decoder = transcoder != null ? tableCharDecoder(offsets[i], lengths[i], transcoder)
+                        : charDecoder(offsets[i], lengths[i], charset);
+            } else {
+                numericDecoders[i] = NumericDecoder.forField(field, charset);
+                if (numericDecoders[i] != null) {
+                    decoder = numericDecoder(field, numericDecoders[i]);
+                }
+            }
+            if (decoder != null) {
+                compiledCount++;
+            } else {
+                decoder = jrecordDecoder(field);
+            }
+            decoders[i] = decoder;
+        }
+    }
+
+    /**
+     * Compiles the first record of {@code layout}, the one the viewer displays.
+     */
+    public static DecodePlan compile(LayoutDetail layout, String encoding) {
+        return new DecodePlan(layout, encoding, 0);
+    }
+
+    /**
+     * Compiles record {@code recordIndex} of a copybook split into several record types (see
+     * {@link RecordTypeTable}).
+     */
+    public static DecodePlan compile(LayoutDetail layout, String encoding, int recordIndex) {
+        return new DecodePlan(layout, encoding, recordIndex);
+    }
+
+    /** The record's depending-on layout; null, with a warning, if it has one the viewer cannot follow. */
+    private static OdoLayout compileOdo(net.sf.JRecord.Details.RecordDetail record, Charset charset) {
+        try {
+            return OdoLayout.compile(record, charset);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: OCCURS DEPENDING ON in " + record.getRecordName()
+                    + " is shown at the copybook's maximum table sizes: " + e.getMessage() + ".");
+            return null;
+        }
+    }
+
+    private static Charset charsetFor(String encoding) {
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            return null; // Left to JRecord, which has its own fallback for unknown fonts
+        }
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /**
+     * The record's OCCURS DEPENDING ON layout, or null. When there is one, records must be moved
+     * to the static layout with {@link OdoLayout#normalise} before they are decoded
+     * ({@link PagedFileReader#scanRecords} passes them on that way).
+     */
+    OdoLayout getOdoLayout() {
+        return odo;
+    }
+
+    /**
+     * Whether field {@code index} is an occurrence past its table's count in this (normalised)
+     * record; such fields decode as empty without being read.
+     */
+    public boolean isAbsent(int index, byte[] record, int recordLength) {
+        return odoTables != null && odoTables[index] >= 0 && odo.isAbsent(odoTables[index], odoElements[index], record, recordLength);
+    }
+
+    /** Name of the OCCURS table element field {@code index} belongs to ("LINE-SKU" for "LINE-SKU (3)"), or null. */
+    public String getArrayName(int index) {
+        return arrayNames[index];
+    }
+
+    /** Names of the OCCURS element fields, in copybook order. */
+    public List<String> getArrayNames() {
+        return new ArrayList<>(arrays.keySet());
+    }
+
+    /** Fields of the elements of array {@code name}, or null. */
+    public int[] getArrayFields(String name) {
+        return arrays.get(name);
+    }
+
+    /** Elements of array {@code name} present in a record: all of them unless it depends on a counter. */
+    public int countPresent(String name, byte[] record, int recordLength) {
+        int present = 0;
+        for (int field : arrays.get(name)) {
+            if (!isAbsent(field, record, recordLength)) {
+                present++;
+            }
+        }
+        return present;
+    }
+
+    /** Name of the compiled record (its 01 level, or the REDEFINES group of a split copybook). */
+    public String getRecordName() {
+        return recordName;
+    }
+
+    public String getFieldName(int index) {
+        return names[index];
+    }
+
+    public FieldDetail getField(int index) {
+        return fields[index];
+    }
+
+    /** Position of the field called {@code name}, or -1. */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    public int getScale(int index) {
+        return scales[index];
+    }
+
+    /**
+     * Characters the decoded text of field {@code index} can take: its length for PIC X, digits
+     * plus sign and decimal point for numbers.
+     */
+    @SuppressWarnings("deprecation") // JRecord still assigns the deprecated "small" type codes
+    public int getDisplayWidth(int index) {
+        int length = lengths[index];
+        switch (types[index]) {
+            case Type.ftChar:
+                return length;
+            case Type.ftPackedDecimal:
+            case Type.ftPackedDecimalSmall:
+            case Type.ftPackedDecimalSmallPostive:
+                return length * 2 + 1; // 2n-1 digits, sign and decimal point
+            case Type.ftIntBigEndianSmall:
+            case Type.ftUIntBigEndianSmall:
+            case Type.ftPositiveBinaryBigEndian:
+                return (int) Math.ceil(length * 8 * Math.log10(2)) + 2;
+            default:
+                return length + 2;
+        }
+    }
+
+    /** Number of fields decoded without going through JRecord. */
+    public int getCompiledFieldCount() {
+        return compiledCount;
+    }
+
+    /**
+     * Decodes field {@code index} of a raw record to its display text: the same string as
+     * {@code line.getFieldValue(field).asString()}, with control characters replaced by '.'.
+     *
+     * @throws RuntimeException if the bytes are not valid for the field type, as JRecord would.
+     */
+    public String decodeField(int index, byte[] record, int recordLength) {
+        if (odoTables != null && isAbsent(index, record, recordLength)) {
+            return "";
+        }
+        return decoders[index].decode(record, recordLength);
+    }
+
+    /** Whether field {@code index} has an allocation-free numeric decoder. */
+    public boolean hasUnscaledDecoder(int index) {
+        return numericDecoders[index] != null;
+    }
+
+    /**
+     * Reads numeric field {@code index} as its value times 10^{@link #getScale scale}, without
+     * allocating. Returns {@link NumericDecoder#NOT_DECODED} if the field has no numeric decoder
+     * or the bytes are not a well-formed value; {@link #decodeDecimal} covers those cases.
+     */
+    public long decodeUnscaled(int index, byte[] record, int recordLength) {
+        NumericDecoder numeric = numericDecoders[index];
+        if (numeric == null || (odoTables != null && isAbsent(index, record, recordLength))) {
+            return NumericDecoder.NOT_DECODED;
+        }
+        return numeric.decodeUnscaled(record, recordLength);
+    }
+
+    /** Display text of a value {@link #decodeUnscaled} returned for field {@code index}. */
+    public String formatUnscaled(int index, long unscaled) {
+        return numericDecoders[index].format(unscaled);
+    }
+
+    /**
+     * Field {@code index} as a number, or null if it does not hold one (an empty display field,
+     * text, or bytes JRecord cannot convert). Uses the primitive path where it can.
+     */
+    public BigDecimal decodeDecimal(int index, byte[] record, int recordLength) {
+        long unscaled = decodeUnscaled(index, record, recordLength);
+        if (unscaled != NumericDecoder.NOT_DECODED) {
+            return numericDecoders[index].toBigDecimal(unscaled);
+        }
+        if (isAbsent(index, record, recordLength)) {
+            return null;
+        }
+        try {
+            String value = jrecordValue(fields[index], record, recordLength);
+            return parsePlainDecimal(value.trim());
+        } catch (RuntimeException e) {
+            return null; // Conversion error
+        }
+    }
+
+    /**
+     * Parses digits with an optional sign and decimal point, or returns null. Exponents are not
+     * accepted: JRecord renders some malformed fields as hex-like text such as "12e9999999", which
+     * BigDecimal would read as an enormous number.
+     */
+    static BigDecimal parsePlainDecimal(String value) {
+        int digits = 0;
+        int points = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.') {
+                points++;
+            } else if (!(i == 0 && (c == '-' || c == '+'))) {
+                return null;
+            }
+        }
+        return digits > 0 && points <= 1 ? new BigDecimal(value) : null;
+    }
+
+    /**
+     * PIC X: JRecord returns "" for a field of all low-values, otherwise the decoded bytes that
+     * lie inside the record with trailing spaces removed. The table translates and sanitises in
+     * the same pass.
+     */
+    private static FieldDecoder tableCharDecoder(int offset, int length, EbcdicTranscoder transcoder) {
+        return (record, recordLength) -> {
+            int end = Math.min(offset + length, recordLength);
+            if (end <= offset || isLowValues(record, offset, end)) {
+                return "";
+            }
+            while (end > offset && transcoder.isSpace(record[end - 1])) {
+                end--;
+            }
+            return transcoder.decode(record, offset, end);
+        };
+    }
+
+    /** PIC X in a multi-byte encoding: as {@link #tableCharDecoder}, through the charset and a regex. */
+    private static FieldDecoder charDecoder(int offset, int length, Charset charset) {
+        return (record, recordLength) -> {
+            int end = Math.min(offset + length, recordLength);
+            if (end <= offset || isLowValues(record, offset, end)) {
+                return "";
+            }
+            String value = new String(record, offset, end - offset, charset);
+            int last = value.length();
+            while (last > 0 && value.charAt(last - 1) == ' ') {
+                last--;
+            }
+            return sanitise(last == value.length() ? value : value.substring(0, last));
+        };
+    }
+
+    private static boolean isLowValues(byte[] record, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (record[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private FieldDecoder numericDecoder(FieldDetail field, NumericDecoder numeric) {
+        FieldDecoder fallback = jrecordDecoder(field);
+        return (record, recordLength) -> {
+            long unscaled = numeric.decodeUnscaled(record, recordLength);
+            if (unscaled != NumericDecoder.NOT_DECODED) {
+                return numeric.format(unscaled);
+            }
+            return fallback.decode(record, recordLength);
+        };
+    }
+
+    /** Any other field type: wrap the record in a JRecord Line and let JRecord convert it. */
+    private FieldDecoder jrecordDecoder(FieldDetail field) {
+        return (record, recordLength) -> sanitise(jrecordValue(field, record, recordLength));
+    }
+
+    /**
+     * JRecord's text for a field. A normalised depending-on record is already in the static
+     * layout, where a {@code Line} would shift fields by the counts again, so its fields are
+     * converted by their JRecord type at the copybook position, which gives the same text.
+     */
+    private String jrecordValue(FieldDetail field, byte[] record, int recordLength) {
+        if (odo != null) {
+            Object value = TypeManager.getInstance().getType(field.getType()).getField(Arrays.copyOf(record, recordLength), field.getPos(), field);
+            return value == null ? "" : value.toString();
+        }
+        return new Line(layout, Arrays.copyOf(record, recordLength)).getFieldValue(field).asString();
+    }
+
+    private static String sanitise(String value) {
+        return value.replaceAll("\\p{Cntrl}", ".");
+    }
+
+    /**
+     * Self-check: decodes every record of a data file both through the plan and through JRecord,
+     * reports any difference and compares the time each takes, then totals every numeric column
+     * on primitives and checks the totals against JRecord's values.
+     * Usage: DecodePlan [copybook data_file [encoding]]. Without arguments a copybook with mixed
+     * field types and random records are generated in a temporary directory.
+     */
+    public static void main(String[] args) throws IOException {
+        String copybook;
+        String dataFile;
+        String encoding = args.length > 2 ? args[2] : "CP037";
+        if (args.length >= 2) {
+            copybook = args[0];
+            dataFile = args[1];
+        } else {
+            Path dir = Files.createTempDirectory("decodeplan");
+            copybook = dir.resolve("check.cpy").toString();
+            dataFile = dir.resolve("check.dat").toString();
+            try (PrintWriter writer = new PrintWriter(copybook)) {
+                writer.println("       01 CHECK-REC.");
+                writer.println("          05 NAME      PIC X(20).");
+                writer.println("          05 CODE      PIC X(3).");
+                writer.println("          05 COUNT-U   PIC 9(5).");
+                writer.println("          05 PRICE-U   PIC 9(5)V99.");
+                writer.println("          05 RATE      PIC S9(3)V99.");
+                writer.println("          05 AMOUNT    PIC S9(7)V99 COMP-3.");
+                writer.println("          05 UNITS     PIC 9(5) COMP-3.");
+                writer.println("          05 TOTAL     PIC S9(17)V99 COMP-3.");
+                writer.println("          05 QTY       PIC S9(4) COMP.");
+                writer.println("          05 SEQ       PIC 9(9) COMP.");
+                writer.println("          05 LEDGER    PIC S9(16)V99 COMP.");
+                writer.println("          05 BIG       PIC 9(18) COMP.");
+                writer.println("          05 BIG-D     PIC 9(16)V99 COMP.");
+                writer.println("          05 WIDE      PIC S9(18) COMP-3.");
+                writer.println("          05 NOTES     PIC X(40).");
+            }
+            writeRandomRecords(copybook, dataFile, encoding, 200_000);
+            System.out.println("Generated " + dataFile);
+        }
+
+        PagedFileReader reader = new PagedFileReader(dataFile, copybook, 100, encoding);
+        LayoutDetail layout = reader.getRecordLayout();
+        DecodePlan plan = DecodePlan.compile(layout, encoding);
+        System.out.println("Fields: " + plan.getFieldCount() + ", compiled: " + plan.getCompiledFieldCount()
+                + ", records: " + reader.getTotalRecords());
+
+        long[] mismatches = new long[1];
+        reader.scanRecords(0, reader.getTotalRecords(), (ordinal, data, length) -> {
+            Line line = new Line(layout, Arrays.copyOf(data, length));
+            for (int i = 0; i < plan.getFieldCount(); i++) {
+                int field = i;
+                String expected = valueOrError(() -> sanitise(line.getFieldValue(plan.getField(field)).asString()));
+                String actual = valueOrError(() -> plan.decodeField(field, data, length));
+                if (!expected.equals(actual) && mismatches[0]++ < 10) {
+                    System.out.println("Mismatch in record " + ordinal + " field " + plan.getFieldName(field)
+                            + ": JRecord [" + expected + "] plan [" + actual + "]");
+                }
+            }
+        });
+        System.out.println(mismatches[0] == 0 ? "All fields match JRecord." : mismatches[0] + " mismatches.");
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long[] cells = new long[1];
+            reader.scanRecords(0, reader.getTotalRecords(), (ordinal, data, length) -> {
+                Line line = new Line(layout, Arrays.copyOf(data, length));
+                for (int i = 0; i < plan.getFieldCount(); i++) {
+                    int field = i;
+                    cells[0] += valueOrError(() -> sanitise(line.getFieldValue(plan.getField(field)).asString())).length();
+                }
+            });
+            long jrecordNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            reader.scanRecords(0, reader.getTotalRecords(), (ordinal, data, length) -> {
+                for (int i = 0; i < plan.getFieldCount(); i++) {
+                    int field = i;
+                    cells[0] += valueOrError(() -> plan.decodeField(field, data, length)).length();
+                }
+            });
+            long planNanos = System.nanoTime() - start;
+            System.out.printf("Round %d: JRecord %d ms, plan %d ms (%.1fx)%n", round + 1,
+                    jrecordNanos / 1_000_000, planNanos / 1_000_000, (double) jrecordNanos / planNanos);
+        }
+
+        // Column totals: primitives from the plan against BigDecimals parsed from JRecord's strings.
+        for (int i = 0; i < plan.getFieldCount(); i++) {
+            if (!plan.hasUnscaledDecoder(i)) {
+                continue;
+            }
+            int field = i;
+            BigDecimal[] expected = {BigDecimal.ZERO};
+            long start = System.nanoTime();
+            reader.scanRecords(0, reader.getTotalRecords(), (ordinal, data, length) -> {
+                String value = valueOrError(() -> new Line(layout, Arrays.copyOf(data, length)).getFieldValue(plan.getField(field)).asString());
+                BigDecimal number = parsePlainDecimal(value.trim());
+                if (number != null) { // Empty or unreadable values are not part of the total
+                    expected[0] = expected[0].add(number);
+                }
+            });
+            long jrecordNanos = System.nanoTime() - start;
+
+            long[] unscaledTotal = new long[1];
+            BigDecimal[] overflow = {BigDecimal.ZERO}; // Values outside the fast path, plus long overflow
+            start = System.nanoTime();
+            reader.scanRecords(0, reader.getTotalRecords(), (ordinal, data, length) -> {
+                long unscaled = plan.decodeUnscaled(field, data, length);
+                if (unscaled == NumericDecoder.NOT_DECODED) {
+                    BigDecimal value = plan.decodeDecimal(field, data, length);
+                    if (value != null) {
+                        overflow[0] = overflow[0].add(value);
+                    }
+                    return;
+                }
+                long total = unscaledTotal[0] + unscaled;
+                if (((unscaledTotal[0] ^ total) & (unscaled ^ total)) < 0) {
+                    overflow[0] = overflow[0].add(BigDecimal.valueOf(unscaledTotal[0], plan.getScale(field)));
+                    total = unscaled;
+                }
+                unscaledTotal[0] = total;
+            });
+            long planNanos = System.nanoTime() - start;
+            BigDecimal actual = overflow[0].add(BigDecimal.valueOf(unscaledTotal[0], plan.getScale(field)));
+            System.out.printf("Total of %s: %s (%d ms from JRecord strings, %d ms on primitives)%n", plan.getFieldName(field),
+                    actual.compareTo(expected[0]) == 0 ? "matches" : "DIFFERS " + actual + " vs " + expected[0],
+                    jrecordNanos / 1_000_000, planNanos / 1_000_000);
+        }
+        reader.close();
+    }
+
+    private interface ValueSupplier {
+        String get();
+    }
+
+    private static String valueOrError(ValueSupplier supplier) {
+        try {
+            return supplier.get();
+        } catch (Exception e) {
+            return "ERROR_READING_FIELD";
+        }
+    }
+
+    /** Writes records with random but mostly valid values, plus a few all-space and all-zero ones. */
+    static void writeRandomRecords(String copybook, String dataFile, String encoding, int count) throws IOException {
+        writeRandomRecords(copybook, dataFile, encoding, count, true);
+    }
+
+    /** As above; without {@code oddRecords} every record is valid (no blank, zero or corrupted ones). */
+    static void writeRandomRecords(String copybook, String dataFile, String encoding, int count, boolean oddRecords) throws IOException {
+        LayoutDetail layout = JRecordInterface1.COBOL.newIOBuilder(copybook).setFont(encoding).getExternalRecord().asLayoutDetail();
+        int recordLength = layout.getMaximumRecordLength();
+        Random random = new Random(42);
+        try (java.io.OutputStream out = new java.io.BufferedOutputStream(Files.newOutputStream(Path.of(dataFile)))) {
+            for (int r = 0; r < count; r++) {
+                Line line = new Line(layout, new byte[recordLength]);
+                for (FieldDetail field : layout.getRecord(0).getFields()) {
+                    if (field.getType() == Type.ftChar) {
+                        StringBuilder value = new StringBuilder();
+                        int length = random.nextInt(field.getLen() + 1);
+                        for (int i = 0; i < length; i++) {
+                            value.append((char) (random.nextInt(5) == 0 ? ' ' : 'A' + random.nextInt(26)));
+                        }
+                        line.getFieldValue(field).set(value.toString());
+                    } else {
+                        // Largest random value the field accepts; JRecord rejects values that do not fit
+                        for (int digits = Math.min(field.getLen() * 2, 18); digits > 0; digits--) {
+                            long unscaled = (long) (random.nextDouble() * Math.pow(10, digits));
+                            BigDecimal value = BigDecimal.valueOf(random.nextBoolean() ? unscaled : -unscaled, field.getDecimal());
+                            try {
+                                line.getFieldValue(field).set(value);
+                                break;
+                            } catch (Exception e) {
+                                try {
+                                    line.getFieldValue(field).set(value.abs()); // Unsigned field
+                                    break;
+                                } catch (Exception tooBig) {
+                                    // Try fewer digits
+                                }
+                            }
+                        }
+                    }
+                }
+                byte[] data = line.getData();
+                if (!oddRecords) {
+                    // Written as set
+                } else if (r % 1000 == 1) {
+                    Arrays.fill(data, (byte) 0x40);
+                } else if (r % 1000 == 2) {
+                    Arrays.fill(data, (byte) 0);
+                } else if (r % 100 == 3) {
+                    data[random.nextInt(recordLength)] = (byte) random.nextInt(256); // Control characters and invalid digits
+                }
+                out.write(data);
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Decoder for the deflate data of a gzip file (RFC 1951 inside RFC 1952 members) that can
+ * start at any deflate block boundary, given the bit position and the 32 KB of output before
+ * it, and that reports where every block starts. {@link GzipDataFile} uses both to build its
+ * checkpoint index and to decode one span of the file without starting from the beginning;
+ * {@link java.util.zip.Inflater} can only start on a byte boundary and does not expose block
+ * boundaries.
+ *
+ * Output is collected in a buffer behind the 32 KB history and handed to a {@link Sink} when
+ * the buffer is full, at the end of each gzip member and at the end of the data. Concatenated
+ * members are decoded one after the other, as gunzip does; anything after the last member
+ * other than another gzip header is ignored.
+ */
+final class DeflateDecoder {
+
+    /** Receives the decoded data. Returning false from either method stops decoding. */
+    interface Sink {
+        /** A deflate block starts at {@code bitPosition} of the input and {@code outputPosition} of the output. */
+        boolean blockStart(long bitPosition, long outputPosition) throws IOException;
+
+        /** The next {@code length} bytes of output. */
+        boolean output(byte[] data, int offset, int length) throws IOException;
+    }
+
+    static final int WINDOW_SIZE = 32 * 1024;
+    private static final int BUFFER_SIZE = 1 << 18;
+    private static final int OUTPUT_LIMIT = WINDOW_SIZE + BUFFER_SIZE - 258; // Room for the longest match
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+    private static final int FAST_BITS = 10;
+    private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+    private static final int MAX_BITS = 15;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        byte[] lengths = new byte[288];
+        for (int symbol = 0; symbol < 288; symbol++) {
+            lengths[symbol] = (byte) (symbol < 144 ? 8 : symbol < 256 ? 9 : symbol < 280 ? 7 : 8);
+        }
+        FIXED_LITERALS = new Huffman(lengths, 0, 288);
+        byte[] distances = new byte[30];
+        java.util.Arrays.fill(distances, (byte) 5);
+        FIXED_DISTANCES = new Huffman(distances, 0, 30);
+    }
+
+    /**
+     * Canonical Huffman code: a table of the next {@link #FAST_BITS} input bits for the short
+     * codes, and counts and symbols in code order for the longer ones (as in zlib's puff).
+     */
+    private static final class Huffman {
+        final int[] fast = new int[1 << FAST_BITS]; // (length << 16) | symbol; 0 for longer codes
+        final short[] count = new short[MAX_BITS + 1];
+        final short[] symbol;
+
+        Huffman(byte[] lengths, int offset, int symbols) {
+            symbol = new short[symbols];
+            for (int i = 0; i < symbols; i++) {
+                count[lengths[offset + i]]++;
+            }
+            count[0] = 0;
+            int left = 1;
+            for (int length = 1; length <= MAX_BITS; length++) {
+                left = (left << 1) - count[length];
+                if (left < 0) {
+                    throw new IllegalArgumentException("over-subscribed Huffman code");
+                }
+            }
+            int[] next = new int[MAX_BITS + 2];
+            int[] offsets = new int[MAX_BITS + 2];
+            for (int length = 1; length <= MAX_BITS; length++) {
+                next[length + 1] = (next[length] + count[length]) << 1;
+                offsets[length + 1] = offsets[length] + count[length];
+            }
+            for (int i = 0; i < symbols; i++) {
+                int length = lengths[offset + i];
+                if (length == 0) {
+                    continue;
+                }
+                symbol[offsets[length]++] = (short) i;
+                int code = next[length]++;
+                if (length <= FAST_BITS) {
+                    // Input bits arrive least significant first, codes most significant first
+                    int reversed = Integer.reverse(code) >>> (32 - length);
+                    for (int entry = reversed; entry < fast.length; entry += 1 << length) {
+                        fast[entry] = (length << 16) | i;
+                    }
+                }
+            }
+        }
+    }
+
+    private final MappedDataFile input;
+    private final long inputLength;
+    private final byte[] in = new byte[INPUT_BUFFER_SIZE];
+    private int inIndex;
+    private int inLength;
+    private long nextByte;  // Input position of the next byte to load into the bit buffer
+    private long bits;      // Unread bits, least significant first
+    private int bitCount;
+
+    private final byte[] out = new byte[WINDOW_SIZE + BUFFER_SIZE];
+    private int outPos;
+    private int flushed;      // out[flushed..outPos) is not yet handed to the sink
+    private int historyStart; // Back references may not reach before this (the start of the member)
+    private long delivered;   // Output position of out[flushed]
+    private boolean verify;   // Started at a member start, so the trailer's CRC and size can be checked
+    private final CRC32 crc = new CRC32();
+    private long memberSize;
+    private Sink sink;
+
+    DeflateDecoder(MappedDataFile input) {
+        this.input = input;
+        this.inputLength = input.length();
+    }
+
+    /**
+     * Position (in bytes) of the deflate data of the gzip member whose header starts at
+     * {@code position}.
+     *
+     * @throws IOException if there is no gzip header there.
+     */
+    static long memberDataStart(MappedDataFile file, long position) throws IOException {
+        long length = file.length();
+        if (position + 10 > length || file.getUnsignedByte(position) != 0x1F || file.getUnsignedByte(position + 1) != 0x8B) {
+            throw new IOException("No gzip header at offset " + position + " of " + file.getFilePath());
+        }
+        if (file.getUnsignedByte(position + 2) != 8) {
+            throw new IOException("Unsupported gzip compression method " + file.getUnsignedByte(position + 2) + " in " + file.getFilePath());
+        }
+        int flags = file.getUnsignedByte(position + 3);
+        long p = position + 10;
+        if ((flags & 0x04) != 0) { // FEXTRA
+            p += 2 + (file.getUnsignedByte(p) | (file.getUnsignedByte(p + 1) << 8));
+        }
+        for (int zeroTerminated : new int[] {0x08, 0x10}) { // FNAME, FCOMMENT
+            if ((flags & zeroTerminated) != 0) {
+                while (p < length && file.getUnsignedByte(p) != 0) {
+                    p++;
+                }
+                p++;
+            }
+        }
+        if ((flags & 0x02) != 0) { // FHCRC
+            p += 2;
+        }
+        if (p > length) {
+            throw new IOException("Truncated gzip header at offset " + position + " of " + file.getFilePath());
+        }
+        return p;
+    }
+
+    /** The output since the start of the member, at most {@link #WINDOW_SIZE} bytes of it: what a checkpoint must keep. */
+    byte[] window() {
+        int length = Math.min(WINDOW_SIZE, outPos - historyStart);
+        return java.util.Arrays.copyOfRange(out, outPos - length, outPos);
+    }
+
+    /**
+     * Decodes from {@code bitPosition}, which must be the start of a deflate block, until the
+     * input ends or the sink stops.
+     *
+     * @param window         output before that block within its member (empty at a member start).
+     * @param outputPosition output position of the block, as reported to the sink.
+     */
+    void run(long bitPosition, byte[] window, long outputPosition, Sink sink) throws IOException {
+        this.sink = sink;
+        seek(bitPosition);
+        System.arraycopy(window, 0, out, 0, window.length);
+        outPos = window.length;
+        flushed = outPos;
+        historyStart = 0;
+        delivered = outputPosition;
+        verify = window.length == 0;
+        crc.reset();
+        memberSize = 0;
+        try {
+            while (sink.blockStart(bitPosition(), delivered + outPos - flushed)) {
+                if (bitPosition() >= inputLength * 8) {
+                    throw new IOException("Unexpected end of compressed data in " + input.getFilePath());
+                }
+                refill();
+                boolean last = getBits(1) == 1;
+                int type = getBits(2);
+                boolean more;
+                if (type == 0) {
+                    more = stored();
+                } else if (type == 1) {
+                    more = codes(FIXED_LITERALS, FIXED_DISTANCES);
+                } else if (type == 2) {
+                    more = dynamic();
+                } else {
+                    throw new IOException("Invalid deflate block type at bit " + (bitPosition() - 3));
+                }
+                if (bitPosition() > inputLength * 8) {
+                    throw new IOException("Unexpected end of compressed data in " + input.getFilePath());
+                }
+                if (!more) {
+                    return;
+                }
+                if (last && !nextMember()) {
+                    return;
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Invalid compressed data near bit " + bitPosition() + " of " + input.getFilePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** After a final block: checks the trailer and moves on to the next member, if any. */
+    private boolean nextMember() throws IOException {
+        if (!flush()) {
+            return false;
+        }
+        getBits(bitCount & 7); // The trailer starts on a byte boundary
+        long expectedCrc = getBits(16) | ((long) getBits(16) << 16);
+        long expectedSize = getBits(16) | ((long) getBits(16) << 16);
+        if (bitPosition() > inputLength * 8) {
+            throw new IOException("Truncated gzip trailer in " + input.getFilePath());
+        }
+        if (verify && (expectedCrc != crc.getValue() || expectedSize != (memberSize & 0xFFFFFFFFL))) {
+            throw new IOException("CRC or length mismatch in gzip member ending at offset " + (bitPosition() / 8) + " of " + input.getFilePath());
+        }
+        long position = bitPosition() / 8;
+        if (position + 2 > inputLength || input.getUnsignedByte(position) != 0x1F || input.getUnsignedByte(position + 1) != 0x8B) {
+            return false; // End of the file, or padding after the last member
+        }
+        seek(memberDataStart(input, position) * 8);
+        historyStart = outPos;
+        verify = true;
+        crc.reset();
+        memberSize = 0;
+        return true;
+    }
+
+    private boolean stored() throws IOException {
+        getBits(bitCount & 7);
+        int length = getBits(16);
+        if ((getBits(16) ^ 0xFFFF) != length) {
+            throw new IOException("Invalid stored block length at bit " + bitPosition());
+        }
+        while (length-- > 0) {
+            if (outPos > OUTPUT_LIMIT && !flush()) {
+                return false;
+            }
+            if (bitCount < 8) {
+                refill();
+            }
+            out[outPos++] = (byte) bits;
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+        return true;
+    }
+
+    private boolean dynamic() throws IOException {
+        int literals = getBits(5) + 257;
+        int distances = getBits(5) + 1;
+        int codeLengthCodes = getBits(4) + 4;
+        byte[] lengths = new byte[320];
+        for (int i = 0; i < codeLengthCodes; i++) {
+            refill();
+            lengths[CODE_LENGTH_ORDER[i]] = (byte) getBits(3);
+        }
+        Huffman codeLengths = new Huffman(lengths, 0, 19);
+        java.util.Arrays.fill(lengths, 0, 19, (byte) 0);
+        int index = 0;
+        while (index < literals + distances) {
+            refill();
+            int symbol = decode(codeLengths);
+            if (symbol < 16) {
+                lengths[index++] = (byte) symbol;
+                continue;
+            }
+            int repeat;
+            byte value = 0;
+            if (symbol == 16) {
+                if (index == 0) {
+                    throw new IOException("Repeated code length without a previous length at bit " + bitPosition());
+                }
+                value = lengths[index - 1];
+                repeat = 3 + getBits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + getBits(3);
+            } else {
+                repeat = 11 + getBits(7);
+            }
+            if (index + repeat > literals + distances) {
+                throw new IOException("Too many code lengths at bit " + bitPosition());
+            }
+            while (repeat-- > 0) {
+                lengths[index++] = value;
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new IOException("No end-of-block code at bit " + bitPosition());
+        }
+        return codes(new Huffman(lengths, 0, literals), new Huffman(lengths, literals, distances));
+    }
+
+    /** Decodes literals and matches up to the end of the block. Returns false if the sink stopped. */
+    private boolean codes(Huffman literals, Huffman distances) throws IOException {
+        byte[] out = this.out;
+        while (true) {
+            if (outPos > OUTPUT_LIMIT && !flush()) {
+                return false;
+            }
+            if (bitCount < 48) {
+                refill(); // A literal/length code, its extra bits, a distance code and its extra bits take at most 48
+            }
+            int symbol = decode(literals);
+            if (symbol < 256) {
+                out[outPos++] = (byte) symbol;
+            } else if (symbol == 256) {
+                return true;
+            } else {
+                symbol -= 257;
+                if (symbol >= 29) {
+                    throw new IOException("Invalid length code at bit " + bitPosition());
+                }
+                int length = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+                int code = decode(distances);
+                if (code >= 30) {
+                    throw new IOException("Invalid distance code at bit " + bitPosition());
+                }
+                int distance = DISTANCE_BASE[code] + getBits(DISTANCE_EXTRA[code]);
+                if (distance > outPos - historyStart) {
+                    throw new IOException("Distance too far back at bit " + bitPosition());
+                }
+                int from = outPos - distance;
+                if (distance >= length) {
+                    System.arraycopy(out, from, out, outPos, length);
+                    outPos += length;
+                } else {
+                    for (int end = outPos + length; outPos < end; ) {
+                        out[outPos++] = out[from++]; // Overlapping: repeats the last distance bytes
+                    }
+                }
+            }
+        }
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+        int entry = huffman.fast[(int) bits & FAST_MASK];
+        if (entry != 0) {
+            int length = entry >>> 16;
+            bits >>>= length;
+            bitCount -= length;
+            return entry & 0xFFFF;
+        }
+        // A code longer than FAST_BITS: walk the canonical code a bit at a time
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        long next = bits;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            code |= (int) next & 1;
+            next >>>= 1;
+            int count = huffman.count[length];
+            if (code - count < first) {
+                bits >>>= length;
+                bitCount -= length;
+                return huffman.symbol[index + (code - first)];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new IOException("Invalid Huffman code at bit " + bitPosition());
+    }
+
+    /** Hands the pending output to the sink and keeps the last {@link #WINDOW_SIZE} bytes as history. */
+    private boolean flush() throws IOException {
+        int length = outPos - flushed;
+        if (length > 0) {
+            if (verify) {
+                crc.update(out, flushed, length);
+            }
+            memberSize += length;
+            delivered += length;
+            boolean more = sink.output(out, flushed, length);
+            flushed = outPos;
+            if (!more) {
+                return false;
+            }
+        }
+        if (outPos > WINDOW_SIZE) {
+            int keep = Math.min(WINDOW_SIZE, outPos - historyStart);
+            System.arraycopy(out, outPos - keep, out, 0, keep);
+            historyStart = Math.max(0, historyStart - (outPos - keep));
+            outPos = keep;
+            flushed = keep;
+        }
+        return true;
+    }
+
+    private void seek(long bitPosition) throws IOException {
+        nextByte = bitPosition >>> 3;
+        inIndex = 0;
+        inLength = 0;
+        bits = 0;
+        bitCount = 0;
+        refill();
+        getBits((int) (bitPosition & 7));
+    }
+
+    private long bitPosition() {
+        return nextByte * 8 - bitCount;
+    }
+
+    /**
+     * Fills the bit buffer to more than 56 bits; past the end of the input with zeros, as the
+     * last codes may need, but a truncated stream stops here instead of decoding padding.
+     */
+    private void refill() throws IOException {
+        if (nextByte > inputLength + 16) {
+            throw new IOException("Unexpected end of compressed data in " + input.getFilePath());
+        }
+        while (bitCount <= 56) {
+            if (inIndex == inLength) {
+                inIndex = 0;
+                inLength = (int) Math.max(0, Math.min(INPUT_BUFFER_SIZE, inputLength - nextByte));
+                if (inLength > 0) {
+                    input.read(nextByte, in, 0, inLength);
+                }
+            }
+            long b = inIndex < inLength ? in[inIndex++] & 0xFF : 0;
+            bits |= b << bitCount;
+            bitCount += 8;
+            nextByte++;
+        }
+    }
+
+    /** The next {@code count} (at most 32) bits; the buffer must hold them unless count is 0. */
+    private int getBits(int count) throws IOException {
+        if (bitCount < count) {
+            refill();
+        }
+        int value = (int) (bits & ((1L << count) - 1));
+        bits >>>= count;
+        bitCount -= count;
+        return value;
+    }
+}
@@ -0,0 +1,108 @@
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Types.Type;
+
+/**
+ * Case-insensitive substring matcher that works directly on the raw bytes of a PIC X field,
+ * without decoding the field to a String.
+ *
+ * The search term is encoded once into the active single-byte codepage: for every position of
+ * the term the matcher precomputes the set of bytes that decode (after the same control-character
+ * sanitisation and lower-casing as the page view) to that character, so upper- and lower-case
+ * variants are both accepted. Matching is a Boyer-Moore-Horspool scan restricted to the field's
+ * offset and length inside the record. It allocates nothing per record.
+ */
+public final class EbcdicFieldMatcher {
+
+    private static final char NO_MATCH = '\uFFFF'; // Not a character, so never part of a search term
+
+    private final int fieldOffset;
+    private final int fieldLength;
+    private final int needleLength;
+    private final boolean[] accepts;        // accepts[i * 256 + b]: byte b matches term character i
+    private final int[] shift = new int[256];
+    private final boolean[] trailingSpace = new boolean[256]; // bytes JRecord trims from the end of a PIC X value
+
+    private EbcdicFieldMatcher(int fieldOffset, int fieldLength, String lowerCaseTerm, char[] byteToLowerChar) {
+        this.fieldOffset = fieldOffset;
+        this.fieldLength = fieldLength;
+        this.needleLength = lowerCaseTerm.length();
+        this.accepts = new boolean[needleLength * 256];
+
+        for (int b = 0; b < 256; b++) {
+            trailingSpace[b] = byteToLowerChar[b] == ' ';
+            shift[b] = needleLength;
+        }
+        for (int i = 0; i < needleLength; i++) {
+            char wanted = lowerCaseTerm.charAt(i);
+            for (int b = 0; b < 256; b++) {
+                if (byteToLowerChar[b] == wanted) {
+                    accepts[i * 256 + b] = true;
+                    if (i < needleLength - 1) {
+                        shift[b] = needleLength - 1 - i; // Last occurrence before the final position wins
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a matcher for {@code field}, or {@code null} if the raw-byte path does not apply:
+     * the field is not a plain PIC X field, or the encoding is not a single-byte codepage.
+     */
+    public static EbcdicFieldMatcher forField(FieldDetail field, String encoding, String searchTerm) {
+        if (field.getType() != Type.ftChar || searchTerm == null) {
+            return null;
+        }
+        EbcdicTranscoder transcoder = EbcdicTranscoder.forEncoding(encoding);
+        if (transcoder == null) {
+            return null;
+        }
+
+        // What each byte looks like in the page view (decoded, control characters replaced by
+        // '.'), lower-cased. NO_MATCH marks bytes that can never match.
+        char[] byteToLowerChar = new char[256];
+        for (int b = 0; b < 256; b++) {
+            String lower = String.valueOf(transcoder.displayChar(b)).toLowerCase();
+            byteToLowerChar[b] = lower.length() == 1 ? lower.charAt(0) : NO_MATCH;
+        }
+        return new EbcdicFieldMatcher(field.getPos() - 1, field.getLen(), searchTerm.toLowerCase(), byteToLowerChar);
+    }
+
+    /**
+     * Tests whether the field within {@code record[0..recordLength)} contains the search term.
+     */
+    public boolean matches(byte[] record, int recordLength) {
+        int end = Math.min(fieldOffset + fieldLength, recordLength);
+        if (isLowValues(record, fieldOffset, end)) {
+            return needleLength == 0; // Decoded as "", like DecodePlan's PIC X decoders
+        }
+        while (end > fieldOffset && trailingSpace[record[end - 1] & 0xFF]) {
+            end--;
+        }
+        if (needleLength == 0) {
+            return true;
+        }
+        int last = needleLength - 1;
+        int position = fieldOffset;
+        while (position + needleLength <= end) {
+            int i = last;
+            while (accepts[i * 256 + (record[position + i] & 0xFF)]) {
+                if (i == 0) {
+                    return true;
+                }
+                i--;
+            }
+            position += shift[record[position + last] & 0xFF];
+        }
+        return false;
+    }
+
+    private static boolean isLowValues(byte[] record, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (record[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -4,6 +4,21 @@ public class EbcdicFileViewer {
     private static final int DEFAULT_PAGE_SIZE = 50;     // Default number of records per page
 
     public static void main(String[] args) {
+        // Leading --name=value options are collected first; the rest are positional arguments.
+        ViewerOptions options = new ViewerOptions();
+        int firstPositional = 0;
+        while (firstPositional < args.length && args[firstPositional].startsWith("--")) {
+            try {
+                options.apply(args[firstPositional]);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage());
+                printUsage();
+                System.exit(1);
+            }
+            firstPositional++;
+        }
+        args = java.util.Arrays.copyOfRange(args, firstPositional, args.length);
+
         if (args.length < 2 || args.length > 4) {
             printUsage();
             System.exit(1);
@@ -54,9 +69,30 @@ public class EbcdicFileViewer {
         }
 
 
+        if (options.getExportFormat() != null) {
+            // Headless: no terminal is needed, the page size does not apply
+            try {
+                RecordExporter.run(dataFilePath, copybookFilePath, encoding, options);
+                System.exit(0);
+            } catch (Exception e) {
+                System.err.println("Error: export failed: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (options.isProfileEnabled()) {
+            try {
+                ColumnProfiler.run(dataFilePath, copybookFilePath, encoding, options);
+                System.exit(0);
+            } catch (Exception e) {
+                System.err.println("Error: profile failed: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
         // Assuming AppController is in the same package (default) or properly imported.
         try {
-            AppController appController = new AppController(dataFilePath, copybookFilePath, encoding, pageSize);
+            AppController appController = new AppController(dataFilePath, copybookFilePath, encoding, pageSize, options);
             appController.start();
         } catch (Exception e) {
             // Catch any unexpected exceptions during AppController init or start that might not have been handled internally by AppController's System.exit
@@ -70,13 +106,36 @@ public class EbcdicFileViewer {
         System.err.println("\nEbcdic File Viewer");
         System.err.println("--------------------");
         System.err.println("Displays EBCDIC encoded data files based on a COBOL copybook definition.");
-        System.err.println("\nUsage: java EbcdicFileViewer <data_file_path> <copybook_file_path> [encoding] [page_size]");
+        System.err.println("\nUsage: java EbcdicFileViewer [options] <data_file_path> <copybook_file_path> [encoding] [page_size]");
         System.err.println("\nArguments:");
-        System.err.println("  <data_file_path>    : Path to the EBCDIC data file (required).");
+        System.err.println("  <data_file_path>    : Path to the EBCDIC data file, optionally gzip-compressed (required).");
         System.err.println("  <copybook_file_path>: Path to the COBOL copybook file (required).");
         System.err.println("  [encoding]          : EBCDIC encoding to use (optional, defaults to " + DEFAULT_ENCODING + ").");
         System.err.println("                      Common examples: IBM037, CP037, IBM500, IBM1047.");
         System.err.println("  [page_size]         : Number of records per page (optional, defaults to " + DEFAULT_PAGE_SIZE + ").");
+        System.err.println("\nOptions:");
+        System.err.println("  --recfm=F|RDW|BDW   : Record framing (optional, defaults to what the copybook implies).");
+        System.err.println("                      F = fixed length, RDW = variable with record descriptor words,");
+        System.err.println("                      BDW = variable blocked with block and record descriptor words.");
+        System.err.println("  --no-index-cache    : Do not read or write the <data_file>.ebvidx index sidecar or keep the");
+        System.err.println("                      <data_file>" + GzipDataFile.EXTENSION + " checkpoint index of a gzip-compressed file.");
+        System.err.println("  --key-index=F1,F2   : Build or reuse sorted key indexes (<data_file>.<FIELD>.ebvkey) on these");
+        System.err.println("                      PIC X / PIC 9 fields for exact and prefix lookups with the 'k' command.");
+        System.err.println("  --page-cache-mb=N   : Memory for recently viewed and prefetched pages (default " + PageCache.DEFAULT_BUDGET_MB + ", 0 = off).");
+        System.err.println("  --prefetch=N        : Pages decoded ahead in the paging direction (default " + PageCache.DEFAULT_PREFETCH_PAGES + ", 0 = off).");
+        System.err.println("  --freeze=F1,F2      : Keep these columns on the left while scrolling sideways with the arrow keys.");
+        System.err.println("  --columnar          : Page and search a decoded copy of the file, <data_file>" + ColumnarCache.EXTENSION + " (built on first use).");
+        System.err.println("  --record-types=NAME:FIELD=VALUE[|VALUE],...,NAME:* : Records of several layouts (01 levels or");
+        System.err.println("                      REDEFINES groups of the copybook), told apart by a discriminator field.");
+        System.err.println("                      In the viewer 't' switches the columns to the next type, 'o' pages through one type.");
+        System.err.println("  --export=csv|jsonl|fixed : Write every record in this format instead of starting the viewer.");
+        System.err.println("  --profile           : Write a JSON profile of every field (min/max, blanks, invalid numbers,");
+        System.err.println("                      distinct and top values, histograms) instead of starting the viewer.");
+        System.err.println("  --out=FILE          : Export or profile destination (default standard output; - also means standard output).");
+        System.err.println("  --export-threads=N  : Export decoding threads (default 0 = one per processor).");
+        System.err.println("  --export-arrays=all|none|NAME,... : OCCURS arrays whose occurrences are exported (default all).");
+        System.err.println("  --export-type=NAME  : With --record-types, export only this type (default: every type in jsonl,");
+        System.err.println("                      the first type listed in csv and fixed).");
         System.err.println("\nExample:");
         System.err.println("  java -cp \"lib/lanterna-3.1.1.jar:src\" EbcdicFileViewer data/EBCDIC.DAT layout/COBCOPY.CPY IBM037 75");
         System.err.println("  (If using packages, replace EbcdicFileViewer with fully qualified class name, e.g. com.example.EbcdicFileViewer)");
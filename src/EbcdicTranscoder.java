@@ -0,0 +1,170 @@
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table-driven decoder for single-byte code pages (IBM037, IBM500, IBM1047, IBM273, ...) that
+ * translates and sanitises in one pass.
+ *
+ * The viewer used to decode every cell with the charset and then run
+ * {@code replaceAll("\\p{Cntrl}", ".")} over the result. Here a 256-entry table built once per
+ * code page maps each byte straight to the character shown on screen, with control characters
+ * (U+0000-U+001F and U+007F) already replaced by '.'. For code pages whose characters all lie in
+ * Latin-1, which includes the common EBCDIC ones, the table holds Latin-1 bytes and the String is
+ * created by the JDK's Latin-1 copy, so no char[] is filled and compressed again.
+ *
+ * Instances are immutable, cached per encoding and thread-safe.
+ */
+public final class EbcdicTranscoder {
+
+    private static final ConcurrentHashMap<String, Optional<EbcdicTranscoder>> CACHE = new ConcurrentHashMap<>();
+
+    private final String encoding;
+    private final char[] displayChars = new char[256]; // Decoded and sanitised character per byte
+    private final byte[] latin1Bytes;                  // The same as Latin-1 bytes, or null if a character is above U+00FF
+    private final boolean[] spaces = new boolean[256];  // Bytes that decode to ' '
+
+    private EbcdicTranscoder(String encoding, Charset charset) {
+        this.encoding = encoding;
+        boolean allLatin1 = true;
+        for (int b = 0; b < 256; b++) {
+            char c = new String(new byte[] {(byte) b}, charset).charAt(0);
+            spaces[b] = c == ' ';
+            if (c <= 0x1F || c == 0x7F) {
+                c = '.';
+            }
+            displayChars[b] = c;
+            allLatin1 &= c <= 0xFF;
+        }
+        if (allLatin1) {
+            latin1Bytes = new byte[256];
+            for (int b = 0; b < 256; b++) {
+                latin1Bytes[b] = (byte) displayChars[b];
+            }
+        } else {
+            latin1Bytes = null;
+        }
+    }
+
+    /**
+     * Returns the transcoder for {@code encoding}, or null if it is not a single-byte charset
+     * (or not known to the JVM); callers then keep using the charset and a regex.
+     */
+    public static EbcdicTranscoder forEncoding(String encoding) {
+        return CACHE.computeIfAbsent(encoding.toUpperCase(), key -> Optional.ofNullable(create(encoding))).orElse(null);
+    }
+
+    private static EbcdicTranscoder create(String encoding) {
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f) {
+            return null;
+        }
+        for (int b = 0; b < 256; b++) {
+            if (new String(new byte[] {(byte) b}, charset).length() != 1) {
+                return null; // Not a plain one-byte-one-character mapping
+            }
+        }
+        return new EbcdicTranscoder(encoding, charset);
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /** The character shown for byte {@code b}, control characters already replaced by '.'. */
+    public char displayChar(int b) {
+        return displayChars[b & 0xFF];
+    }
+
+    /** Whether byte {@code b} decodes to a space (0x40 in EBCDIC). */
+    public boolean isSpace(byte b) {
+        return spaces[b & 0xFF];
+    }
+
+    /**
+     * Decodes and sanitises {@code src[from..to)}; the result equals
+     * {@code new String(src, from, to - from, charset).replaceAll("\\p{Cntrl}", ".")}.
+     */
+    public String decode(byte[] src, int from, int to) {
+        int length = to - from;
+        if (latin1Bytes != null) {
+            byte[] out = new byte[length];
+            for (int i = 0; i < length; i++) {
+                out[i] = latin1Bytes[src[from + i] & 0xFF];
+            }
+            return new String(out, StandardCharsets.ISO_8859_1);
+        }
+        char[] out = new char[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = displayChars[src[from + i] & 0xFF];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Checks the tables against charset decoding plus the regex for a set of code pages and
+     * compares their speed on random PIC X field contents.
+     * Usage: EbcdicTranscoder [encoding...]
+     */
+    public static void main(String[] args) {
+        String[] encodings = args.length > 0 ? args
+                : new String[] {"IBM037", "IBM500", "IBM1047", "IBM273", "IBM277", "IBM280", "IBM284", "IBM285", "IBM297", "IBM871", "IBM1140", "IBM1148"};
+        Random random = new Random(7);
+        byte[] data = new byte[1 << 20];
+        for (int i = 0; i < data.length; i++) {
+            // Mostly letters, digits and spaces, with some control and unmapped bytes mixed in
+            int kind = random.nextInt(10);
+            data[i] = (byte) (kind < 7 ? 0xC1 + random.nextInt(9) : kind < 9 ? 0x40 : random.nextInt(256));
+        }
+
+        for (String encoding : encodings) {
+            EbcdicTranscoder transcoder = forEncoding(encoding);
+            if (transcoder == null) {
+                System.out.println(encoding + ": not a single-byte code page, no table");
+                continue;
+            }
+            Charset charset = Charset.forName(encoding);
+            byte[] all = new byte[256];
+            for (int b = 0; b < 256; b++) {
+                all[b] = (byte) b;
+            }
+            boolean same = transcoder.decode(all, 0, 256).equals(new String(all, charset).replaceAll("\\p{Cntrl}", "."));
+            System.out.println(encoding + ": table " + (same ? "matches" : "DIFFERS FROM") + " charset + regex"
+                    + (transcoder.latin1Bytes != null ? " (Latin-1 path)" : " (char path)"));
+        }
+
+        EbcdicTranscoder transcoder = forEncoding(encodings[0]);
+        if (transcoder == null) {
+            return;
+        }
+        Charset charset = Charset.forName(encodings[0]);
+        long checksum = 0; // Keeps the JIT from dropping the decoded strings
+        for (int fieldLength : new int[] {8, 30, 100, 400}) {
+            long regexNanos = 0;
+            long tableNanos = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (int from = 0; from + fieldLength <= data.length; from += fieldLength) {
+                    checksum += new String(data, from, fieldLength, charset).replaceAll("\\p{Cntrl}", ".").length();
+                }
+                regexNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int from = 0; from + fieldLength <= data.length; from += fieldLength) {
+                    checksum += transcoder.decode(data, from, from + fieldLength).length();
+                }
+                tableNanos = System.nanoTime() - start;
+            }
+            long fields = data.length / fieldLength;
+            System.out.printf("%s, %3d-byte fields: charset + regex %4d ns/field, table %4d ns/field (%.1fx)%n",
+                    encodings[0], fieldLength, regexNanos / fields, tableNanos / fields, (double) regexNanos / tableNanos);
+        }
+        System.out.println("(checksum " + checksum + ")");
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Output format of the headless export ({@code --export}), see {@link RecordExporter}.
+ */
+public enum ExportFormat {
+    /** Comma-separated values with a header line; text is trimmed and quoted where needed (RFC 4180). */
+    CSV,
+    /** One JSON object per record; numeric fields are written as JSON numbers. */
+    JSONL,
+    /** Columns padded to the fields' display widths with a header line, in US-ASCII. */
+    FIXED;
+
+    /**
+     * Parses the value of the {@code --export} command-line option.
+     *
+     * @throws IllegalArgumentException if the value is not recognised.
+     */
+    public static ExportFormat fromOption(String value) {
+        switch (value.trim().toUpperCase()) {
+            case "CSV":
+                return CSV;
+            case "JSONL":
+            case "JSON":
+            case "NDJSON":
+                return JSONL;
+            case "FIXED":
+            case "TXT":
+            case "TEXT":
+                return FIXED;
+            default:
+                throw new IllegalArgumentException("Unknown export format '" + value + "'. Use csv, jsonl or fixed.");
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External merge sort for fixed-width binary entries, compared as unsigned byte strings.
+ *
+ * Entries are collected through {@link Sink}s (one per producing thread). Each sink sorts its
+ * buffer when it is full and spills it to a temporary run file, so memory use is bounded by the
+ * sink buffer size no matter how many entries are added. {@link #merge} then streams a k-way
+ * merge of all runs in ascending order.
+ *
+ * Callers typically append the record ordinal big-endian after the key, which makes the order
+ * of equal keys follow the file order.
+ */
+public class ExternalSorter implements Closeable {
+
+    /** Receives merged entries in ascending order. The array is reused between calls. */
+    public interface EntryConsumer {
+        void accept(byte[] entry) throws IOException;
+    }
+
+    private final int entryLength;
+    private final int entriesPerRun;
+    private final Path tempDirectory;
+    private final List<Path> runs = new ArrayList<>();
+
+    /**
+     * @param entryLength     width of every entry in bytes.
+     * @param bytesPerSink    memory each sink may use before it spills a run.
+     * @param tempDirectory   directory for run files; they are deleted by {@link #close()}.
+     */
+    public ExternalSorter(int entryLength, long bytesPerSink, Path tempDirectory) {
+        this.entryLength = entryLength;
+        this.entriesPerRun = (int) Math.max(1, Math.min(Integer.MAX_VALUE / entryLength, bytesPerSink / entryLength));
+        this.tempDirectory = tempDirectory;
+    }
+
+    public Sink newSink() {
+        return new Sink();
+    }
+
+    /**
+     * Collects entries from a single thread. Not thread-safe; use one sink per thread.
+     */
+    public final class Sink implements Closeable {
+        private byte[] buffer;
+        private int count;
+
+        private Sink() {
+            this.buffer = new byte[Math.min(entriesPerRun, 1 << 16) * entryLength];
+        }
+
+        /** Copies one entry of {@code entryLength} bytes starting at {@code entry[offset]}. */
+        public void add(byte[] entry, int offset) throws IOException {
+            if ((count + 1) * entryLength > buffer.length) {
+                if (count == entriesPerRun) {
+                    spill();
+                } else {
+                    buffer = Arrays.copyOf(buffer, Math.min(entriesPerRun, count * 2) * entryLength);
+                }
+            }
+            System.arraycopy(entry, offset, buffer, count * entryLength, entryLength);
+            count++;
+        }
+
+        /** Spills whatever is still buffered. */
+        @Override
+        public void close() throws IOException {
+            if (count > 0) {
+                spill();
+            }
+            buffer = null;
+        }
+
+        private void spill() throws IOException {
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            sort(buffer, order, 0, count - 1);
+            Path run = Files.createTempFile(tempDirectory, "ebv-run-", ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), 1 << 20)) {
+                for (int i = 0; i < count; i++) {
+                    out.write(buffer, order[i] * entryLength, entryLength);
+                }
+            }
+            synchronized (runs) {
+                runs.add(run);
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Streams all entries added so far to {@code consumer} in ascending order.
+     */
+    public void merge(EntryConsumer consumer) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> compare(a.current, 0, b.current, 0));
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                consumer.accept(reader.current);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    /** Deletes all run files. */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    private final class RunReader {
+        final InputStream in;
+        final byte[] current = new byte[entryLength];
+
+        RunReader(Path run) throws IOException {
+            this.in = new BufferedInputStream(Files.newInputStream(run), 1 << 16);
+        }
+
+        boolean next() throws IOException {
+            int read = in.readNBytes(current, 0, entryLength);
+            if (read == 0) {
+                return false;
+            }
+            if (read != entryLength) {
+                throw new EOFException("Truncated sort run");
+            }
+            return true;
+        }
+    }
+
+    private int compare(byte[] a, int aOffset, byte[] b, int bOffset) {
+        return Arrays.compareUnsigned(a, aOffset, aOffset + entryLength, b, bOffset, bOffset + entryLength);
+    }
+
+    /** Quicksort of entry indexes, falling back to insertion sort for short ranges. */
+    private void sort(byte[] data, int[] order, int low, int high) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            // Median of three as pivot, moved to the front
+            if (compareAt(data, order[middle], order[low]) < 0) swap(order, middle, low);
+            if (compareAt(data, order[high], order[low]) < 0) swap(order, high, low);
+            if (compareAt(data, order[high], order[middle]) < 0) swap(order, high, middle);
+            swap(order, low, middle);
+            int pivot = order[low];
+            int i = low;
+            int j = high + 1;
+            while (true) {
+                do { i++; } while (i <= high && compareAt(data, order[i], pivot) < 0);
+                do { j--; } while (compareAt(data, order[j], pivot) > 0);
+                if (i >= j) break;
+                swap(order, i, j);
+            }
+            swap(order, low, j);
+            // Recurse into the smaller half to bound the stack depth
+            if (j - low < high - j) {
+                sort(data, order, low, j - 1);
+                low = j + 1;
+            } else {
+                sort(data, order, j + 1, high);
+                high = j - 1;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int value = order[i];
+            int j = i - 1;
+            while (j >= low && compareAt(data, order[j], value) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = value;
+        }
+    }
+
+    private int compareAt(byte[] data, int a, int b) {
+        return compare(data, a * entryLength, data, b * entryLength);
+    }
+
+    private static void swap(int[] order, int a, int b) {
+        int tmp = order[a];
+        order[a] = order[b];
+        order[b] = tmp;
+    }
+}
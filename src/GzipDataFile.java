@@ -0,0 +1,482 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A gzip-compressed data file ({@code .dat.gz}) read as if it were the uncompressed file, so
+ * transfers can be viewed without unpacking them to disk first.
+ *
+ * Deflate data can only be decoded from the start, so the first open makes one pass over the
+ * whole file and saves a checkpoint index next to it, {@code <data_file>.ebvgzi}, in the manner
+ * of zlib's zran example: about every {@link #SPAN} bytes of output, at the next deflate block
+ * boundary, the compressed bit position, the output position and the 32 KB of output before it
+ * (the history later back references may reach into, stored compressed). A read then decodes
+ * only the span it falls in, starting at the span's checkpoint, and recently decoded spans are
+ * kept for the following reads. The index is keyed by the compressed file's size and
+ * modification time and rebuilt when either changes.
+ */
+public class GzipDataFile extends MappedDataFile {
+
+    public static final String EXTENSION = ".ebvgzi";
+    static final long SPAN = 4L << 20;
+
+    private static final int MAGIC = 0x45425647; // "EBVG"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 24;
+    private static final int CACHED_SPANS = 8;
+
+    private final MappedDataFile compressed;
+    private final MappedDataFile index;     // Windows are read from it when a span is decoded
+    private final Path temporaryIndexPath;  // Deleted on close; null if the index is kept
+    private final long[] bitPositions;
+    private final long[] outputPositions;
+    private final long[] windowPositions;
+    private final int[] windowLengths;      // Compressed
+    private final int[] windowSizes;        // Uncompressed, at most 32 KB
+    private final Map<Integer, Span> spans = new LinkedHashMap<Integer, Span>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Span> eldest) {
+            return size() > CACHED_SPANS;
+        }
+    };
+    private final ThreadLocal<Span> lastSpan = new ThreadLocal<>(); // Saves the lookup for sequential reads
+
+    /** The decoded output between two checkpoints. */
+    private static final class Span {
+        final long start;
+        final byte[] data;
+
+        Span(long start, byte[] data) {
+            this.start = start;
+            this.data = data;
+        }
+    }
+
+    private GzipDataFile(MappedDataFile compressed, MappedDataFile index, Path temporaryIndexPath, long length,
+                         long[] bitPositions, long[] outputPositions, long[] windowPositions, int[] windowLengths, int[] windowSizes) {
+        super(compressed.getFilePath(), length);
+        this.compressed = compressed;
+        this.index = index;
+        this.temporaryIndexPath = temporaryIndexPath;
+        this.bitPositions = bitPositions;
+        this.outputPositions = outputPositions;
+        this.windowPositions = windowPositions;
+        this.windowLengths = windowLengths;
+        this.windowSizes = windowSizes;
+    }
+
+    /** Whether the file starts with the gzip magic bytes. */
+    public static boolean isGzip(String filePath) throws IOException {
+        try (InputStream in = Files.newInputStream(Path.of(filePath))) {
+            return in.read() == 0x1F && in.read() == 0x8B;
+        }
+    }
+
+    public static Path indexPath(Path dataPath) {
+        return dataPath.resolveSibling(dataPath.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Opens a mapped gzip file through its checkpoint index, building the index first if it is
+     * missing or stale. Without {@code saveIndex}, or if the file's directory is not writable,
+     * the index goes to a temporary file that is deleted on close.
+     */
+    static GzipDataFile open(MappedDataFile compressed, boolean saveIndex) throws IOException {
+        Path dataPath = Path.of(compressed.getFilePath());
+        Path indexPath = indexPath(dataPath);
+        if (saveIndex) {
+            GzipDataFile file = load(compressed, indexPath, null);
+            if (file != null) {
+                return file;
+            }
+            Path directory = dataPath.toAbsolutePath().getParent();
+            if (directory == null || !Files.isWritable(directory)) {
+                System.err.println("Warning: Cannot write " + indexPath + "; the gzip index is kept for this session only.");
+                saveIndex = false;
+            }
+        }
+        Path temporaryIndexPath = saveIndex ? null : Files.createTempFile("ebv", EXTENSION);
+        Path target = saveIndex ? indexPath : temporaryIndexPath;
+        try {
+            build(compressed, target);
+            GzipDataFile file = load(compressed, target, temporaryIndexPath);
+            if (file == null) {
+                throw new IOException("Gzip index " + target + " could not be read back after building it.");
+            }
+            return file;
+        } catch (IOException | RuntimeException e) {
+            if (temporaryIndexPath != null) {
+                Files.deleteIfExists(temporaryIndexPath);
+            }
+            throw e;
+        }
+    }
+
+    /** The index at {@code indexPath} if it was built from the file as it is now, else null. */
+    private static GzipDataFile load(MappedDataFile compressed, Path indexPath, Path temporaryIndexPath) throws IOException {
+        if (!Files.isRegularFile(indexPath) || Files.size(indexPath) < HEADER_LENGTH + 8) {
+            return null;
+        }
+        Path dataPath = Path.of(compressed.getFilePath());
+        MappedDataFile index = new MappedDataFile(indexPath.toString());
+        boolean keep = false;
+        try {
+            ByteBuffer header = ByteBuffer.wrap(readBytes(index, 0, HEADER_LENGTH));
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != compressed.length()
+                    || header.getLong() != Files.getLastModifiedTime(dataPath).toMillis()) {
+                return null;
+            }
+            long directoryPosition = ByteBuffer.wrap(readBytes(index, index.length() - 8, 8)).getLong();
+            if (directoryPosition < HEADER_LENGTH || directoryPosition > index.length() - 20) {
+                return null;
+            }
+            ByteBuffer directory = ByteBuffer.wrap(readBytes(index, directoryPosition, (int) (index.length() - 8 - directoryPosition)));
+            long length = directory.getLong();
+            int count = directory.getInt();
+            long[] bitPositions = new long[count];
+            long[] outputPositions = new long[count];
+            long[] windowPositions = new long[count];
+            int[] windowLengths = new int[count];
+            int[] windowSizes = new int[count];
+            long position = HEADER_LENGTH;
+            for (int i = 0; i < count; i++) {
+                bitPositions[i] = directory.getLong();
+                outputPositions[i] = directory.getLong();
+                windowLengths[i] = directory.getInt();
+                windowSizes[i] = directory.getInt();
+                windowPositions[i] = position;
+                position += windowLengths[i];
+            }
+            keep = true;
+            return new GzipDataFile(compressed, index, temporaryIndexPath, length,
+                    bitPositions, outputPositions, windowPositions, windowLengths, windowSizes);
+        } catch (RuntimeException e) {
+            System.err.println("Warning: Ignoring unreadable gzip index " + indexPath + ": " + e);
+            return null;
+        } finally {
+            if (!keep) {
+                index.close();
+            }
+        }
+    }
+
+    /** Decodes the whole file once, checking each member's CRC, and writes the checkpoints to {@code indexPath}. */
+    private static void build(MappedDataFile compressed, Path indexPath) throws IOException {
+        long start = System.nanoTime();
+        System.err.println("Indexing gzip file " + compressed.getFilePath() + " for random access...");
+        Path dataPath = Path.of(compressed.getFilePath());
+        long modifiedTime = Files.getLastModifiedTime(dataPath).toMillis();
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        DeflateDecoder decoder = new DeflateDecoder(compressed);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(compressed.length());
+            out.writeLong(modifiedTime);
+
+            long[][] checkpoints = {new long[64], new long[64], new long[64]}; // Bit position, output position, window sizes
+            int[] count = {0};
+            long[] total = {0};
+            long[] written = {HEADER_LENGTH};
+            ByteArrayOutputStream window = new ByteArrayOutputStream(DeflateDecoder.WINDOW_SIZE);
+            byte[] buffer = new byte[8192];
+            decoder.run(DeflateDecoder.memberDataStart(compressed, 0) * 8, new byte[0], 0, new DeflateDecoder.Sink() {
+                @Override
+                public boolean blockStart(long bitPosition, long outputPosition) throws IOException {
+                    int n = count[0];
+                    if (n > 0 && outputPosition - checkpoints[1][n - 1] < SPAN) {
+                        return true;
+                    }
+                    byte[] history = decoder.window();
+                    deflater.reset();
+                    deflater.setInput(history);
+                    deflater.finish();
+                    window.reset();
+                    while (!deflater.finished()) {
+                        window.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                    window.writeTo(out);
+                    written[0] += window.size();
+                    if (n == checkpoints[0].length) {
+                        for (int i = 0; i < checkpoints.length; i++) {
+                            checkpoints[i] = Arrays.copyOf(checkpoints[i], n * 2);
+                        }
+                    }
+                    checkpoints[0][n] = bitPosition;
+                    checkpoints[1][n] = outputPosition;
+                    checkpoints[2][n] = ((long) window.size() << 32) | history.length;
+                    count[0] = n + 1;
+                    return true;
+                }
+
+                @Override
+                public boolean output(byte[] data, int offset, int length) {
+                    total[0] += length;
+                    return true;
+                }
+            });
+
+            long directoryPosition = written[0];
+            out.writeLong(total[0]);
+            out.writeInt(count[0]);
+            for (int i = 0; i < count[0]; i++) {
+                out.writeLong(checkpoints[0][i]);
+                out.writeLong(checkpoints[1][i]);
+                out.writeInt((int) (checkpoints[2][i] >>> 32));
+                out.writeInt((int) checkpoints[2][i]);
+            }
+            out.writeLong(directoryPosition);
+            System.err.printf("Gzip index built: %.1f MB uncompressed, %d checkpoints, %d ms%n",
+                    total[0] / 1e6, count[0], (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        try {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public int getCheckpointCount() {
+        return bitPositions.length;
+    }
+
+    public long getCompressedLength() {
+        return compressed.length();
+    }
+
+    /**
+     * Copies {@code len} bytes of the uncompressed content at {@code position}, decoding the
+     * spans they fall in if they are not cached.
+     *
+     * @throws UncheckedIOException if the compressed data cannot be decoded.
+     */
+    @Override
+    public void read(long position, byte[] dst, int off, int len) {
+        while (len > 0) {
+            Span span = span(position);
+            int from = (int) (position - span.start);
+            int chunk = Math.min(len, span.data.length - from);
+            System.arraycopy(span.data, from, dst, off, chunk);
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    public int getUnsignedByte(long position) {
+        Span span = span(position);
+        return span.data[(int) (position - span.start)] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (spans) {
+            spans.clear();
+        }
+        index.close();
+        compressed.close();
+        if (temporaryIndexPath != null) {
+            Files.deleteIfExists(temporaryIndexPath);
+        }
+    }
+
+    private Span span(long position) {
+        Span span = lastSpan.get();
+        if (span != null && position >= span.start && position - span.start < span.data.length) {
+            return span;
+        }
+        if (position < 0 || position >= length()) {
+            throw new IndexOutOfBoundsException("Position " + position + " outside 0.." + length() + " of " + getFilePath());
+        }
+        int checkpoint = Arrays.binarySearch(outputPositions, position);
+        if (checkpoint < 0) {
+            checkpoint = -checkpoint - 2;
+        }
+        while (checkpoint + 1 < outputPositions.length && outputPositions[checkpoint + 1] == position) {
+            checkpoint++; // An empty span, e.g. an empty gzip member
+        }
+        synchronized (spans) {
+            span = spans.get(checkpoint);
+        }
+        if (span == null) {
+            // Decoded outside the lock, so threads reading different spans do not wait on each other
+            try {
+                span = new Span(outputPositions[checkpoint], decodeSpan(checkpoint));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            synchronized (spans) {
+                spans.put(checkpoint, span);
+            }
+        }
+        lastSpan.set(span);
+        return span;
+    }
+
+    private byte[] decodeSpan(int checkpoint) throws IOException {
+        long start = outputPositions[checkpoint];
+        long end = checkpoint + 1 < outputPositions.length ? outputPositions[checkpoint + 1] : length();
+        if (end - start > Integer.MAX_VALUE - 16) {
+            throw new IOException("Deflate block of more than 2 GB in " + getFilePath());
+        }
+        byte[] data = new byte[(int) (end - start)];
+        int[] filled = {0};
+        new DeflateDecoder(compressed).run(bitPositions[checkpoint], window(checkpoint), start, new DeflateDecoder.Sink() {
+            @Override
+            public boolean blockStart(long bitPosition, long outputPosition) {
+                return filled[0] < data.length;
+            }
+
+            @Override
+            public boolean output(byte[] bytes, int offset, int length) {
+                int n = Math.min(length, data.length - filled[0]);
+                System.arraycopy(bytes, offset, data, filled[0], n);
+                filled[0] += n;
+                return filled[0] < data.length;
+            }
+        });
+        if (filled[0] < data.length) {
+            throw new IOException("Compressed data of " + getFilePath() + " ended " + (data.length - filled[0])
+                    + " bytes before its index says; delete " + indexPath(Path.of(getFilePath())) + " to rebuild it.");
+        }
+        return data;
+    }
+
+    private byte[] window(int checkpoint) throws IOException {
+        byte[] window = new byte[windowSizes[checkpoint]];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(readBytes(index, windowPositions[checkpoint], windowLengths[checkpoint]));
+            int n = 0;
+            while (n < window.length && !inflater.finished()) {
+                int inflated = inflater.inflate(window, n, window.length - n);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != window.length) {
+                throw new IOException("Damaged checkpoint " + checkpoint + " in the gzip index of " + getFilePath());
+            }
+            return window;
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged checkpoint " + checkpoint + " in the gzip index of " + getFilePath(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] readBytes(MappedDataFile file, long position, int length) {
+        byte[] bytes = new byte[length];
+        file.read(position, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Builds (or reuses) the index of a gzip file, reads the whole file through it and compares
+     * that with {@link GZIPInputStream}, then times reads at random positions. Without arguments
+     * it does the same on a generated file of two gzip members.
+     * Usage: GzipDataFile [file.gz]
+     */
+    public static void main(String[] args) throws IOException {
+        Path path;
+        Path generated = null;
+        if (args.length > 0) {
+            path = Path.of(args[0]);
+        } else {
+            generated = Files.createTempFile("ebv-gzip", ".dat.gz");
+            path = generated;
+            Random random = new Random(42);
+            byte[] record = new byte[200];
+            try (OutputStream out = Files.newOutputStream(path)) {
+                for (int member = 0; member < 2; member++) {
+                    GZIPOutputStream gzip = new GZIPOutputStream(out, 1 << 16);
+                    for (int i = 0; i < 150_000; i++) {
+                        Arrays.fill(record, (byte) 0x40);
+                        for (int j = 0; j < 40; j++) {
+                            record[random.nextInt(record.length)] = (byte) (0xC1 + random.nextInt(9));
+                        }
+                        gzip.write(record);
+                    }
+                    gzip.finish(); // Leaves out open for the next member
+                }
+            }
+        }
+        try {
+            long start = System.nanoTime();
+            MappedDataFile file = MappedDataFile.open(path.toString(), true);
+            if (!(file instanceof GzipDataFile)) {
+                System.out.println(path + " is not gzip-compressed.");
+                file.close();
+                return;
+            }
+            GzipDataFile gzip = (GzipDataFile) file;
+            System.out.printf("Opened in %d ms: %.1f MB compressed, %.1f MB uncompressed, %d checkpoints, index %.1f MB%n",
+                    (System.nanoTime() - start) / 1_000_000, gzip.getCompressedLength() / 1e6, gzip.length() / 1e6,
+                    gzip.getCheckpointCount(), Files.size(indexPath(path)) / 1e6);
+
+            // Everything read through the index must equal GZIPInputStream's output
+            start = System.nanoTime();
+            long mismatch = -1;
+            long position = 0;
+            byte[] expected = new byte[1 << 20];
+            byte[] actual = new byte[1 << 20];
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(path), 1 << 16)) {
+                int n;
+                while ((n = in.readNBytes(expected, 0, expected.length)) > 0 && mismatch < 0) {
+                    gzip.read(position, actual, 0, n);
+                    if (!Arrays.equals(expected, 0, n, actual, 0, n)) {
+                        mismatch = position + Arrays.mismatch(expected, 0, n, actual, 0, n);
+                    }
+                    position += n;
+                }
+            }
+            System.out.printf("Read %.1f MB and compared with GZIPInputStream in %d ms: %s%n", position / 1e6,
+                    (System.nanoTime() - start) / 1_000_000,
+                    mismatch >= 0 ? "MISMATCH at " + mismatch : position == gzip.length() ? "identical" : "LENGTH DIFFERS");
+
+            // Random access: each read outside the cached spans decodes one span
+            Random random = new Random(7);
+            byte[] page = new byte[16 * 1024];
+            int reads = 200;
+            start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                long at = (long) (random.nextDouble() * Math.max(0, gzip.length() - page.length));
+                gzip.read(at, page, 0, (int) Math.min(page.length, gzip.length()));
+            }
+            System.out.printf("%d reads of 16 KB at random positions: %.1f ms each%n", reads,
+                    (System.nanoTime() - start) / 1e6 / reads);
+            gzip.close();
+        } finally {
+            if (generated != null) {
+                Files.deleteIfExists(generated);
+                Files.deleteIfExists(indexPath(generated));
+            }
+        }
+    }
+}
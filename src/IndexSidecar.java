@@ -0,0 +1,261 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Details.LayoutDetail;
+
+/**
+ * Persists a {@link RecordOffsetIndex} next to the data file as {@code <data>.ebvidx} so that
+ * reopening the same dataset does not rescan it.
+ *
+ * The sidecar is keyed by the data file's size, modification time and CRC32 hashes of a few
+ * blocks sampled across the file, plus a summary of the copybook layout and encoding:
+ * <ul>
+ *   <li>Same size, time and hashes: the saved index is used as is.</li>
+ *   <li>File has grown and the hashes of the previously indexed bytes still match: only the new
+ *       tail is indexed, and the sidecar is rewritten.</li>
+ *   <li>Anything else (rewritten file, different copybook or framing): the index is rebuilt.</li>
+ * </ul>
+ * Failure to read or write the sidecar is never fatal; the index is simply built from scratch.
+ * So is a sidecar whose contents contradict each other (see {@link RecordOffsetIndex#checkSaved}).
+ */
+public class IndexSidecar {
+
+    public static final String EXTENSION = ".ebvidx";
+
+    private static final int MAGIC = 0x45425649; // "EBVI"
+    private static final int VERSION = 1;
+    private static final int HASH_SAMPLES = 16;
+    private static final int HASH_BLOCK_SIZE = 4096;
+
+    /** Contents of a sidecar file as read from disk. */
+    private static final class Saved {
+        long fileSize;
+        long modifiedTime;
+        long[] blockHashes;
+        String layoutSummary;
+        String format;
+        int sampleInterval;
+        long recordCount;
+        long indexedEnd;
+        long[] offsets;
+        long[] blockEnds;
+    }
+
+    /**
+     * Returns the offset index for {@code file}, reusing or extending the sidecar when it is still
+     * valid and rebuilding (and saving) it otherwise.
+     */
+    public static RecordOffsetIndex loadOrBuild(MappedDataFile file, RecordFormat format, LayoutDetail layout,
+                                                String encoding, int parallelism) throws IOException {
+        RecordOffsetIndex index = open(file, format, layout, encoding);
+        if (!index.isComplete()) {
+            index.extend(Long.MAX_VALUE, parallelism);
+            save(file, layout, encoding, index); // Built or only the tail was indexed
+        }
+        return index;
+    }
+
+    /**
+     * Returns the saved index if the sidecar still describes {@code file}: complete when the file
+     * is unchanged, or with just the new tail left to {@link RecordOffsetIndex#extend} when it has
+     * grown. Otherwise returns an empty index. Once an incomplete index has been extended to the
+     * end, pass it to {@link #save}.
+     */
+    public static RecordOffsetIndex open(MappedDataFile file, RecordFormat format, LayoutDetail layout, String encoding) throws IOException {
+        Path dataPath = Path.of(file.getFilePath());
+        Path sidecarPath = sidecarPath(dataPath);
+        String layoutSummary = describeLayout(layout, encoding);
+        long modifiedTime = Files.getLastModifiedTime(dataPath).toMillis();
+        int maxRecordLength = layout.getMaximumRecordLength();
+
+        Saved saved = read(sidecarPath);
+        if (saved != null && saved.format.equals(format.name()) && saved.layoutSummary.equals(layoutSummary)
+                && saved.fileSize <= file.length() && Arrays.equals(saved.blockHashes, blockHashes(file, saved.fileSize))) {
+            boolean unchanged = saved.fileSize == file.length() && saved.modifiedTime == modifiedTime;
+            if (unchanged || saved.fileSize < file.length()) {
+                return RecordOffsetIndex.resume(file, format, maxRecordLength, saved.sampleInterval, saved.recordCount,
+                        saved.indexedEnd, saved.offsets, saved.blockEnds, unchanged || saved.indexedEnd >= file.length());
+            }
+        }
+        return RecordOffsetIndex.begin(file, format, maxRecordLength);
+    }
+
+    /** Writes the sidecar for a complete {@code index}; failures are reported, not thrown. */
+    public static void save(MappedDataFile file, LayoutDetail layout, String encoding, RecordOffsetIndex index) {
+        Path dataPath = Path.of(file.getFilePath());
+        long modifiedTime;
+        try {
+            modifiedTime = Files.getLastModifiedTime(dataPath).toMillis();
+        } catch (IOException e) {
+            System.err.println("Warning: Could not write index sidecar for " + dataPath + ": " + e.getMessage());
+            return;
+        }
+        write(sidecarPath(dataPath), file, modifiedTime, describeLayout(layout, encoding), index);
+    }
+
+    public static Path sidecarPath(Path dataPath) {
+        return dataPath.resolveSibling(dataPath.getFileName() + EXTENSION);
+    }
+
+    /**
+     * One line per elementary field plus the encoding and maximum length. Any change to the
+     * copybook that could move a record boundary or a field invalidates the sidecar.
+     */
+    static String describeLayout(LayoutDetail layout, String encoding) {
+        StringBuilder summary = new StringBuilder();
+        summary.append("encoding=").append(encoding)
+               .append(" maxLength=").append(layout.getMaximumRecordLength()).append('\n');
+        for (int r = 0; r < layout.getRecordCount(); r++) {
+            for (FieldDetail field : layout.getRecord(r).getFields()) {
+                summary.append(r).append(' ').append(field.getName())
+                       .append(" pos=").append(field.getPos())
+                       .append(" len=").append(field.getLen())
+                       .append(" type=").append(field.getType())
+                       .append(" scale=").append(field.getDecimal()).append('\n');
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * CRC32 of {@link #HASH_SAMPLES} blocks spread evenly over the first {@code size} bytes,
+     * always including the first and the last block of that range.
+     */
+    static long[] blockHashes(MappedDataFile file, long size) {
+        if (size == 0) {
+            return new long[0];
+        }
+        int blockSize = (int) Math.min(HASH_BLOCK_SIZE, size);
+        byte[] block = new byte[blockSize];
+        long[] hashes = new long[HASH_SAMPLES];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < HASH_SAMPLES; i++) {
+            long position = (size - blockSize) * i / (HASH_SAMPLES - 1);
+            file.read(position, block, 0, blockSize);
+            crc.reset();
+            crc.update(block, 0, blockSize);
+            hashes[i] = crc.getValue();
+        }
+        return hashes;
+    }
+
+    private static Saved read(Path sidecarPath) {
+        if (!Files.isRegularFile(sidecarPath)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecarPath), 1 << 16))) {
+            long size = Files.size(sidecarPath); // No array or string can be longer than the file
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            Saved saved = new Saved();
+            saved.fileSize = in.readLong();
+            saved.modifiedTime = in.readLong();
+            saved.blockHashes = readLongs(in, size);
+            saved.layoutSummary = readString(in, size);
+            saved.format = readString(in, size);
+            saved.sampleInterval = in.readInt();
+            saved.recordCount = in.readLong();
+            saved.indexedEnd = in.readLong();
+            saved.offsets = readLongs(in, size);
+            saved.blockEnds = in.readBoolean() ? readLongs(in, size) : null;
+            String problem;
+            try {
+                problem = RecordOffsetIndex.checkSaved(RecordFormat.valueOf(saved.format), saved.fileSize, saved.sampleInterval,
+                        saved.recordCount, saved.indexedEnd, saved.offsets, saved.blockEnds);
+            } catch (IllegalArgumentException e) {
+                problem = "unknown record format " + saved.format;
+            }
+            if (problem != null) {
+                System.err.println("Warning: Ignoring inconsistent index sidecar " + sidecarPath + ": " + problem);
+                return null;
+            }
+            return saved;
+        } catch (IOException e) {
+            System.err.println("Warning: Ignoring unreadable index sidecar " + sidecarPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void write(Path sidecarPath, MappedDataFile file, long modifiedTime, String layoutSummary, RecordOffsetIndex index) {
+        Path tempPath = sidecarPath.resolveSibling(sidecarPath.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(file.length());
+                out.writeLong(modifiedTime);
+                writeLongs(out, blockHashes(file, file.length()));
+                writeString(out, layoutSummary);
+                writeString(out, index.getFormat().name());
+                out.writeInt(index.getSampleInterval());
+                out.writeLong(index.getRecordCount());
+                out.writeLong(index.getIndexedEnd());
+                writeLongs(out, index.getOffsets());
+                out.writeBoolean(index.getBlockEnds() != null);
+                if (index.getBlockEnds() != null) {
+                    writeLongs(out, index.getBlockEnds());
+                }
+            }
+            try {
+                Files.move(tempPath, sidecarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, sidecarPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Typically a read-only directory; the index is still usable for this session.
+            System.err.println("Warning: Could not write index sidecar " + sidecarPath + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {
+                // Nothing more to clean up
+            }
+        }
+    }
+
+    private static long[] readLongs(DataInputStream in, long sidecarSize) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count * 8L > sidecarSize) {
+            throw new IOException("Corrupt array length " + count);
+        }
+        long[] values = new long[count];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static String readString(DataInputStream in, long sidecarSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > sidecarSize) {
+            throw new IOException("Corrupt string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Types.Type;
+
+/**
+ * Secondary index on one copybook field for exact and prefix lookups, stored on disk as
+ * {@code <data>.<FIELD>.ebvkey} and memory-mapped, so it costs no heap however many records
+ * the file has.
+ *
+ * File layout: a small header, a Bloom filter over the keys, then one entry per record (with
+ * {@code --record-types}, per record of the type that has the field) sorted by key: the field's raw bytes followed by the record ordinal (8 bytes, big-endian). Entries
+ * are built with an {@link ExternalSorter}. An exact lookup first asks the Bloom filter, then
+ * binary-searches the entries; a prefix lookup binary-searches only. Either way the result is a
+ * {@link RecordSubset} view over the matching entry range, so nothing is copied.
+ *
+ * Keys are compared as raw bytes, so the index works for PIC X fields and unsigned display
+ * numerics (PIC 9), whose bytes are the encoded digits.
+ *
+ * The header records the data file's size and modification time, the record count and a
+ * {@link LayoutHash} of the field's offset, length, type and scale and its record type, so the
+ * index is rebuilt when the data file changes or the copybook moves the field.
+ */
+public class KeyIndex {
+
+    public static final String EXTENSION = ".ebvkey";
+
+    private static final int MAGIC = 0x4542564B; // "EBVK"
+    private static final int VERSION = 3; // 2: layout hash in the header; 3: only the field's record type, entry count
+    private static final int HEADER_LENGTH = 64;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final long MAX_BLOOM_BYTES = 1L << 30; // One mapped region
+    private static final long SORT_BYTES_PER_THREAD = 64L << 20;
+
+    private final String fieldName;
+    private final FieldDetail field;
+    private final Charset charset;
+    private final MappedDataFile indexFile;
+    private final int keyLength;
+    private final int entryLength;
+    private final long entryCount;
+    private final long bloomOffset;
+    private final long bloomBits;
+    private final long entriesOffset;
+
+    private KeyIndex(String fieldName, FieldDetail field, Charset charset, MappedDataFile indexFile) throws IOException {
+        this.fieldName = fieldName;
+        this.field = field;
+        this.charset = charset;
+        this.indexFile = indexFile;
+        byte[] header = new byte[HEADER_LENGTH];
+        indexFile.read(0, header, 0, HEADER_LENGTH);
+        ByteBuffer in = ByteBuffer.wrap(header);
+        in.getInt(); // magic, checked by isCurrent
+        in.getInt(); // version
+        in.getLong(); // data file size
+        in.getLong(); // data file modification time
+        this.keyLength = in.getInt();
+        this.entryLength = keyLength + 8;
+        in.getLong(); // record count of the data file
+        this.bloomBits = in.getLong();
+        in.getLong(); // layout hash
+        this.entryCount = in.getLong();
+        this.bloomOffset = HEADER_LENGTH;
+        this.entriesOffset = bloomOffset + bloomBits / 8;
+    }
+
+    /**
+     * Tells whether {@code field} can be indexed: its raw bytes must sort and compare like the
+     * text a user would type.
+     */
+    public static boolean isIndexable(FieldDetail field) {
+        return field.getType() == Type.ftChar || field.getType() == Type.ftNumZeroPaddedPositive;
+    }
+
+    public static Path indexPath(String dataFilePath, String fieldName) {
+        Path dataPath = Path.of(dataFilePath);
+        return dataPath.resolveSibling(dataPath.getFileName() + "." + fieldName.replaceAll("[^A-Za-z0-9_-]", "_") + EXTENSION);
+    }
+
+    /**
+     * Opens the index for {@code fieldName}, building it first if it is missing or was built
+     * for a different version of the data file. Waits for the reader to finish counting the
+     * records, since the index covers all of them. With several record types only the records
+     * of the type that has the field are indexed.
+     */
+    public static KeyIndex openOrBuild(PagedFileReader reader, String fieldName) throws IOException {
+        int recordType = reader.findFieldType(fieldName);
+        FieldDetail field = recordType == RecordTypeTable.UNKNOWN ? reader.findField(fieldName)
+                : reader.getRecordTypes().getPlan(recordType).getField(reader.getRecordTypes().getPlan(recordType).indexOf(fieldName));
+        if (field == null) {
+            throw new IOException("Field '" + fieldName + "' is not in the copybook.");
+        }
+        if (!isIndexable(field)) {
+            throw new IOException("Field '" + fieldName + "' cannot be key-indexed; only PIC X and unsigned PIC 9 display fields are supported.");
+        }
+        try {
+            reader.awaitIndexing();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the record index", e);
+        }
+        Path dataPath = Path.of(reader.getFilePath());
+        Path path = indexPath(reader.getFilePath(), fieldName);
+        long dataSize = Files.size(dataPath);
+        long dataModified = Files.getLastModifiedTime(dataPath).toMillis();
+        long layoutHash = new LayoutHash(recordType)
+                .addField(field.getPos() - 1, field.getLen(), field.getType(), field.getDecimal()).get();
+        if (!isCurrent(path, dataSize, dataModified, field.getLen(), reader.getTotalRecords(), layoutHash)) {
+            build(reader, field, recordType, path, dataSize, dataModified, layoutHash);
+        }
+        return new KeyIndex(fieldName, field, Charset.forName(reader.getEncoding()), new MappedDataFile(path.toString()));
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Records whose key equals {@code value}. PIC X values are padded with spaces and PIC 9
+     * values with leading zeros to the field length.
+     */
+    public RecordSubset lookupExact(String value) {
+        byte[] key = encodeKey(value, true);
+        if (key.length != keyLength || !mightContain(key)) {
+            return new EntryRange(0, 0);
+        }
+        return range(key);
+    }
+
+    /** Records whose key starts with {@code prefix}, in key order. */
+    public RecordSubset lookupPrefix(String prefix) {
+        byte[] key = encodeKey(prefix, false);
+        if (key.length > keyLength) {
+            return new EntryRange(0, 0);
+        }
+        return range(key);
+    }
+
+    /** Entries whose first key.length bytes equal {@code key}. */
+    private EntryRange range(byte[] key) {
+        long from = lowerBound(key);
+        // Upper bound: first entry whose first key.length bytes are greater than the key
+        long low = from;
+        long high = entryCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (compareKey(middle, key, key.length) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return new EntryRange(from, low);
+    }
+
+    public void close() throws IOException {
+        indexFile.close();
+    }
+
+    /** Matching entries [from, to) viewed as record ordinals, in key order. */
+    private final class EntryRange implements RecordSubset {
+        private final long from;
+        private final long to;
+
+        EntryRange(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public long size() {
+            return to - from;
+        }
+
+        @Override
+        public long ordinalAt(long index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " outside 0.." + (size() - 1));
+            }
+            long position = entriesOffset + (from + index) * entryLength + keyLength;
+            long ordinal = 0;
+            for (int i = 0; i < 8; i++) {
+                ordinal = (ordinal << 8) | indexFile.getUnsignedByte(position + i);
+            }
+            return ordinal;
+        }
+    }
+
+    private byte[] encodeKey(String value, boolean padToFieldLength) {
+        String text = value;
+        if (padToFieldLength && text.length() < keyLength) {
+            if (field.getType() == Type.ftChar) {
+                text = text + " ".repeat(keyLength - text.length());
+            } else {
+                text = "0".repeat(keyLength - text.length()) + text;
+            }
+        }
+        return text.getBytes(charset);
+    }
+
+    /** First entry whose key is not less than {@code key} (compared on key.length bytes). */
+    private long lowerBound(byte[] key) {
+        long low = 0;
+        long high = entryCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (compareKey(middle, key, key.length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compareKey(long entry, byte[] key, int length) {
+        long position = entriesOffset + entry * entryLength;
+        for (int i = 0; i < length; i++) {
+            int difference = indexFile.getUnsignedByte(position + i) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private boolean mightContain(byte[] key) {
+        if (bloomBits == 0) {
+            return true;
+        }
+        long h1 = hash(key, 0, key.length, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0, key.length, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bloomBits);
+            if ((indexFile.getUnsignedByte(bloomOffset + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(byte[] data, int offset, int length, long seed) {
+        long h = seed;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (data[offset + i] & 0xFF)) * 0x100000001B3L;
+        }
+        // Final avalanche (MurmurHash3 fmix64)
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Building
+
+    private static boolean isCurrent(Path path, long dataSize, long dataModified, int keyLength, long recordCount, long layoutHash) {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // Fill the header
+            }
+            header.flip();
+            boolean current = header.remaining() == HEADER_LENGTH
+                    && header.getInt() == MAGIC && header.getInt() == VERSION
+                    && header.getLong() == dataSize && header.getLong() == dataModified
+                    && header.getInt() == keyLength && header.getLong() == recordCount;
+            if (!current) {
+                return false;
+            }
+            header.getLong(); // Bloom filter size
+            return header.getLong() == layoutHash;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void build(PagedFileReader reader, FieldDetail field, int recordType, Path path, long dataSize, long dataModified,
+                              long layoutHash) throws IOException {
+        int keyLength = field.getLen();
+        int keyOffset = field.getPos() - 1;
+        int entryLength = keyLength + 8;
+        long recordCount = reader.getTotalRecords();
+        long bloomBits = Math.min(MAX_BLOOM_BYTES * 8, Math.max(64, recordCount * BLOOM_BITS_PER_KEY)) & ~63L;
+        long entriesOffset = HEADER_LENGTH + bloomBits / 8;
+
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            writeIndex(reader, field, recordType, tempPath, dataSize, dataModified, keyLength, keyOffset, entryLength,
+                    recordCount, bloomBits, entriesOffset, layoutHash);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeIndex(PagedFileReader reader, FieldDetail field, int recordType, Path tempPath, long dataSize, long dataModified,
+                                   int keyLength, int keyOffset, int entryLength, long recordCount, long bloomBits,
+                                   long entriesOffset, long layoutHash) throws IOException {
+        RecordTypeTable types = recordType == RecordTypeTable.UNKNOWN ? null : reader.getRecordTypes();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        try (ExternalSorter sorter = new ExternalSorter(entryLength, SORT_BYTES_PER_THREAD, tempPath.toAbsolutePath().getParent())) {
+            // 1. Extract (key, ordinal) entries on all cores; each thread spills its own sorted runs.
+            ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+            try {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (int t = 0; t < parallelism; t++) {
+                    final long first = recordCount * t / parallelism;
+                    final long end = recordCount * (t + 1) / parallelism;
+                    tasks.add(() -> {
+                        try (ExternalSorter.Sink sink = sorter.newSink()) {
+                            byte[] entry = new byte[entryLength];
+                            IOException[] failure = new IOException[1];
+                            reader.scanRecords(first, end, (ordinal, data, length) -> {
+                                if (failure[0] != null || (types != null && types.typeOf(data, length) != recordType)) {
+                                    return; // Other record types have other bytes at the key's offset
+                                }
+                                // Short records are padded with zero bytes, which sort first
+                                Arrays.fill(entry, 0, keyLength, (byte) 0);
+                                int available = Math.min(keyLength, length - keyOffset);
+                                if (available > 0) {
+                                    System.arraycopy(data, keyOffset, entry, 0, available);
+                                }
+                                for (int i = 0; i < 8; i++) {
+                                    entry[keyLength + i] = (byte) (ordinal >>> (56 - 8 * i));
+                                }
+                                try {
+                                    sink.add(entry, 0);
+                                } catch (IOException e) {
+                                    failure[0] = e;
+                                }
+                            });
+                            if (failure[0] != null) {
+                                throw failure[0];
+                            }
+                        }
+                        return null;
+                    });
+                }
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while building key index for " + field.getName(), e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException("Error building key index: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            // 2. Merge the runs into the entry area and fill the Bloom filter (mapped, off-heap) as we go.
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer bloom = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_LENGTH, bloomBits / 8);
+                channel.position(entriesOffset);
+                OutputStream entries = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20);
+                long[] entryCount = new long[1];
+                sorter.merge(entry -> {
+                    entries.write(entry, 0, entryLength);
+                    entryCount[0]++;
+                    long h1 = hash(entry, 0, keyLength, 0x9E3779B97F4A7C15L);
+                    long h2 = hash(entry, 0, keyLength, 0xC2B2AE3D27D4EB4FL) | 1;
+                    for (int i = 0; i < BLOOM_HASHES; i++) {
+                        long bit = Long.remainderUnsigned(h1 + i * h2, bloomBits);
+                        int index = (int) (bit >>> 3);
+                        bloom.put(index, (byte) (bloom.get(index) | (1 << (bit & 7))));
+                    }
+                });
+                entries.flush();
+                bloom.force();
+                // Written last, so a partial file is never current
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(VERSION).putLong(dataSize).putLong(dataModified)
+                      .putInt(keyLength).putLong(recordCount).putLong(bloomBits).putLong(layoutHash).putLong(entryCount[0]);
+                header.rewind();
+                channel.write(header, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * A 64-bit fingerprint of the record layout an index sidecar was built for: the offsets,
+ * lengths, types and scales of its fields and the record type. Stored in the sidecar's header
+ * so that a copybook change that moves a field (even to a place of the same length) makes the
+ * sidecar stale instead of silently answering for the old layout.
+ *
+ * This is part of the on-disk formats of {@link KeyIndex} and {@link SortIndex}; changing how it
+ * mixes values invalidates every existing sidecar, so bump their VERSION if it ever changes.
+ */
+final class LayoutHash {
+
+    private long hash;
+
+    /** Starts a fingerprint of the layout of record type {@code recordType}. */
+    LayoutHash(int recordType) {
+        this.hash = 0x9E3779B97F4A7C15L ^ recordType;
+    }
+
+    /** Adds a field by its place and encoding. */
+    LayoutHash addField(int offset, int length, int type, int scale) {
+        return add(offset).add(length).add(type).add(scale);
+    }
+
+    /** Adds any other value the sidecar depends on. */
+    LayoutHash add(long value) {
+        hash = mix(hash ^ value);
+        return this;
+    }
+
+    long get() {
+        return hash;
+    }
+
+    /** The SplitMix64 finaliser: a well-mixed 64-bit hash of {@code z}. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only, memory-mapped view of a data file.
+ *
+ * A single MappedByteBuffer can address at most 2 GB, so the file is mapped as a
+ * sequence of fixed-size regions. Reads that straddle a region boundary are split
+ * transparently. All reads use absolute buffer access, so one instance can be
+ * shared by several threads without synchronisation.
+ *
+ * {@link #open} returns a {@link GzipDataFile} for gzip-compressed files, which reads the
+ * uncompressed content through the same methods.
+ */
+public class MappedDataFile {
+
+    // 1 GB regions keep the number of mappings small while staying well below the 2 GB limit.
+    static final int REGION_SHIFT = 30;
+    static final long REGION_SIZE = 1L << REGION_SHIFT;
+
+    private final String filePath;
+    private final FileChannel channel;
+    private final long length;
+    private final MappedByteBuffer[] regions;
+
+    public MappedDataFile(String filePath) throws IOException {
+        this.filePath = filePath;
+        this.channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ);
+        try {
+            this.length = channel.size();
+            int regionCount = (int) ((length + REGION_SIZE - 1) >>> REGION_SHIFT);
+            this.regions = new MappedByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                long start = (long) i << REGION_SHIFT;
+                long size = Math.min(REGION_SIZE, length - start);
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** For subclasses that serve the content themselves, such as {@link GzipDataFile}. */
+    protected MappedDataFile(String filePath, long length) {
+        this.filePath = filePath;
+        this.channel = null;
+        this.length = length;
+        this.regions = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Opens a data file: mapped as it is, or through a checkpoint index if it is gzip-compressed
+     * (see {@link GzipDataFile}).
+     *
+     * @param saveIndex whether a gzip checkpoint index is kept next to the file for the next time.
+     */
+    public static MappedDataFile open(String filePath, boolean saveIndex) throws IOException {
+        MappedDataFile file = new MappedDataFile(filePath);
+        if (file.length() < 2 || file.getUnsignedByte(0) != 0x1F || file.getUnsignedByte(1) != 0x8B) {
+            return file;
+        }
+        try {
+            return GzipDataFile.open(file, saveIndex);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Copies {@code len} bytes starting at file offset {@code position} into {@code dst}.
+     * The caller must ensure that the requested range lies within the file.
+     */
+    public void read(long position, byte[] dst, int off, int len) {
+        while (len > 0) {
+            int region = (int) (position >>> REGION_SHIFT);
+            int regionOffset = (int) (position & (REGION_SIZE - 1));
+            int chunk = Math.min(len, regions[region].limit() - regionOffset);
+            regions[region].duplicate().position(regionOffset).get(dst, off, chunk); // Absolute bulk get is JDK 13+
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Returns the unsigned byte at the given file offset.
+     */
+    public int getUnsignedByte(long position) {
+        return regions[(int) (position >>> REGION_SHIFT)].get((int) (position & (REGION_SIZE - 1))) & 0xFF;
+    }
+
+    public void close() throws IOException {
+        // Mapped regions are released by the garbage collector; closing the channel
+        // only prevents new mappings from being created.
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
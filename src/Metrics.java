@@ -0,0 +1,179 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Where the time goes: the viewer's hot paths as JDK Flight Recorder events, and the same spans
+ * kept in process for the TUI's stats panel ('m').
+ *
+ * The JFR events ({@code ebcdicviewer.*}) cost next to nothing unless a recording is running;
+ * start one with {@code java -XX:StartFlightRecording=filename=viewer.jfr ...} and read it with
+ * {@code jfr print --events 'ebcdicviewer.*' viewer.jfr} or JDK Mission Control, where they sit
+ * on the threads' timelines next to the JVM's own I/O, GC and allocation events. The spans:
+ * <ul>
+ * <li>page load: reading a page's raw records ({@link PagedFileReader#readPage}), i.e. the I/O;</li>
+ * <li>decode: decoding and formatting the visible cells of a page ({@link RecordTable}), which
+ *     includes JRecord or the fast decoders and control-character sanitising;</li>
+ * <li>render: a screen update by Lanterna, which includes the decode span of the table;</li>
+ * <li>search chunk: one chunk of a whole-file search ({@link SearchManager});</li>
+ * <li>index build: one step of indexing a variable-length file in the background.</li>
+ * </ul>
+ *
+ * In process, every span keeps its count, total time and amount of work, and its last
+ * {@value #SAMPLES} durations for percentiles. Counters add up bytes and records read and cells
+ * decoded, and the page cache's hits and misses. All of it is safe to update from any thread.
+ */
+final class Metrics {
+
+    static final int SAMPLES = 1024; // Recent durations kept per span, for p50 / p99
+
+    /** A timed code path and the unit of work its throughput is counted in. */
+    enum Span {
+        PAGE_LOAD("page load", "MB"),
+        DECODE("decode", "cells"),
+        RENDER("render", "frames"),
+        SEARCH_CHUNK("search chunk", "records"),
+        INDEX_BUILD("index build", "MB");
+
+        final String label;
+        final String unit;
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder amount = new LongAdder();
+        final AtomicLongArray recent = new AtomicLongArray(SAMPLES);
+        final AtomicLong next = new AtomicLong();
+
+        Span(String label, String unit) {
+            this.label = label;
+            this.unit = unit;
+        }
+
+        /** Adds one occurrence that started at {@code startNanos} (from {@link System#nanoTime}) and did {@code work} units. */
+        void record(long startNanos, long work) {
+            long elapsed = System.nanoTime() - startNanos;
+            count.increment();
+            nanos.add(elapsed);
+            amount.add(work);
+            recent.set((int) (next.getAndIncrement() % SAMPLES), elapsed);
+        }
+
+        /** The {@code fraction} percentile of the recent durations in milliseconds, or NaN if none. */
+        double percentileMillis(double fraction) {
+            int samples = (int) Math.min(next.get(), SAMPLES);
+            if (samples == 0) {
+                return Double.NaN;
+            }
+            long[] sorted = new long[samples];
+            for (int i = 0; i < samples; i++) {
+                sorted[i] = recent.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min(samples - 1, (int) Math.ceil(fraction * samples) - 1)] / 1e6;
+        }
+
+        /** Work per second of time spent in this span. */
+        double throughput() {
+            long total = nanos.sum();
+            double work = unit.equals("MB") ? amount.sum() / 1e6 : amount.sum();
+            return total == 0 ? 0 : work / (total / 1e9);
+        }
+    }
+
+    static final LongAdder BYTES_READ = new LongAdder();    // Record data passed to scans and pages
+    static final LongAdder RECORDS_READ = new LongAdder();
+    static final LongAdder CELLS_DECODED = new LongAdder(); // Page cells decoded to text
+    static final LongAdder CACHE_HITS = new LongAdder();    // Page cache, including waits on a prefetch
+    static final LongAdder CACHE_MISSES = new LongAdder();
+
+    private Metrics() {
+    }
+
+    /** The stats panel's text: a line per span and one of counters. */
+    static String summary() {
+        StringBuilder text = new StringBuilder(String.format("%-13s %9s %9s %9s %18s", "Stats (m)", "count", "p50 ms", "p99 ms", "throughput"));
+        for (Span span : Span.values()) {
+            text.append(String.format("%n%-13s %9d %9.3f %9.3f %12.1f %-5s/s", span.label, span.count.sum(),
+                    span.percentileMillis(0.5), span.percentileMillis(0.99), span.throughput(), span.unit));
+        }
+        long hits = CACHE_HITS.sum();
+        long lookups = hits + CACHE_MISSES.sum();
+        text.append(String.format("%nRead %.1f MB in %d records, %d cells decoded, page cache hits %d/%d (%.0f%%)",
+                BYTES_READ.sum() / 1e6, RECORDS_READ.sum(), CELLS_DECODED.sum(), hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups));
+        return text.toString();
+    }
+
+    @Name("ebcdicviewer.PageLoad")
+    @Label("Page Load")
+    @Category("EBCDIC Viewer")
+    @Description("Raw records of a page read from the data file")
+    @StackTrace(false)
+    static final class PageLoadEvent extends Event {
+        @Label("Page")
+        int page;
+        @Label("Records")
+        int records;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("ebcdicviewer.Decode")
+    @Label("Decode")
+    @Category("EBCDIC Viewer")
+    @Description("Visible cells of a page decoded and formatted for the table")
+    @StackTrace(false)
+    static final class DecodeEvent extends Event {
+        @Label("Rows")
+        int rows;
+        @Label("Cells Decoded")
+        long cells;
+    }
+
+    @Name("ebcdicviewer.Render")
+    @Label("Render")
+    @Category("EBCDIC Viewer")
+    @Description("Screen update by Lanterna, including the table's decoding")
+    @StackTrace(false)
+    static final class RenderEvent extends Event {
+        @Label("Columns")
+        int columns;
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("ebcdicviewer.SearchChunk")
+    @Label("Search Chunk")
+    @Category("EBCDIC Viewer")
+    @Description("One chunk of records scanned by a whole-file search")
+    @StackTrace(false)
+    static final class SearchChunkEvent extends Event {
+        @Label("First Record")
+        long first;
+        @Label("Records")
+        long records;
+        @Label("Hits")
+        long hits;
+    }
+
+    @Name("ebcdicviewer.IndexBuild")
+    @Label("Index Build")
+    @Category("EBCDIC Viewer")
+    @Description("One step of the background record index of a variable-length file")
+    @StackTrace(false)
+    static final class IndexBuildEvent extends Event {
+        @Label("Records Indexed")
+        long records;
+        @Label("Bytes Indexed")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,255 @@
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+
+import net.sf.JRecord.Common.Conversion;
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Types.Type;
+
+/**
+ * Reads a numeric copybook field (packed decimal / COMP-3, binary / COMP, EBCDIC zoned decimal
+ * or unsigned display digits) straight from the record bytes into an unscaled {@code long}; the
+ * field's scale gives the implied decimal places. Decoding allocates nothing, so filters, sorts
+ * and aggregations can run over primitives; {@link #format} and {@link #toBigDecimal} create
+ * objects only for values that are actually shown or exported.
+ *
+ * Only well-formed values of up to 18 digits are decoded. For anything else (a bad sign nibble,
+ * spaces in the field, a record cut short) {@link #decodeUnscaled} returns {@link #NOT_DECODED}
+ * and the caller falls back to JRecord, which decides whether the value is readable at all.
+ * Instances are immutable and thread-safe.
+ */
+public final class NumericDecoder {
+
+    /** Returned when the bytes are not a value the fast path is sure about. */
+    public static final long NOT_DECODED = Long.MIN_VALUE;
+
+    private static final int MAX_DIGITS = 18;     // Always fits in a long
+    private static final int MAX_FAST_SCALE = 6;  // BigDecimal.toString() stays in plain notation
+    private static final long PACKED_LIMIT = 10_000_000_000_000_000L; // 10^16: two more digits still fit in 18
+
+    /** The per-type part: reads [offset, offset + length) of a record. */
+    private interface UnscaledReader {
+        long read(byte[] record, int offset, int length);
+    }
+
+    private final int offset;
+    private final int length;
+    private final int scale;
+    private final UnscaledReader reader;
+
+    private NumericDecoder(int offset, int length, int scale, UnscaledReader reader) {
+        this.offset = offset;
+        this.length = length;
+        this.scale = scale;
+        this.reader = reader;
+    }
+
+    /**
+     * Returns a decoder for {@code field}, or null if its type, size or scale has no fast path.
+     *
+     * @param charset the data's charset, used for display digits; may be null.
+     */
+    @SuppressWarnings("deprecation") // JRecord still assigns the deprecated "small" type codes
+    public static NumericDecoder forField(FieldDetail field, Charset charset) {
+        int length = field.getLen();
+        int scale = field.getDecimal();
+        if (scale < 0 || scale > MAX_FAST_SCALE) {
+            return null;
+        }
+        UnscaledReader reader;
+        switch (field.getType()) {
+            case Type.ftPackedDecimalSmall:
+            case Type.ftPackedDecimalSmallPostive:
+            case Type.ftPackedDecimal: // Larger COMP-3 fields: values that fit in 18 digits
+                reader = NumericDecoder::readPacked;
+                break;
+            case Type.ftIntBigEndianSmall:
+                reader = length <= 8 ? NumericDecoder::readBinarySigned : null;
+                break;
+            case Type.ftUIntBigEndianSmall:
+            case Type.ftPositiveBinaryBigEndian:
+                reader = length <= 8 ? NumericDecoder::readBinaryUnsigned : null;
+                break;
+            case Type.ftZonedEbcdicSmall:
+                reader = length <= MAX_DIGITS ? NumericDecoder::readZonedEbcdic : null;
+                break;
+            case Type.ftNumZeroPaddedPositive:
+            case Type.ftAssumedDecimalPositive:
+                // Unsigned display numbers; JRecord inserts its own decimal character for the scale.
+                if (charset == null || length > MAX_DIGITS || (scale > 0 && Conversion.getDecimalchar() != '.')) {
+                    return null;
+                }
+                int[] digitValues = digitValues(charset);
+                reader = (record, from, fieldLength) -> readDisplayDigits(record, from, fieldLength, digitValues);
+                break;
+            default:
+                reader = null;
+        }
+        return reader == null ? null : new NumericDecoder(field.getPos() - 1, length, scale, reader);
+    }
+
+    /**
+     * The field's value times 10^scale, or {@link #NOT_DECODED}. Only the first
+     * {@code recordLength} bytes of {@code record} are read.
+     */
+    public long decodeUnscaled(byte[] record, int recordLength) {
+        return decodeUnscaledAt(record, recordLength, offset);
+    }
+
+    /**
+     * As {@link #decodeUnscaled}, for the field at {@code fieldOffset} instead of its copybook
+     * position, e.g. after an OCCURS DEPENDING ON table that is shorter than its maximum.
+     */
+    public long decodeUnscaledAt(byte[] record, int recordLength, int fieldOffset) {
+        if (fieldOffset < 0 || fieldOffset + length > recordLength) {
+            return NOT_DECODED;
+        }
+        return reader.read(record, fieldOffset, length);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    /** Display text of a decoded value, the same as JRecord shows for it. */
+    public String format(long unscaled) {
+        return format(unscaled, scale);
+    }
+
+    public BigDecimal toBigDecimal(long unscaled) {
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    /**
+     * COMP-3: two digits per byte, the low nibble of the last byte is the sign (C/F +, D -).
+     * Values of more than 18 significant digits, and negative zero, are left to JRecord.
+     */
+    static long readPacked(byte[] record, int offset, int length) {
+        long value = 0;
+        int last = offset + length - 1;
+        for (int i = offset; i < last; i++) {
+            int high = (record[i] >> 4) & 0x0F;
+            int low = record[i] & 0x0F;
+            if (high > 9 || low > 9 || value >= PACKED_LIMIT) {
+                return NOT_DECODED;
+            }
+            value = value * 100 + high * 10 + low;
+        }
+        int digit = (record[last] >> 4) & 0x0F;
+        int sign = record[last] & 0x0F;
+        if (digit > 9 || value >= PACKED_LIMIT * 10) {
+            return NOT_DECODED;
+        }
+        value = value * 10 + digit;
+        switch (sign) {
+            case 0x0C:
+            case 0x0F:
+                return value;
+            case 0x0D:
+                return value == 0 ? NOT_DECODED : -value;
+            default:
+                return NOT_DECODED;
+        }
+    }
+
+    /** COMP / BINARY: big-endian two's complement. */
+    static long readBinarySigned(byte[] record, int offset, int length) {
+        long value = record[offset]; // Sign-extended
+        for (int i = offset + 1; i < offset + length; i++) {
+            value = (value << 8) | (record[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /** Unsigned COMP; an 8-byte value above Long.MAX_VALUE is left to JRecord. */
+    static long readBinaryUnsigned(byte[] record, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (record[i] & 0xFF);
+        }
+        return value < 0 ? NOT_DECODED : value;
+    }
+
+    /**
+     * Signed zoned decimal in EBCDIC: every byte is F0-F9, except the last whose zone carries the
+     * sign (C/F +, D -).
+     */
+    static long readZonedEbcdic(byte[] record, int offset, int length) {
+        long value = 0;
+        int last = offset + length - 1;
+        for (int i = offset; i < last; i++) {
+            int b = record[i] & 0xFF;
+            if (b < 0xF0 || b > 0xF9) {
+                return NOT_DECODED;
+            }
+            value = value * 10 + (b - 0xF0);
+        }
+        int zone = (record[last] >> 4) & 0x0F;
+        int digit = record[last] & 0x0F;
+        if (digit > 9) {
+            return NOT_DECODED;
+        }
+        value = value * 10 + digit;
+        switch (zone) {
+            case 0x0C:
+            case 0x0F:
+                return value;
+            case 0x0D:
+                return -value;
+            default:
+                return NOT_DECODED;
+        }
+    }
+
+    /** Unsigned display number: every byte must be a digit in the data's charset. */
+    static long readDisplayDigits(byte[] record, int offset, int length, int[] digitValues) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = digitValues[record[i] & 0xFF];
+            if (digit < 0) {
+                return NOT_DECODED;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /** Digit value of every byte in {@code charset}, or -1 for bytes that are not '0'..'9'. */
+    private static int[] digitValues(Charset charset) {
+        int[] values = new int[256];
+        for (int b = 0; b < 256; b++) {
+            String decoded = new String(new byte[] {(byte) b}, charset);
+            char c = decoded.length() == 1 ? decoded.charAt(0) : ' ';
+            values[b] = c >= '0' && c <= '9' ? c - '0' : -1;
+        }
+        return values;
+    }
+
+    /**
+     * Same text as {@code BigDecimal.valueOf(unscaled, scale).toString()} for the scales the fast
+     * path handles (plain notation, '-' sign, leading "0." for fractions).
+     */
+    public static String format(long unscaled, int scale) {
+        if (scale == 0) {
+            return Long.toString(unscaled);
+        }
+        if (unscaled == Long.MIN_VALUE) {
+            return BigDecimal.valueOf(unscaled, scale).toString(); // No positive counterpart
+        }
+        long magnitude = Math.abs(unscaled);
+        char[] digits = new char[20 + scale + 2];
+        int position = digits.length;
+        for (int i = 0; i < scale; i++) {
+            digits[--position] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+        }
+        digits[--position] = '.';
+        do {
+            digits[--position] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+        } while (magnitude > 0);
+        if (unscaled < 0) {
+            digits[--position] = '-';
+        }
+        return new String(digits, position, digits.length - position);
+    }
+}
@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.JRecord.JRecordInterface1;
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Common.IFieldDetail;
+import net.sf.JRecord.Details.LayoutDetail;
+import net.sf.JRecord.Details.Line;
+import net.sf.JRecord.Details.RecordDetail;
+import net.sf.JRecord.External.Def.DependingOn;
+import net.sf.JRecord.External.Def.DependingOnDtls;
+
+/**
+ * The actual layout of records with OCCURS DEPENDING ON tables, and the move of a record into
+ * the copybook's static layout.
+ *
+ * JRecord lays out a copybook with every table at its maximum size, so a field after a table
+ * (or the counter of a later table) is only at its copybook position when the table is full.
+ * Working that out per field through a JRecord {@code Line} costs a walk over the depending-on
+ * tree for every cell. Here the counters are read once per record, with the primitive
+ * {@link NumericDecoder}, and the counts select a {@link Variant}: the list of byte runs that
+ * move the record into the static layout, with the unused occurrences left as low values. The
+ * variants are cached by their counts, and records of a feed tend to share a few, so moving a
+ * record is a handful of {@code System.arraycopy} calls. Every {@link DecodePlan} decoder, the
+ * raw-byte search matcher and the key index then read fields at their copybook offsets.
+ *
+ * Occurrences past a record's count are absent: {@link #isAbsent} tells the plan not to decode
+ * them at all. Tables nested inside a depending-on table, and counters that are not plain
+ * numeric fields outside any table, are not supported; {@link #compile} rejects them.
+ *
+ * Instances are thread-safe.
+ */
+final class OdoLayout {
+
+    private static final int MAX_CACHED_VARIANTS = 4096;
+
+    private final int staticLength;      // The copybook's record length, every table at its maximum
+    private final String[] counterNames;
+    private final int[] starts;          // 0-based static start of each table, ascending
+    private final int[] entryLengths;    // Bytes per occurrence
+    private final int[] maxCounts;
+    private final int[] counterOffsets;  // 0-based static offset of each table's counter
+    private final NumericDecoder[] counters;
+    private final boolean cacheable;     // Counts fit the packed cache key
+    private final Map<Long, Variant> variants = new ConcurrentHashMap<>();
+
+    /** One set of counts: where each run of the record goes in the static layout. */
+    private static final class Variant {
+        final int[] from;   // In the record
+        final int[] to;     // In the static layout
+        final int[] length;
+        final int actualLength;
+
+        Variant(int[] from, int[] to, int[] length, int actualLength) {
+            this.from = from;
+            this.to = to;
+            this.length = length;
+            this.actualLength = actualLength;
+        }
+    }
+
+    private OdoLayout(int staticLength, List<DependingOn> tables, Charset charset) {
+        int count = tables.size();
+        this.staticLength = staticLength;
+        this.counterNames = new String[count];
+        this.starts = new int[count];
+        this.entryLengths = new int[count];
+        this.maxCounts = new int[count];
+        this.counterOffsets = new int[count];
+        this.counters = new NumericDecoder[count];
+        boolean small = count <= 4;
+        for (int t = 0; t < count; t++) {
+            DependingOn table = tables.get(t);
+            IFieldDetail counter = table.getField();
+            counterNames[t] = table.getVariableName();
+            starts[t] = table.getPosition() - 1;
+            entryLengths[t] = table.getOccursLength();
+            maxCounts[t] = table.getOccursMax();
+            counterOffsets[t] = counter.getPos() - 1;
+            counters[t] = counter instanceof FieldDetail ? NumericDecoder.forField((FieldDetail) counter, charset) : null;
+            if (counters[t] == null || counters[t].getScale() != 0) {
+                throw new IllegalArgumentException("the counter " + counterNames[t] + " is not an integer field the viewer can read");
+            }
+            if (counterOffsets[t] >= starts[t]) {
+                throw new IllegalArgumentException("the counter " + counterNames[t] + " comes after its table");
+            }
+            if (t > 0 && starts[t] < starts[t - 1] + entryLengths[t - 1] * maxCounts[t - 1]) {
+                throw new IllegalArgumentException("the table of " + counterNames[t] + " overlaps another depending-on table");
+            }
+            small &= maxCounts[t] < (1 << 16);
+        }
+        this.cacheable = small;
+    }
+
+    /**
+     * The depending-on layout of {@code record}, or null if it has no OCCURS DEPENDING ON.
+     *
+     * @throws IllegalArgumentException if the tables are nested or a counter cannot be read.
+     */
+    static OdoLayout compile(RecordDetail record, Charset charset) {
+        if (!record.hasDependingOn() || record.getDependingOn() == null) {
+            return null;
+        }
+        List<DependingOn> tables = new ArrayList<>(record.getDependingOn().dependOnList);
+        for (DependingOn table : tables) {
+            if ((table.getChildren() != null && !table.getChildren().isEmpty()) || table.isComplicatedDependingOn()) {
+                throw new IllegalArgumentException("the table of " + table.getVariableName() + " has nested OCCURS DEPENDING ON");
+            }
+        }
+        for (FieldDetail field : record.getFields()) {
+            DependingOnDtls details = field.getDependingOnDtls();
+            if (details != null && details.parent != null) {
+                throw new IllegalArgumentException(field.getName() + " is in nested OCCURS DEPENDING ON tables");
+            }
+        }
+        tables.sort((a, b) -> Integer.compare(a.getPosition(), b.getPosition()));
+        return tables.isEmpty() ? null : new OdoLayout(record.getLength(), tables, charset);
+    }
+
+    /** Length of a record with every table full, the length records are moved into. */
+    int getStaticLength() {
+        return staticLength;
+    }
+
+    int getTableCount() {
+        return starts.length;
+    }
+
+    /** Name of the counter field of table {@code table}. */
+    String getCounterName(int table) {
+        return counterNames[table];
+    }
+
+    int getMaxCount(int table) {
+        return maxCounts[table];
+    }
+
+    /** Table (in position order) of the depending-on definition, or -1. */
+    int tableOf(DependingOn table) {
+        for (int t = 0; t < starts.length; t++) {
+            if (starts[t] == table.getPosition() - 1) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Occurrences of table {@code table} in a record already moved to the static layout. A
+     * counter that cannot be read counts as the maximum, as the copybook's static layout has it.
+     */
+    int count(int table, byte[] staticRecord, int recordLength) {
+        return clamp(table, counters[table].decodeUnscaled(staticRecord, recordLength));
+    }
+
+    /** Whether occurrence {@code element} of {@code table} is past the record's count (in the static layout). */
+    boolean isAbsent(int table, int element, byte[] staticRecord, int recordLength) {
+        return element >= count(table, staticRecord, recordLength);
+    }
+
+    private int clamp(int table, long value) {
+        if (value == NumericDecoder.NOT_DECODED || value > maxCounts[table]) {
+            return maxCounts[table];
+        }
+        return (int) Math.max(0, value);
+    }
+
+    /**
+     * Reads the counters of a record as stored (each one after the tables before it have shrunk
+     * to their actual size) into {@code counts}.
+     */
+    void readCounts(byte[] record, int recordLength, int[] counts) {
+        for (int t = 0; t < starts.length; t++) {
+            int shift = 0;
+            for (int before = 0; before < t && starts[before] < counterOffsets[t]; before++) {
+                shift += (maxCounts[before] - counts[before]) * entryLengths[before];
+            }
+            counts[t] = clamp(t, counters[t].decodeUnscaledAt(record, recordLength, counterOffsets[t] - shift));
+        }
+    }
+
+    /**
+     * Moves record[0..recordLength) into {@code into} (at least {@link #getStaticLength} long)
+     * in the static layout; unused occurrences become low values.
+     *
+     * @param counts scratch space of {@link #getTableCount} entries.
+     * @return the length of the moved record: the static length, or less for a record cut short.
+     */
+    int normalise(byte[] record, int recordLength, byte[] into, int[] counts) {
+        readCounts(record, recordLength, counts);
+        Variant variant = variant(counts);
+        Arrays.fill(into, 0, staticLength, (byte) 0);
+        int end = 0;
+        for (int i = 0; i < variant.from.length; i++) {
+            int length = Math.min(variant.length[i], recordLength - variant.from[i]);
+            if (length > 0) {
+                System.arraycopy(record, variant.from[i], into, variant.to[i], length);
+                end = variant.to[i] + length;
+            }
+        }
+        return recordLength >= variant.actualLength ? staticLength : end;
+    }
+
+    /**
+     * The reverse of {@link #normalise}: writes a record in the static layout, whose counters
+     * hold {@code counts}, to {@code into} as stored, with only the occurrences present.
+     *
+     * @return the length of the stored record.
+     */
+    int compact(byte[] staticRecord, int[] counts, byte[] into) {
+        Variant variant = variant(counts);
+        for (int i = 0; i < variant.from.length; i++) {
+            System.arraycopy(staticRecord, variant.to[i], into, variant.from[i], variant.length[i]);
+        }
+        return variant.actualLength;
+    }
+
+    private Variant variant(int[] counts) {
+        if (!cacheable) {
+            return buildVariant(counts);
+        }
+        long key = 0;
+        for (int count : counts) {
+            key = key << 16 | count;
+        }
+        Variant variant = variants.get(key);
+        if (variant == null) {
+            variant = buildVariant(counts);
+            if (variants.size() < MAX_CACHED_VARIANTS) { // A feed with more count combinations is just not cached
+                variants.put(key, variant);
+            }
+        }
+        return variant;
+    }
+
+    private Variant buildVariant(int[] counts) {
+        int runs = starts.length * 2 + 1;
+        int[] from = new int[runs];
+        int[] to = new int[runs];
+        int[] length = new int[runs];
+        int run = 0;
+        int source = 0;
+        int target = 0;
+        for (int t = 0; t < starts.length; t++) {
+            // Fixed part before the table, then the occurrences present
+            from[run] = source;
+            to[run] = target;
+            length[run++] = starts[t] - target;
+            source += starts[t] - target;
+            target = starts[t];
+            from[run] = source;
+            to[run] = target;
+            length[run++] = counts[t] * entryLengths[t];
+            source += counts[t] * entryLengths[t];
+            target += maxCounts[t] * entryLengths[t];
+        }
+        from[run] = source;
+        to[run] = target;
+        length[run] = staticLength - target;
+        source += staticLength - target;
+        return new Variant(from, to, length, source);
+    }
+
+    /**
+     * Self-check and benchmark: random records of a copybook with two depending-on tables (the
+     * second counter after the first table), stored at their actual length. Each field of each
+     * record is decoded through the plan from the moved record and through JRecord from the
+     * stored one, which works out the positions itself; present occurrences must agree and
+     * absent ones must be empty. Then times decoding every record with the arrays collapsed to
+     * their counts, with the present occurrences expanded, and with every occurrence through JRecord.
+     * Usage: OdoLayout [records]
+     */
+    public static void main(String[] args) throws IOException {
+        int recordCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String encoding = "CP037";
+        Charset charset = Charset.forName(encoding);
+        Path dir = Files.createTempDirectory("odolayout");
+        Path copybook = dir.resolve("odo.cpy");
+        Files.write(copybook, Arrays.asList(
+                "       01 ORDER-REC.",
+                "          05 ORD-ID        PIC X(8).",
+                "          05 ORD-COUNT     PIC 9(2).",
+                "          05 ORD-LINE OCCURS 0 TO 12 TIMES DEPENDING ON ORD-COUNT.",
+                "             10 LINE-SKU   PIC X(6).",
+                "             10 LINE-QTY   PIC S9(5) COMP-3.",
+                "          05 ORD-NOTE-CNT  PIC S9(3) COMP-3.",
+                "          05 ORD-NOTE OCCURS 1 TO 3 TIMES DEPENDING ON ORD-NOTE-CNT.",
+                "             10 NOTE-TEXT  PIC X(12).",
+                "          05 ORD-TOTAL     PIC S9(9)V99 COMP-3.",
+                "          05 ORD-STATUS    PIC X(4)."));
+        LayoutDetail layout;
+        try {
+            layout = JRecordInterface1.COBOL.newIOBuilder(copybook.toString()).setFont(encoding).getExternalRecord().asLayoutDetail();
+        } catch (Exception e) {
+            throw new IOException("Cannot load copybook: " + e.getMessage(), e);
+        } finally {
+            Files.delete(copybook);
+            Files.delete(dir);
+        }
+        DecodePlan plan = DecodePlan.compile(layout, encoding);
+        OdoLayout odo = plan.getOdoLayout();
+        Random random = new Random(20);
+        byte[][] records = new byte[recordCount][];
+        for (int i = 0; i < recordCount; i++) {
+            int lines = random.nextInt(13);
+            int notes = 1 + random.nextInt(3);
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            out.writeBytes(String.format("%08d%02d", i, lines).getBytes(charset));
+            for (int l = 0; l < lines; l++) {
+                out.writeBytes(String.format("SKU%03d", random.nextInt(1000)).getBytes(charset));
+                out.writeBytes(packed(random.nextInt(100_000), 3));
+            }
+            out.writeBytes(packed(notes, 2));
+            for (int n = 0; n < notes; n++) {
+                out.writeBytes(String.format("%-12s", "NOTE " + n + " OF " + notes).getBytes(charset));
+            }
+            out.writeBytes(packed(random.nextInt(1_000_000_000), 6));
+            out.writeBytes((random.nextBoolean() ? "OPEN" : "SHIP").getBytes(charset));
+            records[i] = out.toByteArray();
+        }
+
+        byte[] moved = new byte[odo.getStaticLength()];
+        int[] counts = new int[odo.getTableCount()];
+        long cells = 0;
+        long mismatches = 0;
+        int checked = Math.min(recordCount, 20_000);
+        for (int i = 0; i < checked; i++) {
+            int length = odo.normalise(records[i], records[i].length, moved, counts);
+            Line line = new Line(layout, records[i].clone());
+            for (int f = 0; f < plan.getFieldCount(); f++) {
+                String ours = plan.decodeField(f, moved, length);
+                String expected;
+                if (plan.isAbsent(f, moved, length)) {
+                    expected = "";
+                } else {
+                    try {
+                        expected = line.getFieldValue(plan.getField(f)).asString().replaceAll("\\p{Cntrl}", ".");
+                    } catch (RuntimeException e) {
+                        expected = "error: " + e.getMessage();
+                    }
+                }
+                cells++;
+                if (!ours.equals(expected)) {
+                    if (mismatches++ < 10) {
+                        System.out.println("MISMATCH record " + i + " " + plan.getFieldName(f) + ": [" + ours + "] expected [" + expected + "]");
+                    }
+                }
+            }
+        }
+        System.out.println(checked + " records, " + cells + " cells checked, " + mismatches + " mismatches; "
+                + odo.variants.size() + " layout variants cached.");
+
+        // The viewer's collapsed columns: the fields outside the tables plus each array's count
+        int[] fixed = {plan.indexOf("ORD-ID"), plan.indexOf("ORD-COUNT"), plan.indexOf("ORD-TOTAL"), plan.indexOf("ORD-STATUS")};
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            long checksum = 0;
+            for (byte[] record : records) {
+                int length = odo.normalise(record, record.length, moved, counts);
+                for (int f : fixed) {
+                    checksum += plan.decodeField(f, moved, length).length();
+                }
+                checksum += plan.countPresent("LINE-SKU", moved, length);
+            }
+            long collapsedNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] record : records) {
+                int length = odo.normalise(record, record.length, moved, counts);
+                for (int f = 0; f < plan.getFieldCount(); f++) {
+                    checksum += plan.decodeField(f, moved, length).length(); // Absent occurrences are not read
+                }
+            }
+            long expandedNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] record : records) {
+                Line line = new Line(layout, record);
+                for (int f = 0; f < plan.getFieldCount(); f++) {
+                    try {
+                        checksum -= line.getFieldValue(plan.getField(f)).asString().length();
+                    } catch (RuntimeException e) {
+                        checksum--; // Occurrences past the count read whatever follows, or nothing
+                    }
+                }
+            }
+            long jrecordNanos = System.nanoTime() - start;
+            if (round == 1) {
+                System.out.printf("%d records: arrays collapsed %d ms, present occurrences expanded %d ms, every occurrence through JRecord Line %d ms%n",
+                        recordCount, collapsedNanos / 1_000_000, expandedNanos / 1_000_000, jrecordNanos / 1_000_000);
+            }
+        }
+    }
+
+    /** Positive COMP-3 value in {@code bytes} bytes. */
+    private static byte[] packed(long value, int bytes) {
+        byte[] result = new byte[bytes];
+        String digits = String.format("%0" + (bytes * 2 - 1) + "d", value) + "C";
+        for (int i = 0; i < bytes; i++) {
+            result[i] = (byte) (Character.digit(digits.charAt(i * 2), 16) << 4 | Character.digit(digits.charAt(i * 2 + 1), 16));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.Arrays;
+
+/**
+ * Growable list of record ordinals backed by a primitive long array.
+ */
+public class OrdinalList implements RecordSubset {
+
+    private long[] ordinals;
+    private int size;
+
+    public OrdinalList() {
+        this(16);
+    }
+
+    public OrdinalList(int initialCapacity) {
+        this.ordinals = new long[Math.max(1, initialCapacity)];
+    }
+
+    public void add(long ordinal) {
+        if (size == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, size * 2);
+        }
+        ordinals[size++] = ordinal;
+    }
+
+    /** Appends all ordinals of {@code other}, keeping their order. */
+    public void addAll(OrdinalList other) {
+        if (size + other.size > ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, Math.max(size + other.size, size * 2));
+        }
+        System.arraycopy(other.ordinals, 0, ordinals, size, other.size);
+        size += other.size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long ordinalAt(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside 0.." + (size - 1));
+        }
+        return ordinals[(int) index];
+    }
+
+    /** Drops everything after the first {@code newSize} ordinals. */
+    public void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Least-recently-used cache of decoded pages with a memory budget, plus a background prefetcher.
+ *
+ * After each page is shown, {@link #prefetch} queues the next few pages in the direction the user
+ * is moving (and the one behind); daemon threads read and fully decode them and put them in the
+ * cache, so paging through a file finds the page ready instead of decoding it on the UI thread.
+ * Going back to a page that is still cached costs nothing. Pages are evicted oldest-used first
+ * once their estimated size exceeds the budget; the page most recently asked for through
+ * {@link #get} always stays.
+ *
+ * {@link #get} is meant for one (UI) thread; the prefetch threads only touch a page before it is
+ * published in the cache, so cached pages are never decoded by two threads at once. For the same
+ * reason a page's size is measured when it is published, and again by the next {@link #get} for
+ * the page the last one returned, which the caller has decoded further by drawing it.
+ */
+public class PageCache {
+
+    public static final int DEFAULT_BUDGET_MB = 64;
+    public static final int DEFAULT_PREFETCH_PAGES = 4;
+
+    private final PagedFileReader reader;
+    private final long budgetBytes;
+    private final int prefetchPages;
+    private final LinkedHashMap<Integer, Cached> pages = new LinkedHashMap<>(16, 0.75f, true); // Access order
+    private final Map<Integer, Future<RecordPage>> pending = new HashMap<>(); // Prefetches queued or running
+    private final ExecutorService prefetcher; // null when prefetching is off
+    private volatile int[] prefetchFields;    // Fields decoded ahead; null for all of them
+    private long cachedBytes;                 // Sum of the sizes of the cached pages
+    private int lastRequested = -1;           // Page most recently asked for through get; never evicted
+    private Cached shown;                     // Its entry, if it is cached: the caller of get is drawing it
+
+    private long hits;
+    private long misses;
+    private long waits; // Requests that found their page still being prefetched
+
+    /** A cached page and its size when last measured. */
+    private static final class Cached {
+        final RecordPage page;
+        long size;
+
+        Cached(RecordPage page) {
+            this.page = page;
+            this.size = page.estimateSize();
+        }
+    }
+
+    /**
+     * @param budgetBytes   estimated size the cached pages may take; 0 caches nothing.
+     * @param prefetchPages pages to read ahead in the direction of travel; 0 turns prefetching off.
+     */
+    public PageCache(PagedFileReader reader, long budgetBytes, int prefetchPages) {
+        this.reader = reader;
+        this.budgetBytes = budgetBytes;
+        this.prefetchPages = budgetBytes > 0 ? prefetchPages : 0;
+        if (this.prefetchPages > 0) {
+            int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+            this.prefetcher = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "page-prefetch");
+                thread.setDaemon(true); // Never keeps the viewer alive
+                return thread;
+            });
+        } else {
+            this.prefetcher = null;
+        }
+    }
+
+    /**
+     * Returns page {@code pageNumber}: from the cache, from a prefetch that is under way, or read
+     * now on the calling thread. The page number must exist.
+     */
+    public RecordPage get(int pageNumber) throws IOException {
+        Future<RecordPage> inFlight;
+        synchronized (this) {
+            remeasureShown();
+            lastRequested = pageNumber;
+            Cached cached = pages.get(pageNumber);
+            shown = cached;
+            if (cached != null) {
+                hits++;
+                Metrics.CACHE_HITS.increment();
+                return cached.page;
+            }
+            inFlight = pending.get(pageNumber);
+            if (inFlight != null) {
+                waits++;
+                Metrics.CACHE_HITS.increment();
+            } else {
+                misses++;
+                Metrics.CACHE_MISSES.increment();
+            }
+        }
+        if (inFlight != null) {
+            try {
+                RecordPage page = inFlight.get(); // Already partly done, cheaper than starting over
+                if (page != null) {
+                    return page;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for page " + (pageNumber + 1), e);
+            } catch (ExecutionException | java.util.concurrent.CancellationException e) {
+                // Read it here instead; a real read error shows up again below
+            }
+        }
+        RecordPage page;
+        try {
+            page = reader.readPage(pageNumber);
+        } catch (RuntimeException e) {
+            throw new IOException("Error reading page " + (pageNumber + 1) + ": " + e.getMessage(), e);
+        }
+        put(pageNumber, page);
+        return page;
+    }
+
+    /**
+     * Queues the {@code prefetchPages} pages after {@code pageNumber} in {@code direction} (+1 or
+     * -1) and the one page behind it, and cancels queued prefetches outside that window.
+     */
+    public synchronized void prefetch(int pageNumber, int direction) {
+        if (prefetcher == null) {
+            return;
+        }
+        int step = direction < 0 ? -1 : 1;
+        List<Integer> wanted = new ArrayList<>();
+        for (int i = 1; i <= prefetchPages; i++) {
+            wanted.add(pageNumber + i * step);
+        }
+        wanted.add(pageNumber - step);
+
+        for (Iterator<Map.Entry<Integer, Future<RecordPage>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Future<RecordPage>> entry = it.next();
+            if (!wanted.contains(entry.getKey()) && entry.getValue().cancel(false)) {
+                it.remove(); // Not started yet; the user has moved on
+            }
+        }
+        for (int page : wanted) {
+            if (page < 0 || page >= reader.getTotalPages() || pages.containsKey(page) || pending.containsKey(page)) {
+                continue;
+            }
+            pending.put(page, prefetcher.submit(() -> load(page)));
+        }
+    }
+
+    /**
+     * Limits prefetch decoding to {@code fields} (positions in the {@link DecodePlan}), normally
+     * the columns on screen, so a wide copybook does not decode hundreds of unseen columns per
+     * page. Columns scrolled into view later are decoded when drawn. {@code null} decodes all.
+     */
+    public void setPrefetchFields(int[] fields) {
+        this.prefetchFields = fields;
+    }
+
+    /** Prefetch task: reads and decodes the page off the UI thread, then publishes it. */
+    private RecordPage load(int pageNumber) {
+        try {
+            RecordPage page = reader.readPage(pageNumber);
+            int[] fields = prefetchFields;
+            if (fields == null) {
+                page.decodeAll();
+            } else {
+                page.decodeColumns(fields);
+            }
+            put(pageNumber, page);
+            return page;
+        } catch (RuntimeException e) {
+            System.err.println("Error prefetching page " + (pageNumber + 1) + ": " + e.getMessage());
+            return null;
+        } finally {
+            synchronized (this) {
+                pending.remove(pageNumber);
+            }
+        }
+    }
+
+    private synchronized void put(int pageNumber, RecordPage page) {
+        if (budgetBytes <= 0 || (page.getRecordCount() < reader.getPageSize() && !reader.isIndexingComplete())) {
+            return; // A short page at the end of the indexed region fills up as indexing continues
+        }
+        if (page.getDecodePlan() != reader.getDecodePlan()) {
+            return; // Read before the record type changed (see clear)
+        }
+        Cached cached = new Cached(page); // Measured before anyone else can decode it
+        Cached replaced = pages.put(pageNumber, cached);
+        if (replaced != null) {
+            cachedBytes -= replaced.size;
+        }
+        cachedBytes += cached.size;
+        if (pageNumber == lastRequested) {
+            shown = cached;
+        }
+        evict();
+    }
+
+    /**
+     * Measures again the page the last {@link #get} returned: it has been drawn since, and only
+     * that call's thread decodes cached pages, so this runs on that thread.
+     */
+    private void remeasureShown() {
+        if (shown == null) {
+            return;
+        }
+        long size = shown.page.estimateSize();
+        cachedBytes += size - shown.size;
+        shown.size = size;
+        evict();
+    }
+
+    /** Drops least recently used pages until the cache fits its budget, keeping the page last asked for. */
+    private void evict() {
+        for (Iterator<Map.Entry<Integer, Cached>> it = pages.entrySet().iterator(); it.hasNext() && cachedBytes > budgetBytes; ) {
+            Map.Entry<Integer, Cached> entry = it.next();
+            if (entry.getKey() != lastRequested) {
+                cachedBytes -= entry.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all cached pages and queued prefetches, e.g. when the file grows or the reader
+     * switches to another record type's columns.
+     */
+    public synchronized void clear() {
+        for (Future<RecordPage> future : pending.values()) {
+            future.cancel(false);
+        }
+        pending.clear();
+        pages.clear();
+        cachedBytes = 0;
+        shown = null;
+    }
+
+    public synchronized int getCachedPageCount() {
+        return pages.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /** Requests that had to wait for a prefetch still in progress. */
+    public synchronized long getWaitCount() {
+        return waits;
+    }
+
+    public void close() {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+        clear();
+    }
+
+    /**
+     * Pages forward through a file, with a pause per page standing in for the user, once with
+     * an uncached reader and once through the cache, and reports how long each page took to get.
+     * Usage: PageCache data_file copybook [encoding [page_size [pages [pause_ms]]]]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: PageCache data_file copybook [encoding [page_size [pages [pause_ms]]]]");
+            return;
+        }
+        String encoding = args.length > 2 ? args[2] : "CP037";
+        int pageSize = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int pagesToVisit = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+        long pauseMillis = args.length > 5 ? Long.parseLong(args[5]) : 20;
+
+        PagedFileReader reader = new PagedFileReader(args[0], args[1], pageSize, encoding);
+        int last = Math.min(pagesToVisit, reader.getTotalPages());
+        for (boolean cached : new boolean[] {false, true}) {
+            PageCache cache = new PageCache(reader, cached ? DEFAULT_BUDGET_MB * 1024L * 1024L : 0,
+                    cached ? DEFAULT_PREFETCH_PAGES : 0);
+            long totalNanos = 0;
+            long worstNanos = 0;
+            for (int page = 0; page < last; page++) {
+                long start = System.nanoTime();
+                RecordPage data = cache.get(page);
+                data.decodeAll(); // What drawing the page does
+                long nanos = System.nanoTime() - start;
+                totalNanos += nanos;
+                worstNanos = Math.max(worstNanos, nanos);
+                cache.prefetch(page, +1);
+                Thread.sleep(pauseMillis);
+            }
+            // Back over the same pages: served from the cache while they fit the budget
+            long backStart = System.nanoTime();
+            for (int page = last - 1; page >= Math.max(0, last - 20); page--) {
+                cache.get(page).decodeAll();
+            }
+            long backNanos = System.nanoTime() - backStart;
+            System.out.printf("%s: %d pages, average %d us, worst %d us per page; 20 pages back %d us"
+                    + " (hits %d, misses %d, waits %d, cached %d)%n",
+                    cached ? "cache + prefetch" : "no cache       ", last, totalNanos / 1000 / Math.max(1, last),
+                    worstNanos / 1000, backNanos / 1000, cache.getHitCount(), cache.getMissCount(), cache.getWaitCount(),
+                    cache.getCachedPageCount());
+            cache.close();
+        }
+        reader.close();
+    }
+}
@@ -1,10 +1,17 @@
+import java.io.FileInputStream;
 import java.io.IOException;
 //import java.io.RandomAccessFile; // Removed
 //import java.io.UnsupportedEncodingException; // Removed, JRecord handles
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
 
 // JRecord imports
 import net.sf.JRecord.JRecordInterface1;
@@ -22,6 +29,11 @@ import net.sf.JRecord.Numeric.Convert; // For FMT_MAINFRAME etc.
 
 public class PagedFileReader {
 
+    // Indexed before the constructor returns: enough for the first pages of any record length.
+    private static final long INITIAL_INDEX_BYTES = 4L << 20;
+    // Indexed per step by the background indexer; progress is published after each step.
+    private static final long INDEX_STEP_BYTES = 256L << 20;
+
     private String filePath;
     // private List<CopybookLoader.FieldDefinition> fieldDefinitions; // Removed
     private int pageSize; // Number of records per page
@@ -29,31 +41,62 @@ public class PagedFileReader {
     // private RandomAccessFile randomAccessFile; // Removed
     private transient AbstractLineReader jrecordReader; // transient if we ever serialize
     private transient LayoutDetail recordLayout;
-    private List<AbstractLine> allRecords = new ArrayList<>();
+    private List<AbstractLine> allRecords = Collections.synchronizedList(new ArrayList<>()); // Only populated for layouts that are not fixed-length; grows while loading
+    private MappedDataFile mappedFile; // Set in fixed-length and RDW/BDW mode; records are decoded on demand
+    private RecordOffsetIndex offsetIndex; // Record boundaries for RDW/BDW files
+    private RecordFormat recordFormat;
     private String copybookFilePath;
+    private volatile DecodePlan decodePlan; // Field offsets, types and decoders compiled from the layout
+    private RecordTypeTable recordTypes; // --record-types: the layout of each record type and how to tell them apart
+    private OdoLayout[] odoLayouts; // Per record type: its OCCURS DEPENDING ON layout or null; null when no type has one
+    private volatile int recordType;      // Type whose plan pages are read with
+    private OrdinalList[] typeIndexes;    // Ordinals of each type's records, built on first use
+    private long typeIndexedRecords;      // Records covered by typeIndexes
+    private ColumnarCache columnarCache; // --columnar: pages are read from <data>.ebvcol instead of decoded
 
     private int recordLength;
-    private long totalRecords;
-    private int totalPages;
+    private volatile long totalRecords; // Records counted so far; final once indexing is complete
+
+    // Counting and indexing the rest of the file after the first pages (RDW/BDW and JRecord-read layouts)
+    private Thread indexer;
+    private final Object indexingProgress = new Object(); // Notified whenever totalRecords grows
+    private volatile boolean indexingComplete = true;
+    private volatile boolean closed;
+    private volatile String indexingError;
+    private volatile long loadedBytes; // JRecord-read layouts: approximate bytes consumed so far
     private int currentPageNumber;
-    private List<Map<String, String>> currentPageRawData;
+    private RecordPage currentPageRawData;
 
     public PagedFileReader(String filePath, String copybookFilePath, int pageSize, String ebcdicEncoding) throws IOException {
+        this(filePath, copybookFilePath, pageSize, ebcdicEncoding, new ViewerOptions());
+    }
+
+    public PagedFileReader(String filePath, String copybookFilePath, int pageSize, String ebcdicEncoding, ViewerOptions options) throws IOException {
         this.filePath = filePath;
         this.copybookFilePath = copybookFilePath;
         this.pageSize = pageSize;
         this.ebcdicEncoding = ebcdicEncoding;
-        this.currentPageRawData = new ArrayList<>();
+        this.recordFormat = options.getRecordFormat();
+        this.currentPageRawData = RecordPage.EMPTY;
         this.currentPageNumber = -1; // No page loaded initially
 
         // CobolIoProvider ioProvider = CobolIoProvider.getInstance(); // Not directly used for reader creation if using JRecordInterface1
         try {
             // Load copybook to get layout details (especially record length)
-            ExternalRecord externalRecord = JRecordInterface1.COBOL.newIOBuilder(copybookFilePath)
-                                                 .setFont(ebcdicEncoding) // Set font for copybook interpretation
-                                                 .getExternalRecord(); // Changed from .load()
-            this.recordLayout = externalRecord.asLayoutDetail();
+            if (options.getRecordTypes().isEmpty()) {
+                ExternalRecord externalRecord = JRecordInterface1.COBOL.newIOBuilder(copybookFilePath)
+                                                     .setFont(ebcdicEncoding) // Set font for copybook interpretation
+                                                     .getExternalRecord(); // Changed from .load()
+                this.recordLayout = externalRecord.asLayoutDetail();
+                this.decodePlan = DecodePlan.compile(this.recordLayout, ebcdicEncoding);
+            } else {
+                // One record per type, each record shown with its own layout
+                this.recordLayout = RecordTypeTable.loadLayout(copybookFilePath, ebcdicEncoding, options.getRecordTypes());
+                this.recordTypes = RecordTypeTable.compile(this.recordLayout, ebcdicEncoding, options.getRecordTypes());
+                this.decodePlan = this.recordTypes.getPlan(0);
+            }
             this.recordLength = this.recordLayout.getMaximumRecordLength(); // Changed from getRecordLength()
+            this.odoLayouts = odoLayoutsOf(this.recordTypes, this.decodePlan);
 
             if (this.recordLength <= 0) {
                 throw new IOException("Record length is zero or invalid, cannot process file. Check copybook and encoding: " + this.recordLength);
@@ -63,42 +106,91 @@ public class PagedFileReader {
             java.io.File file = new java.io.File(filePath);
             long fileLength = file.length();
 
-            long calculatedTotalRecords; // Use a temporary variable for clarity
-            if (fileLength == 0) {
-                calculatedTotalRecords = 0;
-            } else if (fileLength % this.recordLength != 0) {
-                System.err.println("Warning: File length " + fileLength + " is not an exact multiple of record length " + this.recordLength);
-                calculatedTotalRecords = fileLength / this.recordLength; // Integer division
+            if (this.recordFormat.isVariableLength()) {
+                // RDW/BDW mode: record boundaries come from a sparse offset index built on all cores,
+                // so any page can be reached without scanning from the start of the file.
+                this.mappedFile = MappedDataFile.open(filePath, options.isIndexCacheEnabled());
+                int parallelism = Runtime.getRuntime().availableProcessors();
+                boolean cacheIndex = options.isIndexCacheEnabled();
+                if (cacheIndex) {
+                    // Reuse (or extend) the index saved by an earlier session in <data>.ebvidx
+                    this.offsetIndex = IndexSidecar.open(this.mappedFile, this.recordFormat, this.recordLayout, ebcdicEncoding);
+                } else {
+                    this.offsetIndex = RecordOffsetIndex.begin(this.mappedFile, this.recordFormat, this.recordLength);
+                }
+                // Index just the start of the file now and the rest in the background, so the first
+                // page does not wait for a scan of the whole file.
+                boolean saveWhenComplete = cacheIndex && !this.offsetIndex.isComplete();
+                indexStep(INITIAL_INDEX_BYTES, parallelism);
+                this.totalRecords = this.offsetIndex.getRecordCount();
+                if (!this.offsetIndex.isComplete()) {
+                    startIndexer(() -> indexRemainder(parallelism, saveWhenComplete));
+                } else if (saveWhenComplete) {
+                    IndexSidecar.save(this.mappedFile, this.recordLayout, ebcdicEncoding, this.offsetIndex);
+                }
+            } else if (this.recordFormat == RecordFormat.FIXED || isFixedLengthLayout(this.recordLayout) || this.recordTypes != null) {
+                // (JRecord reports a split binary copybook as IBM 4680 format; without RDWs every
+                // record is taken to be as long as the longest type, as a fixed-block file has them.)
+                // Fixed-length mode: map the file and decode only the records a page asks for,
+                // so start-up time and heap use do not depend on the file size.
+                this.mappedFile = MappedDataFile.open(filePath, options.isIndexCacheEnabled());
+                fileLength = this.mappedFile.length();
+                if (fileLength % this.recordLength != 0) {
+                    System.err.println("Warning: File length " + fileLength + " is not an exact multiple of record length " + this.recordLength
+                            + "; the last record is short.");
+                }
+                // A trailing partial record is still shown, as JRecord's sequential reader did.
+                this.totalRecords = (fileLength + this.recordLength - 1) / this.recordLength;
             } else {
-                calculatedTotalRecords = fileLength / this.recordLength;
-            }
-
-            if (calculatedTotalRecords > 0) {
-                 // Create reader with encoding for data file
-                this.jrecordReader = JRecordInterface1.COBOL.newIOBuilder(copybookFilePath)
-                                                            .setFont(ebcdicEncoding) // Font for data interpretation
-                                                            .newReader(filePath);
-                // No need for setLayoutFont on reader if IOBuilder sets it
+                long calculatedTotalRecords; // Use a temporary variable for clarity
+                boolean gzip = fileLength > 0 && GzipDataFile.isGzip(filePath);
+                if (fileLength == 0) {
+                    calculatedTotalRecords = 0;
+                } else if (gzip) {
+                    calculatedTotalRecords = 1; // Unknown until decompressed; counted as the records are read
+                } else if (fileLength % this.recordLength != 0) {
+                    System.err.println("Warning: File length " + fileLength + " is not an exact multiple of record length " + this.recordLength);
+                    calculatedTotalRecords = fileLength / this.recordLength; // Integer division
+                } else {
+                    calculatedTotalRecords = fileLength / this.recordLength;
+                }
 
-                // Load all records into memory
-                AbstractLine line;
-                while ((line = this.jrecordReader.read()) != null) {
-                    allRecords.add(line);
+                if (calculatedTotalRecords > 0) {
+                     // Create reader with encoding for data file
+                    if (gzip) {
+                        // Read sequentially through a stream; records are kept in memory anyway
+                        this.jrecordReader = JRecordInterface1.COBOL.newIOBuilder(copybookFilePath)
+                                                                    .setFont(ebcdicEncoding)
+                                                                    .newReader(new GZIPInputStream(new FileInputStream(filePath), 1 << 16));
+                    } else {
+                        this.jrecordReader = JRecordInterface1.COBOL.newIOBuilder(copybookFilePath)
+                                                                    .setFont(ebcdicEncoding) // Font for data interpretation
+                                                                    .newReader(filePath);
+                    }
+                    // No need for setLayoutFont on reader if IOBuilder sets it
+
+                    // Load all records into memory (only for layouts that are not fixed-length): the
+                    // first page now, the rest in the background.
+                    if (loadRecords(this.jrecordReader, pageSize)) {
+                        AbstractLineReader lineReader = this.jrecordReader;
+                        this.jrecordReader = null; // Closed by the background loader instead
+                        startIndexer(() -> loadRemainingRecords(lineReader));
+                    }
+                    // totalRecords follows the records actually read, as file length calculation might be off for some complex files
+                } else {
+                    this.totalRecords = 0; // Ensure consistency if file was empty or only header
                 }
-                // Update totalRecords based on actual records read, as file length calculation might be off for some complex files
-                this.totalRecords = allRecords.size();
-            } else {
-                this.totalRecords = 0; // Ensure consistency if file was empty or only header
             }
 
 
-            if (this.totalRecords == 0) {
-                this.totalPages = 0;
-            } else {
-                this.totalPages = (int) Math.ceil((double) this.totalRecords / this.pageSize);
-            }
-
         } catch (Exception e) { // Catch generic Exception from JRecord loading
+            if (mappedFile != null) {
+                try {
+                    mappedFile.close();
+                } catch (IOException closeEx) {
+                    System.err.println("Error closing mapped data file during initialization: " + closeEx.getMessage());
+                }
+            }
             throw new IOException("Error initializing JRecord reader: " + e.getMessage(), e);
         } finally {
             if (jrecordReader != null) {
@@ -109,70 +201,360 @@ public class PagedFileReader {
                 }
             }
         }
+
+        if (options.isColumnarCacheEnabled() && recordTypes != null) {
+            System.err.println("Warning: --columnar is not used with --record-types; pages are decoded from " + filePath + " directly.");
+        } else if (options.isColumnarCacheEnabled()) {
+            try {
+                this.columnarCache = ColumnarCache.openOrBuild(this);
+            } catch (IOException | RuntimeException e) {
+                // The data file still works; pages are decoded from it as usual
+                System.err.println("Warning: Columnar cache not available, decoding " + filePath + " directly: " + e.getMessage());
+            }
+        }
     }
 
     // Removed calculateRecordLength()
 
-    public List<Map<String, String>> getPage(int pageNumber) throws IOException {
-        if (allRecords.isEmpty()) {
+    /** Runs {@code task} on the daemon thread that finishes counting the records. */
+    private void startIndexer(Runnable task) {
+        this.indexingComplete = false;
+        this.indexer = new Thread(task, "record-indexer");
+        this.indexer.setDaemon(true); // Never keeps the viewer alive
+        this.indexer.start();
+    }
+
+    /** Background task for RDW/BDW files: indexes the rest of the file a step at a time. */
+    private void indexRemainder(int parallelism, boolean saveWhenComplete) {
+        try {
+            while (!closed && !indexStep(INDEX_STEP_BYTES, parallelism)) {
+                publishProgress(offsetIndex.getRecordCount(), false);
+            }
+            publishProgress(offsetIndex.getRecordCount(), true);
+            if (saveWhenComplete && offsetIndex.isComplete()) {
+                IndexSidecar.save(mappedFile, recordLayout, ebcdicEncoding, offsetIndex);
+            }
+        } catch (IOException | RuntimeException e) {
+            failIndexing(e);
+        }
+    }
+
+    /** Indexes about {@code stepBytes} more of the file; returns whether the index is complete. */
+    private boolean indexStep(long stepBytes, int parallelism) throws IOException {
+        Metrics.IndexBuildEvent event = new Metrics.IndexBuildEvent();
+        event.begin();
+        long started = System.nanoTime();
+        long records = offsetIndex.getRecordCount();
+        long indexed = offsetIndex.getIndexedEnd();
+        boolean complete = offsetIndex.extend(stepBytes, parallelism);
+        event.records = offsetIndex.getRecordCount() - records;
+        event.bytes = offsetIndex.getIndexedEnd() - indexed;
+        Metrics.Span.INDEX_BUILD.record(started, event.bytes);
+        event.commit();
+        return complete;
+    }
+
+    /**
+     * Reads up to {@code maxRecords} more records into allRecords.
+     * @return whether the file has more records.
+     */
+    private boolean loadRecords(AbstractLineReader lineReader, long maxRecords) throws IOException {
+        long bytes = loadedBytes;
+        for (long i = 0; i < maxRecords; i++) {
+            AbstractLine line = lineReader.read();
+            if (line == null) {
+                loadedBytes = bytes;
+                this.totalRecords = allRecords.size();
+                return false;
+            }
+            allRecords.add(line);
+            bytes += line.getData().length + (recordLayout.isBinary() ? 0 : 1); // Text lines lose their line end
+        }
+        loadedBytes = bytes;
+        this.totalRecords = allRecords.size();
+        return true;
+    }
+
+    /** Background task for layouts read through JRecord: loads the remaining records in batches. */
+    private void loadRemainingRecords(AbstractLineReader lineReader) {
+        try {
+            boolean more = true;
+            while (!closed && more) {
+                more = loadRecords(lineReader, Math.max(pageSize, 10_000));
+                publishProgress(allRecords.size(), !more);
+            }
+        } catch (IOException | RuntimeException e) {
+            failIndexing(e);
+        } finally {
+            try {
+                lineReader.close();
+            } catch (IOException e) {
+                System.err.println("Error closing JRecord reader after loading records: " + e.getMessage());
+            }
+        }
+    }
+
+    private void publishProgress(long records, boolean complete) {
+        synchronized (indexingProgress) {
+            this.totalRecords = records;
+            if (complete) {
+                this.indexingComplete = true;
+            }
+            indexingProgress.notifyAll();
+        }
+    }
+
+    /** Keeps what was indexed before the error; the viewer shows those records. */
+    private void failIndexing(Exception e) {
+        System.err.println("Error indexing " + filePath + ": " + e.getMessage());
+        this.indexingError = e.getMessage();
+        publishProgress(offsetIndex != null ? offsetIndex.getRecordCount() : allRecords.size(), true);
+    }
+
+    /** Whether the record count is final. */
+    public boolean isIndexingComplete() {
+        return indexingComplete;
+    }
+
+    /** Fraction of the file counted so far, from 0 to 1. */
+    public double getIndexingProgress() {
+        if (indexingComplete) {
+            return 1.0;
+        }
+        if (offsetIndex != null) {
+            return offsetIndex.getProgress();
+        }
+        long length = new java.io.File(filePath).length();
+        return length == 0 ? 1.0 : Math.min(0.99, (double) loadedBytes / length);
+    }
+
+    /** Why indexing stopped early, or null. */
+    public String getIndexingError() {
+        return indexingError;
+    }
+
+    /**
+     * Blocks until at least {@code count} records are indexed or indexing is complete, e.g.
+     * before showing a page past the indexed region.
+     */
+    public void awaitRecords(long count) throws InterruptedException {
+        synchronized (indexingProgress) {
+            while (totalRecords < count && !indexingComplete) {
+                indexingProgress.wait();
+            }
+        }
+    }
+
+    /** Blocks until every record is indexed; whole-file operations such as key indexes need this. */
+    public void awaitIndexing() throws InterruptedException {
+        awaitRecords(Long.MAX_VALUE);
+    }
+
+    /**
+     * Fixed-length layouts can be addressed directly by record ordinal.
+     * JRecord reports binary (EBCDIC) copybooks without an explicit organisation as fixed length.
+     */
+    private static boolean isFixedLengthLayout(LayoutDetail layout) {
+        int fileStructure = layout.getFileStructure();
+        return fileStructure == Constants.IO_FIXED_LENGTH
+                || (fileStructure == Constants.IO_DEFAULT && layout.isBinary());
+    }
+
+    /** The depending-on layout of each record type, or null when no record has a variable layout. */
+    private static OdoLayout[] odoLayoutsOf(RecordTypeTable types, DecodePlan plan) {
+        int typeCount = types == null ? 1 : types.getTypeCount();
+        OdoLayout[] layouts = new OdoLayout[typeCount];
+        boolean any = false;
+        for (int type = 0; type < typeCount; type++) {
+            layouts[type] = (types == null ? plan : types.getPlan(type)).getOdoLayout();
+            any |= layouts[type] != null;
+        }
+        return any ? layouts : null;
+    }
+
+    /**
+     * Callback for {@link #scanRecords}. The {@code data} array is reused between calls and only
+     * its first {@code length} bytes belong to the current record.
+     */
+    public interface RecordVisitor {
+        void visit(long ordinal, byte[] data, int length);
+    }
+
+    /**
+     * Passes the raw bytes of records [first, end) to {@code visitor} in file order without
+     * decoding them. Safe to call from several threads at once on disjoint or overlapping ranges.
+     * Records with OCCURS DEPENDING ON tables are passed on moved to the copybook's static
+     * layout (every table at its maximum size), where each field has a fixed offset.
+     * @return the bytes of record data read, as stored in the file.
+     */
+    public long scanRecords(long first, long end, RecordVisitor visitor) {
+        if (first >= end) {
+            return 0;
+        }
+        if (odoLayouts != null) {
+            visitor = normalising(visitor);
+        }
+        long bytes = 0;
+        if (offsetIndex != null) {
+            byte[] buffer = new byte[recordLength];
+            RecordOffsetIndex.Cursor cursor = offsetIndex.cursor(first);
+            for (long i = first; i < end; i++) {
+                int length = cursor.dataLength();
+                if (length > buffer.length) {
+                    buffer = new byte[length];
+                }
+                cursor.readData(buffer);
+                bytes += length;
+                visitor.visit(i, buffer, length);
+                if (i + 1 < end) {
+                    cursor.advance();
+                }
+            }
+        } else if (mappedFile != null) {
+            byte[] buffer = new byte[recordLength];
+            for (long i = first; i < end; i++) {
+                long offset = i * recordLength;
+                int length = (int) Math.min(recordLength, mappedFile.length() - offset);
+                mappedFile.read(offset, buffer, 0, length);
+                bytes += length;
+                visitor.visit(i, buffer, length);
+            }
+        } else {
+            for (long i = first; i < end; i++) {
+                byte[] data = allRecords.get((int) i).getData();
+                bytes += data.length;
+                visitor.visit(i, data, data.length);
+            }
+        }
+        Metrics.RECORDS_READ.add(end - first);
+        Metrics.BYTES_READ.add(bytes);
+        return bytes;
+    }
+
+    /**
+     * Wraps {@code visitor} so each record reaches it in the static layout of its type. The
+     * offsets of each combination of counts are worked out once and cached by the OdoLayout.
+     */
+    private RecordVisitor normalising(RecordVisitor visitor) {
+        int bufferLength = 0;
+        int tableCount = 0;
+        for (OdoLayout layout : odoLayouts) {
+            if (layout != null) {
+                bufferLength = Math.max(bufferLength, layout.getStaticLength());
+                tableCount = Math.max(tableCount, layout.getTableCount());
+            }
+        }
+        byte[] moved = new byte[bufferLength];
+        int[] counts = new int[tableCount];
+        return (ordinal, data, length) -> {
+            int type = recordTypes == null ? 0 : recordTypes.typeOf(data, length);
+            OdoLayout layout = type < 0 ? null : odoLayouts[type]; // Records of no type are shown as they are
+            if (layout == null) {
+                visitor.visit(ordinal, data, length);
+            } else {
+                visitor.visit(ordinal, moved, layout.normalise(data, length, moved, counts));
+            }
+        };
+    }
+
+    /**
+     * Reads the records of {@code subset} at positions [from, to) within the subset, e.g. one
+     * page of search hits. Does not change the current page.
+     */
+    public RecordPage getRecords(RecordSubset subset, long from, long to) {
+        long end = Math.min(to, subset.size());
+        RecordPage records = newPage((int) Math.max(0, end - from));
+        for (long i = from; i < end; i++) {
+            long ordinal = subset.ordinalAt(i);
+            if (columnarCache != null) {
+                records.addOrdinal(ordinal);
+            } else {
+                scanRecords(ordinal, ordinal + 1, records::add);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Reads the records of page {@code pageNumber} and makes it the current page. Only the raw
+     * bytes are copied; fields are decoded when the returned page is asked for them.
+     */
+    public RecordPage getPage(int pageNumber) throws IOException {
+        if (totalRecords == 0) {
             this.currentPageNumber = -1;
-            this.currentPageRawData = new ArrayList<>();
+            this.currentPageRawData = RecordPage.EMPTY;
             return this.currentPageRawData;
         }
 
+        int totalPages = getTotalPages();
         if (pageNumber < 0 || pageNumber >= totalPages) {
             System.err.println("Invalid page number: " + pageNumber + ". Total pages: " + totalPages);
             // Optionally, return current page or throw exception
             if (currentPageNumber != -1 && currentPageNumber < totalPages) { // return last valid page
-                 return this.currentPageRawData; // or an empty list: new ArrayList<>()
+                 return this.currentPageRawData; // or an empty page: RecordPage.EMPTY
             }
-            return new ArrayList<>();
+            return RecordPage.EMPTY;
         }
 
-        List<Map<String, String>> pageData = new ArrayList<>();
-        int startRecordIndex = pageNumber * pageSize;
-        int endRecordIndex = Math.min(startRecordIndex + pageSize, allRecords.size());
+        RecordPage pageData = readPage(pageNumber);
+        this.currentPageNumber = pageNumber;
+        this.currentPageRawData = pageData;
+        return pageData;
+    }
 
-        for (int i = startRecordIndex; i < endRecordIndex; i++) {
-            AbstractLine line = allRecords.get(i);
-            Map<String, String> recordMap = new HashMap<>();
-            for (net.sf.JRecord.Common.FieldDetail field : recordLayout.getRecord(0).getFields()) { // Changed ExternalField to FieldDetail
-                String fieldName = field.getName();
-                String fieldValue = "";
-                try {
-                    fieldValue = line.getFieldValue(field).asString(); // Pass FieldDetail object
-                } catch (Exception e) {
-                    System.err.println("Error getting field value for: " + fieldName + " - " + e.getMessage());
-                    fieldValue = "ERROR_READING_FIELD";
-                }
-                String sanitizedString = fieldValue.replaceAll("\\p{Cntrl}", ".");
-                recordMap.put(fieldName, sanitizedString);
+    /**
+     * Reads the records of page {@code pageNumber} (which must exist) without changing the
+     * current page. Safe to call from several threads, e.g. to prefetch pages.
+     */
+    public RecordPage readPage(int pageNumber) {
+        Metrics.PageLoadEvent event = new Metrics.PageLoadEvent();
+        event.begin();
+        long started = System.nanoTime();
+        long startRecordIndex = (long) pageNumber * pageSize;
+        long endRecordIndex = Math.min(startRecordIndex + pageSize, totalRecords);
+        RecordPage pageData = newPage((int) (endRecordIndex - startRecordIndex));
+        long bytes = 0;
+        if (columnarCache != null) {
+            for (long ordinal = startRecordIndex; ordinal < endRecordIndex; ordinal++) {
+                pageData.addOrdinal(ordinal);
             }
-            pageData.add(recordMap);
+        } else {
+            bytes = scanRecords(startRecordIndex, endRecordIndex, pageData::add);
         }
-        this.currentPageNumber = pageNumber;
-        this.currentPageRawData = pageData;
+        Metrics.Span.PAGE_LOAD.record(started, bytes);
+        event.page = pageNumber;
+        event.records = (int) (endRecordIndex - startRecordIndex);
+        event.bytes = bytes;
+        event.commit();
         return pageData;
     }
 
+    /** An empty page with the columns of the current record type. */
+    private RecordPage newPage(int expectedRecords) {
+        if (recordTypes != null) {
+            return new RecordPage(recordTypes, recordType, expectedRecords);
+        }
+        return new RecordPage(decodePlan, expectedRecords, columnarCache);
+    }
+
     /**
      * Returns the raw data of the most recently loaded page.
      * This does not re-read from the file but returns the in-memory copy.
-     * @return List of records for the current page.
+     * @return The records of the current page.
      */
-    public List<Map<String, String>> getCurrentPageRawData() {
+    public RecordPage getCurrentPageRawData() {
         return this.currentPageRawData;
     }
 
-    public List<Map<String, String>> nextPage() throws IOException {
-        if (currentPageNumber < totalPages - 1) {
+    public RecordPage nextPage() throws IOException {
+        if (currentPageNumber < getTotalPages() - 1) {
             return getPage(currentPageNumber + 1);
         }
         // Already on the last page or no pages, return current (which might be empty or last page's data)
         return this.currentPageRawData;
     }
 
-    public List<Map<String, String>> previousPage() throws IOException {
+    public RecordPage previousPage() throws IOException {
         if (currentPageNumber > 0) {
             return getPage(currentPageNumber - 1);
         }
@@ -180,30 +562,225 @@ public class PagedFileReader {
         return this.currentPageRawData;
     }
 
+    /**
+     * Ordinal of the record at {@code fraction} (0 to 1) of the file: by byte position for
+     * variable-length files, whose records differ in size, otherwise by record count. Returns -1
+     * while that part of a variable-length file is not indexed yet.
+     */
+    public long ordinalAtFraction(double fraction) {
+        double clamped = Math.max(0, Math.min(1, fraction));
+        long records = this.totalRecords;
+        if (records == 0) {
+            return 0;
+        }
+        if (offsetIndex != null) {
+            long position = (long) (clamped * mappedFile.length());
+            if (!offsetIndex.isComplete() && position >= offsetIndex.getIndexedEnd()) {
+                return -1;
+            }
+            return Math.min(offsetIndex.ordinalAtPosition(position), records - 1);
+        }
+        return Math.min((long) (clamped * records), records - 1);
+    }
+
     public int getCurrentPageNumber() {
         return currentPageNumber;
     }
 
+    /** Pages of the records indexed so far; final once {@link #isIndexingComplete()}. */
     public int getTotalPages() {
-        return totalPages;
+        long records = this.totalRecords;
+        return (int) ((records + this.pageSize - 1) / this.pageSize);
     }
 
     public long getTotalRecords() {
-        return this.totalRecords; // Derived from allRecords.size() in constructor
+        return this.totalRecords; // From the file length or offset index when mapped, otherwise allRecords.size(); grows while indexing
+    }
+
+    public RecordFormat getRecordFormat() {
+        return recordFormat;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public String getEncoding() {
+        return ebcdicEncoding;
+    }
+
+    public int getPageSize() {
+        return pageSize;
     }
 
     public int getRecordLength() {
         return recordLength;
     }
 
+    public DecodePlan getDecodePlan() {
+        return decodePlan;
+    }
+
     public net.sf.JRecord.Details.LayoutDetail getRecordLayout() {
         return this.recordLayout;
     }
 
+    /** The record types given with {@code --record-types}, or null for a single layout. */
+    public RecordTypeTable getRecordTypes() {
+        return recordTypes;
+    }
+
+    /** Type whose layout pages are read with (see {@link #setRecordType}); 0 for a single layout. */
+    public int getRecordType() {
+        return recordType;
+    }
+
+    /**
+     * Reads pages from now on with the columns of record type {@code type}; records of other
+     * types are still on the pages but shown in their own layout. Pages read before keep theirs.
+     */
+    public void setRecordType(int type) {
+        this.decodePlan = recordTypes.getPlan(type);
+        this.recordType = type;
+    }
+
+    /**
+     * The field called {@code name} in the current type's layout or, failing that, in another
+     * record type's; null if no layout has it.
+     */
+    public net.sf.JRecord.Common.FieldDetail findField(String name) {
+        int index = decodePlan.indexOf(name);
+        if (index >= 0) {
+            return decodePlan.getField(index);
+        }
+        for (int type = 0; recordTypes != null && type < recordTypes.getTypeCount(); type++) {
+            index = recordTypes.getPlan(type).indexOf(name);
+            if (index >= 0) {
+                return recordTypes.getPlan(type).getField(index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The record type that owns the field called {@code name}, the one {@link #findField} takes
+     * it from: the current type if its layout has the field, otherwise the first type that does.
+     * {@link RecordTypeTable#UNKNOWN} for a single layout or a name no layout has.
+     */
+    public int findFieldType(String name) {
+        if (recordTypes == null) {
+            return RecordTypeTable.UNKNOWN;
+        }
+        int current = recordType;
+        if (recordTypes.getPlan(current).indexOf(name) >= 0) {
+            return current;
+        }
+        for (int type = 0; type < recordTypes.getTypeCount(); type++) {
+            if (recordTypes.getPlan(type).indexOf(name) >= 0) {
+                return type;
+            }
+        }
+        return RecordTypeTable.UNKNOWN;
+    }
+
+    /**
+     * Ordinals of the records of record type {@code type}, in file order, for paging through one
+     * type only. The first call classifies every record indexed so far (a table lookup each, see
+     * {@link RecordTypeTable}) in one slice per core; later calls only classify records indexed
+     * since. A list once returned is never changed, so it can be paged through while a later
+     * call extends the index. Reads the whole file the first time: call it off the UI thread.
+     */
+    public OrdinalList getTypeIndex(int type) {
+        return getTypeIndex(type, new LongAdder());
+    }
+
+    /** Like {@link #getTypeIndex(int)}, counting each record classified in {@code classified}. */
+    public synchronized OrdinalList getTypeIndex(int type, LongAdder classified) {
+        int typeCount = recordTypes.getTypeCount();
+        if (typeIndexes == null) {
+            typeIndexes = new OrdinalList[typeCount];
+            for (int i = 0; i < typeCount; i++) {
+                typeIndexes[i] = new OrdinalList();
+            }
+        }
+        long first = typeIndexedRecords;
+        long end = totalRecords;
+        if (first >= end) {
+            return typeIndexes[type];
+        }
+        int slices = (int) Math.min(Runtime.getRuntime().availableProcessors(), end - first);
+        OrdinalList[][] found = new OrdinalList[slices][typeCount]; // [slice][type], slices in file order
+        ExecutorService pool = Executors.newFixedThreadPool(slices);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int slice = 0; slice < slices; slice++) {
+                long sliceFirst = first + (end - first) * slice / slices;
+                long sliceEnd = first + (end - first) * (slice + 1) / slices;
+                OrdinalList[] lists = found[slice];
+                for (int i = 0; i < typeCount; i++) {
+                    lists[i] = new OrdinalList(1024);
+                }
+                tasks.add(() -> {
+                    scanRecords(sliceFirst, sliceEnd, (ordinal, data, length) -> {
+                        int recordTypeOf = recordTypes.typeOf(data, length);
+                        if (recordTypeOf != RecordTypeTable.UNKNOWN) {
+                            lists[recordTypeOf].add(ordinal);
+                        }
+                        classified.increment();
+                    });
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while classifying records", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new IllegalStateException("Error classifying records: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < typeCount; i++) {
+            long size = typeIndexes[i].size();
+            for (OrdinalList[] lists : found) {
+                size += lists[i].size();
+            }
+            OrdinalList grown = new OrdinalList((int) size); // A new list: the old one may be in use
+            grown.addAll(typeIndexes[i]);
+            for (OrdinalList[] lists : found) {
+                grown.addAll(lists[i]);
+            }
+            typeIndexes[i] = grown;
+        }
+        typeIndexedRecords = end;
+        return typeIndexes[type];
+    }
+
+    /** The decoded columnar copy of the file opened with {@code --columnar}, or null. */
+    public ColumnarCache getColumnarCache() {
+        return columnarCache;
+    }
+
     public void close() throws IOException {
-        // jrecordReader is closed after initial load in the constructor.
-        // If it were to be kept open for specific scenarios, closing logic would be here.
-        // For now, allRecords holds the data, so no file handle is open post-constructor.
+        // jrecordReader is closed after initial load in the constructor, or by the background loader.
+        // In fixed-length and RDW/BDW mode the mapped data file stays open until the reader is closed.
+        closed = true; // The background indexer stops after its current step
+        if (indexer != null) {
+            try {
+                indexer.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (columnarCache != null) {
+            columnarCache.close();
+        }
+        if (mappedFile != null) {
+            mappedFile.close();
+        }
     }
 
     // Main method for basic testing (requires a sample EBCDIC file and copybook)
@@ -215,8 +792,8 @@ public class PagedFileReader {
         System.out.println("    System.out.println(\"Total records: \" + pfr.getTotalRecords());");
         System.out.println("    System.out.println(\"Total pages: \" + pfr.getTotalPages());");
         System.out.println("    if (pfr.getTotalPages() > 0) {");
-        System.out.println("      List<Map<String, String>> page0 = pfr.getPage(0);");
-        System.out.println("      // Print page0 data, e.g., page0.forEach(System.out::println);");
+        System.out.println("      RecordPage page0 = pfr.getPage(0);");
+        System.out.println("      // Print page0 data, e.g., System.out.println(page0.describeRecord(0));");
         System.out.println("    }");
         System.out.println("    pfr.close();");
         System.out.println("  } catch (IOException e) { e.printStackTrace(); }");
@@ -268,18 +845,18 @@ public class PagedFileReader {
 
 
             if (pfr.getTotalPages() > 0) {
-                List<Map<String, String>> page0 = pfr.getPage(0);
+                RecordPage page0 = pfr.getPage(0);
                 System.out.println("\nPage 0 Data (JRecord - first record if exists):");
                 if (!page0.isEmpty()) {
-                    System.out.println(page0.get(0));
+                    System.out.println(page0.describeRecord(0));
                 } else {
                     System.out.println("Page 0 is empty.");
                 }
                  if (pfr.getTotalPages() > 1) {
-                    List<Map<String, String>> page1 = pfr.nextPage();
+                    RecordPage page1 = pfr.nextPage();
                      System.out.println("\nPage 1 Data (JRecord - first record if exists):");
                     if (page1 != null && !page1.isEmpty()) {
-                         System.out.println(page1.get(0));
+                         System.out.println(page1.describeRecord(0));
                     } else {
                         System.out.println("Page 1 is empty or could not be loaded.");
                     }
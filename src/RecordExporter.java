@@ -0,0 +1,476 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Headless export: streams every record of a data file through the copybook's
+ * {@link DecodePlan} and writes it as CSV, JSON Lines or fixed-width text, for batch jobs that
+ * want the viewer's decoding without the TUI.
+ *
+ * OCCURS arrays can be left out ({@code --export-arrays}), in which case their occurrences are
+ * never decoded. Occurrences past an OCCURS DEPENDING ON count are empty in CSV and fixed-width
+ * output and have no key in JSON Lines.
+ *
+ * With several record types ({@code --record-types}) CSV and fixed-width output have the
+ * columns of one type, {@code --export-type=NAME} or else the first type listed, and leave the
+ * other records out with a warning on standard error. JSON Lines writes every record in the
+ * layout of its own type unless {@code --export-type} picks one.
+ *
+ * The records are cut into chunks of {@link #CHUNK_RECORDS} that worker threads decode and
+ * format into bytes; the calling thread writes the chunks in file order. At most
+ * {@link #chunksInFlight} chunks are queued or finished but unwritten at any time, so memory
+ * stays bounded however large the file is, and a slow output (a pipe, a network disk) holds
+ * the workers back instead of piling up output. Variable-length files are exported while the
+ * background indexer is still running: a chunk is started as soon as its records are indexed.
+ */
+public class RecordExporter {
+
+    /** Records decoded and formatted as one unit of work. */
+    static final int CHUNK_RECORDS = 8192;
+
+    private final PagedFileReader reader;
+    private final RecordTypeTable recordTypes; // null: every record is exported
+    private final int recordType;               // Otherwise only the records of this type are, or of every type if UNKNOWN
+    private final ExportFormat format;
+    private final int threads;
+    private final int chunksInFlight;
+    private final Layout[] layouts; // By record type; a single one without record types
+
+    /** How the records of one layout are written. */
+    private static final class Layout {
+        final DecodePlan plan;
+        final int[] fields;       // Fields written, in copybook order: every field but the OCCURS arrays left out
+        final int[] widths;       // FIXED: column widths
+        final String[] jsonNames; // JSONL: field names quoted for use as keys, with the colon
+
+        Layout(DecodePlan plan, List<String> arrays) {
+            this.plan = plan;
+            this.fields = IntStream.range(0, plan.getFieldCount())
+                    .filter(i -> arrays == null || plan.getArrayName(i) == null || arrays.contains(plan.getArrayName(i)))
+                    .toArray();
+            this.widths = new int[plan.getFieldCount()];
+            this.jsonNames = new String[plan.getFieldCount()];
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = Math.max(plan.getFieldName(i).length(), plan.getDisplayWidth(i));
+                StringBuilder name = new StringBuilder();
+                appendJsonString(name, plan.getFieldName(i));
+                jsonNames[i] = name.append(':').toString();
+            }
+        }
+    }
+
+    /** Totals of one {@link #export} run. */
+    public static final class Summary {
+        public final long records;
+        public final long inputBytes;  // Record data read, without descriptor words
+        public final long outputBytes;
+        public final long nanos;
+
+        Summary(long records, long inputBytes, long outputBytes, long nanos) {
+            this.records = records;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            return String.format("Exported %d records (%.1f MB read, %.1f MB written) in %.2f s: %.1f MB/s, %.0f records/s",
+                    records, inputBytes / 1e6, outputBytes / 1e6, seconds, inputBytes / 1e6 / seconds, records / seconds);
+        }
+    }
+
+    /** One formatted chunk, ready to be written. */
+    private static final class Chunk {
+        final byte[] output;
+        final long records;
+        final long inputBytes;
+        final long skipped; // Records of another record type, or of none
+
+        Chunk(byte[] output, long records, long inputBytes, long skipped) {
+            this.output = output;
+            this.records = records;
+            this.inputBytes = inputBytes;
+            this.skipped = skipped;
+        }
+    }
+
+    /**
+     * @param threads worker threads decoding chunks; 0 means one per available processor.
+     */
+    public RecordExporter(PagedFileReader reader, ExportFormat format, int threads) {
+        this(reader, format, threads, null);
+    }
+
+    /**
+     * @param arrays the OCCURS arrays whose occurrences are written (see {@link ViewerOptions#getExportArrays});
+     *               null for all of them. The occurrences of the others are neither decoded nor written.
+     */
+    public RecordExporter(PagedFileReader reader, ExportFormat format, int threads, List<String> arrays) {
+        this(reader, format, threads, arrays, null);
+    }
+
+    /**
+     * @param exportType with record types, the name of the one exported (see {@link ViewerOptions#getExportType});
+     *                   null for every type in JSON Lines and for the reader's current type otherwise.
+     * @throws IllegalArgumentException if there is no record type {@code exportType}.
+     */
+    public RecordExporter(PagedFileReader reader, ExportFormat format, int threads, List<String> arrays, String exportType) {
+        this.reader = reader;
+        this.recordTypes = reader.getRecordTypes();
+        this.format = format;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.chunksInFlight = this.threads * 2; // Enough to keep every worker busy while one chunk is written
+        if (recordTypes == null) {
+            if (exportType != null) {
+                throw new IllegalArgumentException("--export-type needs --record-types");
+            }
+            this.recordType = RecordTypeTable.UNKNOWN;
+            this.layouts = new Layout[] {new Layout(reader.getDecodePlan(), arrays)};
+            return;
+        }
+        if (exportType != null) {
+            this.recordType = recordTypes.indexOf(exportType);
+            if (recordType == RecordTypeTable.UNKNOWN) {
+                List<String> names = new ArrayList<>();
+                for (int type = 0; type < recordTypes.getTypeCount(); type++) {
+                    names.add(recordTypes.getName(type));
+                }
+                throw new IllegalArgumentException("No record type " + exportType + " (there are " + String.join(", ", names) + ")");
+            }
+        } else {
+            this.recordType = format == ExportFormat.JSONL ? RecordTypeTable.UNKNOWN : reader.getRecordType();
+        }
+        this.layouts = new Layout[recordTypes.getTypeCount()];
+        for (int type = 0; type < layouts.length; type++) {
+            layouts[type] = new Layout(recordTypes.getPlan(type), arrays);
+        }
+    }
+
+    /**
+     * Writes every record of the file (with several record types, those of the type exported)
+     * to {@code out} in file order, waiting for the indexer where needed. Warns on standard
+     * error about the records left out. {@code out} is flushed but not closed.
+     */
+    public Summary export(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "export-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        long records = 0;
+        long inputBytes = 0;
+        long outputBytes = 0;
+        long skipped = 0;
+        try {
+            byte[] header = header();
+            out.write(header);
+            outputBytes += header.length;
+            long next = 0;
+            while (true) {
+                boolean complete = reader.isIndexingComplete(); // Read before the count: once complete, the count is final
+                long available = reader.getTotalRecords();
+                if (pending.size() < chunksInFlight && (next + CHUNK_RECORDS <= available || (complete && next < available))) {
+                    long first = next;
+                    long end = Math.min(next + CHUNK_RECORDS, available);
+                    pending.add(workers.submit(() -> formatChunk(first, end)));
+                    next = end;
+                } else if (!pending.isEmpty()) {
+                    Chunk chunk = pending.poll().get();
+                    out.write(chunk.output);
+                    records += chunk.records;
+                    inputBytes += chunk.inputBytes;
+                    outputBytes += chunk.output.length;
+                    skipped += chunk.skipped;
+                } else if (complete) {
+                    break;
+                } else {
+                    reader.awaitRecords(next + CHUNK_RECORDS);
+                }
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error exporting records: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        if (reader.getIndexingError() != null) {
+            System.err.println("Warning: indexing stopped early (" + reader.getIndexingError() + "); only the records before that were exported.");
+        }
+        if (skipped > 0 && recordType == RecordTypeTable.UNKNOWN) {
+            System.err.println("Warning: " + skipped + " records of no record type were not exported.");
+        } else if (skipped > 0) {
+            System.err.println("Warning: " + skipped + " records not of type " + recordTypes.getName(recordType)
+                    + " were not exported (--export-type=NAME picks the type; --export=jsonl writes every type).");
+        }
+        return new Summary(records, inputBytes, outputBytes, System.nanoTime() - start);
+    }
+
+    private byte[] header() {
+        StringBuilder line = new StringBuilder();
+        if (format == ExportFormat.JSONL) {
+            return new byte[0];
+        }
+        Layout layout = layouts[recordTypes == null ? 0 : recordType]; // CSV and FIXED always have one type
+        for (int i : layout.fields) {
+            if (format == ExportFormat.CSV) {
+                if (i != layout.fields[0]) {
+                    line.append(',');
+                }
+                appendCsv(line, layout.plan.getFieldName(i));
+            } else {
+                appendFixed(line, layout, layout.plan.getFieldName(i), i);
+            }
+        }
+        line.append('\n');
+        return line.toString().getBytes(charset());
+    }
+
+    private Charset charset() {
+        return format == ExportFormat.FIXED ? StandardCharsets.US_ASCII : StandardCharsets.UTF_8; // US-ASCII writes '?' for anything else
+    }
+
+    /** Worker task: decodes and formats records [first, end). */
+    private Chunk formatChunk(long first, long end) {
+        StringBuilder text = new StringBuilder((int) Math.min(1 << 24, (end - first) * 64));
+        long[] inputBytes = new long[1];
+        long[] records = new long[1];
+        long[] skipped = new long[1];
+        reader.scanRecords(first, end, (ordinal, data, length) -> {
+            inputBytes[0] += length;
+            int type = recordTypes == null ? 0 : recordTypes.typeOf(data, length);
+            if (recordTypes != null && (type == RecordTypeTable.UNKNOWN
+                    || (recordType != RecordTypeTable.UNKNOWN && type != recordType))) {
+                skipped[0]++;
+                return;
+            }
+            formatRecord(text, layouts[type], data, length);
+            records[0]++;
+        });
+        return new Chunk(text.toString().getBytes(charset()), records[0], inputBytes[0], skipped[0]);
+    }
+
+    private void formatRecord(StringBuilder line, Layout layout, byte[] data, int length) {
+        if (format == ExportFormat.JSONL) {
+            line.append('{');
+        }
+        int start = line.length();
+        for (int i : layout.fields) {
+            switch (format) {
+                case CSV:
+                    if (i != layout.fields[0]) {
+                        line.append(',');
+                    }
+                    appendCsv(line, stripTrailing(decode(layout.plan, i, data, length)));
+                    break;
+                case JSONL:
+                    if (layout.plan.isAbsent(i, data, length)) {
+                        break; // Occurrences past an OCCURS DEPENDING ON count have no key
+                    }
+                    if (line.length() > start) {
+                        line.append(',');
+                    }
+                    line.append(layout.jsonNames[i]);
+                    appendJsonValue(line, layout.plan, i, data, length);
+                    break;
+                default:
+                    appendFixed(line, layout, decode(layout.plan, i, data, length), i);
+            }
+        }
+        line.append(format == ExportFormat.JSONL ? "}\n" : "\n");
+    }
+
+    private static String decode(DecodePlan plan, int field, byte[] data, int length) {
+        try {
+            return plan.decodeField(field, data, length);
+        } catch (RuntimeException e) {
+            return RecordPage.ERROR_VALUE; // As the viewer shows it
+        }
+    }
+
+    /** A number where the field holds one, otherwise the trimmed text as a string. */
+    private static void appendJsonValue(StringBuilder line, DecodePlan plan, int field, byte[] data, int length) {
+        if (plan.hasUnscaledDecoder(field)) {
+            long unscaled = plan.decodeUnscaled(field, data, length);
+            if (unscaled != NumericDecoder.NOT_DECODED) {
+                appendDecimal(line, unscaled, plan.getScale(field));
+                return;
+            }
+            BigDecimal number = plan.decodeDecimal(field, data, length);
+            if (number != null) {
+                line.append(number.toPlainString());
+                return;
+            }
+        }
+        appendJsonString(line, decode(plan, field, data, length).trim());
+    }
+
+    /** {@code unscaled} / 10^scale in plain notation, without allocating. */
+    static void appendDecimal(StringBuilder line, long unscaled, int scale) {
+        if (scale <= 0) {
+            line.append(unscaled);
+            for (int i = scale; i < 0 && unscaled != 0; i++) {
+                line.append('0');
+            }
+            return;
+        }
+        if (unscaled < 0) {
+            line.append('-');
+        }
+        long magnitude = Math.abs(unscaled); // NOT_DECODED (Long.MIN_VALUE) never gets here
+        long divisor = 1;
+        for (int i = 0; i < scale; i++) {
+            divisor *= 10;
+        }
+        line.append(magnitude / divisor).append('.');
+        long fraction = magnitude % divisor;
+        for (long digit = divisor / 10; digit > 1 && fraction < digit; digit /= 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+
+    static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /** RFC 4180: quoted only when the value holds a comma, a quote or a line break. */
+    static void appendCsv(StringBuilder line, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /** The value cut or padded to the column width, plus a space between columns. */
+    private static void appendFixed(StringBuilder line, Layout layout, String value, int field) {
+        int[] widths = layout.widths;
+        int width = widths[field];
+        int length = Math.min(value.length(), width);
+        line.append(value, 0, length);
+        if (field < widths.length - 1) {
+            for (int i = length; i <= width; i++) {
+                line.append(' ');
+            }
+        }
+    }
+
+    private static String stripTrailing(String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return end == value.length() ? value : value.substring(0, end);
+    }
+
+    /**
+     * Runs an export from the command line options, as {@code EbcdicFileViewer --export=...}
+     * does: to {@code outputPath}, or to standard output when it is null or "-". The summary
+     * goes to standard error, so it never mixes with exported data.
+     */
+    public static Summary run(String dataFilePath, String copybookFilePath, String encoding, ViewerOptions options) throws IOException {
+        PagedFileReader reader = new PagedFileReader(dataFilePath, copybookFilePath, CHUNK_RECORDS, encoding, options);
+        String outputPath = options.getOutputPath();
+        boolean toStdout = outputPath == null || outputPath.equals("-");
+        OutputStream out = toStdout ? new BufferedOutputStream(new FileOutputStream(java.io.FileDescriptor.out), 1 << 16)
+                : new BufferedOutputStream(Files.newOutputStream(Path.of(outputPath)), 1 << 16);
+        try {
+            Summary summary = new RecordExporter(reader, options.getExportFormat(), options.getExportThreads(),
+                    options.getExportArrays(), options.getExportType()).export(out);
+            System.err.println(summary);
+            return summary;
+        } finally {
+            if (toStdout) {
+                out.flush();
+            } else {
+                out.close();
+            }
+            reader.close();
+        }
+    }
+
+    /**
+     * Exports a file in each format with one worker and with all of them, checks that the
+     * outputs are identical, and prints throughput and the first lines.
+     * Usage: RecordExporter data_file copybook [encoding [format [--recfm=...]]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: RecordExporter data_file copybook [encoding [format [--recfm=...]]]");
+            return;
+        }
+        String encoding = args.length > 2 ? args[2] : "CP037";
+        ExportFormat[] formats = args.length > 3 ? new ExportFormat[] {ExportFormat.fromOption(args[3])} : ExportFormat.values();
+        ViewerOptions options = new ViewerOptions();
+        for (int i = 4; i < args.length; i++) {
+            options.apply(args[i]);
+        }
+        for (ExportFormat format : formats) {
+            byte[] sequential = null;
+            for (int threads : new int[] {1, 0}) {
+                PagedFileReader reader = new PagedFileReader(args[0], args[1], CHUNK_RECORDS, encoding, options);
+                java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+                Summary summary = new RecordExporter(reader, format, threads).export(out);
+                reader.close();
+                byte[] bytes = out.toByteArray();
+                System.out.printf("%-5s %s worker(s): %s%n", format, threads == 0 ? "all" : "1", summary);
+                if (sequential == null) {
+                    sequential = bytes;
+                } else {
+                    System.out.println("      same output with all workers: " + Arrays.equals(sequential, bytes));
+                }
+            }
+            String text = new String(sequential, 0, Math.min(sequential.length, 4096), StandardCharsets.UTF_8);
+            String[] lines = text.split("\n");
+            for (int i = 0; i < Math.min(3, lines.length); i++) {
+                System.out.println("      " + (lines[i].length() > 160 ? lines[i].substring(0, 160) + "..." : lines[i]));
+            }
+        }
+    }
+}
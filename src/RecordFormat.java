@@ -0,0 +1,41 @@
+/**
+ * Physical record framing of a data file, independent of the copybook layout.
+ */
+public enum RecordFormat {
+    /** Use whatever JRecord derives from the copybook (fixed length for binary layouts). */
+    DEFAULT,
+    /** Fixed-length records, no record descriptors (RECFM=F/FB). */
+    FIXED,
+    /** Each record is preceded by a 4-byte Record Descriptor Word (RECFM=V/VB transferred with RDW). */
+    RDW,
+    /** Records are grouped into blocks, each preceded by a Block Descriptor Word, and each record has an RDW. */
+    BDW;
+
+    /**
+     * Parses the value of the {@code --recfm} command-line option.
+     *
+     * @throws IllegalArgumentException if the value is not recognised.
+     */
+    public static RecordFormat fromOption(String value) {
+        switch (value.trim().toUpperCase()) {
+            case "F":
+            case "FB":
+            case "FIXED":
+                return FIXED;
+            case "V":
+            case "RDW":
+                return RDW;
+            case "VB":
+            case "BDW":
+                return BDW;
+            case "DEFAULT":
+                return DEFAULT;
+            default:
+                throw new IllegalArgumentException("Unknown record format '" + value + "'. Use F, RDW or BDW.");
+        }
+    }
+
+    public boolean isVariableLength() {
+        return this == RDW || this == BDW;
+    }
+}
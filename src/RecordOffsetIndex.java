@@ -0,0 +1,607 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sparse record-offset index for variable-length (RDW or BDW+RDW) data files.
+ *
+ * Only every {@code sampleInterval}-th record's byte offset is stored, in a plain long array,
+ * so a 20 GB file with 100 million records needs a few megabytes of index. To reach record
+ * {@code k}, a {@link Cursor} starts at the nearest sample and walks at most
+ * {@code sampleInterval - 1} descriptors forward.
+ *
+ * The index is built in parallel:
+ * <ol>
+ *   <li>The file is split into byte ranges. Each range after the first guesses its first record
+ *       boundary by looking for a chain of well-formed descriptors, then counts the records that
+ *       start inside the range.</li>
+ *   <li>The ranges are stitched in order. A guess is accepted only if it equals the position where
+ *       the previous range's walk ended; otherwise that range is rescanned from the correct position.</li>
+ *   <li>With every range's first record ordinal now known, the ranges are walked again in parallel
+ *       and the sampled offsets are written straight into the index array.</li>
+ * </ol>
+ *
+ * The index can also be built a slice at a time with {@link #extend}, so the viewer can show the
+ * first pages while the rest of the file is still being indexed. Each slice is published in one
+ * volatile write, so cursors on other threads always see a record count together with its samples.
+ */
+public class RecordOffsetIndex {
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+    // Files smaller than this per thread are not worth splitting.
+    private static final long MIN_CHUNK_BYTES = 8L << 20;
+    // Number of consecutive well-formed descriptors needed before a guessed boundary is trusted.
+    private static final int CONFIRM_UNITS = 16;
+    // Largest length an RDW can describe (32,756 data bytes plus the descriptor itself).
+    private static final int MAX_RDW_LENGTH = 32760;
+
+    private final MappedDataFile file;
+    private final RecordFormat format;
+    private final long fileLength;
+    private final int maxRecordLength;
+    private final int sampleInterval;
+
+    /** What has been indexed so far; replaced, never modified, once published. */
+    private static final class State {
+        final long recordCount;
+        final long indexedEnd;  // position just past the last complete record (or block)
+        final long[] offsets;   // offsets[i] = position of the RDW of record i * sampleInterval; may have spare room
+        final long[] blockEnds; // BDW only: end of the block containing that record
+        final boolean complete; // the whole file has been walked
+
+        State(long recordCount, long indexedEnd, long[] offsets, long[] blockEnds, boolean complete) {
+            this.recordCount = recordCount;
+            this.indexedEnd = indexedEnd;
+            this.offsets = offsets;
+            this.blockEnds = blockEnds;
+            this.complete = complete;
+        }
+    }
+
+    private volatile State state;
+
+    private RecordOffsetIndex(MappedDataFile file, RecordFormat format, int maxRecordLength, int sampleInterval) {
+        if (!format.isVariableLength()) {
+            throw new IllegalArgumentException("Record offset index requires RDW or BDW framing, got " + format);
+        }
+        this.file = file;
+        this.format = format;
+        this.fileLength = file.length();
+        this.maxRecordLength = maxRecordLength;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Scans the whole file and builds the index using up to {@code parallelism} threads.
+     *
+     * @param maxRecordLength longest record the copybook describes; used only to reject
+     *                        implausible descriptors while guessing boundaries.
+     * @throws IOException if a descriptor in the middle of the file is malformed.
+     */
+    public static RecordOffsetIndex build(MappedDataFile file, RecordFormat format, int maxRecordLength, int parallelism) throws IOException {
+        RecordOffsetIndex index = begin(file, format, maxRecordLength);
+        index.extend(Long.MAX_VALUE, parallelism);
+        return index;
+    }
+
+    /** Returns an index that has not looked at the file yet; fill it with {@link #extend}. */
+    public static RecordOffsetIndex begin(MappedDataFile file, RecordFormat format, int maxRecordLength) {
+        RecordOffsetIndex index = new RecordOffsetIndex(file, format, maxRecordLength, DEFAULT_SAMPLE_INTERVAL);
+        index.state = new State(0, 0, new long[0], format == RecordFormat.BDW ? new long[0] : null, index.fileLength == 0);
+        return index;
+    }
+
+    /**
+     * Recreates an index from previously saved state (see {@link IndexSidecar}). If the file has
+     * grown since then, only the bytes after {@code indexedEnd} are scanned.
+     */
+    public static RecordOffsetIndex restore(MappedDataFile file, RecordFormat format, int maxRecordLength, int sampleInterval,
+                                            long recordCount, long indexedEnd, long[] offsets, long[] blockEnds,
+                                            int parallelism) throws IOException {
+        RecordOffsetIndex index = resume(file, format, maxRecordLength, sampleInterval, recordCount, indexedEnd, offsets, blockEnds,
+                indexedEnd >= file.length());
+        index.extend(Long.MAX_VALUE, parallelism);
+        return index;
+    }
+
+    /**
+     * Like {@link #restore} but without scanning: unless {@code complete}, the bytes after
+     * {@code indexedEnd} are left for {@link #extend}.
+     *
+     * @throws IllegalArgumentException if the saved state cannot describe {@code file} (see {@link #checkSaved}).
+     */
+    public static RecordOffsetIndex resume(MappedDataFile file, RecordFormat format, int maxRecordLength, int sampleInterval,
+                                           long recordCount, long indexedEnd, long[] offsets, long[] blockEnds, boolean complete) {
+        String problem = checkSaved(format, file.length(), sampleInterval, recordCount, indexedEnd, offsets, blockEnds);
+        if (problem != null) {
+            throw new IllegalArgumentException("Inconsistent saved record offset index: " + problem);
+        }
+        RecordOffsetIndex index = new RecordOffsetIndex(file, format, maxRecordLength, sampleInterval);
+        index.state = new State(recordCount, indexedEnd, offsets, blockEnds, complete);
+        return index;
+    }
+
+    /**
+     * Why saved index state cannot be the index of the first {@code fileLength} bytes of a file
+     * in {@code format}, or null if it can. Cursors trust the samples without bounds checks, so a
+     * damaged or hand-edited sidecar must be caught here rather than read past the file's end.
+     */
+    static String checkSaved(RecordFormat format, long fileLength, int sampleInterval,
+                             long recordCount, long indexedEnd, long[] offsets, long[] blockEnds) {
+        if (!format.isVariableLength()) {
+            return "format " + format + " has no record descriptors";
+        }
+        if (sampleInterval <= 0) {
+            return "sample interval " + sampleInterval;
+        }
+        if (indexedEnd < 0 || indexedEnd > fileLength) {
+            return "indexed end " + indexedEnd + " outside a file of " + fileLength + " bytes";
+        }
+        if (recordCount < 0 || recordCount > indexedEnd / 4) { // Every record has at least its RDW
+            return recordCount + " records in " + indexedEnd + " bytes";
+        }
+        if (offsets.length != (recordCount + sampleInterval - 1) / sampleInterval) {
+            return offsets.length + " samples for " + recordCount + " records every " + sampleInterval;
+        }
+        if ((blockEnds != null) != (format == RecordFormat.BDW) || (blockEnds != null && blockEnds.length != offsets.length)) {
+            return "block ends do not match the " + offsets.length + " samples of a " + format + " file";
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < 0 || offsets[i] >= indexedEnd || (i > 0 && offsets[i] <= offsets[i - 1])) {
+                return "sample " + i + " at offset " + offsets[i] + " is out of order or past the indexed end";
+            }
+            if (blockEnds != null && (blockEnds[i] <= offsets[i] || blockEnds[i] > fileLength)) {
+                return "sample " + i + " has block end " + blockEnds[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indexes about {@code maxBytes} more of the file, in parallel, and publishes the result.
+     * Calls are serialised; cursors keep working on other threads meanwhile.
+     *
+     * @return whether the whole file is now indexed.
+     * @throws IOException if a descriptor in the middle of the file is malformed.
+     */
+    public synchronized boolean extend(long maxBytes, int parallelism) throws IOException {
+        State current = state;
+        if (!current.complete) {
+            long to = maxBytes >= fileLength - current.indexedEnd ? fileLength : current.indexedEnd + maxBytes;
+            buildParallel(current, to, Math.max(1, parallelism));
+        }
+        return state.complete;
+    }
+
+    public boolean isComplete() {
+        return state.complete;
+    }
+
+    /** Fraction of the file indexed so far, from 0 to 1. */
+    public double getProgress() {
+        State current = state;
+        return current.complete || fileLength == 0 ? 1.0 : (double) current.indexedEnd / fileLength;
+    }
+
+    /** Records indexed so far; the total once {@link #isComplete()}. */
+    public long getRecordCount() {
+        return state.recordCount;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public RecordFormat getFormat() {
+        return format;
+    }
+
+    /** Position just past the last complete record; later bytes are an incomplete tail, if any. */
+    public long getIndexedEnd() {
+        return state.indexedEnd;
+    }
+
+    long[] getOffsets() {
+        State current = state;
+        return Arrays.copyOf(current.offsets, sampleCount(current.recordCount));
+    }
+
+    long[] getBlockEnds() {
+        State current = state;
+        return current.blockEnds == null ? null : Arrays.copyOf(current.blockEnds, sampleCount(current.recordCount));
+    }
+
+    private int sampleCount(long records) {
+        return (int) ((records + sampleInterval - 1) / sampleInterval);
+    }
+
+    /**
+     * Ordinal of the first indexed record that starts at or after byte {@code position}, e.g. to
+     * go to a percentage of the file; the record count if there is none. A binary search over
+     * the samples plus at most one sample interval of records.
+     */
+    public long ordinalAtPosition(long position) {
+        State current = state;
+        int samples = sampleCount(current.recordCount);
+        int low = 0;
+        int high = samples; // First sample starting after position
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (current.offsets[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) {
+            return 0;
+        }
+        long ordinal = (long) (low - 1) * sampleInterval;
+        Cursor cursor = new Cursor(current.offsets[low - 1], current.blockEnds == null ? Long.MAX_VALUE : current.blockEnds[low - 1]);
+        while (ordinal < current.recordCount && cursor.position() < position) {
+            if (++ordinal < current.recordCount) {
+                cursor.advance();
+            }
+        }
+        return ordinal;
+    }
+
+    /**
+     * Returns a cursor positioned on the record with the given 0-based ordinal.
+     */
+    public Cursor cursor(long ordinal) {
+        State current = state;
+        if (ordinal < 0 || ordinal >= current.recordCount) {
+            throw new IndexOutOfBoundsException("Record " + ordinal + " outside 0.." + (current.recordCount - 1));
+        }
+        int sample = (int) (ordinal / sampleInterval);
+        Cursor cursor = new Cursor(current.offsets[sample], current.blockEnds == null ? Long.MAX_VALUE : current.blockEnds[sample]);
+        for (long skip = ordinal - (long) sample * sampleInterval; skip > 0; skip--) {
+            cursor.advance();
+        }
+        return cursor;
+    }
+
+    /**
+     * Sequential reader over variable-length records. A cursor is not thread-safe, but any number
+     * of cursors can be used concurrently on the same index.
+     */
+    public final class Cursor {
+        private long position; // offset of the current record's RDW
+        private long blockEnd;
+
+        private Cursor(long position, long blockEnd) {
+            this.position = position;
+            this.blockEnd = blockEnd;
+        }
+
+        public long position() {
+            return position;
+        }
+
+        /** Number of data bytes in the current record, excluding the RDW. */
+        public int dataLength() {
+            return halfword(position) - 4;
+        }
+
+        /** Copies the current record's data bytes (without the RDW) into a new array. */
+        public byte[] readData() {
+            byte[] data = new byte[dataLength()];
+            file.read(position + 4, data, 0, data.length);
+            return data;
+        }
+
+        /** Copies the current record's data bytes into {@code dst}, which must hold at least {@link #dataLength()} bytes. */
+        public void readData(byte[] dst) {
+            file.read(position + 4, dst, 0, dataLength());
+        }
+
+        public void advance() {
+            position += halfword(position);
+            while (format == RecordFormat.BDW && position >= blockEnd && position + 4 <= fileLength) {
+                blockEnd = position + bdwLength(position, Integer.MAX_VALUE);
+                position += 4;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Index construction
+
+    /** Result of walking one byte range of the file. */
+    private static final class ChunkScan {
+        final long start;      // position of the first unit walked
+        final long end;        // position of the first unit starting at or beyond the range end
+        final long records;
+        final boolean valid;
+        long firstOrdinal;
+
+        ChunkScan(long start, long end, long records, boolean valid) {
+            this.start = start;
+            this.end = end;
+            this.records = records;
+            this.valid = valid;
+        }
+    }
+
+    /**
+     * Indexes the records after {@code current} (whose end is a known record or block boundary)
+     * up to the first unit starting at or after {@code to}, and publishes the new state. Samples
+     * for earlier records are kept; the sample arrays grow geometrically and are shared with the
+     * previous state, which never reads the new slots.
+     */
+    private void buildParallel(State current, long to, int parallelism) throws IOException {
+        long from = current.indexedEnd;
+        long firstOrdinal = current.recordCount;
+        long span = to - from;
+        int chunkCount = (int) Math.max(1, Math.min(parallelism * 4L, span / MIN_CHUNK_BYTES));
+        long[] bounds = new long[chunkCount + 1];
+        for (int i = 0; i <= chunkCount; i++) {
+            bounds[i] = from + span * i / chunkCount;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, chunkCount));
+        try {
+            // Pass 1: guess boundaries and count records per range.
+            List<Callable<ChunkScan>> guesses = new ArrayList<>();
+            for (int i = 0; i < chunkCount; i++) {
+                final long rangeStart = bounds[i];
+                final long rangeEnd = bounds[i + 1];
+                final boolean first = i == 0;
+                guesses.add(() -> first ? scan(rangeStart, rangeEnd, true) : speculativeScan(rangeStart, rangeEnd));
+            }
+            ChunkScan[] chunks = collect(pool.invokeAll(guesses)).toArray(new ChunkScan[0]);
+
+            // Stitch: accept a guess only if it lines up with where the previous range stopped.
+            long expected = from;
+            long total = firstOrdinal;
+            for (int i = 0; i < chunkCount; i++) {
+                ChunkScan chunk = chunks[i];
+                if (!chunk.valid || chunk.start != expected) {
+                    chunk = scan(expected, Math.max(expected, bounds[i + 1]), true);
+                    chunks[i] = chunk;
+                }
+                chunk.firstOrdinal = total;
+                total += chunk.records;
+                expected = chunk.end;
+            }
+
+            int samples = sampleCount(total);
+            long[] offsets = current.offsets;
+            long[] blockEnds = current.blockEnds;
+            if (samples > offsets.length) {
+                int capacity = to >= fileLength ? samples : Math.max(samples, offsets.length * 2);
+                offsets = Arrays.copyOf(offsets, capacity);
+                blockEnds = blockEnds == null ? null : Arrays.copyOf(blockEnds, capacity);
+            }
+
+            // Pass 2: every range now knows its first ordinal, so samples can be written in parallel.
+            long[] sampleOffsets = offsets;
+            long[] sampleBlockEnds = blockEnds;
+            List<Callable<ChunkScan>> fills = new ArrayList<>();
+            for (ChunkScan chunk : chunks) {
+                if (chunk.records > 0) {
+                    fills.add(() -> {
+                        fillSamples(chunk, sampleOffsets, sampleBlockEnds);
+                        return chunk;
+                    });
+                }
+            }
+            collect(pool.invokeAll(fills));
+
+            // Stopping short of the slice end means the walk met a truncated record at the end of the file.
+            boolean complete = to >= fileLength || expected >= fileLength || expected < to;
+            this.state = new State(total, expected, offsets, blockEnds, complete);
+
+            if (complete && expected < fileLength) {
+                System.err.println("Warning: Ignoring " + (fileLength - expected) + " trailing bytes at offset " + expected
+                        + " that do not form a complete record.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing " + file.getFilePath(), e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> collect(List<Future<T>> futures) throws IOException, InterruptedException {
+        List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Error while indexing: " + e.getCause(), e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Finds the first position in [from, to) that starts a chain of plausible descriptors and
+     * walks the range from there. Returns an invalid scan if no such position exists.
+     */
+    private ChunkScan speculativeScan(long from, long to) throws IOException {
+        int limit = plausibleUnitLimit();
+        for (long p = from; p < to; p++) {
+            if (chainLooksValid(p, limit)) {
+                return scan(p, to, false);
+            }
+        }
+        return new ChunkScan(from, from, 0, false);
+    }
+
+    private boolean chainLooksValid(long position, int limit) {
+        long p = position;
+        for (int i = 0; i < CONFIRM_UNITS; i++) {
+            if (p == fileLength) {
+                return i > 0;
+            }
+            int length = unitLength(p, limit);
+            if (length < 0) {
+                return false;
+            }
+            p += length;
+        }
+        return true;
+    }
+
+    /**
+     * Walks whole units (records for RDW, blocks for BDW) starting at {@code from} until the
+     * first unit that starts at or after {@code to}. In strict mode a malformed descriptor is an
+     * error, except for a truncated unit at the very end of the file, which is reported and dropped.
+     */
+    private ChunkScan scan(long from, long to, boolean strict) throws IOException {
+        int limit = strict ? Integer.MAX_VALUE : plausibleUnitLimit();
+        long p = from;
+        long records = 0;
+        while (p < to && p < fileLength) {
+            int length = unitLength(p, limit);
+            if (length < 0) {
+                if (!strict) {
+                    return new ChunkScan(from, p, records, false);
+                }
+                if (isTruncatedTail(p)) {
+                    break; // Reported once the whole file has been indexed
+                }
+                throw new IOException("Invalid " + (format == RecordFormat.BDW ? "block" : "record")
+                        + " descriptor at offset " + p + " in " + file.getFilePath());
+            }
+            records += format == RecordFormat.BDW ? countRecordsInBlock(p, length) : 1;
+            p += length;
+        }
+        return new ChunkScan(from, p, records, true);
+    }
+
+    private void fillSamples(ChunkScan chunk, long[] offsets, long[] blockEnds) {
+        long ordinal = chunk.firstOrdinal;
+        long remaining = chunk.records;
+        long p = chunk.start;
+        while (remaining > 0) {
+            if (format == RecordFormat.RDW) {
+                sample(ordinal++, p, Long.MAX_VALUE, offsets, blockEnds);
+                p += halfword(p);
+                remaining--;
+            } else {
+                long blockEnd = p + bdwLength(p, Integer.MAX_VALUE);
+                for (long r = p + 4; r < blockEnd && remaining > 0; r += halfword(r)) {
+                    sample(ordinal++, r, blockEnd, offsets, blockEnds);
+                    remaining--;
+                }
+                p = blockEnd;
+            }
+        }
+    }
+
+    private void sample(long ordinal, long position, long blockEnd, long[] offsets, long[] blockEnds) {
+        if (ordinal % sampleInterval == 0) {
+            int slot = (int) (ordinal / sampleInterval);
+            offsets[slot] = position;
+            if (blockEnds != null) {
+                blockEnds[slot] = blockEnd;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Descriptor parsing
+
+    private int plausibleUnitLimit() {
+        // While guessing, a record longer than the copybook allows is treated as a false boundary.
+        return format == RecordFormat.RDW ? Math.min(MAX_RDW_LENGTH, maxRecordLength + 4) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Length of the unit starting at {@code p} including its descriptor, or -1 if the descriptor
+     * is malformed, longer than {@code limit}, or runs past the end of the file. For BDW framing the
+     * RDWs inside the block must add up exactly to the block length.
+     */
+    private int unitLength(long p, int limit) {
+        if (format == RecordFormat.RDW) {
+            int length = rdwLength(p);
+            return length <= limit ? length : -1;
+        }
+        int length = bdwLength(p, limit);
+        if (length < 0) {
+            return -1;
+        }
+        long blockEnd = p + length;
+        long r = p + 4;
+        int recordLimit = limit == Integer.MAX_VALUE ? MAX_RDW_LENGTH : Math.min(MAX_RDW_LENGTH, maxRecordLength + 4);
+        while (r < blockEnd) {
+            int recordLength = rdwLength(r);
+            if (recordLength < 0 || recordLength > recordLimit) {
+                return -1;
+            }
+            r += recordLength;
+        }
+        return r == blockEnd ? length : -1;
+    }
+
+    private long countRecordsInBlock(long p, int length) {
+        long count = 0;
+        for (long r = p + 4; r < p + length; r += halfword(r)) {
+            count++;
+        }
+        return count;
+    }
+
+    /** RDW: 2-byte big-endian length including the RDW, followed by two zero bytes. */
+    private int rdwLength(long p) {
+        if (p + 4 > fileLength) {
+            return -1;
+        }
+        if (file.getUnsignedByte(p + 2) != 0 || file.getUnsignedByte(p + 3) != 0) {
+            return -1; // Spanned segments (VBS) are not supported
+        }
+        int length = halfword(p);
+        return length >= 4 && p + length <= fileLength ? length : -1;
+    }
+
+    /**
+     * BDW: 2-byte length plus two zero bytes, or the extended form (high bit set) where the
+     * remaining 31 bits hold the block length.
+     */
+    private int bdwLength(long p, int limit) {
+        if (p + 4 > fileLength) {
+            return -1;
+        }
+        int b0 = file.getUnsignedByte(p);
+        int length;
+        if ((b0 & 0x80) != 0) {
+            length = ((b0 & 0x7F) << 24) | (file.getUnsignedByte(p + 1) << 16)
+                    | (file.getUnsignedByte(p + 2) << 8) | file.getUnsignedByte(p + 3);
+        } else {
+            if (file.getUnsignedByte(p + 2) != 0 || file.getUnsignedByte(p + 3) != 0) {
+                return -1;
+            }
+            length = halfword(p);
+        }
+        return length >= 4 && length <= limit && p + length <= fileLength ? length : -1;
+    }
+
+    private int halfword(long p) {
+        return (file.getUnsignedByte(p) << 8) | file.getUnsignedByte(p + 1);
+    }
+
+    private boolean isTruncatedTail(long p) {
+        if (p + 4 > fileLength) {
+            return true;
+        }
+        long declared = halfword(p);
+        if (format == RecordFormat.BDW && (file.getUnsignedByte(p) & 0x80) != 0) {
+            declared = ((declared & 0x7FFF) << 16) | (file.getUnsignedByte(p + 2) << 8) | file.getUnsignedByte(p + 3);
+        }
+        return p + declared > fileLength;
+    }
+}
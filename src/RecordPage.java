@@ -0,0 +1,310 @@
+import java.util.Arrays;
+
+/**
+ * One page of records, kept as raw bytes and decoded a cell at a time.
+ *
+ * The page holds the bytes of its records plus their ordinals in the file. A cell
+ * is decoded through the {@link DecodePlan} the first time it is read, and the text is cached in
+ * a per-column array, so a 300-field copybook on an 80-column terminal only decodes the columns
+ * that are actually drawn (and each of them once).
+ *
+ * A page can instead be backed by a {@link ColumnSource} (the {@link ColumnarCache}): it then
+ * holds only ordinals, and a column is read already decoded, for all rows of the page at once,
+ * the first time one of its cells is asked for.
+ *
+ * With several record types ({@link RecordTypeTable}) the columns are those of one type, the
+ * page's plan; each row's type is found when it is added, and rows of other types have no cells
+ * but are shown whole by {@link #describeRow}.
+ *
+ * Pages are filled by {@link PagedFileReader} and read by the UI thread. Decoding on first read
+ * is not synchronised; a page decoded on another thread ({@link #decodeAll}, used by the
+ * {@link PageCache} prefetcher) must be handed over through a synchronised structure.
+ */
+public class RecordPage {
+
+    /** Supplies decoded columns for pages that carry no record bytes. */
+    public interface ColumnSource {
+        /** Fills {@code into[0..count)} with the display text of {@code field} for the given records. */
+        void readColumn(int field, long[] ordinals, int count, String[] into);
+
+        /** Like {@link DecodePlan#decodeUnscaled}, for one record. */
+        long readUnscaled(long ordinal, int field);
+    }
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /** A page without records (and without fields). */
+    public static final RecordPage EMPTY = new RecordPage(null, 0);
+
+    static final String ERROR_VALUE = "ERROR_READING_FIELD";
+
+    private final DecodePlan plan;
+    private byte[][] records;      // Raw bytes of each row, exactly as read (a short last record stays short)
+    private long[] ordinals;
+    private int recordCount;
+    private final String[][] columns; // Decoded cells, allocated per column on first use
+    private long decodedChars;        // Characters held in columns, for estimateSize()
+    private long decodedCells;        // Cells decoded to text so far, for Metrics
+    private final ColumnSource source; // null: cells are decoded from records
+    private final RecordTypeTable recordTypes; // null: every row has the plan's layout
+    private final int pageType;        // Type of the plan, when there are record types
+    private short[] rowTypes;
+
+    /**
+     * Creates an empty page to be filled with {@link #add}.
+     *
+     * @param expectedRecords initial capacity, typically the page size.
+     */
+    RecordPage(DecodePlan plan, int expectedRecords) {
+        this(plan, expectedRecords, null);
+    }
+
+    /**
+     * Creates an empty page whose cells come from {@code source}, to be filled with
+     * {@link #addOrdinal}; a null source makes an ordinary page.
+     */
+    RecordPage(DecodePlan plan, int expectedRecords, ColumnSource source) {
+        this(plan, expectedRecords, source, null, 0);
+    }
+
+    /**
+     * Creates an empty page of a file with several record types, whose columns are those of
+     * {@code pageType}.
+     */
+    RecordPage(RecordTypeTable recordTypes, int pageType, int expectedRecords) {
+        this(recordTypes.getPlan(pageType), expectedRecords, null, recordTypes, pageType);
+    }
+
+    private RecordPage(DecodePlan plan, int expectedRecords, ColumnSource source, RecordTypeTable recordTypes, int pageType) {
+        this.plan = plan;
+        this.source = source;
+        this.recordTypes = recordTypes;
+        this.pageType = pageType;
+        int capacity = Math.max(1, expectedRecords);
+        this.records = new byte[capacity][];
+        this.ordinals = new long[capacity];
+        this.rowTypes = recordTypes == null ? null : new short[capacity];
+        this.columns = new String[plan == null ? 0 : plan.getFieldCount()][];
+    }
+
+    /** Appends the record with the given ordinal; {@code record[0..length)} is copied. */
+    void add(long ordinal, byte[] record, int length) {
+        if (recordCount == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, recordCount * 2);
+            records = Arrays.copyOf(records, recordCount * 2);
+            if (rowTypes != null) {
+                rowTypes = Arrays.copyOf(rowTypes, recordCount * 2);
+            }
+        }
+        ordinals[recordCount] = ordinal;
+        records[recordCount] = Arrays.copyOf(record, length);
+        if (rowTypes != null) {
+            rowTypes[recordCount] = (short) recordTypes.typeOf(record, length);
+        }
+        recordCount++;
+    }
+
+    /** Appends a record of a page backed by a {@link ColumnSource}. */
+    void addOrdinal(long ordinal) {
+        add(ordinal, NO_BYTES, 0);
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public boolean isEmpty() {
+        return recordCount == 0;
+    }
+
+    /** 0-based ordinal in the file of the record on {@code row}. */
+    public long getOrdinal(int row) {
+        return ordinals[row];
+    }
+
+    /** Plan the cells are decoded with; null for {@link #EMPTY}. */
+    public DecodePlan getDecodePlan() {
+        return plan;
+    }
+
+    public int getFieldCount() {
+        return columns.length;
+    }
+
+    /** Record type of {@code row} (see {@link RecordTypeTable}); 0 when the file has a single layout. */
+    public int getRecordType(int row) {
+        return rowTypes == null ? 0 : rowTypes[row];
+    }
+
+    /** Whether {@code row} has a different layout from the columns; its cells are then empty. */
+    public boolean isOtherType(int row) {
+        return rowTypes != null && rowTypes[row] != pageType;
+    }
+
+    /** Row {@code row} of another type in its own layout, on one line (see {@link RecordTypeTable#describe}). */
+    public String describeRow(int row) {
+        return recordTypes == null ? describeRecord(row) : recordTypes.describe(records[row], records[row].length);
+    }
+
+    /**
+     * Cell of a collapsed OCCURS column: {@code [n]}, the occurrences of array {@code arrayName}
+     * present in the record, counted from its depending-on counter without decoding any of them.
+     */
+    public String getArraySummary(int row, String arrayName) {
+        if (isOtherType(row) || plan.getArrayFields(arrayName) == null) {
+            return "";
+        }
+        int present = 0;
+        if (source != null) {
+            // Only decoded values are cached: count the occurrences that have one
+            for (int field : plan.getArrayFields(arrayName)) {
+                if (!getValue(row, field).isEmpty()) {
+                    present++;
+                }
+            }
+        } else {
+            present = plan.countPresent(arrayName, records[row], records[row].length);
+        }
+        return "[" + present + "]";
+    }
+
+    public String getFieldName(int field) {
+        return plan.getFieldName(field);
+    }
+
+    /** Column of the field called {@code fieldName}, or -1. */
+    public int indexOf(String fieldName) {
+        return plan == null ? -1 : plan.indexOf(fieldName);
+    }
+
+    /**
+     * Display text of one cell (control characters shown as '.'), decoded on first access.
+     * A value JRecord cannot convert shows as {@value #ERROR_VALUE}.
+     */
+    public String getValue(int row, int field) {
+        String[] column = columns[field];
+        if (column == null) {
+            column = new String[recordCount];
+            if (source != null) {
+                source.readColumn(field, ordinals, recordCount, column);
+                for (String value : column) {
+                    decodedChars += value.length();
+                }
+                decodedCells += recordCount;
+                Metrics.CELLS_DECODED.add(recordCount);
+            }
+            columns[field] = column;
+        }
+        String value = column[row];
+        if (value == null) {
+            value = decode(row, field);
+            column[row] = value;
+            decodedChars += value.length();
+            decodedCells++;
+            Metrics.CELLS_DECODED.increment();
+        }
+        return value;
+    }
+
+    /** Number of cells decoded to text so far (each is decoded once and kept). */
+    public long getDecodedCells() {
+        return decodedCells;
+    }
+
+    /** Display text of the named field, or null if the layout has no such field. */
+    public String getValue(int row, String fieldName) {
+        int field = indexOf(fieldName);
+        return field < 0 ? null : getValue(row, field);
+    }
+
+    /**
+     * A numeric cell as an unscaled long (see {@link DecodePlan#decodeUnscaled}), without
+     * decoding it to text. Returns {@link NumericDecoder#NOT_DECODED} if there is no fast path.
+     */
+    public long getUnscaled(int row, int field) {
+        if (source != null) {
+            return source.readUnscaled(ordinals[row], field);
+        }
+        if (isOtherType(row)) {
+            return NumericDecoder.NOT_DECODED;
+        }
+        return plan.decodeUnscaled(field, records[row], records[row].length);
+    }
+
+    /** A page with the given rows of this one, in the given order. Decoded cells are not carried over. */
+    public RecordPage select(int[] rows) {
+        RecordPage selection = new RecordPage(plan, rows.length, source, recordTypes, pageType);
+        for (int row : rows) {
+            if (rowTypes != null) {
+                selection.rowTypes[selection.recordCount] = rowTypes[row];
+            }
+            selection.ordinals[selection.recordCount] = ordinals[row];
+            selection.records[selection.recordCount] = records[row]; // Never modified, so shared
+            selection.recordCount++;
+        }
+        return selection;
+    }
+
+    /** Decodes every cell now, so drawing the page later does no decoding. */
+    public void decodeAll() {
+        for (int field = 0; field < columns.length; field++) {
+            decodeColumn(field);
+        }
+    }
+
+    /** Decodes the cells of the given fields now; positions outside the plan are skipped. */
+    public void decodeColumns(int[] fields) {
+        for (int field : fields) {
+            if (field >= 0 && field < columns.length) {
+                decodeColumn(field);
+            }
+        }
+    }
+
+    private void decodeColumn(int field) {
+        for (int row = 0; row < recordCount; row++) {
+            getValue(row, field);
+        }
+    }
+
+    /**
+     * Raw plus decoded size of the page in bytes, roughly; used for cache budgets. Grows as
+     * cells are decoded.
+     */
+    public long estimateSize() {
+        long size = 64L + records.length * 8L + ordinals.length * 8L + (rowTypes == null ? 0 : rowTypes.length * 2L);
+        for (int row = 0; row < recordCount; row++) {
+            size += 16L + records[row].length;
+        }
+        for (String[] column : columns) {
+            if (column != null) {
+                size += 16L + column.length * 48L; // Reference plus String and array headers per cell
+            }
+        }
+        return size + decodedChars;
+    }
+
+    /** The record on {@code row} as "{FIELD=value, ...}", for logging and tests. */
+    public String describeRecord(int row) {
+        StringBuilder text = new StringBuilder("{");
+        for (int field = 0; field < getFieldCount(); field++) {
+            if (field > 0) {
+                text.append(", ");
+            }
+            text.append(getFieldName(field)).append('=').append(getValue(row, field));
+        }
+        return text.append('}').toString();
+    }
+
+    private String decode(int row, int field) {
+        if (isOtherType(row)) {
+            return ""; // Its bytes mean something else; shown whole by describeRow
+        }
+        try {
+            return plan.decodeField(field, records[row], records[row].length);
+        } catch (Exception e) {
+            System.err.println("Error getting field value for: " + plan.getFieldName(field) + " - " + e.getMessage());
+            return ERROR_VALUE;
+        }
+    }
+}
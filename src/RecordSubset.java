@@ -0,0 +1,12 @@
+/**
+ * An ordered selection of records, identified by their 0-based ordinals in the data file,
+ * that can be browsed page by page (for example the hits of a whole-file search).
+ */
+public interface RecordSubset {
+
+    /** Number of records in the subset. */
+    long size();
+
+    /** Ordinal in the data file of the {@code index}-th record of the subset. */
+    long ordinalAt(long index);
+}
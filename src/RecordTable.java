@@ -0,0 +1,478 @@
+import com.googlecode.lanterna.SGR;
+import com.googlecode.lanterna.TerminalSize;
+import com.googlecode.lanterna.TextColor;
+import com.googlecode.lanterna.gui2.AbstractComponent;
+import com.googlecode.lanterna.gui2.BasicWindow;
+import com.googlecode.lanterna.gui2.ComponentRenderer;
+import com.googlecode.lanterna.gui2.DefaultWindowManager;
+import com.googlecode.lanterna.gui2.EmptySpace;
+import com.googlecode.lanterna.gui2.GridLayout;
+import com.googlecode.lanterna.gui2.Label;
+import com.googlecode.lanterna.gui2.MultiWindowTextGUI;
+import com.googlecode.lanterna.gui2.Panel;
+import com.googlecode.lanterna.gui2.TextGUIGraphics;
+import com.googlecode.lanterna.gui2.Window;
+import com.googlecode.lanterna.screen.TerminalScreen;
+import com.googlecode.lanterna.terminal.virtual.DefaultVirtualTerminal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Table of the records on one page, drawn straight onto the component's {@link TextGUIGraphics}.
+ *
+ * Only the rows and columns that fit in the component are formatted, and only their cells are
+ * decoded (see {@link RecordPage}). The formatted lines are kept between frames and rebuilt only
+ * when the page, the scroll position or the size changes, so redrawing the window (e.g. for a
+ * status bar update) costs one {@code putString} per line. Lanterna's screen sends only the cells
+ * that differ from the previous frame to the terminal, so paging over a slow link transfers the
+ * changed cells rather than the whole table.
+ *
+ * Column widths come from the copybook (the field's display length, capped at
+ * {@link #MAX_COLUMN_WIDTH}, but never narrower than the field name), so they do not jump while
+ * scrolling. The Up and Down keys scroll rows when the page is taller than the component.
+ *
+ * Wide copybooks are shown through a column window: Left and Right move it one column at a
+ * time, and frozen (key) columns stay on the left of it behind a separator. Formatting stops at
+ * the right edge, so a frame costs the same for 20 fields as for 800.
+ *
+ * An OCCURS table can be collapsed to one column named {@code ARRAY (*)} showing how many
+ * occurrences the record has ({@link RecordPage#getArraySummary}); its elements are then not
+ * decoded at all.
+ *
+ * With several record types the columns are those of one type; a row of another type is drawn
+ * across the line as {@code [TYPE] FIELD=value ...} in its own layout.
+ */
+public class RecordTable extends AbstractComponent<RecordTable> {
+
+    static final int MAX_COLUMN_WIDTH = 40;
+    static final String COLLAPSED_ARRAY = " (*)"; // Suffix of the column standing for a whole OCCURS table
+    private static final String SEPARATOR = "| "; // Between the frozen columns and the window
+    private static final String NO_DATA = "No data to display for this page.";
+
+    private final List<String> fieldNames;
+    private RecordPage page = RecordPage.EMPTY;
+    private int[] fieldIndexes = new int[0]; // Position of each of fieldNames in the page's decode plan, or -1
+    private String[] arrayColumns = new String[0]; // Per column: the array it collapses, or null
+    private int[] widths = new int[0];
+    private int totalWidth;                   // Sum of widths plus gaps, for the preferred size
+    private DecodePlan widthsPlan;            // Plan the widths were computed for
+    private int firstRow;                     // First row of the page shown below the header
+    private int[] order;                      // Columns in display order: the frozen ones first
+    private int frozenCount;
+    private int firstColumn;                  // First column of the window, counted after the frozen ones
+
+    // Kept between frames
+    private String[] lines = new String[0];
+    private char[] lineBuffer = new char[0];
+    private TerminalSize linesSize;           // Size the lines were formatted for; null when they are stale
+
+    public RecordTable(List<String> fieldNames) {
+        this.fieldNames = fieldNames;
+        this.order = new int[fieldNames.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+    }
+
+    /**
+     * Keeps the named columns on the left, in the given order, while the others scroll.
+     *
+     * @return the names that are not columns of this table (ignored).
+     */
+    public synchronized List<String> setFrozenColumns(List<String> names) {
+        List<String> unknown = new ArrayList<>();
+        List<Integer> frozen = new ArrayList<>();
+        for (String name : names) {
+            int column = fieldNames.indexOf(name);
+            if (column < 0) {
+                unknown.add(name);
+            } else if (!frozen.contains(column)) {
+                frozen.add(column);
+            }
+        }
+        int next = 0;
+        for (int column : frozen) {
+            order[next++] = column;
+        }
+        for (int column = 0; column < fieldNames.size(); column++) {
+            if (!frozen.contains(column)) {
+                order[next++] = column;
+            }
+        }
+        frozenCount = frozen.size();
+        firstColumn = 0;
+        changed();
+        return unknown;
+    }
+
+    /** Shows {@code page} from its first row. Passing the page already shown keeps the scroll position. */
+    public synchronized void setPage(RecordPage page) {
+        if (page == this.page) {
+            return;
+        }
+        this.page = page == null ? RecordPage.EMPTY : page;
+        this.firstRow = 0;
+        DecodePlan plan = this.page.getDecodePlan();
+        if (plan != null && plan != widthsPlan) {
+            widthsPlan = plan;
+            fieldIndexes = new int[fieldNames.size()];
+            arrayColumns = new String[fieldNames.size()];
+            widths = new int[fieldNames.size()];
+            totalWidth = SEPARATOR.length();
+            for (int i = 0; i < fieldNames.size(); i++) {
+                fieldIndexes[i] = plan.indexOf(fieldNames.get(i));
+                arrayColumns[i] = collapsedArray(fieldNames.get(i), plan);
+                widths[i] = columnWidth(fieldNames.get(i), plan, fieldIndexes[i]);
+                totalWidth += widths[i] + 1;
+            }
+        }
+        changed();
+    }
+
+    /** Scrolls by {@code rows} (negative for up), staying within the page. */
+    public synchronized void scrollRows(int rows) {
+        int visible = Math.max(1, (getSize() == null ? 1 : getSize().getRows()) - 1);
+        int target = Math.max(0, Math.min(firstRow + rows, page.getRecordCount() - visible));
+        if (target != firstRow) {
+            firstRow = target;
+            changed();
+        }
+    }
+
+    /**
+     * Moves the column window by {@code columns} (negative for left). It stops once the last
+     * column is in view, or at the last column if the component has not been laid out yet.
+     */
+    public synchronized void scrollColumns(int columns) {
+        int last = getSize() == null ? order.length - frozenCount - 1 : lastFirstColumn(getSize().getColumns());
+        int target = Math.max(0, Math.min(firstColumn + columns, last));
+        if (target != firstColumn) {
+            firstColumn = target;
+            changed();
+        }
+    }
+
+    /** Scrolls so that {@code row} of the page is the first one shown, as far as the page allows. */
+    public synchronized void scrollToRow(int row) {
+        firstRow = 0;
+        scrollRows(row);
+    }
+
+    public synchronized int getFirstRow() {
+        return firstRow;
+    }
+
+    /** Position of the window for the status bar, e.g. {@code rows 1-45/50, cols 3-11/812}. */
+    public synchronized String getPositionHint() {
+        TerminalSize size = getSize();
+        int rows = size == null ? 0 : Math.max(0, size.getRows() - 1);
+        int count = page.getRecordCount();
+        int lastRow = Math.min(firstRow + rows, count);
+        int from = frozenCount + firstColumn + 1;
+        int to = size == null ? from : windowEnd(size.getColumns());
+        return String.format("rows %d-%d/%d, cols %d-%d/%d%s", count == 0 ? 0 : firstRow + 1, lastRow, count,
+                Math.min(from, to), to, order.length, frozenCount > 0 ? " (" + frozenCount + " frozen)" : "");
+    }
+
+    /**
+     * Positions in the {@link DecodePlan} of the frozen columns and the columns in the window
+     * (as last laid out), i.e. the fields drawing a page will decode.
+     */
+    public synchronized int[] getVisibleFields() {
+        int end = getSize() == null ? order.length : windowEnd(getSize().getColumns());
+        int[] visible = new int[frozenCount + Math.max(0, end - frozenCount - firstColumn)];
+        int next = 0;
+        for (int i = 0; i < order.length && next < visible.length; i++) {
+            if (i < frozenCount || i >= frozenCount + firstColumn) {
+                visible[next++] = order[i] < fieldIndexes.length ? fieldIndexes[order[i]] : -1;
+            }
+        }
+        return visible;
+    }
+
+    private int width(int column) {
+        return column < widths.length ? widths[column] : fieldNames.get(column).length();
+    }
+
+    /** Where the window starts on a line: after the frozen columns and the separator. */
+    private int windowStart() {
+        if (frozenCount == 0) {
+            return 0;
+        }
+        int x = 0;
+        for (int i = 0; i < frozenCount; i++) {
+            x += width(order[i]) + 1;
+        }
+        return x + SEPARATOR.length();
+    }
+
+    /** Index in {@link #order} after the last column (even partly) in view at {@code lineWidth}. */
+    private int windowEnd(int lineWidth) {
+        int x = windowStart();
+        int i = frozenCount + firstColumn;
+        while (i < order.length && x < lineWidth) {
+            x += width(order[i++]) + 1;
+        }
+        return i;
+    }
+
+    /** Largest first column that still shows a column in full, i.e. scrolling stops at the end. */
+    private int lastFirstColumn(int lineWidth) {
+        int room = lineWidth - windowStart();
+        int first = order.length - frozenCount;
+        while (first > 0 && room - (width(order[frozenCount + first - 1]) + 1) >= 0) {
+            room -= width(order[frozenCount + first - 1]) + 1;
+            first--;
+        }
+        return Math.min(first, Math.max(0, order.length - frozenCount - 1));
+    }
+
+    private void changed() {
+        linesSize = null;
+        invalidate();
+    }
+
+    /** The array a column name such as {@code LINE-SKU (*)} stands for in {@code plan}, or null. */
+    static String collapsedArray(String columnName, DecodePlan plan) {
+        if (!columnName.endsWith(COLLAPSED_ARRAY)) {
+            return null;
+        }
+        String array = columnName.substring(0, columnName.length() - COLLAPSED_ARRAY.length());
+        return plan.getArrayFields(array) == null ? null : array;
+    }
+
+    /** Width of a column: the field's display width, capped, but at least the field name. */
+    static int columnWidth(String name, DecodePlan plan, int field) {
+        int width = field >= 0 ? plan.getDisplayWidth(field) : 1;
+        return Math.max(name.length(), Math.min(width, MAX_COLUMN_WIDTH));
+    }
+
+    @Override
+    protected ComponentRenderer<RecordTable> createDefaultRenderer() {
+        return new ComponentRenderer<RecordTable>() {
+            @Override
+            public TerminalSize getPreferredSize(RecordTable table) {
+                return table.preferredSize();
+            }
+
+            @Override
+            public void drawComponent(TextGUIGraphics graphics, RecordTable table) {
+                table.drawLines(graphics);
+            }
+        };
+    }
+
+    private synchronized TerminalSize preferredSize() {
+        return new TerminalSize(Math.max(NO_DATA.length(), totalWidth), page.getRecordCount() + 1);
+    }
+
+    private synchronized void drawLines(TextGUIGraphics graphics) {
+        TerminalSize size = graphics.getSize();
+        if (!size.equals(linesSize)) {
+            Metrics.DecodeEvent event = new Metrics.DecodeEvent();
+            event.begin();
+            long started = System.nanoTime();
+            long decoded = page.getDecodedCells();
+            formatLines(size);
+            linesSize = size;
+            event.rows = lines.length;
+            event.cells = page.getDecodedCells() - decoded;
+            Metrics.Span.DECODE.record(started, event.cells);
+            event.commit();
+        }
+        graphics.applyThemeStyle(getThemeDefinition().getNormal());
+        for (int y = 0; y < lines.length; y++) {
+            if (y == 0) {
+                graphics.enableModifiers(SGR.BOLD);
+                graphics.putString(0, 0, lines[0]);
+                graphics.disableModifiers(SGR.BOLD);
+            } else {
+                graphics.putString(0, y, lines[y]);
+            }
+        }
+    }
+
+    /** Formats the header and the visible rows; every line is padded to the full width. */
+    private void formatLines(TerminalSize size) {
+        int columns = size.getColumns();
+        int rows = size.getRows();
+        if (lines.length != rows) {
+            lines = new String[rows];
+        }
+        if (lineBuffer.length != columns) {
+            lineBuffer = new char[columns];
+        }
+        if (rows == 0) {
+            return;
+        }
+        firstRow = Math.max(0, Math.min(firstRow, page.getRecordCount() - (rows - 1)));
+        firstColumn = Math.max(0, Math.min(firstColumn, lastFirstColumn(columns)));
+
+        lines[0] = formatRow(-1);
+        for (int y = 1; y < rows; y++) {
+            int row = firstRow + y - 1;
+            if (page.isEmpty() && y == 1) {
+                lines[y] = pad(NO_DATA);
+            } else if (row < page.getRecordCount() && page.isOtherType(row)) {
+                lines[y] = pad(page.describeRow(row)); // Another record type: its own fields, on one line
+            } else {
+                lines[y] = row < page.getRecordCount() ? formatRow(row) : pad("");
+            }
+        }
+    }
+
+    /**
+     * One line of cells, or the header for {@code row} -1: the frozen columns, the separator and
+     * the window. Cells right of the edge are neither decoded nor formatted.
+     */
+    private String formatRow(int row) {
+        char[] line = lineBuffer;
+        Arrays.fill(line, ' ');
+        int x = 0;
+        for (int i = 0; i < frozenCount && x < line.length; i++) {
+            x = putCell(line, x, order[i], row);
+        }
+        if (frozenCount > 0 && x < line.length) {
+            int length = Math.min(SEPARATOR.length(), line.length - x);
+            SEPARATOR.getChars(0, length, line, x);
+            x += SEPARATOR.length();
+        }
+        for (int i = frozenCount + firstColumn; i < order.length && x < line.length; i++) {
+            x = putCell(line, x, order[i], row);
+        }
+        return new String(line);
+    }
+
+    /** Writes one cell at {@code x}, cut to its column width and the line, and returns the next x. */
+    private int putCell(char[] line, int x, int column, int row) {
+        String text;
+        if (row < 0) {
+            text = fieldNames.get(column);
+        } else {
+            String value = null;
+            if (column < arrayColumns.length && arrayColumns[column] != null) {
+                value = page.getArraySummary(row, arrayColumns[column]);
+            } else if (column < fieldIndexes.length && fieldIndexes[column] >= 0) {
+                value = page.getValue(row, fieldIndexes[column]);
+            }
+            text = value != null ? value : "";
+        }
+        int width = width(column);
+        int length = Math.min(Math.min(text.length(), width), line.length - x);
+        text.getChars(0, length, line, x);
+        return x + width + 1;
+    }
+
+    private String pad(String text) {
+        char[] line = lineBuffer;
+        Arrays.fill(line, ' ');
+        int length = Math.min(text.length(), line.length);
+        text.getChars(0, length, line, 0);
+        return new String(line);
+    }
+
+    /**
+     * Draws a page in a virtual terminal with this table and with the grid of labels it replaced,
+     * and reports the time per frame and the characters sent to the terminal when paging.
+     * Usage: RecordTable data_file copybook [encoding [page_size [columns rows]]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: RecordTable data_file copybook [encoding [page_size [columns rows]]]");
+            return;
+        }
+        String encoding = args.length > 2 ? args[2] : "CP037";
+        int pageSize = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        TerminalSize terminalSize = args.length > 5
+                ? new TerminalSize(Integer.parseInt(args[4]), Integer.parseInt(args[5])) : new TerminalSize(160, 50);
+        PagedFileReader reader = new PagedFileReader(args[0], args[1], pageSize, encoding);
+        List<String> fieldNames = new ArrayList<>();
+        DecodePlan plan = reader.getDecodePlan();
+        for (int i = 0; i < plan.getFieldCount(); i++) {
+            fieldNames.add(plan.getFieldName(i));
+        }
+        int pages = Math.min(20, reader.getTotalPages());
+
+        for (boolean grid : new boolean[] {true, false}) {
+            long[] sent = new long[1];
+            DefaultVirtualTerminal terminal = new DefaultVirtualTerminal(terminalSize) {
+                @Override
+                public synchronized void putCharacter(char c) {
+                    sent[0]++;
+                    super.putCharacter(c);
+                }
+
+                @Override
+                public synchronized void putString(String string) {
+                    sent[0] += string.length();
+                    super.putString(string);
+                }
+            };
+            TerminalScreen screen = new TerminalScreen(terminal);
+            screen.startScreen();
+            MultiWindowTextGUI gui = new MultiWindowTextGUI(screen, new DefaultWindowManager(), new EmptySpace(TextColor.ANSI.BLUE));
+            BasicWindow window = new BasicWindow("RecordTable");
+            window.setHints(Arrays.asList(Window.Hint.FULL_SCREEN, Window.Hint.NO_DECORATIONS));
+            Panel panel = new Panel();
+            window.setComponent(panel);
+            gui.addWindow(window);
+            RecordTable table = new RecordTable(fieldNames);
+            if (!grid) {
+                panel.addComponent(table);
+            }
+
+            long nanos = 0;
+            sent[0] = 0;
+            for (int p = 0; p < pages; p++) {
+                RecordPage data = reader.readPage(p);
+                long start = System.nanoTime();
+                if (grid) {
+                    // What TUIView did before: a label per header and cell in a grid layout
+                    panel.removeAllComponents();
+                    Panel gridPanel = new Panel(new GridLayout(fieldNames.size()));
+                    for (String name : fieldNames) {
+                        gridPanel.addComponent(new Label(name).addStyle(SGR.BOLD));
+                    }
+                    for (int row = 0; row < data.getRecordCount(); row++) {
+                        for (int field = 0; field < fieldNames.size(); field++) {
+                            gridPanel.addComponent(new Label(data.getValue(row, field)));
+                        }
+                    }
+                    panel.addComponent(gridPanel);
+                } else {
+                    table.setPage(data);
+                }
+                gui.updateScreen();
+                nanos += System.nanoTime() - start;
+            }
+            System.out.printf("%s: %d pages at %s, %d us per frame, %d characters sent%n",
+                    grid ? "GridLayout of labels" : "RecordTable         ", pages, terminalSize,
+                    nanos / 1000 / Math.max(1, pages), sent[0]);
+            if (!grid) {
+                System.out.println("Last frame, " + table.getPositionHint() + ":");
+                printLines(terminal, terminalSize);
+                // The first field frozen and the window moved three columns to the right
+                table.setFrozenColumns(fieldNames.subList(0, 1));
+                table.scrollColumns(3);
+                gui.updateScreen();
+                System.out.println("First column frozen, scrolled right by 3, " + table.getPositionHint() + ":");
+                printLines(terminal, terminalSize);
+            }
+            screen.stopScreen();
+        }
+        reader.close();
+    }
+
+    private static void printLines(DefaultVirtualTerminal terminal, TerminalSize terminalSize) {
+        for (int y = 0; y < Math.min(5, terminalSize.getRows()); y++) {
+            StringBuilder line = new StringBuilder();
+            for (int x = 0; x < terminalSize.getColumns(); x++) {
+                line.append(terminal.getCharacter(x, y).getCharacterString());
+            }
+            System.out.println(line.toString().replaceAll("\\s+$", ""));
+        }
+    }
+}
@@ -0,0 +1,489 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.sf.JRecord.JRecordInterface1;
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Details.LayoutDetail;
+import net.sf.JRecord.Details.Line;
+import net.sf.JRecord.External.CopybookLoader;
+
+/**
+ * Record types of a copybook that describes several record layouts (a header, details and a
+ * trailer, say), and the dispatch that tells which layout a record uses.
+ *
+ * The types come from {@code --record-types=NAME:FIELD=VALUE|VALUE,...,NAME:*}: each names a
+ * record of the copybook (an 01 level, or a REDEFINES group when the copybook has a single 01
+ * level) and the value(s) of a discriminator field that select it; {@code *} marks the type of
+ * records that match no value. Each type gets its own {@link DecodePlan}.
+ *
+ * The discriminator values are encoded once, through JRecord and the code page, and compiled
+ * into lookup tables keyed by the raw bytes at the field's position: a 256- or 65,536-entry
+ * array for one- and two-byte fields, an open-addressing hash on the bytes packed into a long
+ * for fields of up to 8 bytes. Choosing a record's layout is then one or two array reads per
+ * distinct discriminator field (types sharing a field share a table) instead of decoding and
+ * comparing the discriminator of each layout in turn. {@link #main} checks and times that.
+ *
+ * A table is immutable and can be shared by any number of threads.
+ */
+public final class RecordTypeTable {
+
+    /** Type of a record that matches no discriminator value when no {@code *} type is given. */
+    public static final int UNKNOWN = -1;
+
+    private static final int MAX_KEY_BYTES = 8;
+
+    private final String[] names;
+    private final String[] conditions;  // "HDR-TYPE=H", for messages
+    private final DecodePlan[] plans;
+    private final Selector[] selectors; // One per distinct discriminator position, in the order given
+    private final int defaultType;
+    private final EbcdicTranscoder transcoder; // For unknown records; null for multi-byte encodings
+
+    /** One discriminator position and the types its values select. */
+    private static final class Selector {
+        final int offset; // 0-based
+        final int length;
+        final short[] direct; // 1 and 2 bytes: type by the unsigned value of the bytes
+        final long[] keys;    // 3 to 8 bytes: open addressing on the packed bytes
+        final short[] types;
+        final int shift;
+
+        Selector(int offset, int length, Map<Long, Integer> values) {
+            this.offset = offset;
+            this.length = length;
+            if (length <= 2) {
+                direct = new short[length == 1 ? 256 : 65536];
+                Arrays.fill(direct, (short) UNKNOWN);
+                for (Map.Entry<Long, Integer> value : values.entrySet()) {
+                    direct[value.getKey().intValue()] = value.getValue().shortValue();
+                }
+                keys = null;
+                types = null;
+                shift = 0;
+            } else {
+                int bits = Math.max(4, 64 - Long.numberOfLeadingZeros(values.size() * 2L - 1)); // At most half full
+                direct = null;
+                keys = new long[1 << bits];
+                types = new short[1 << bits];
+                Arrays.fill(types, (short) UNKNOWN);
+                shift = 64 - bits;
+                for (Map.Entry<Long, Integer> value : values.entrySet()) {
+                    int slot = slot(value.getKey());
+                    while (types[slot] != UNKNOWN) {
+                        slot = (slot + 1) & (keys.length - 1);
+                    }
+                    keys[slot] = value.getKey();
+                    types[slot] = value.getValue().shortValue();
+                }
+            }
+        }
+
+        private int slot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        int lookup(byte[] record, int recordLength) {
+            if (offset + length > recordLength) {
+                return UNKNOWN; // Too short to hold the discriminator
+            }
+            if (direct != null) {
+                return direct[length == 1 ? record[offset] & 0xFF : (record[offset] & 0xFF) << 8 | (record[offset + 1] & 0xFF)];
+            }
+            long key = pack(record, offset, length);
+            int mask = keys.length - 1;
+            for (int slot = slot(key); types[slot] != UNKNOWN; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return types[slot];
+                }
+            }
+            return UNKNOWN;
+        }
+    }
+
+    private RecordTypeTable(String[] names, String[] conditions, DecodePlan[] plans, Selector[] selectors,
+                            int defaultType, String encoding) {
+        this.names = names;
+        this.conditions = conditions;
+        this.plans = plans;
+        this.selectors = selectors;
+        this.defaultType = defaultType;
+        this.transcoder = EbcdicTranscoder.forEncoding(encoding);
+    }
+
+    /**
+     * Loads {@code copybookPath} split into one record per 01 level or, if that does not give
+     * every record named in {@code specs}, per REDEFINES group.
+     *
+     * @throws IOException if the copybook cannot be read or a named record is in neither split.
+     */
+    public static LayoutDetail loadLayout(String copybookPath, String encoding, List<String> specs) throws IOException {
+        List<String> wanted = new ArrayList<>();
+        for (String spec : specs) {
+            wanted.add(parseName(spec));
+        }
+        String missing = null;
+        List<String> available = new ArrayList<>();
+        for (int split : new int[] {CopybookLoader.SPLIT_01_LEVEL, CopybookLoader.SPLIT_REDEFINE}) {
+            LayoutDetail layout;
+            try {
+                layout = JRecordInterface1.COBOL.newIOBuilder(copybookPath).setFont(encoding)
+                        .setSplitCopybook(split).getExternalRecord().asLayoutDetail();
+            } catch (Exception e) {
+                throw new IOException("Cannot load copybook " + copybookPath + ": " + e.getMessage(), e);
+            }
+            missing = null;
+            for (String name : wanted) {
+                if (recordIndex(layout, name) < 0) {
+                    missing = name;
+                    break;
+                }
+            }
+            if (missing == null) {
+                return layout;
+            }
+            for (int i = 0; i < layout.getRecordCount(); i++) {
+                if (!available.contains(layout.getRecord(i).getRecordName())) {
+                    available.add(layout.getRecord(i).getRecordName());
+                }
+            }
+        }
+        throw new IOException("Record type '" + missing + "' is not an 01 level or REDEFINES group of the copybook; it has "
+                + String.join(", ", available) + ".");
+    }
+
+    /**
+     * Compiles the types given by {@code specs} ({@code NAME:FIELD=VALUE|VALUE} or
+     * {@code NAME:*}) against a layout from {@link #loadLayout}.
+     *
+     * @throws IllegalArgumentException if a spec is malformed, names an unknown record or field,
+     *         has a discriminator longer than 8 bytes or a value that another type also claims.
+     */
+    public static RecordTypeTable compile(LayoutDetail layout, String encoding, List<String> specs) {
+        if (specs.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many record types: " + specs.size());
+        }
+        String[] names = new String[specs.size()];
+        String[] conditions = new String[specs.size()];
+        DecodePlan[] plans = new DecodePlan[specs.size()];
+        int defaultType = UNKNOWN;
+        Map<Long, Map<Long, Integer>> valuesByPosition = new LinkedHashMap<>(); // offset << 32 | length -> value -> type
+        Line scratch = new Line(layout, new byte[layout.getMaximumRecordLength()]);
+        for (int type = 0; type < specs.size(); type++) {
+            String spec = specs.get(type);
+            int record = recordIndex(layout, parseName(spec));
+            if (record < 0) {
+                throw new IllegalArgumentException("Record type '" + parseName(spec) + "' is not in the copybook.");
+            }
+            names[type] = layout.getRecord(record).getRecordName();
+            plans[type] = DecodePlan.compile(layout, encoding, record);
+            conditions[type] = spec.substring(spec.indexOf(':') + 1).trim();
+            if (conditions[type].equals("*")) {
+                if (defaultType != UNKNOWN) {
+                    throw new IllegalArgumentException("Only one record type can be '*': " + names[defaultType] + " and " + names[type]);
+                }
+                defaultType = type;
+                continue;
+            }
+            int eq = conditions[type].indexOf('=');
+            if (eq <= 0 || eq == conditions[type].length() - 1) {
+                throw new IllegalArgumentException("Expected NAME:FIELD=VALUE[|VALUE...] or NAME:*: " + spec);
+            }
+            String fieldName = conditions[type].substring(0, eq).trim();
+            FieldDetail field = findField(layout, record, fieldName);
+            if (field == null) {
+                throw new IllegalArgumentException("Discriminator field '" + fieldName + "' of record type " + names[type] + " is not in the copybook.");
+            }
+            if (field.getLen() > MAX_KEY_BYTES) {
+                throw new IllegalArgumentException("Discriminator field '" + fieldName + "' is " + field.getLen()
+                        + " bytes long; at most " + MAX_KEY_BYTES + " are supported.");
+            }
+            Map<Long, Integer> values = valuesByPosition.computeIfAbsent(
+                    (long) (field.getPos() - 1) << 32 | field.getLen(), position -> new LinkedHashMap<>());
+            for (String value : conditions[type].substring(eq + 1).split("\\|")) {
+                byte[] encoded = encodeValue(scratch, field, value);
+                long key = pack(encoded, 0, encoded.length);
+                Integer previous = values.putIfAbsent(key, type);
+                if (previous != null && previous != type) {
+                    throw new IllegalArgumentException("Value '" + value + "' of " + fieldName + " selects both "
+                            + names[previous] + " and " + names[type] + ".");
+                }
+            }
+        }
+        Selector[] selectors = new Selector[valuesByPosition.size()];
+        int next = 0;
+        for (Map.Entry<Long, Map<Long, Integer>> position : valuesByPosition.entrySet()) {
+            selectors[next++] = new Selector((int) (position.getKey() >>> 32), (int) (long) position.getKey(), position.getValue());
+        }
+        return new RecordTypeTable(names, conditions, plans, selectors, defaultType, encoding);
+    }
+
+    /** Type of a raw record: the first discriminator with a matching value, else the {@code *} type or {@link #UNKNOWN}. */
+    public int typeOf(byte[] record, int length) {
+        for (Selector selector : selectors) {
+            int type = selector.lookup(record, length);
+            if (type != UNKNOWN) {
+                return type;
+            }
+        }
+        return defaultType;
+    }
+
+    public int getTypeCount() {
+        return names.length;
+    }
+
+    public String getName(int type) {
+        return type == UNKNOWN ? "unknown" : names[type];
+    }
+
+    /** What selects {@code type}, as given: {@code HDR-TYPE=H} or {@code *}. */
+    public String getCondition(int type) {
+        return conditions[type];
+    }
+
+    public DecodePlan getPlan(int type) {
+        return plans[type];
+    }
+
+    /** Type whose record is called {@code name} (ignoring case), or {@link #UNKNOWN}. */
+    public int indexOf(String name) {
+        for (int type = 0; type < names.length; type++) {
+            if (names[type].equalsIgnoreCase(name.trim())) {
+                return type;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * A record shown on one line in its own layout, for rows of another type than the table's
+     * columns: {@code [HEADER-REC] HDR-TYPE=H  HDR-DATE=20240101 ...}. Records of no known type
+     * are shown as text.
+     */
+    public String describe(byte[] record, int length) {
+        int type = typeOf(record, length);
+        StringBuilder text = new StringBuilder("[").append(getName(type)).append("]");
+        if (type == UNKNOWN) {
+            String raw = transcoder != null ? transcoder.decode(record, 0, length) : new String(record, 0, length);
+            return text.append(' ').append(raw.replaceAll("\\p{Cntrl}", ".").stripTrailing()).toString();
+        }
+        DecodePlan plan = plans[type];
+        for (int field = 0; field < plan.getFieldCount(); field++) {
+            if (plan.getFieldName(field).equalsIgnoreCase("FILLER") || plan.isAbsent(field, record, length)) {
+                continue; // Nor occurrences past an OCCURS DEPENDING ON count
+            }
+            String value;
+            try {
+                value = plan.decodeField(field, record, length).trim();
+            } catch (RuntimeException e) {
+                value = RecordPage.ERROR_VALUE;
+            }
+            text.append(text.length() == names[type].length() + 2 ? " " : "  ").append(plan.getFieldName(field)).append('=').append(value);
+        }
+        return text.toString();
+    }
+
+    /** Record of the layout called {@code name}, ignoring case, or -1. */
+    private static int recordIndex(LayoutDetail layout, String name) {
+        for (int i = 0; i < layout.getRecordCount(); i++) {
+            if (layout.getRecord(i).getRecordName().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** The field in the type's own record, or else in any record (a shared discriminator). */
+    private static FieldDetail findField(LayoutDetail layout, int record, String name) {
+        FieldDetail field = layout.getRecord(record).getField(name);
+        for (int i = 0; field == null && i < layout.getRecordCount(); i++) {
+            field = layout.getRecord(i).getField(name);
+        }
+        return field;
+    }
+
+    private static String parseName(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected NAME:FIELD=VALUE[|VALUE...] or NAME:*: " + spec);
+        }
+        return spec.substring(0, colon).trim();
+    }
+
+    /**
+     * The bytes {@code value} has in {@code field}: set through JRecord, so it is padded and
+     * encoded exactly as a COBOL program would write it. {@code X'C8'} gives the bytes directly.
+     */
+    private static byte[] encodeValue(Line scratch, FieldDetail field, String value) {
+        int offset = field.getPos() - 1;
+        String trimmed = value.trim();
+        if (trimmed.length() >= 3 && (trimmed.startsWith("X'") || trimmed.startsWith("x'")) && trimmed.endsWith("'")) {
+            String hex = trimmed.substring(2, trimmed.length() - 1);
+            if (hex.length() != field.getLen() * 2) {
+                throw new IllegalArgumentException("Value " + trimmed + " must have " + field.getLen() + " bytes for " + field.getName() + ".");
+            }
+            byte[] bytes = new byte[field.getLen()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+            return bytes;
+        }
+        try {
+            scratch.getFieldValue(field).set(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Value '" + value + "' cannot be stored in " + field.getName() + ": " + e.getMessage(), e);
+        }
+        return Arrays.copyOfRange(scratch.getData(), offset, offset + field.getLen());
+    }
+
+    private static long pack(byte[] bytes, int offset, int length) {
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            key = key << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return key;
+    }
+
+    /**
+     * Self-check and benchmark on generated copybooks: a header/detail/trailer file and one
+     * with {@code types} record types selected by a two-byte code (default 40). Checks every
+     * record's type against the one it was written as, then compares the dispatch table with
+     * decoding each type's discriminator in turn and comparing it, and with comparing the
+     * encoded bytes type by type.
+     * Usage: RecordTypeTable [types [records]]
+     */
+    public static void main(String[] args) throws IOException {
+        int typeCount = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int recordCount = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        String encoding = "CP037";
+        Path dir = Files.createTempDirectory("recordtypes");
+        try {
+            Path copybook = dir.resolve("htd.cpy");
+            Files.write(copybook, Arrays.asList(
+                    "       01 HEADER-REC.",
+                    "          05 HDR-TYPE    PIC X.",
+                    "          05 HDR-DATE    PIC X(8).",
+                    "          05 FILLER      PIC X(41).",
+                    "       01 DETAIL-REC.",
+                    "          05 DTL-TYPE    PIC X.",
+                    "          05 DTL-AMOUNT  PIC S9(7)V99 COMP-3.",
+                    "          05 DTL-DESC    PIC X(44).",
+                    "       01 TRAILER-REC.",
+                    "          05 TRL-TYPE    PIC X.",
+                    "          05 TRL-COUNT   PIC 9(9).",
+                    "          05 FILLER      PIC X(40)."));
+            List<String> specs = Arrays.asList("DETAIL-REC:DTL-TYPE=D|E", "HEADER-REC:HDR-TYPE=H", "TRAILER-REC:*");
+            LayoutDetail layout = loadLayout(copybook.toString(), encoding, specs);
+            RecordTypeTable table = compile(layout, encoding, specs);
+            int errors = 0;
+            String[] written = {"H", "D", "E", "T", "X"};
+            int[] expected = {1, 0, 0, 2, 2};
+            for (int i = 0; i < written.length; i++) {
+                byte[] record = String.format("%-50s", written[i]).getBytes(encoding);
+                if (table.typeOf(record, record.length) != expected[i]) {
+                    System.out.println("MISMATCH: '" + written[i] + "' typed as " + table.getName(table.typeOf(record, record.length)));
+                    errors++;
+                }
+            }
+            byte[] header = String.format("%-50s", "H20240101").getBytes(encoding);
+            System.out.println("Header shown as another type: " + table.describe(header, header.length));
+            System.out.println("Short record: " + table.getName(table.typeOf(new byte[0], 0)));
+
+            // Many types selected by a two-byte code; the benchmark
+            Path many = dir.resolve("many.cpy");
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(many))) {
+                for (int t = 0; t < typeCount; t++) {
+                    out.printf("       01 REC-%02d.%n", t);
+                    out.printf("          05 R%02d-CODE   PIC X(2).%n", t);
+                    out.printf("          05 R%02d-KEY    PIC X(10).%n", t);
+                    out.printf("          05 R%02d-AMOUNT PIC S9(7)V99 COMP-3.%n", t);
+                    out.printf("          05 FILLER      PIC X(%d).%n", 33 + t % 5);
+                }
+            }
+            List<String> manySpecs = new ArrayList<>();
+            for (int t = 0; t < typeCount; t++) {
+                manySpecs.add(String.format("REC-%02d:R%02d-CODE=%02d", t, t, t));
+            }
+            LayoutDetail manyLayout = loadLayout(many.toString(), encoding, manySpecs);
+            RecordTypeTable manyTable = compile(manyLayout, encoding, manySpecs);
+            int recordLength = manyLayout.getMaximumRecordLength();
+            byte[] data = new byte[recordCount * recordLength];
+            int[] types = new int[recordCount];
+            Random random = new Random(19);
+            for (int i = 0; i < recordCount; i++) {
+                types[i] = random.nextInt(typeCount + 1) - 1; // -1: a code no type has
+                byte[] code = String.format("%02d", types[i] < 0 ? 99 : types[i]).getBytes(encoding);
+                System.arraycopy(code, 0, data, i * recordLength, 2);
+            }
+            byte[] record = new byte[recordLength];
+            for (int i = 0; i < recordCount; i++) {
+                System.arraycopy(data, i * recordLength, record, 0, recordLength);
+                if (manyTable.typeOf(record, recordLength) != types[i]) {
+                    errors++;
+                }
+            }
+            System.out.println(errors == 0 ? "All records typed correctly." : errors + " records typed wrongly.");
+
+            byte[][] encoded = new byte[typeCount][];
+            for (int t = 0; t < typeCount; t++) {
+                encoded[t] = String.format("%02d", t).getBytes(encoding);
+            }
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                long checksum = 0;
+                for (int i = 0; i < recordCount; i++) {
+                    System.arraycopy(data, i * recordLength, record, 0, recordLength);
+                    checksum += manyTable.typeOf(record, recordLength);
+                }
+                long tableNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < recordCount; i++) {
+                    System.arraycopy(data, i * recordLength, record, 0, recordLength);
+                    int type = UNKNOWN;
+                    for (int t = 0; t < typeCount && type == UNKNOWN; t++) {
+                        if (record[0] == encoded[t][0] && record[1] == encoded[t][1]) {
+                            type = t;
+                        }
+                    }
+                    checksum -= type;
+                }
+                long bytesNanos = System.nanoTime() - start;
+
+                int decoded = Math.min(recordCount, 200_000); // Decoding is slow; time a sample
+                start = System.nanoTime();
+                for (int i = 0; i < decoded; i++) {
+                    System.arraycopy(data, i * recordLength, record, 0, recordLength);
+                    int type = UNKNOWN;
+                    for (int t = 0; t < typeCount && type == UNKNOWN; t++) {
+                        if (manyTable.getPlan(t).decodeField(0, record, recordLength).equals(String.format("%02d", t))) {
+                            type = t;
+                        }
+                    }
+                    checksum += type - types[i];
+                }
+                long decodeNanos = (System.nanoTime() - start) * recordCount / decoded;
+                if (round == 1) {
+                    System.out.printf("%d records, %d types: dispatch table %d ms, byte compare per type %d ms, decode and compare per type %d ms (extrapolated)%s%n",
+                            recordCount, typeCount, tableNanos / 1_000_000, bytesNanos / 1_000_000, decodeNanos / 1_000_000,
+                            checksum == 0 ? "" : " CHECKSUM MISMATCH");
+                }
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+}
@@ -1,143 +1,474 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.sf.JRecord.JRecordInterface1;
+import net.sf.JRecord.Common.FieldDetail;
+import net.sf.JRecord.Details.LayoutDetail;
+import net.sf.JRecord.Types.Type;
 
 public class SearchManager {
 
+    // Records scanned by one fork/join leaf task.
+    private static final long CHUNK_RECORDS = 1 << 16;
+    // Upper bound on collected hits, so a term that matches every record cannot exhaust the heap.
+    public static final int MAX_HITS = 10_000_000;
+
+    private ForkJoinPool pool; // Created on the first whole-file search
+
+    /**
+     * How far a {@link #searchFile} call has got, and a way to stop it early; safe to use from
+     * any thread.
+     */
+    public static final class Progress {
+        private final LongAdder recordsSearched = new LongAdder();
+        private volatile long records; // To search; 0 until the search has started
+        private volatile boolean cancelled;
+
+        /** Stops the search after the chunks under way; it then returns the hits found so far. */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** The fraction of the records searched so far. */
+        public double getFraction() {
+            long total = records;
+            return total == 0 ? 0 : Math.min(1.0, (double) recordsSearched.sum() / total);
+        }
+    }
+
     /**
-     * Searches a list of records (page data) for a given term in a specified field.
-     * The search is case-insensitive.
+     * Searches the records of one page for a given term in a specified field.
+     * The search is case-insensitive. Only the searched column of the page is decoded.
      *
-     * @param pageData The list of records (maps) to search.
+     * @param pageData The page to search.
      * @param fieldName The name of the field to search within.
      * @param searchTerm The term to search for.
-     * @return A new list of records that match the search criteria.
-     *         Returns an empty list if pageData is null, fieldName is null/empty,
-     *         or no matches are found.
+     * @return A page with the matching records, in page order.
+     *         Returns an empty page if pageData is null, fieldName is null/empty or not in the
+     *         layout, or no matches are found.
      */
-    public List<Map<String, String>> search(List<Map<String, String>> pageData, String fieldName, String searchTerm) {
-        List<Map<String, String>> searchResults = new ArrayList<>();
-
+    public RecordPage search(RecordPage pageData, String fieldName, String searchTerm) {
         if (pageData == null || fieldName == null || fieldName.trim().isEmpty() || searchTerm == null) {
             // It might be better to throw IllegalArgumentException for null/empty fieldName
-            // or null pageData, but for now, returning empty list for simplicity.
-            return searchResults;
+            // or null pageData, but for now, returning an empty page for simplicity.
+            return RecordPage.EMPTY;
+        }
+        int field = pageData.indexOf(fieldName.trim());
+        if (field < 0) {
+            return RecordPage.EMPTY;
         }
 
         String lowerCaseSearchTerm = searchTerm.toLowerCase();
 
-        for (Map<String, String> record : pageData) {
-            String fieldValue = record.get(fieldName);
-            if (fieldValue != null) {
-                if (fieldValue.toLowerCase().contains(lowerCaseSearchTerm)) {
-                    searchResults.add(record); // Add the original record
-                }
+        int[] matches = new int[pageData.getRecordCount()];
+        int matchCount = 0;
+        for (int row = 0; row < pageData.getRecordCount(); row++) {
+            if (pageData.getValue(row, field).toLowerCase().contains(lowerCaseSearchTerm)) {
+                matches[matchCount++] = row; // The original record bytes are shared, not copied
             }
         }
-        return searchResults;
+        return pageData.select(Arrays.copyOf(matches, matchCount));
     }
 
     /**
-     * Main method for basic testing of the SearchManager.
+     * Searches every record of the file for a given term in a specified field, splitting the
+     * record range into chunks that run on a ForkJoinPool across all cores. The search is
+     * case-insensitive, like {@link #search}.
+     *
+     * @return Ordinals of the matching records in file order, at most {@link #MAX_HITS} of them.
+     *         Empty if the field does not exist in the layout.
      */
-    public static void main(String[] args) {
-        SearchManager searchManager = new SearchManager();
+    public OrdinalList searchFile(PagedFileReader reader, String fieldName, String searchTerm) {
+        return searchFile(reader, fieldName, searchTerm, new Progress());
+    }
 
-        // Sample data
-        List<Map<String, String>> samplePageData = new ArrayList<>();
-        Map<String, String> record1 = new HashMap<>();
-        record1.put("ID", "101");
-        record1.put("NAME", "John Doe");
-        record1.put("CITY", "New York");
-        samplePageData.add(record1);
-
-        Map<String, String> record2 = new HashMap<>();
-        record2.put("ID", "102");
-        record2.put("NAME", "Jane Smith");
-        record2.put("CITY", "London");
-        samplePageData.add(record2);
-
-        Map<String, String> record3 = new HashMap<>();
-        record3.put("ID", "103");
-        record3.put("NAME", "Peter Jones");
-        record3.put("CITY", "New York");
-        samplePageData.add(record3);
-
-        Map<String, String> record4 = new HashMap<>();
-        record4.put("ID", "104");
-        record4.put("NAME", "Alice Brown");
-        record4.put("CITY", "Paris");
-        record4.put("NOTES", "Met John in New York");
-        samplePageData.add(record4);
+    /**
+     * Like {@link #searchFile(PagedFileReader, String, String)}, counting the records searched in
+     * {@code progress} chunk by chunk; if it is cancelled, returns the hits of the chunks searched.
+     */
+    public OrdinalList searchFile(PagedFileReader reader, String fieldName, String searchTerm, Progress progress) {
+        LayoutDetail layout = reader.getRecordLayout();
+        if (fieldName == null || searchTerm == null || layout == null || layout.getRecordCount() == 0) {
+            return new OrdinalList();
+        }
+        FieldDetail field = reader.findField(fieldName.trim());
+        if (field == null) {
+            return new OrdinalList();
+        }
+        // With several record types only the records of the type that has the field are searched
+        int type = reader.findFieldType(field.getName());
+        DecodePlan plan = type == RecordTypeTable.UNKNOWN ? reader.getDecodePlan() : reader.getRecordTypes().getPlan(type);
+        ColumnarCache cache = reader.getColumnarCache();
+        if (cache != null) {
+            // Already decoded: dictionary blocks test each distinct value once
+            return cache.search(reader.getDecodePlan().indexOf(field.getName()), searchTerm.toLowerCase(), MAX_HITS);
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        // PIC X fields in a single-byte codepage are matched on the raw record bytes; anything
+        // else (numeric fields, multi-byte encodings) is decoded per record with the decode plan.
+        EbcdicFieldMatcher matcher = EbcdicFieldMatcher.forField(field, reader.getEncoding(), searchTerm);
+        int fieldIndex = plan.indexOf(field.getName());
+        long records = reader.getTotalRecords();
+        progress.records = records;
+        return pool.invoke(new FileSearchTask(reader, plan, fieldIndex, type, matcher, searchTerm.toLowerCase(), progress, 0, records));
+    }
 
+    /** Outcome of {@link #seekSorted}. */
+    public static final class SortedSeek {
+        /** First record whose key is not less than the value; the file's record count if there is none. */
+        public final long ordinal;
+        /** Whether that record's key equals the value. */
+        public final boolean exact;
+        /** Records read, about log2 of the record count. */
+        public final int reads;
+        /** False if the first record's key is greater than the last one's (of the field's record type), so the field is not sorted ascending. */
+        public final boolean ascending;
 
-        System.out.println("Original Data:");
-        for (Map<String, String> record : samplePageData) {
-            System.out.println(record);
+        SortedSeek(long ordinal, boolean exact, int reads, boolean ascending) {
+            this.ordinal = ordinal;
+            this.exact = exact;
+            this.reads = reads;
+            this.ascending = ascending;
         }
+    }
 
-        // Test case 1: Search by NAME
-        String searchField1 = "NAME";
-        String searchTerm1 = "john";
-        System.out.println("\nSearching for '" + searchTerm1 + "' in field '" + searchField1 + "':");
-        List<Map<String, String>> results1 = searchManager.search(samplePageData, searchField1, searchTerm1);
-        if (results1.isEmpty()) {
-            System.out.println("No results found.");
-        } else {
-            for (Map<String, String> record : results1) {
-                System.out.println(record);
+    /**
+     * Binary-searches a field the file is sorted on (ascending) for the first record whose key
+     * is not less than {@code value}, reading about log2(N) records instead of scanning. Only
+     * records indexed so far are searched. PIC X fields compare as raw bytes, i.e. in the code
+     * page's collating sequence like a mainframe sort, with the value padded with spaces;
+     * numeric fields compare by value; anything else by its trimmed display text.
+     *
+     * With several record types only the records of the type that has the field are searched,
+     * through that type's ordinals ({@link PagedFileReader#getTypeIndex}), so a header or trailer
+     * in another layout neither breaks the order nor is landed on.
+     *
+     * @throws IllegalArgumentException if the field is not in the layout, or a numeric field is
+     *         given a value that is not a number.
+     */
+    public SortedSeek seekSorted(PagedFileReader reader, String fieldName, String value) {
+        String name = fieldName.trim();
+        int type = reader.findFieldType(name);
+        DecodePlan plan = type == RecordTypeTable.UNKNOWN ? reader.getDecodePlan() : reader.getRecordTypes().getPlan(type);
+        int fieldIndex = plan.indexOf(name);
+        if (fieldIndex < 0) {
+            throw new IllegalArgumentException("Field '" + fieldName + "' is not in the copybook.");
+        }
+        SortKey key = new SortKey(plan, fieldIndex, Charset.forName(reader.getEncoding()), value);
+        RecordSubset records = type == RecordTypeTable.UNKNOWN ? null : reader.getTypeIndex(type); // null: every record
+        long total = reader.getTotalRecords();
+        long count = records == null ? total : records.size();
+        if (count == 0) {
+            return new SortedSeek(total, false, 0, true);
+        }
+        int[] reads = new int[1];
+        boolean ascending = key.compareRecords(reader, ordinalAt(records, 0), ordinalAt(records, count - 1), reads) <= 0;
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (key.compareTo(reader, ordinalAt(records, middle), reads) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
             }
         }
+        boolean exact = low < count && key.compareTo(reader, ordinalAt(records, low), reads) == 0;
+        return new SortedSeek(low < count ? ordinalAt(records, low) : total, exact, reads[0], ascending);
+    }
 
-        // Test case 2: Search by CITY
-        String searchField2 = "CITY";
-        String searchTerm2 = "New York";
-        System.out.println("\nSearching for '" + searchTerm2 + "' in field '" + searchField2 + "':");
-        List<Map<String, String>> results2 = searchManager.search(samplePageData, searchField2, searchTerm2);
-        if (results2.isEmpty()) {
-            System.out.println("No results found.");
-        } else {
-            for (Map<String, String> record : results2) {
-                System.out.println(record);
+    private static long ordinalAt(RecordSubset records, long index) {
+        return records == null ? index : records.ordinalAt(index);
+    }
+
+    /** The value of a {@link #seekSorted} call, compared against one field of records. */
+    private static final class SortKey {
+        private final DecodePlan plan;
+        private final int field;
+        private final byte[] bytes;        // PIC X: the value encoded and padded to the field length
+        private final BigDecimal number;   // Numeric fields
+        private final String text;         // Anything else
+
+        SortKey(DecodePlan plan, int field, Charset charset, String value) {
+            this.plan = plan;
+            this.field = field;
+            int length = plan.getLength(field);
+            if (plan.getType(field) == Type.ftChar) {
+                String padded = value.length() < length ? value + " ".repeat(length - value.length()) : value;
+                this.bytes = Arrays.copyOf(padded.getBytes(charset), length);
+                this.number = null;
+                this.text = null;
+            } else if (plan.hasUnscaledDecoder(field)) {
+                this.bytes = null;
+                this.number = DecodePlan.parsePlainDecimal(value.trim());
+                this.text = null;
+                if (number == null) {
+                    throw new IllegalArgumentException("'" + value + "' is not a number; field '" + plan.getFieldName(field) + "' is numeric.");
+                }
+            } else {
+                this.bytes = null;
+                this.number = null;
+                this.text = value.trim();
             }
         }
 
-        // Test case 3: Search term not found
-        String searchField3 = "NAME";
-        String searchTerm3 = "David";
-        System.out.println("\nSearching for '" + searchTerm3 + "' in field '" + searchField3 + "':");
-        List<Map<String, String>> results3 = searchManager.search(samplePageData, searchField3, searchTerm3);
-        if (results3.isEmpty()) {
-            System.out.println("No results found.");
-        } else {
-            for (Map<String, String> record : results3) {
-                System.out.println(record);
+        /** Sign of (key of record {@code ordinal}) - value. */
+        int compareTo(PagedFileReader reader, long ordinal, int[] reads) {
+            int[] result = new int[1];
+            reads[0]++;
+            reader.scanRecords(ordinal, ordinal + 1, (o, data, length) -> result[0] = compare(data, length));
+            return result[0];
+        }
+
+        /** Sign of (key of record {@code a}) - (key of record {@code b}). */
+        int compareRecords(PagedFileReader reader, long a, long b, int[] reads) {
+            byte[][] records = new byte[2][];
+            reads[0] += 2;
+            reader.scanRecords(a, a + 1, (o, data, length) -> records[0] = Arrays.copyOf(data, length));
+            reader.scanRecords(b, b + 1, (o, data, length) -> records[1] = Arrays.copyOf(data, length));
+            if (bytes != null) {
+                int offset = plan.getOffset(field);
+                for (int i = 0; i < bytes.length; i++) {
+                    int diff = byteAt(records[0], offset + i) - byteAt(records[1], offset + i);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return 0;
+            }
+            if (number != null) {
+                return compareNumbers(plan.decodeDecimal(field, records[0], records[0].length),
+                        plan.decodeDecimal(field, records[1], records[1].length));
             }
+            return decodeText(records[0], records[0].length).compareTo(decodeText(records[1], records[1].length));
         }
 
-        // Test case 4: Search in a field that doesn't exist in all records
-        String searchField4 = "NOTES";
-        String searchTerm4 = "new york";
-        System.out.println("\nSearching for '" + searchTerm4 + "' in field '" + searchField4 + "':");
-        List<Map<String, String>> results4 = searchManager.search(samplePageData, searchField4, searchTerm4);
-        if (results4.isEmpty()) {
-            System.out.println("No results found.");
-        } else {
-            for (Map<String, String> record : results4) {
-                System.out.println(record);
+        private int compare(byte[] data, int length) {
+            if (bytes != null) {
+                int offset = plan.getOffset(field);
+                for (int i = 0; i < bytes.length; i++) {
+                    int diff = (offset + i < length ? data[offset + i] & 0xFF : 0) - (bytes[i] & 0xFF);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return 0;
+            }
+            if (number != null) {
+                return compareNumbers(plan.decodeDecimal(field, data, length), number);
             }
+            return decodeText(data, length).compareTo(text);
         }
 
-        // Test case 5: Null page data
-        System.out.println("\nSearching with null page data:");
-        List<Map<String, String>> results5 = searchManager.search(null, "NAME", "john");
-         if (results5.isEmpty()) {
-            System.out.println("No results found (as expected for null input).");
-        } else {
-            for (Map<String, String> record : results5) {
-                System.out.println(record);
+        private static int byteAt(byte[] data, int index) {
+            return index < data.length ? data[index] & 0xFF : 0; // A short record sorts as low values
+        }
+
+        /** Values that are not numbers sort first. */
+        private static int compareNumbers(BigDecimal a, BigDecimal b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
             }
+            return a.compareTo(b);
+        }
+
+        private String decodeText(byte[] data, int length) {
+            try {
+                return plan.decodeField(field, data, length).trim();
+            } catch (RuntimeException e) {
+                return ""; // Undecodable values sort first
+            }
+        }
+    }
+
+    /**
+     * Splits [first, end) in halves until it is at most {@link #CHUNK_RECORDS} long, then scans
+     * it. Results are concatenated left to right, so hits stay in file order.
+     */
+    private static final class FileSearchTask extends RecursiveTask<OrdinalList> {
+        private static final long serialVersionUID = 1L;
+
+        private final PagedFileReader reader;
+        private final DecodePlan plan;
+        private final int fieldIndex; // Position of the searched field in the plan
+        private final int recordType; // Only records of this type are searched; UNKNOWN: all of them
+        private final EbcdicFieldMatcher matcher; // null when the field has to be decoded
+        private final String lowerCaseSearchTerm;
+        private final Progress progress;
+        private final long first;
+        private final long end;
+
+        FileSearchTask(PagedFileReader reader, DecodePlan plan, int fieldIndex, int recordType, EbcdicFieldMatcher matcher,
+                       String lowerCaseSearchTerm, Progress progress, long first, long end) {
+            this.reader = reader;
+            this.plan = plan;
+            this.fieldIndex = fieldIndex;
+            this.recordType = recordType;
+            this.matcher = matcher;
+            this.lowerCaseSearchTerm = lowerCaseSearchTerm;
+            this.progress = progress;
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        protected OrdinalList compute() {
+            if (end - first <= CHUNK_RECORDS) {
+                return progress.cancelled ? new OrdinalList() : scan();
+            }
+            long middle = first + (end - first) / 2;
+            FileSearchTask left = new FileSearchTask(reader, plan, fieldIndex, recordType, matcher, lowerCaseSearchTerm, progress, first, middle);
+            FileSearchTask right = new FileSearchTask(reader, plan, fieldIndex, recordType, matcher, lowerCaseSearchTerm, progress, middle, end);
+            left.fork();
+            OrdinalList rightHits = right.compute();
+            OrdinalList hits = left.join();
+            hits.addAll(rightHits);
+            hits.truncate(MAX_HITS);
+            return hits;
+        }
+
+        private OrdinalList scan() {
+            Metrics.SearchChunkEvent event = new Metrics.SearchChunkEvent();
+            event.begin();
+            long started = System.nanoTime();
+            OrdinalList hits = scanChunk();
+            Metrics.Span.SEARCH_CHUNK.record(started, end - first);
+            progress.recordsSearched.add(end - first);
+            event.first = first;
+            event.records = end - first;
+            event.hits = hits.size();
+            event.commit();
+            return hits;
+        }
+
+        private OrdinalList scanChunk() {
+            OrdinalList hits = new OrdinalList();
+            RecordTypeTable types = recordType == RecordTypeTable.UNKNOWN ? null : reader.getRecordTypes();
+            if (matcher != null) {
+                reader.scanRecords(first, end, (ordinal, data, length) -> {
+                    if (hits.size() < MAX_HITS && matcher.matches(data, length)
+                            && (types == null || types.typeOf(data, length) == recordType)) {
+                        hits.add(ordinal);
+                    }
+                });
+                return hits;
+            }
+            reader.scanRecords(first, end, (ordinal, data, length) -> {
+                if (hits.size() >= MAX_HITS || (types != null && types.typeOf(data, length) != recordType)) {
+                    return;
+                }
+                String fieldValue;
+                try {
+                    fieldValue = plan.decodeField(fieldIndex, data, length);
+                } catch (Exception e) {
+                    return; // Undecodable values never match, as on the page view where they show as an error
+                }
+                if (fieldValue.toLowerCase().contains(lowerCaseSearchTerm)) {
+                    hits.add(ordinal);
+                }
+            });
+            return hits;
+        }
+    }
+
+    /**
+     * Main method for basic testing of the SearchManager.
+     * Builds a small page from a temporary copybook and EBCDIC records.
+     */
+    public static void main(String[] args) throws IOException {
+        SearchManager searchManager = new SearchManager();
+
+        // Sample data
+        Path dir = Files.createTempDirectory("searchmanager");
+        Path copybook = dir.resolve("sample.cpy");
+        Files.write(copybook, Arrays.asList(
+                "       01 SAMPLE-RECORD.",
+                "          05 ID     PIC X(3).",
+                "          05 NAME   PIC X(12).",
+                "          05 CITY   PIC X(10).",
+                "          05 NOTES  PIC X(25)."));
+        LayoutDetail layout;
+        try {
+            layout = JRecordInterface1.COBOL.newIOBuilder(copybook.toString()).setFont("CP037").getExternalRecord().asLayoutDetail();
+        } catch (Exception e) {
+            throw new IOException("Cannot load sample copybook: " + e.getMessage(), e);
+        }
+        String[][] sampleRecords = {
+                {"101", "John Doe", "New York", ""},
+                {"102", "Jane Smith", "London", ""},
+                {"103", "Peter Jones", "New York", ""},
+                {"104", "Alice Brown", "Paris", "Met John in New York"}};
+        RecordPage samplePageData = new RecordPage(DecodePlan.compile(layout, "CP037"), sampleRecords.length);
+        java.io.ByteArrayOutputStream sampleFile = new java.io.ByteArrayOutputStream();
+        for (int i = 0; i < sampleRecords.length; i++) {
+            String[] values = sampleRecords[i];
+            String text = String.format("%-3s%-12s%-10s%-25s", values[0], values[1], values[2], values[3]);
+            byte[] record = text.getBytes(Charset.forName("CP037"));
+            samplePageData.add(i, record, record.length);
+            sampleFile.write(record);
+        }
+        Path data = dir.resolve("sample.dat");
+        Files.write(data, sampleFile.toByteArray());
+
+        System.out.println("Original Data:");
+        printPage(samplePageData);
+
+        // Test case 1: Search by NAME
+        System.out.println("\nSearching for 'john' in field 'NAME':");
+        printPage(searchManager.search(samplePageData, "NAME", "john"));
+
+        // Test case 2: Search by CITY
+        System.out.println("\nSearching for 'New York' in field 'CITY':");
+        printPage(searchManager.search(samplePageData, "CITY", "New York"));
+
+        // Test case 3: Search term not found
+        System.out.println("\nSearching for 'David' in field 'NAME':");
+        printPage(searchManager.search(samplePageData, "NAME", "David"));
+
+        // Test case 4: Search in a field that is blank in most records
+        System.out.println("\nSearching for 'new york' in field 'NOTES':");
+        printPage(searchManager.search(samplePageData, "NOTES", "new york"));
+
+        // Test case 5: Field that is not in the layout
+        System.out.println("\nSearching for 'x' in field 'COUNTRY':");
+        printPage(searchManager.search(samplePageData, "COUNTRY", "x"));
+
+        // Test case 6: Null page data
+        System.out.println("\nSearching with null page data:");
+        printPage(searchManager.search(null, "NAME", "john"));
+
+        // Test cases 7-10: binary search on the file, which is sorted on ID but not on NAME
+        PagedFileReader reader = new PagedFileReader(data.toString(), copybook.toString(), 50, "CP037");
+        for (String[] seek : new String[][] {{"ID", "103"}, {"ID", "100"}, {"ID", "105"}, {"NAME", "K"}}) {
+            SortedSeek result = searchManager.seekSorted(reader, seek[0], seek[1]);
+            System.out.printf("%nSorted seek for '%s' in field '%s': record %d, exact %b, %d reads, ascending %b%n",
+                    seek[1], seek[0], result.ordinal + 1, result.exact, result.reads, result.ascending);
+        }
+        reader.close();
+        Files.delete(data);
+        Files.delete(copybook);
+        Files.delete(dir);
+    }
+
+    private static void printPage(RecordPage page) {
+        if (page.isEmpty()) {
+            System.out.println("No results found.");
+        }
+        for (int row = 0; row < page.getRecordCount(); row++) {
+            System.out.println(page.describeRecord(row));
         }
     }
 }
@@ -0,0 +1,494 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.sf.JRecord.Types.TypeManager;
+
+/**
+ * The records of a data file in the order of one or more fields, as a permutation of record
+ * ordinals stored next to it as {@code <data>.<FIELDS>.ebvsrt} and memory-mapped, so a file far
+ * larger than the heap can be browsed sorted without rewriting it. The view is a
+ * {@link RecordSubset}: {@link PagedFileReader#getRecords} pages through it like search hits.
+ *
+ * The permutation is built with an external merge sort ({@link ExternalSorter}): every record
+ * becomes an entry of its sort keys followed by its ordinal, extracted on all cores into sorted
+ * runs of at most {@link #SORT_BYTES_PER_THREAD} per thread that are spilled to temporary
+ * files, then merged. Only the ordinals of the merged entries are written, in
+ * {@link #ordinalBytes} bytes each (5 for up to a trillion records). Keys are encoded so that
+ * comparing them as unsigned bytes gives the sort order:
+ * <ul>
+ *   <li>text fields as their raw bytes, i.e. in the code page's collating sequence like a
+ *       mainframe sort (and like sorted seek and key indexes);</li>
+ *   <li>numeric fields by value: a byte that puts values that are not a number first, then the
+ *       value times 10^scale as a big-endian long with the sign bit flipped. Values beyond 18
+ *       digits sort as the smallest or largest long;</li>
+ *   <li>descending keys with every byte inverted.</li>
+ * </ul>
+ * The ordinal after the keys keeps records with equal keys in file order. Occurrences past an
+ * OCCURS DEPENDING ON count sort first, as low-values. With several record types only the
+ * records of the reader's current type are sorted.
+ *
+ * Like a key index, the file is keyed by the data file's size and modification time and by the
+ * record count, plus a hash of the sort fields' layout; a stale file is rebuilt.
+ */
+public class SortIndex implements RecordSubset {
+
+    public static final String EXTENSION = ".ebvsrt";
+
+    private static final int MAGIC = 0x45425653; // "EBVS"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 64;
+    private static final long SORT_BYTES_PER_THREAD = 64L << 20;
+    private static final int NUMBER_KEY_LENGTH = 9; // Class byte, then the value as a long
+
+    private final String description;
+    private final int recordType; // Type whose records are sorted; 0 for a single layout
+    private final MappedDataFile file;
+    private final long size;
+    private final int ordinalBytes;
+
+    /** One field of the sort order. */
+    private static final class SortKey {
+        final String name;
+        final int field;  // Position in the decode plan
+        final boolean descending;
+        final boolean numeric;
+        final int length; // Bytes of the encoded key
+
+        SortKey(String name, int field, boolean descending, boolean numeric, int length) {
+            this.name = name;
+            this.field = field;
+            this.descending = descending;
+            this.numeric = numeric;
+            this.length = length;
+        }
+    }
+
+    /**
+     * How far {@link #openOrBuild(PagedFileReader, String, Progress)} has got, for a status bar;
+     * updated by the building threads and safe to read from any other.
+     */
+    public static final class Progress {
+        private volatile String phase = "waiting for the record index";
+        private volatile long total;      // Work of the current phase; 0 while it is unknown
+        private final LongAdder done = new LongAdder();
+
+        private void start(String phase, long total) {
+            this.done.reset();
+            this.total = total;
+            this.phase = phase;
+        }
+
+        @Override
+        public String toString() {
+            long work = total;
+            return work == 0 ? phase : String.format("%s %d%%", phase, Math.min(100, done.sum() * 100 / work));
+        }
+    }
+
+    private SortIndex(String description, int recordType, MappedDataFile file) {
+        this.description = description;
+        this.recordType = recordType;
+        this.file = file;
+        byte[] header = new byte[HEADER_LENGTH];
+        file.read(0, header, 0, HEADER_LENGTH);
+        ByteBuffer in = ByteBuffer.wrap(header);
+        in.position(40); // Past magic, version, data size and time, record count and layout hash
+        this.size = in.getLong();
+        this.ordinalBytes = in.getInt();
+    }
+
+    /**
+     * Opens the sorted view for {@code spec}, {@code FIELD[:asc|desc],...}, building it first if
+     * it is missing or was built for a different version of the data file. Waits for the reader
+     * to finish counting the records, since the view covers all of them.
+     *
+     * @throws IllegalArgumentException if the spec names no field or a field not in the layout.
+     */
+    public static SortIndex openOrBuild(PagedFileReader reader, String spec) throws IOException {
+        return openOrBuild(reader, spec, new Progress());
+    }
+
+    /** Like {@link #openOrBuild(PagedFileReader, String)}, reporting how far it has got to {@code progress}. */
+    public static SortIndex openOrBuild(PagedFileReader reader, String spec, Progress progress) throws IOException {
+        // Read once: the type shown may be switched while a sort runs in the background
+        RecordTypeTable types = reader.getRecordTypes();
+        int recordType = reader.getRecordType();
+        DecodePlan plan = types == null ? reader.getDecodePlan() : types.getPlan(recordType);
+        List<SortKey> keys = parse(plan, spec);
+        try {
+            reader.awaitIndexing();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the record index", e);
+        }
+        StringBuilder description = new StringBuilder();
+        LayoutHash layout = new LayoutHash(recordType);
+        for (SortKey key : keys) {
+            description.append(description.length() == 0 ? "" : ", ").append(key.name).append(key.descending ? " descending" : "");
+            layout.addField(plan.getOffset(key.field), plan.getLength(key.field), plan.getType(key.field), plan.getScale(key.field))
+                  .add(key.descending ? 1 : 0);
+        }
+        long layoutHash = layout.get();
+        Path dataPath = Path.of(reader.getFilePath());
+        Path path = indexPath(reader.getFilePath(), keys);
+        long dataSize = Files.size(dataPath);
+        long dataModified = Files.getLastModifiedTime(dataPath).toMillis();
+        if (!isCurrent(path, dataSize, dataModified, reader.getTotalRecords(), layoutHash)) {
+            build(reader, plan, types, recordType, keys, path, dataSize, dataModified, layoutHash, progress);
+        }
+        return new SortIndex(description.toString(), recordType, new MappedDataFile(path.toString()));
+    }
+
+    private static List<SortKey> parse(DecodePlan plan, String spec) {
+        List<SortKey> keys = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String item = part.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            boolean descending = false;
+            int colon = item.lastIndexOf(':');
+            if (colon > 0) {
+                String direction = item.substring(colon + 1).trim().toLowerCase();
+                if (!direction.equals("asc") && !direction.equals("desc")) {
+                    throw new IllegalArgumentException("Expected FIELD, FIELD:asc or FIELD:desc, not '" + item + "'.");
+                }
+                descending = direction.equals("desc");
+                item = item.substring(0, colon).trim();
+            }
+            int field = plan.indexOf(item);
+            if (field < 0) {
+                throw new IllegalArgumentException("Field '" + item + "' is not in the record layout.");
+            }
+            boolean numeric = TypeManager.getInstance().getType(plan.getType(field)).isNumeric();
+            keys.add(new SortKey(item, field, descending, numeric, numeric ? NUMBER_KEY_LENGTH : plan.getLength(field)));
+        }
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("Expected at least one field to sort by.");
+        }
+        return keys;
+    }
+
+    /** {@code <data_file>.<keys>.ebvsrt}, e.g. {@code data.dat.AMOUNT-desc+CUST-ID.ebvsrt}. */
+    private static Path indexPath(String dataFilePath, List<SortKey> keys) {
+        StringBuilder name = new StringBuilder();
+        for (SortKey key : keys) {
+            name.append(name.length() == 0 ? "" : "+").append(key.name).append(key.descending ? "-desc" : "");
+        }
+        Path dataPath = Path.of(dataFilePath);
+        return dataPath.resolveSibling(dataPath.getFileName() + "." + name.toString().replaceAll("[^A-Za-z0-9_+-]", "_") + EXTENSION);
+    }
+
+    /** The record type whose records are in the view (see {@link PagedFileReader#getRecordType}). */
+    public int getRecordType() {
+        return recordType;
+    }
+
+    /** The sort order, e.g. "REGION, AMOUNT descending". */
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long ordinalAt(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside 0.." + (size - 1));
+        }
+        long position = HEADER_LENGTH + index * ordinalBytes;
+        long ordinal = 0;
+        for (int i = 0; i < ordinalBytes; i++) {
+            ordinal = (ordinal << 8) | file.getUnsignedByte(position + i);
+        }
+        return ordinal;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Building
+
+    private static boolean isCurrent(Path path, long dataSize, long dataModified, long recordCount, long layoutHash) {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // Fill the header
+            }
+            header.flip();
+            return header.remaining() == HEADER_LENGTH
+                    && header.getInt() == MAGIC && header.getInt() == VERSION
+                    && header.getLong() == dataSize && header.getLong() == dataModified
+                    && header.getLong() == recordCount && header.getLong() == layoutHash;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void build(PagedFileReader reader, DecodePlan plan, RecordTypeTable types, int recordType,
+                              List<SortKey> keys, Path path, long dataSize, long dataModified,
+                              long layoutHash, Progress progress) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            writeIndex(reader, plan, types, recordType, keys, tempPath, dataSize, dataModified, layoutHash, progress);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeIndex(PagedFileReader reader, DecodePlan plan, RecordTypeTable types, int recordType,
+                                   List<SortKey> keys, Path tempPath, long dataSize, long dataModified,
+                                   long layoutHash, Progress progress) throws IOException {
+        long recordCount = reader.getTotalRecords();
+        int keyLength = keys.stream().mapToInt(key -> key.length).sum();
+        int entryLength = keyLength + 8;
+        int ordinalBytes = Math.max(1, (64 - Long.numberOfLeadingZeros(Math.max(1, recordCount - 1)) + 7) / 8);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        try (ExternalSorter sorter = new ExternalSorter(entryLength, SORT_BYTES_PER_THREAD, tempPath.toAbsolutePath().getParent())) {
+            // 1. Extract (keys, ordinal) entries on all cores; each thread spills its own sorted runs.
+            progress.start("sorting", recordCount);
+            LongAdder entries = new LongAdder();
+            ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+            try {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (int t = 0; t < parallelism; t++) {
+                    final long first = recordCount * t / parallelism;
+                    final long end = recordCount * (t + 1) / parallelism;
+                    tasks.add(() -> {
+                        try (ExternalSorter.Sink sink = sorter.newSink()) {
+                            byte[] entry = new byte[entryLength];
+                            IOException[] failure = new IOException[1];
+                            reader.scanRecords(first, end, (ordinal, data, length) -> {
+                                progress.done.increment();
+                                if (failure[0] != null || (types != null && types.typeOf(data, length) != recordType)) {
+                                    return;
+                                }
+                                int position = 0;
+                                for (SortKey key : keys) {
+                                    encodeKey(plan, key, data, length, entry, position);
+                                    position += key.length;
+                                }
+                                for (int i = 0; i < 8; i++) {
+                                    entry[keyLength + i] = (byte) (ordinal >>> (56 - 8 * i));
+                                }
+                                try {
+                                    sink.add(entry, 0);
+                                    entries.increment();
+                                } catch (IOException e) {
+                                    failure[0] = e;
+                                }
+                            });
+                            if (failure[0] != null) {
+                                throw failure[0];
+                            }
+                        }
+                        return null;
+                    });
+                }
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sorting", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException("Error sorting records: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            // 2. Merge the runs, keeping only the ordinals.
+            progress.start("merging", entries.sum());
+            long[] written = new long[1];
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempPath), 1 << 20)) {
+                out.write(new byte[HEADER_LENGTH]); // Written last, so a partial file is never current
+                sorter.merge(entry -> {
+                    out.write(entry, entryLength - ordinalBytes, ordinalBytes);
+                    written[0]++;
+                    progress.done.increment();
+                });
+            }
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(VERSION).putLong(dataSize).putLong(dataModified)
+                      .putLong(recordCount).putLong(layoutHash).putLong(written[0]).putInt(ordinalBytes);
+                header.rewind();
+                channel.write(header, 0);
+            }
+        }
+    }
+
+    /** Writes the sort key of {@code key} for a record at {@code entry[position]}. */
+    private static void encodeKey(DecodePlan plan, SortKey key, byte[] data, int length, byte[] entry, int position) {
+        int offset = plan.getOffset(key.field);
+        boolean absent = plan.isAbsent(key.field, data, length);
+        if (!key.numeric) {
+            // Absent occurrences and short records are padded with zero bytes, which sort first
+            Arrays.fill(entry, position, position + key.length, (byte) 0);
+            int available = absent ? 0 : Math.min(key.length, length - offset);
+            if (available > 0) {
+                System.arraycopy(data, offset, entry, position, available);
+            }
+        } else {
+            long unscaled = absent ? NumericDecoder.NOT_DECODED : plan.decodeUnscaled(key.field, data, length);
+            boolean number = unscaled != NumericDecoder.NOT_DECODED;
+            if (!number && !absent) {
+                BigDecimal value = plan.decodeDecimal(key.field, data, length); // Through JRecord
+                if (value != null) {
+                    BigDecimal scaled = value.movePointRight(plan.getScale(key.field)).setScale(0, RoundingMode.DOWN);
+                    unscaled = scaled.toBigInteger().bitLength() < 64 ? scaled.longValue() : (scaled.signum() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE);
+                    number = true;
+                }
+            }
+            entry[position] = (byte) (number ? 1 : 0);
+            long sortable = number ? unscaled ^ Long.MIN_VALUE : 0;
+            for (int i = 0; i < 8; i++) {
+                entry[position + 1 + i] = (byte) (sortable >>> (56 - 8 * i));
+            }
+        }
+        if (key.descending) {
+            for (int i = position; i < position + key.length; i++) {
+                entry[i] = (byte) ~entry[i];
+            }
+        }
+    }
+
+    /**
+     * Sorts a file and prints the time and the first records in the new order; without arguments,
+     * sorts a generated file by two keys and checks the order and that every record is there once.
+     * Usage: SortIndex [data_file copybook FIELD[:desc],... [encoding [--recfm=...]]]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 3) {
+            ViewerOptions options = new ViewerOptions();
+            for (int i = 4; i < args.length; i++) {
+                options.apply(args[i]);
+            }
+            PagedFileReader reader = new PagedFileReader(args[0], args[1], 50, args.length > 3 ? args[3] : "CP037", options);
+            long start = System.nanoTime();
+            SortIndex index = openOrBuild(reader, args[2]);
+            System.out.printf("Sorted %d records by %s in %d ms%n", index.size(), index.getDescription(), (System.nanoTime() - start) / 1_000_000);
+            DecodePlan plan = reader.getDecodePlan();
+            RecordPage page = reader.getRecords(index, 0, 10);
+            for (int row = 0; row < page.getRecordCount(); row++) {
+                StringBuilder line = new StringBuilder();
+                for (int f = 0; f < Math.min(plan.getFieldCount(), 6); f++) {
+                    line.append(page.getValue(row, f)).append(" | ");
+                }
+                System.out.println(line);
+            }
+            index.close();
+            reader.close();
+            return;
+        }
+        Path dir = Files.createTempDirectory("sortindex");
+        Path copybook = dir.resolve("sort.cpy");
+        Path data = dir.resolve("sort.dat");
+        Files.write(copybook, Arrays.asList(
+                "       01 SORT-REC.",
+                "          05 CUST-ID       PIC 9(10).",
+                "          05 REGION        PIC X(4).",
+                "          05 AMOUNT        PIC S9(9)V99 COMP-3.",
+                "          05 NOTE          PIC X(30)."));
+        String encoding = "CP037";
+        int records = 500_000;
+        try {
+            net.sf.JRecord.Details.LayoutDetail layout = net.sf.JRecord.JRecordInterface1.COBOL.newIOBuilder(copybook.toString())
+                    .setFont(encoding).getExternalRecord().asLayoutDetail();
+            java.util.Map<String, DataGenerator.Distribution> distributions = new java.util.HashMap<>();
+            distributions.put("CUST-ID", new DataGenerator.Distribution(0, 0));
+            distributions.put("REGION", new DataGenerator.Distribution(12, 0));
+            DataGenerator generator = new DataGenerator(layout, encoding, RecordFormat.FIXED, 5, 0,
+                    new DataGenerator.Distribution(100_000, 0), distributions);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(data), 1 << 20)) {
+                generator.generate(records, out);
+            }
+            ViewerOptions options = new ViewerOptions();
+            options.setRecordFormat(RecordFormat.FIXED);
+            PagedFileReader reader = new PagedFileReader(data.toString(), copybook.toString(), 50, encoding, options);
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                SortIndex index = openOrBuild(reader, "REGION, AMOUNT:desc");
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                DecodePlan plan = reader.getDecodePlan();
+                int region = plan.indexOf("REGION");
+                int amount = plan.indexOf("AMOUNT");
+                boolean[] seen = new boolean[records];
+                int errors = 0;
+                String previousRegion = null;
+                BigDecimal previousAmount = null;
+                long previousOrdinal = -1;
+                byte[][] record = new byte[1][];
+                for (long i = 0; i < index.size(); i++) {
+                    long ordinal = index.ordinalAt(i);
+                    reader.scanRecords(ordinal, ordinal + 1, (o, bytes, length) -> record[0] = Arrays.copyOf(bytes, length));
+                    String regionValue = new String(record[0], plan.getOffset(region), plan.getLength(region), StandardCharsets.ISO_8859_1);
+                    BigDecimal amountValue = plan.decodeDecimal(amount, record[0], record[0].length);
+                    if (seen[(int) ordinal]) {
+                        errors++;
+                    }
+                    seen[(int) ordinal] = true;
+                    if (previousRegion != null) {
+                        int byRegion = Arrays.compareUnsigned(previousRegion.getBytes(StandardCharsets.ISO_8859_1), regionValue.getBytes(StandardCharsets.ISO_8859_1));
+                        int byAmount = amountValue.compareTo(previousAmount); // Descending: must not grow
+                        if (byRegion > 0 || (byRegion == 0 && (byAmount > 0 || (byAmount == 0 && ordinal < previousOrdinal)))) {
+                            if (errors++ < 5) {
+                                System.out.println("  out of order at " + i + ": record " + (ordinal + 1));
+                            }
+                        }
+                    }
+                    previousRegion = regionValue;
+                    previousAmount = amountValue;
+                    previousOrdinal = ordinal;
+                }
+                System.out.printf("%s %d records by %s in %d ms; every record once: %b; %d errors%n",
+                        round == 0 ? "Sorted" : "Reopened", index.size(), index.getDescription(), millis,
+                        index.size() == records, errors);
+                index.close();
+            }
+            reader.close();
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+}
@@ -3,15 +3,16 @@ import com.googlecode.lanterna.TextColor;
 import com.googlecode.lanterna.bundle.LanternaThemes;
 import com.googlecode.lanterna.graphics.TextGraphics;
 import com.googlecode.lanterna.gui2.BasicWindow;
+import com.googlecode.lanterna.gui2.Button;
 import com.googlecode.lanterna.gui2.Borders;
 import com.googlecode.lanterna.gui2.DefaultWindowManager;
 import com.googlecode.lanterna.gui2.Direction;
 import com.googlecode.lanterna.gui2.EmptySpace;
-import com.googlecode.lanterna.gui2.GridLayout;
 import com.googlecode.lanterna.gui2.Label;
 import com.googlecode.lanterna.gui2.LinearLayout;
 import com.googlecode.lanterna.gui2.MultiWindowTextGUI;
 import com.googlecode.lanterna.gui2.Panel;
+import com.googlecode.lanterna.gui2.TextBox;
 // import com.googlecode.lanterna.gui2.SGR; // Explicitly using com.googlecode.lanterna.SGR
 import com.googlecode.lanterna.gui2.Window;
 import com.googlecode.lanterna.gui2.WindowBasedTextGUI;
@@ -31,7 +32,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
@@ -45,7 +45,11 @@ public class TUIView {
     private Panel mainPanel;
     private Label statusLabel;
     private Label commandLabel;
+    private Label statsLabel; // Metrics.summary(), between the table and the commands while shown ('m')
     private Panel tablePanel; // Panel to hold the table-like structure
+    private RecordTable recordTable; // Draws the visible part of the page; created in init
+    private String statusText = "";    // Page, record count and encoding
+    private String statusMessage = ""; // Shown after the table position, which changes when scrolling
 
     private static final int MIN_TERMINAL_WIDTH = 80;
     private static final int MIN_TERMINAL_HEIGHT = 24;
@@ -77,11 +81,12 @@ public class TUIView {
             this.mainPanel = new Panel(new LinearLayout(Direction.VERTICAL));
 
             statusLabel = new Label("Status: Initializing...");
-            commandLabel = new Label("Commands: (n)Next (p)Prev (s)Search (c)ClearSearch (q)Quit");
+            commandLabel = new Label("Commands: (n)Next (p)Prev (g)Goto (f)SortedSeek (s)Search (k)Key (v)Sort (t)Type (o)TypeOnly (x)Expand (c)Clear (m)Stats (r)Profile (q)Quit  Arrows: scroll");
+            statsLabel = new Label("");
             tablePanel = new Panel(); // Layout will be set in displayData
 
             mainPanel.addComponent(statusLabel.setLayoutData(LinearLayout.createLayoutData(LinearLayout.Alignment.Beginning, null))); // Try null for GrowPolicy
-            mainPanel.addComponent(tablePanel.setLayoutData(LinearLayout.createLayoutData(LinearLayout.Alignment.Fill, null))); // Try null for GrowPolicy
+            mainPanel.addComponent(tablePanel.setLayoutData(LinearLayout.createLayoutData(LinearLayout.Alignment.Fill, LinearLayout.GrowPolicy.CanGrow))); // Table takes the remaining height
             mainPanel.addComponent(commandLabel.setLayoutData(LinearLayout.createLayoutData(LinearLayout.Alignment.End, null))); // Try null for GrowPolicy
 
             window.setComponent(mainPanel);
@@ -117,14 +122,50 @@ public class TUIView {
             // Display a message if no field definitions are available
             // This could happen if copybook parsing failed or copybook was empty
             displayError("No field definitions loaded. Cannot display data.");
+            return;
+        }
+        this.recordTable = new RecordTable(fieldNames);
+        tablePanel.removeAllComponents();
+        tablePanel.addComponent(recordTable.withBorder(Borders.singleLine("Data"))
+                .setLayoutData(LinearLayout.createLayoutData(LinearLayout.Alignment.Fill, LinearLayout.GrowPolicy.CanGrow)));
+    }
+
+    /**
+     * Keeps the named columns on the left while scrolling sideways.
+     *
+     * @return the names that are not fields of the copybook.
+     */
+    public List<String> freezeColumns(List<String> names) {
+        if (recordTable == null) {
+            return new ArrayList<>(names);
         }
+        return recordTable.setFrozenColumns(names);
+    }
+
+    /** Positions in the decode plan of the columns on screen, or null (all) before the table exists. */
+    public int[] getVisibleFields() {
+        return recordTable == null ? null : recordTable.getVisibleFields();
     }
 
     public void displayError(String errorMessage) {
         MessageDialog.showMessageDialog(textGUI, "Error", errorMessage);
     }
 
-    public void displayData(List<Map<String, String>> pageData, int currentPage, int totalPages, long totalRecords, String encoding, String currentStatusMessage) {
+    /** Shows a long text, such as a profile report, in a scrollable window until it is closed. */
+    public void displayReport(String title, String text) {
+        TerminalSize size = screen.getTerminalSize();
+        BasicWindow reportWindow = new BasicWindow(title);
+        reportWindow.setHints(Arrays.asList(Window.Hint.CENTERED));
+        Panel panel = new Panel(new LinearLayout(Direction.VERTICAL));
+        TextBox box = new TextBox(new TerminalSize(Math.max(20, size.getColumns() - 6), Math.max(5, size.getRows() - 8)), text, TextBox.Style.MULTI_LINE);
+        box.setReadOnly(true); // Arrow keys and page up/down scroll it
+        panel.addComponent(box);
+        panel.addComponent(new Button("Close", reportWindow::close).setLayoutData(LinearLayout.createLayoutData(LinearLayout.Alignment.End)));
+        reportWindow.setComponent(panel);
+        textGUI.addWindowAndWait(reportWindow);
+    }
+
+    public void displayData(RecordPage pageData, int currentPage, int totalPages, long totalRecords, String encoding, String currentStatusMessage) {
         if (this.fieldNames == null || this.fieldNames.isEmpty()) { // Changed from fieldDefinitions
             statusLabel.setText("Status: No field definitions. Cannot display page.");
             tablePanel.removeAllComponents(); // Clear any previous table
@@ -140,37 +181,13 @@ public class TUIView {
             return;
         }
 
-        statusLabel.setText(String.format("Page: %d/%d | Records: %d | Encoding: %s | %s",
+        statusText = String.format("Page: %d/%d | Records: %d | Encoding: %s",
                 (totalPages == 0 && totalRecords == 0) ? 0 : currentPage + 1, // Display 1-based page number
-                totalPages, totalRecords, encoding, currentStatusMessage));
+                totalPages, totalRecords, encoding);
+        statusMessage = currentStatusMessage;
 
-        tablePanel.removeAllComponents(); // Clear previous table content
-
-        if (pageData == null || pageData.isEmpty()) {
-            tablePanel.addComponent(new Label("No data to display for this page."));
-        } else {
-            // Determine column widths dynamically or use fixed widths
-            // For simplicity, let's try to give them some space
-            // This is a very basic way to do it, a more robust Table component from Lanterna extensions or a custom one would be better.
-
-            // Create a basic grid-like layout for the table
-            Panel gridPanel = new Panel(new GridLayout(this.fieldNames.size())); // Changed from fieldDefinitions
-            gridPanel.addComponent(new EmptySpace(new TerminalSize(0,0))); // Top-left empty cell if needed for borders
-
-            // Add headers
-            for (String fieldName : this.fieldNames) { // Changed from fieldDefinitions
-                gridPanel.addComponent(new Label(fieldName).addStyle(com.googlecode.lanterna.SGR.BOLD));
-            }
-
-            // Add data rows
-            for (Map<String, String> record : pageData) {
-                for (String fieldName : this.fieldNames) { // Changed from fieldDefinitions
-                    String value = record.get(fieldName); // Use fieldName directly
-                    gridPanel.addComponent(new Label(value != null ? value : ""));
-                }
-            }
-            tablePanel.addComponent(gridPanel.withBorder(Borders.singleLine("Data")));
-        }
+        // The table keeps its components; it formats and decodes only what fits on screen.
+        recordTable.setPage(pageData);
 
         // Ensure the window is active and refresh
         // textGUI.addWindowAndWait(window); // This blocks, use addWindow and then handle input loop
@@ -178,7 +195,7 @@ public class TUIView {
              textGUI.addWindow(window);
         }
         try {
-            textGUI.updateScreen(); // More fine-grained update
+            updateScreenWithPosition();
         } catch (IOException e) { // Catch specific IOException
             System.err.println("IOException during textGUI.updateScreen(): " + e.getMessage());
             // Lanterna can sometimes throw exceptions during update if terminal is resized badly
@@ -186,6 +203,74 @@ public class TUIView {
         }
     }
 
+    /**
+     * Redraws with the table's row and column window in the status line. The window is only
+     * known once the table has been laid out, so the status is corrected after the first draw
+     * when it was stale (the table's lines are kept, so the second draw is cheap).
+     */
+    private void updateScreenWithPosition() throws IOException {
+        Metrics.RenderEvent event = new Metrics.RenderEvent();
+        event.begin();
+        long started = System.nanoTime();
+        if (mainPanel.containsComponent(statsLabel)) {
+            statsLabel.setText(Metrics.summary()); // As of the previous frame
+        }
+        String status = statusText + " | " + recordTable.getPositionHint() + " | " + statusMessage;
+        statusLabel.setText(status);
+        textGUI.updateScreen();
+        String laidOut = statusText + " | " + recordTable.getPositionHint() + " | " + statusMessage;
+        if (!laidOut.equals(status)) {
+            statusLabel.setText(laidOut);
+            textGUI.updateScreen();
+        }
+        Metrics.Span.RENDER.record(started, 1);
+        TerminalSize size = screen.getTerminalSize();
+        event.columns = size.getColumns();
+        event.rows = size.getRows();
+        event.commit();
+    }
+
+    /** Shows or hides the stats panel: latencies and throughput of the hot paths (see {@link Metrics}). */
+    private void toggleStats() {
+        if (!mainPanel.removeComponent(statsLabel)) {
+            mainPanel.addComponent(mainPanel.getChildCount() - 1, statsLabel); // Above the commands
+        }
+        if (recordTable == null) {
+            return;
+        }
+        try {
+            updateScreenWithPosition();
+        } catch (IOException e) {
+            System.err.println("IOException during textGUI.updateScreen() for the stats panel: " + e.getMessage());
+        }
+    }
+
+    /** Shows {@code row} of the current page at the top of the table, e.g. after a goto. */
+    public void scrollToRow(int row) {
+        if (recordTable == null) {
+            return;
+        }
+        recordTable.scrollToRow(row);
+        try {
+            updateScreenWithPosition();
+        } catch (IOException e) {
+            System.err.println("IOException during textGUI.updateScreen() while scrolling: " + e.getMessage());
+        }
+    }
+
+    /** Scrolls the rows of the current page, or the column window, when they do not all fit. */
+    private void scroll(int rows, int columns) {
+        if (recordTable == null) {
+            return;
+        }
+        recordTable.scrollRows(rows);
+        recordTable.scrollColumns(columns);
+        try {
+            updateScreenWithPosition();
+        } catch (IOException e) {
+            System.err.println("IOException during textGUI.updateScreen() while scrolling: " + e.getMessage());
+        }
+    }
 
     public void handleInput() {
         if (screen == null){ // Removed isStarted() check
@@ -215,6 +300,33 @@ public class TUIView {
                         case 's':
                             promptForSearch();
                             break;
+                        case 'k':
+                            promptForKeyLookup();
+                            break;
+                        case 'v':
+                            promptForSort();
+                            break;
+                        case 'g':
+                            promptForGoto();
+                            break;
+                        case 'f':
+                            promptForSortedSeek();
+                            break;
+                        case 't':
+                            appController.cycleRecordType();
+                            break;
+                        case 'o':
+                            appController.showCurrentTypeOnly();
+                            break;
+                        case 'x':
+                            promptForArray();
+                            break;
+                        case 'm':
+                            toggleStats();
+                            break;
+                        case 'r':
+                            appController.showProfile();
+                            break;
                         case 'c':
                             appController.clearSearch();
                             break;
@@ -223,6 +335,14 @@ public class TUIView {
                             appController.quit();
                             break;
                     }
+                } else if (k.getKeyType() == KeyType.ArrowDown || k.getKeyType() == KeyType.ArrowUp) {
+                    scroll(k.getKeyType() == KeyType.ArrowDown ? 1 : -1, 0);
+                    deliverEvent.set(false); // Scrolling, not focus movement
+                    return;
+                } else if (k.getKeyType() == KeyType.ArrowRight || k.getKeyType() == KeyType.ArrowLeft) {
+                    scroll(0, k.getKeyType() == KeyType.ArrowRight ? 1 : -1);
+                    deliverEvent.set(false);
+                    return;
                 } else if (k.getKeyType() == KeyType.Escape) {
                      // Could also trigger quit or a menu
                 }
@@ -240,6 +360,7 @@ public class TUIView {
         // the listeners are the primary way.
         // The `running` flag controlled by 'q' will eventually lead to closing the window.
 
+        long lastRefresh = System.currentTimeMillis();
         while(running.get() && textGUI.getActiveWindow() != null) {
             // Process GUI events. This is essential.
             // If there are no windows, textGUI.processInput() will return false.
@@ -254,6 +375,10 @@ public class TUIView {
             } else {
                 running.set(false); // No windows left, so exit
             }
+            if (System.currentTimeMillis() - lastRefresh >= 250) {
+                appController.refreshBackgroundStatus(); // Indexing progress and background results
+                lastRefresh = System.currentTimeMillis();
+            }
             try {
                 Thread.sleep(10); // Small delay to prevent busy-waiting if processInput is non-blocking
             } catch (InterruptedException e) {
@@ -291,7 +416,7 @@ public class TUIView {
                     if (text == null || text.trim().isEmpty()) {
                         return "Field name cannot be empty.";
                     }
-                    if (fieldNamesForPrompt.isEmpty() || !fieldNamesForPrompt.contains(text.trim())) { // Use local list
+                    if (!appController.isField(text.trim())) { // Also the occurrences of collapsed arrays
                         return "Invalid field. Please choose from list above.";
                     }
                     return null;
@@ -320,6 +445,134 @@ public class TUIView {
         }
     }
 
+    private void promptForKeyLookup() {
+        List<String> indexedFields = appController.getKeyIndexedFields();
+        if (indexedFields.isEmpty()) {
+            MessageDialog.showMessageDialog(textGUI, "Key Lookup", "No key indexes are open. Start the viewer with --key-index=FIELD[,FIELD...].");
+            return;
+        }
+
+        String fieldToLookup = new TextInputDialogBuilder()
+                .setTitle("Key Field")
+                .setDescription("Indexed fields: " + String.join(", ", indexedFields))
+                .setTextBoxSize(new TerminalSize(30, 1))
+                .setInitialContent(indexedFields.get(0))
+                .setValidator((text) -> {
+                    if (text == null || !indexedFields.contains(text.trim())) {
+                        return "Invalid field. Please choose from list above.";
+                    }
+                    return null;
+                })
+                .build()
+                .showDialog(textGUI);
+        if (fieldToLookup == null) {
+            return;
+        }
+
+        String keyValue = new TextInputDialogBuilder()
+                .setTitle("Key Value")
+                .setDescription("Exact value of '" + fieldToLookup.trim() + "' (end with * for a prefix):")
+                .setTextBoxSize(new TerminalSize(30, 1))
+                .setInitialContent("")
+                .setValidator((content) -> null)
+                .build()
+                .showDialog(textGUI);
+        if (keyValue != null && !keyValue.isEmpty()) {
+            appController.performKeyLookup(fieldToLookup.trim(), keyValue);
+        }
+    }
+
+    private void promptForGoto() {
+        String target = new TextInputDialogBuilder()
+                .setTitle("Go To")
+                .setDescription("Record number (e.g. 80000000), page (p1200) or position in the file (42%):")
+                .setTextBoxSize(new TerminalSize(30, 1))
+                .setInitialContent("")
+                .setValidator((content) -> null) // Checked by the controller, which knows the record count
+                .build()
+                .showDialog(textGUI);
+        if (target != null && !target.trim().isEmpty()) {
+            appController.performGoto(target.trim());
+        }
+    }
+
+    private void promptForArray() {
+        String array = new TextInputDialogBuilder()
+                .setTitle("Expand / Collapse Array")
+                .setDescription("OCCURS array to expand or collapse (* for all):")
+                .setTextBoxSize(new TerminalSize(30, 1))
+                .setInitialContent("*")
+                .setValidator((content) -> null) // Checked by the controller, which knows the arrays
+                .build()
+                .showDialog(textGUI);
+        if (array != null && !array.trim().isEmpty()) {
+            appController.toggleArray(array.trim());
+        }
+    }
+
+    private void promptForSort() {
+        if (this.fieldNames == null || this.fieldNames.isEmpty()) {
+            MessageDialog.showMessageDialog(textGUI, "Sort", "No fields available.");
+            return;
+        }
+        String spec = new TextInputDialogBuilder()
+                .setTitle("Sort")
+                .setDescription("Sort by FIELD[:desc],... (e.g. REGION,AMOUNT:desc):")
+                .setTextBoxSize(new TerminalSize(40, 1))
+                .setInitialContent(fieldNames.get(0))
+                .setValidator((text) -> {
+                    if (text == null || text.trim().isEmpty()) {
+                        return "Name at least one field.";
+                    }
+                    for (String item : text.split(",")) {
+                        String field = item.trim().replaceFirst("(?i):(asc|desc)$", "").trim();
+                        if (!appController.isField(field)) {
+                            return "'" + field + "' is not a field of the copybook.";
+                        }
+                    }
+                    return null;
+                })
+                .build()
+                .showDialog(textGUI);
+        if (spec != null) {
+            appController.performSort(spec.trim());
+        }
+    }
+
+    private void promptForSortedSeek() {
+        if (this.fieldNames == null || this.fieldNames.isEmpty()) {
+            MessageDialog.showMessageDialog(textGUI, "Sorted Seek", "No fields available.");
+            return;
+        }
+        String field = new TextInputDialogBuilder()
+                .setTitle("Sorted Field")
+                .setDescription("Field the file is sorted on (ascending):")
+                .setTextBoxSize(new TerminalSize(30, 1))
+                .setInitialContent(fieldNames.get(0))
+                .setValidator((text) -> {
+                    if (text == null || !appController.isField(text.trim())) {
+                        return "Not a field of the copybook.";
+                    }
+                    return null;
+                })
+                .build()
+                .showDialog(textGUI);
+        if (field == null) {
+            return;
+        }
+        String value = new TextInputDialogBuilder()
+                .setTitle("Seek Value")
+                .setDescription("Go to the first record with '" + field.trim() + "' at or after:")
+                .setTextBoxSize(new TerminalSize(30, 1))
+                .setInitialContent("")
+                .setValidator((content) -> null)
+                .build()
+                .showDialog(textGUI);
+        if (value != null && !value.isEmpty()) {
+            appController.performSortedSeek(field.trim(), value);
+        }
+    }
+
     public void close() {
         try {
             if (screen != null) { // Removed isStarted()
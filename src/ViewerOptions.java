@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optional settings given on the command line as {@code --name=value} before the positional
+ * arguments. Anything not set keeps the viewer's original behaviour.
+ */
+public class ViewerOptions {
+
+    private RecordFormat recordFormat = RecordFormat.DEFAULT;
+    private boolean indexCacheEnabled = true;
+    private List<String> keyIndexFields = new ArrayList<>();
+    private int pageCacheMegabytes = PageCache.DEFAULT_BUDGET_MB;
+    private int prefetchPages = PageCache.DEFAULT_PREFETCH_PAGES;
+    private List<String> frozenFields = new ArrayList<>();
+    private ExportFormat exportFormat; // null: run the TUI
+    private boolean profileEnabled;    // Write a ColumnProfiler report instead of running the TUI
+    private String outputPath;
+    private int exportThreads;
+    private List<String> exportArrays; // null: every OCCURS array is exported
+    private String exportType;         // null: see getExportType
+    private boolean columnarCacheEnabled;
+    private List<String> recordTypes = new ArrayList<>();
+
+    /**
+     * Applies a single {@code --name=value} option.
+     *
+     * @throws IllegalArgumentException if the option or its value is not recognised.
+     */
+    public void apply(String option) {
+        int eq = option.indexOf('=');
+        String name = eq < 0 ? option : option.substring(0, eq);
+        String value = eq < 0 ? "" : option.substring(eq + 1);
+        switch (name) {
+            case "--recfm":
+                recordFormat = RecordFormat.fromOption(value);
+                break;
+            case "--no-index-cache":
+                indexCacheEnabled = false;
+                break;
+            case "--key-index":
+                keyIndexFields = splitList(value);
+                break;
+            case "--page-cache-mb":
+                pageCacheMegabytes = parseCount(option, value);
+                break;
+            case "--prefetch":
+                prefetchPages = parseCount(option, value);
+                break;
+            case "--freeze":
+                frozenFields = splitList(value);
+                break;
+            case "--export":
+                exportFormat = ExportFormat.fromOption(value);
+                break;
+            case "--profile":
+                profileEnabled = true;
+                break;
+            case "--out":
+                if (value.trim().isEmpty()) {
+                    throw new IllegalArgumentException("Expected a file name (or - for standard output): " + option);
+                }
+                outputPath = value.trim();
+                break;
+            case "--columnar":
+                columnarCacheEnabled = true;
+                break;
+            case "--record-types":
+                recordTypes = splitList(value);
+                for (String type : recordTypes) {
+                    if (type.indexOf(':') <= 0) {
+                        throw new IllegalArgumentException("Expected NAME:FIELD=VALUE[|VALUE...] or NAME:* for each record type: " + option);
+                    }
+                }
+                break;
+            case "--export-arrays":
+                if (value.trim().equalsIgnoreCase("all")) {
+                    exportArrays = null;
+                } else if (value.trim().equalsIgnoreCase("none")) {
+                    exportArrays = new ArrayList<>();
+                } else {
+                    exportArrays = splitList(value);
+                }
+                break;
+            case "--export-type":
+                if (value.trim().isEmpty()) {
+                    throw new IllegalArgumentException("Expected a record type name: " + option);
+                }
+                exportType = value.trim();
+                break;
+            case "--export-threads":
+                exportThreads = parseCount(option, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + option);
+        }
+    }
+
+    public RecordFormat getRecordFormat() {
+        return recordFormat;
+    }
+
+    public void setRecordFormat(RecordFormat recordFormat) {
+        this.recordFormat = recordFormat;
+    }
+
+    private static int parseCount(String option, String value) {
+        try {
+            int count = Integer.parseInt(value.trim());
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Expected a number of 0 or more: " + option);
+    }
+
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    /** Whether variable-length indexes are saved to and loaded from a {@code .ebvidx} sidecar. */
+    public boolean isIndexCacheEnabled() {
+        return indexCacheEnabled;
+    }
+
+    public void setIndexCacheEnabled(boolean indexCacheEnabled) {
+        this.indexCacheEnabled = indexCacheEnabled;
+    }
+
+    /** Fields to build (or reuse) a {@link KeyIndex} for, from {@code --key-index=F1,F2}. */
+    public List<String> getKeyIndexFields() {
+        return keyIndexFields;
+    }
+
+    public void setKeyIndexFields(List<String> keyIndexFields) {
+        this.keyIndexFields = keyIndexFields;
+    }
+
+    /** Memory budget of the {@link PageCache} in MB, from {@code --page-cache-mb=N}; 0 disables it. */
+    public int getPageCacheMegabytes() {
+        return pageCacheMegabytes;
+    }
+
+    public void setPageCacheMegabytes(int pageCacheMegabytes) {
+        this.pageCacheMegabytes = pageCacheMegabytes;
+    }
+
+    /** Pages read ahead in the direction of travel, from {@code --prefetch=N}; 0 disables prefetching. */
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = prefetchPages;
+    }
+
+    /** Columns kept on the left while scrolling sideways, from {@code --freeze=F1,F2}. */
+    public List<String> getFrozenFields() {
+        return frozenFields;
+    }
+
+    public void setFrozenFields(List<String> frozenFields) {
+        this.frozenFields = frozenFields;
+    }
+
+    /** Format to export to instead of starting the TUI, from {@code --export=csv|jsonl|fixed}; null if not exporting. */
+    public ExportFormat getExportFormat() {
+        return exportFormat;
+    }
+
+    public void setExportFormat(ExportFormat exportFormat) {
+        this.exportFormat = exportFormat;
+    }
+
+    /** Whether to write a {@link ColumnProfiler} report as JSON instead of starting the TUI, from {@code --profile}. */
+    public boolean isProfileEnabled() {
+        return profileEnabled;
+    }
+
+    public void setProfileEnabled(boolean profileEnabled) {
+        this.profileEnabled = profileEnabled;
+    }
+
+    /** Export or profile destination from {@code --out=FILE}; null or "-" for standard output. */
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    /** Export worker threads from {@code --export-threads=N}; 0 (the default) uses every processor. */
+    public int getExportThreads() {
+        return exportThreads;
+    }
+
+    public void setExportThreads(int exportThreads) {
+        this.exportThreads = exportThreads;
+    }
+
+    /**
+     * OCCURS arrays whose occurrences are exported, by element name ("LINE-SKU" for
+     * "LINE-SKU (3)"), from {@code --export-arrays=all|none|NAME,...}; null (the default) for all.
+     */
+    public List<String> getExportArrays() {
+        return exportArrays;
+    }
+
+    public void setExportArrays(List<String> exportArrays) {
+        this.exportArrays = exportArrays;
+    }
+
+    /**
+     * The record type exported with {@code --record-types}, by name, from {@code --export-type=NAME};
+     * null (the default) for every type in JSON Lines and the first type listed in CSV and fixed-width output.
+     */
+    public String getExportType() {
+        return exportType;
+    }
+
+    public void setExportType(String exportType) {
+        this.exportType = exportType;
+    }
+
+    /** Whether pages are read from a decoded {@link ColumnarCache}, built on first use ({@code --columnar}). */
+    public boolean isColumnarCacheEnabled() {
+        return columnarCacheEnabled;
+    }
+
+    public void setColumnarCacheEnabled(boolean columnarCacheEnabled) {
+        this.columnarCacheEnabled = columnarCacheEnabled;
+    }
+
+    /**
+     * Record types of a multi-layout copybook and their discriminator values, from
+     * {@code --record-types=NAME:FIELD=VALUE|VALUE,...}; empty for a single layout. See {@link RecordTypeTable}.
+     */
+    public List<String> getRecordTypes() {
+        return recordTypes;
+    }
+
+    public void setRecordTypes(List<String> recordTypes) {
+        this.recordTypes = recordTypes;
+    }
+}